@@ -122,11 +122,65 @@ public final class GeneralConfig {
     /** */
     public static final String FILE_DELETION_JOB_INTERVAL = "tempFileDeletionJob.interval";
 
+    /** Max total size (bytes) of the application's temporary files, above which harvests wait before downloading more. */
+    public static final String TEMP_SPACE_QUOTA = "tempSpace.quota";
+
+    /** Max time that a harvest waits for the temporary files to fit into {@link #TEMP_SPACE_QUOTA} before proceeding anyway. */
+    public static final String TEMP_SPACE_MAX_WAIT = "tempSpace.maxWait";
+
     /**
      * Property name for property indicating how many rows SPARQL endpoint returns in HTML.
      */
     public static final String SPARQLENDPOINT_MAX_ROWS_COUNT = "sparql.max.rows";
 
+    /** Max number of SPARQL endpoint results kept in the result cache. Zero or less disables the cache. Defaults to 0. */
+    public static final String SPARQL_CACHE_MAX_ENTRIES = "sparqlCache.maxEntries";
+
+    /** Max total size (bytes) of the SPARQL endpoint results kept in the result cache. Defaults to 64 MB. */
+    public static final String SPARQL_CACHE_MAX_BYTES = "sparqlCache.maxBytes";
+
+    /** Max size (bytes) of a single SPARQL endpoint result to be cached, bigger results are not cached. Defaults to 1 MB. */
+    public static final String SPARQL_CACHE_MAX_ENTRY_BYTES = "sparqlCache.maxEntryBytes";
+
+    /** Max time that a SPARQL endpoint result is served from the result cache. Defaults to 10 minutes. */
+    public static final String SPARQL_CACHE_MAX_AGE = "sparqlCache.maxAge";
+
+    /** Number of bytes that the SPARQL endpoint's result writers collect before writing them out. Defaults to 32 KB. */
+    public static final String SPARQL_WRITER_FLUSH_BYTES = "sparqlWriter.flushBytes";
+
+    /** Max number of SPARQL endpoint queries executing at the same time. Zero or less for no limit. Defaults to 8. */
+    public static final String SPARQL_ADMISSION_MAX_CONCURRENT = "sparqlAdmission.maxConcurrentQueries";
+
+    /** Max number of SPARQL endpoint queries waiting for {@link #SPARQL_ADMISSION_MAX_CONCURRENT}. Defaults to 32. */
+    public static final String SPARQL_ADMISSION_MAX_QUEUED = "sparqlAdmission.maxQueuedQueries";
+
+    /** Max time that a SPARQL endpoint query waits for admission before being rejected. Defaults to 30 seconds. */
+    public static final String SPARQL_ADMISSION_MAX_WAIT = "sparqlAdmission.maxWait";
+
+    /** Query time that a SPARQL endpoint client (user or IP address) earns per minute. Zero disables. Defaults to 1 minute. */
+    public static final String SPARQL_ADMISSION_CLIENT_RATE = "sparqlAdmission.clientRate";
+
+    /** Max query time that a SPARQL endpoint client can accumulate. Defaults to 5 minutes. */
+    public static final String SPARQL_ADMISSION_CLIENT_BURST = "sparqlAdmission.clientBurst";
+
+    /** Estimated execution time of SPARQL endpoint queries not executed before. Defaults to 1 second. */
+    public static final String SPARQL_ADMISSION_DEFAULT_COST = "sparqlAdmission.defaultCost";
+
+    /** Comma-separated IP addresses of the proxies whose X-Forwarded-For headers are trusted. Defaults to none. */
+    public static final String SPARQL_ADMISSION_TRUSTED_PROXIES = "sparqlAdmission.trustedProxies";
+
+    /**
+     * Max execution time of a SPARQL endpoint query. Clients can ask for a shorter one with the "timeout" parameter. Zero or
+     * less for no limit. Defaults to 5 minutes.
+     */
+    public static final String SPARQL_QUERY_MAX_TIME = "sparqlQuery.maxTime";
+
+    /**
+     * Hard max time of a SPARQL endpoint query, including the time of streaming its result, never less than
+     * {@link #SPARQL_QUERY_MAX_TIME}. Checked on every write of the result. Zero or less for no limit. Defaults to 30 minutes.
+     */
+    public static final String SPARQL_QUERY_HARD_MAX_TIME = "sparqlQuery.hardMaxTime";
+
     /** */
     public static final String APPLICATION_DISPLAY_NAME = "application.displayName";
 
@@ -154,9 +208,24 @@ public final class GeneralConfig {
     /** Comma-separated list of hours when source deletion background job should be active. */
     public static final String SOURCE_DELETION_JOB_ACTIVE_HOURS = "sourceDeletionJob.activeHours";
 
-    /** Number of sources that the source deletion background job should delete during one run. */
+    /** Number of sources that the source deletion background job deletes together by grouped statements. */
     public static final String SOURCE_DELETION_JOB_BATCH_SIZE = "sourceDeletionJob.batchSize";
 
+    /** Number of threads that the source deletion background job deletes batches of sources with in parallel. */
+    public static final String SOURCE_DELETION_JOB_THREADS = "sourceDeletionJob.threads";
+
+    /** Max time that one run of the source deletion background job keeps draining the deletion queue. */
+    public static final String SOURCE_DELETION_JOB_MAX_RUN_TIME = "sourceDeletionJob.maxRunTime";
+
+    /** Number of redirected sources that the harvest sources cleanup job deletes together. */
+    public static final String SOURCES_CLEANUP_JOB_BATCH_SIZE = "sourcesCleanupJob.batchSize";
+
+    /** Number of threads that the harvest sources cleanup job deletes batches of sources with in parallel. */
+    public static final String SOURCES_CLEANUP_JOB_THREADS = "sourcesCleanupJob.threads";
+
+    /** Target latency of one batch deletion of the harvest sources cleanup job, above which the deletions are paced down. */
+    public static final String SOURCES_CLEANUP_JOB_TARGET_LATENCY = "sourcesCleanupJob.targetLatency";
+
     /** Number of threads to use in multi-threaded RDF loading. Defaults to 1. */
     public static final String RDF_LOADER_THREADS = "harvester.rdfLoaderThreads";
 
@@ -182,6 +251,101 @@ public final class GeneralConfig {
      */
     public static final String HARVESTER_SKIP_XORING_FILESIZE_BYTES_THRESHOLD = "harvester.skipXoring.fileSizeBytesThreshold";
 
+    /** Number of worker threads executing the harvests of the urgent and batch queue in parallel. Defaults to 1. */
+    public static final String HARVESTER_WORKER_THREADS = "harvester.workerThreads";
+
+    /**
+     * Max number of harvests executed concurrently against the same host. The actual limit adapts to the host's responsiveness
+     * within 1 and this. Defaults to 1.
+     */
+    public static final String HARVESTER_MAX_CONCURRENT_HARVESTS_PER_HOST = "harvester.maxConcurrentHarvestsPerHost";
+
+    /** Number of consecutive urgent harvests after which a waiting batch harvest is given its turn. Defaults to 3. */
+    public static final String HARVESTER_URGENT_TO_BATCH_RATIO = "harvester.urgentToBatchRatio";
+
+    /** Max number of harvests downloading their content at the same time. 0 or less means no limit. Defaults to 4. */
+    public static final String HARVESTER_DOWNLOAD_SLOTS = "harvester.pipeline.downloadSlots";
+
+    /** Max number of harvests unpacking/detecting/converting their content at once. 0 or less means no limit. Defaults to 2. */
+    public static final String HARVESTER_PROCESS_SLOTS = "harvester.pipeline.processSlots";
+
+    /** Max number of harvests loading their content into the triple store at once. 0 or less means no limit. Defaults to 2. */
+    public static final String HARVESTER_LOAD_SLOTS = "harvester.pipeline.loadSlots";
+
+    /** Number of triples that the harvester's content loaders flush into the triple store at once. Defaults to 5000. */
+    public static final String HARVESTER_LOAD_BATCH_SIZE = "harvester.loadBatchSize";
+
+    /**
+     * Max size (bytes) of harvested RDF content that is kept in memory instead of a temporary file. Larger content spills over
+     * into a temporary file. Defaults to 4 MB, 0 means always use temporary files.
+     */
+    public static final String HARVESTER_IN_MEMORY_CONTENT_THRESHOLD = "harvester.inMemoryContentThreshold";
+
+    /** Number of threads shared by all harvests for parsing the entries of harvested archive files. Defaults to 2. */
+    public static final String HARVESTER_ARCHIVE_ENTRY_THREADS = "harvester.archiveEntryThreads";
+
+    /**
+     * Max total size (bytes) of the extracted entries of one harvested archive file, or of the unpacked content of one harvested
+     * compressed file. Defaults to 4 GB, zero means no limit.
+     */
+    public static final String HARVESTER_ARCHIVE_MAX_EXTRACTED_BYTES = "harvester.archiveMaxExtractedBytes";
+
+    /**
+     * Maximum number of triples in harvested content that is loaded by difference with the graph's previous content, rather
+     * than via a temporary graph. Zero disables loading by difference. Defaults to 1000000.
+     */
+    public static final String HARVESTER_DIFF_LOADING_MAX_TRIPLES = "harvester.diffLoading.maxTriples";
+
+    /** Number of threads shared by all harvests for executing the harvest queries of remote SPARQL endpoints. Defaults to 4. */
+    public static final String HARVESTER_ENDPOINT_QUERY_THREADS = "harvester.endpointQueryThreads";
+
+    /** Number of solutions per page of CONSTRUCT endpoint harvest queries executed page by page. Zero or less disables paging. */
+    public static final String HARVESTER_ENDPOINT_PAGE_SIZE = "harvester.endpointPageSize";
+
+    /**
+     * Interval at which the in-memory schedule of batch harvests is reloaded from the database, to pick up source changes made
+     * by other writers. Zero disables the in-memory schedule, so that the due sources are queried from the database at every
+     * harvesting job run. Defaults to 60 minutes.
+     */
+    public static final String HARVESTER_SCHEDULE_RELOAD_INTERVAL = "harvester.scheduleReloadInterval";
+
+    /**
+     * Time after which a claim of urgent harvest queue items expires, so that the items can be claimed again. Claimed items
+     * are removed from the queue when their harvests are done, so this matters only when the claimer dies before that.
+     * Defaults to 2 hours.
+     */
+    public static final String HARVESTER_URGENT_HARVEST_LEASE_TIME = "harvester.urgentHarvestLeaseTime";
+
+    /**
+     * Id of this application instance (node) among the ones sharing the same database. Must be unique among them. Defaults to
+     * the host name.
+     */
+    public static final String HARVESTER_NODE_ID = "harvester.nodeId";
+
+    /**
+     * Time after which a node's leases of harvest sources and periodic jobs expire, unless renewed by the node's heartbeat.
+     * Zero disables the leases, i.e. assumes a single node. Defaults to 5 minutes.
+     */
+    public static final String HARVESTER_LEASE_TIME = "harvester.leaseTime";
+
+    /** Max number of requests per minute made to the same host by all harvests together. Zero disables it. Defaults to 120. */
+    public static final String HARVESTER_HOST_REQUESTS_PER_MINUTE = "harvester.hostRequestsPerMinute";
+
+    /**
+     * Response time above which a host is considered slow, so that fewer harvests are executed concurrently against it.
+     * Defaults to 10 seconds.
+     */
+    public static final String HARVESTER_HOST_SLOW_RESPONSE_TIME = "harvester.hostSlowResponseTime";
+
+    /**
+     * Number of consecutive failed requests to a host after which the host is not contacted for a while, see
+     * {@link #HARVESTER_HOST_CIRCUIT_OPEN_TIME}. Zero disables it. Defaults to 5.
+     */
+    public static final String HARVESTER_HOST_FAILURE_THRESHOLD = "harvester.hostFailureThreshold";
+
+    /** Time for which a failing host is not contacted, before a trial request is made to it. Defaults to 10 minutes. */
+    public static final String HARVESTER_HOST_CIRCUIT_OPEN_TIME = "harvester.hostCircuitOpenTime";
+
     /** */
     public static final int SEVERITY_INFO = 1;
     public static final int SEVERITY_CAUTION = 2;
@@ -0,0 +1,80 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.dao;
+
+import java.util.Map;
+
+/**
+ * DAO for the leases by which application instances (nodes) sharing the same database take exclusive charge of harvest sources
+ * and periodic jobs. A lease is identified by a name, held by one node at a time, and expires unless renewed by its holder.
+ *
+ * @author agent
+ */
+public interface HarvestLeaseDAO extends DAO {
+
+    /**
+     * Acquires the lease of the given name for the given node. Succeeds if the lease is not held by anyone, is already held by
+     * the given node (in which case it is renewed), or has expired (in which case it is taken over).
+     *
+     * @param leaseName Name of the lease.
+     * @param nodeId Id of the node.
+     * @param leaseSeconds Number of seconds after which the lease expires unless renewed.
+     * @return True if the lease was acquired, false if it is held by another node.
+     * @throws DAOException If database access error occurs.
+     */
+    boolean acquire(String leaseName, String nodeId, int leaseSeconds) throws DAOException;
+
+    /**
+     * Renews all leases held by the given node, i.e. the node's heartbeat.
+     *
+     * @param nodeId Id of the node.
+     * @param leaseSeconds Number of seconds after which the leases expire unless renewed again.
+     * @return Number of leases renewed.
+     * @throws DAOException If database access error occurs.
+     */
+    int renew(String nodeId, int leaseSeconds) throws DAOException;
+
+    /**
+     * Releases the lease of the given name, if held by the given node.
+     *
+     * @param leaseName Name of the lease.
+     * @param nodeId Id of the node.
+     * @throws DAOException If database access error occurs.
+     */
+    void release(String leaseName, String nodeId) throws DAOException;
+
+    /**
+     * Releases all leases held by the given node.
+     *
+     * @param nodeId Id of the node.
+     * @throws DAOException If database access error occurs.
+     */
+    void releaseAll(String nodeId) throws DAOException;
+
+    /**
+     * Returns the unexpired leases.
+     *
+     * @return Map where keys are lease names and values are ids of the nodes holding them.
+     * @throws DAOException If database access error occurs.
+     */
+    Map<String, String> getLeases() throws DAOException;
+}
@@ -25,6 +25,7 @@ import eionet.cr.dto.HarvestSourceDTO;
 import eionet.cr.dto.ObjectDTO;
 import eionet.cr.dto.UrlAuthenticationDTO;
 import eionet.cr.harvest.load.ContentLoader;
+import eionet.cr.harvest.load.ContentStream;
 import eionet.cr.harvest.statistics.dto.HarvestedUrlCountDTO;
 import eionet.cr.util.Pair;
 import eionet.cr.util.SortingRequest;
@@ -310,6 +311,19 @@ public interface HarvestSourceDAO extends DAO {
      */
     int loadContent(Map<File, ContentLoader> filesAndLoaders, String graphUri) throws DAOException;
 
+    /**
+     * Load the content given as a collection of content streams (each with its own loader), into the given target graph.
+     *
+     * @param contentStreams
+     *            The given content streams.
+     * @param graphUri
+     *            The target graph URI.
+     * @return Total number of loaded triples.
+     * @throws DAOException
+     *             All exceptions are wrapped into this one.
+     */
+    int loadContent(Collection<? extends ContentStream> contentStreams, String graphUri) throws DAOException;
+
     /**
      * Returns metadata from /harvester context.
      *
@@ -447,6 +461,18 @@ public interface HarvestSourceDAO extends DAO {
      */
     void removeHarvestSources(Collection<String> sourceUrls, boolean harvesterContextOnly) throws DAOException;
 
+    /**
+     * Removes harvest sources denoted by the given URLs, with the same effect as {@link #removeHarvestSources(Collection, boolean)}
+     * with the flag false. But rather than executing a few statements per source, this executes a few statements for all of
+     * them together, so it is meant for removing many sources at once, e.g. the ones in the deletion queue.
+     *
+     * @param sourceUrls
+     *            The given URLs.
+     * @throws DAOException
+     *             Any sort of error will be wrapped into this one.
+     */
+    void removeHarvestSourcesInBulk(Collection<String> sourceUrls) throws DAOException;
+
     /**
      *
      * @param substring
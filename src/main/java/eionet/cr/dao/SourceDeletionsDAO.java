@@ -59,4 +59,15 @@ public interface SourceDeletionsDAO extends DAO {
      * @throws DAOException If database access error occurs.
      */
     String pickForDeletion() throws DAOException;
+
+    /**
+     * Picks the given number of sources from the deletion queue, skipping the given number of first ones (the queue operates in
+     * FIFO principal). Returns the picked sources' URLs.
+     *
+     * @param offset Number of first sources in the queue to skip.
+     * @param limit Max number of sources to pick.
+     * @return The picked sources' URLs, in the queue's order.
+     * @throws DAOException If database access error occurs.
+     */
+    List<String> pickForDeletion(int offset, int limit) throws DAOException;
 }
@@ -65,6 +65,34 @@ public interface UrgentHarvestQueueDAO extends DAO {
      */
     UrgentHarvestQueueItemDTO poll() throws DAOException;
 
+    /**
+     * Claims the top-most items of the urgent harvest queue that are not claimed yet. The claimed items stay in the queue
+     * until removed by {@link #removeClaimed(String)}, but are not claimed by anyone else until the claim expires.
+     *
+     * @param limit Maximum number of items to claim.
+     * @param leaseToken Unique token identifying the claim.
+     * @param leaseSeconds Number of seconds after which the claim expires.
+     * @return The claimed items, in the order of the queue.
+     * @throws DAOException Any exception that happens within this method is wrapped into this one.
+     */
+    List<UrgentHarvestQueueItemDTO> claim(int limit, String leaseToken, int leaseSeconds) throws DAOException;
+
+    /**
+     * Removes the urgent harvest queue items claimed with the given token.
+     *
+     * @param leaseToken The token of the claim.
+     * @throws DAOException Any exception that happens within this method is wrapped into this one.
+     */
+    void removeClaimed(String leaseToken) throws DAOException;
+
+    /**
+     * Releases the expired claims of urgent harvest queue items, so that the items can be claimed again.
+     *
+     * @return Number of items released.
+     * @throws DAOException Any exception that happens within this method is wrapped into this one.
+     */
+    int releaseExpiredClaims() throws DAOException;
+
     /**
      * Return true if the given URL is in queue.
      *
@@ -59,6 +59,7 @@ public class HarvestSourceDTOReader extends SQLResultSetBaseReader<HarvestSource
         harvestSourceDTO.setOwner(rs.getString("SOURCE_OWNER"));
         harvestSourceDTO.setMediaType(rs.getString("MEDIA_TYPE"));
         harvestSourceDTO.setCsvTsvUrl(rs.getString("CSV_TSV_URL"));
+        harvestSourceDTO.setContentDigest(rs.getString("CONTENT_DIGEST"));
 
         String isPrioritySourceStr = rs.getString("PRIORITY_SOURCE");
         if (StringUtils.isNotBlank(isPrioritySourceStr)) {
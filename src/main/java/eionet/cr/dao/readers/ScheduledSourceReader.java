@@ -0,0 +1,49 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.dao.readers;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import eionet.cr.harvest.scheduled.HarvestSchedule.ScheduledSource;
+import eionet.cr.util.sql.SQLResultSetBaseReader;
+
+/**
+ * Reads the harvest sources' schedule-related columns into {@link ScheduledSource} objects.
+ *
+ * @author agent
+ */
+public class ScheduledSourceReader extends SQLResultSetBaseReader<ScheduledSource> {
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.util.sql.ResultSetBaseReader#readRow(java.sql.ResultSet)
+     */
+    @Override
+    public void readRow(ResultSet rs) throws SQLException, ResultSetReaderException {
+
+        resultList.add(new ScheduledSource(Integer.valueOf(rs.getInt("HARVEST_SOURCE_ID")), rs.getLong("URL_HASH"), rs
+                .getTimestamp("TIME_CREATED"), rs.getTimestamp("LAST_HARVEST"), rs.getInt("INTERVAL_MINUTES"), rs
+                .getInt("COUNT_UNAVAIL"), "Y".equals(rs.getString("IS_ONLINE_CSV_TSV"))));
+    }
+}
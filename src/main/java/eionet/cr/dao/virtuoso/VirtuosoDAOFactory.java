@@ -12,6 +12,7 @@ import eionet.cr.dao.FolderDAO;
 import eionet.cr.dao.HarvestDAO;
 import eionet.cr.dao.HarvestMessageDAO;
 import eionet.cr.dao.HarvestScriptDAO;
+import eionet.cr.dao.HarvestLeaseDAO;
 import eionet.cr.dao.HarvestSourceDAO;
 import eionet.cr.dao.HelperDAO;
 import eionet.cr.dao.ReviewsDAO;
@@ -70,6 +71,7 @@ public final class VirtuosoDAOFactory extends DAOFactory {
         registeredDaos.put(EndpointHarvestQueryDAO.class, VirtuosoEndpointHarvestQueryDAO.class);
         registeredDaos.put(SourceDeletionsDAO.class, VirtuosoSourceDeletionsDAO.class);
         registeredDaos.put(ExternalServiceDAO.class, VirtuosoExternalServiceDAO.class);
+        registeredDaos.put(HarvestLeaseDAO.class, VirtuosoHarvestLeaseDAO.class);
     }
 
     /**
@@ -0,0 +1,155 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.dao.virtuoso;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import eionet.cr.dao.DAOException;
+import eionet.cr.dao.HarvestLeaseDAO;
+import eionet.cr.util.Pair;
+import eionet.cr.util.sql.PairReader;
+import eionet.cr.util.sql.SQLUtil;
+
+/**
+ * Virtuoso implementation of {@link HarvestLeaseDAO}.
+ *
+ * @author agent
+ */
+public class VirtuosoHarvestLeaseDAO extends VirtuosoBaseDAO implements HarvestLeaseDAO {
+
+    /** Takes over an expired lease, or renews the node's own lease. */
+    private static final String TAKE_OVER_SQL = "update HARVEST_LEASE set NODE_ID=?, ACQUIRED=now(),"
+            + " EXPIRES=dateadd('second', ?, now()) where LEASE_NAME=? and (NODE_ID=? or EXPIRES < now())";
+
+    /** Creates a lease that does not exist yet. Does nothing if another node has just created it. */
+    private static final String INSERT_SQL = "insert soft HARVEST_LEASE (LEASE_NAME, NODE_ID, ACQUIRED, EXPIRES)"
+            + " values (?, ?, now(), dateadd('second', ?, now()))";
+
+    /** */
+    private static final String GET_HOLDER_SQL = "select NODE_ID from HARVEST_LEASE where LEASE_NAME=?";
+
+    /** */
+    private static final String RENEW_SQL = "update HARVEST_LEASE set EXPIRES=dateadd('second', ?, now()) where NODE_ID=?";
+
+    /** */
+    private static final String RELEASE_SQL = "delete from HARVEST_LEASE where LEASE_NAME=? and NODE_ID=?";
+
+    /** */
+    private static final String RELEASE_ALL_SQL = "delete from HARVEST_LEASE where NODE_ID=?";
+
+    /** */
+    private static final String GET_LEASES_SQL = "select LEASE_NAME as " + PairReader.LEFTCOL + ", NODE_ID as "
+            + PairReader.RIGHTCOL + " from HARVEST_LEASE where EXPIRES >= now() order by LEASE_NAME";
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.dao.HarvestLeaseDAO#acquire(java.lang.String, java.lang.String, int)
+     */
+    @Override
+    public boolean acquire(String leaseName, String nodeId, int leaseSeconds) throws DAOException {
+
+        if (StringUtils.isBlank(leaseName) || StringUtils.isBlank(nodeId)) {
+            throw new IllegalArgumentException("Lease name and node id must not be blank!");
+        }
+
+        Connection conn = null;
+        try {
+            conn = getSQLConnection();
+            Integer seconds = Integer.valueOf(leaseSeconds);
+            if (SQLUtil.executeUpdate(TAKE_OVER_SQL, Arrays.asList(nodeId, seconds, leaseName, nodeId), conn) > 0) {
+                return true;
+            }
+
+            // The lease does not exist or is held by another node. The primary key ensures only one node can create it.
+            SQLUtil.executeUpdate(INSERT_SQL, Arrays.asList(leaseName, nodeId, seconds), conn);
+            Object holder = SQLUtil.executeSingleReturnValueQuery(GET_HOLDER_SQL, Arrays.asList(leaseName), conn);
+            return holder != null && nodeId.equals(holder.toString());
+        } catch (Exception e) {
+            throw new DAOException(e.getMessage(), e);
+        } finally {
+            SQLUtil.close(conn);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.dao.HarvestLeaseDAO#renew(java.lang.String, int)
+     */
+    @Override
+    public int renew(String nodeId, int leaseSeconds) throws DAOException {
+
+        Connection conn = null;
+        try {
+            conn = getSQLConnection();
+            return SQLUtil.executeUpdate(RENEW_SQL, Arrays.asList(Integer.valueOf(leaseSeconds), nodeId), conn);
+        } catch (Exception e) {
+            throw new DAOException(e.getMessage(), e);
+        } finally {
+            SQLUtil.close(conn);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.dao.HarvestLeaseDAO#release(java.lang.String, java.lang.String)
+     */
+    @Override
+    public void release(String leaseName, String nodeId) throws DAOException {
+        executeSQL(RELEASE_SQL, Arrays.asList(leaseName, nodeId));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.dao.HarvestLeaseDAO#releaseAll(java.lang.String)
+     */
+    @Override
+    public void releaseAll(String nodeId) throws DAOException {
+        executeSQL(RELEASE_ALL_SQL, Arrays.asList(nodeId));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.dao.HarvestLeaseDAO#getLeases()
+     */
+    @Override
+    public Map<String, String> getLeases() throws DAOException {
+
+        List<Pair<String, String>> pairs = executeSQL(GET_LEASES_SQL, Collections.emptyList(), new PairReader<String, String>());
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        for (Pair<String, String> pair : pairs) {
+            result.put(pair.getLeft(), pair.getRight());
+        }
+        return result;
+    }
+}
@@ -4,20 +4,33 @@ import eionet.cr.common.CRException;
 import eionet.cr.common.Predicates;
 import eionet.cr.config.GeneralConfig;
 import eionet.cr.dao.DAOException;
+import eionet.cr.dao.DAOFactory;
+import eionet.cr.dao.HarvestScriptDAO;
 import eionet.cr.dao.HarvestSourceDAO;
 import eionet.cr.dao.readers.HarvestSourceDTOReader;
 import eionet.cr.dao.readers.NewSourcesReaderWriter;
+import eionet.cr.dao.readers.ScheduledSourceReader;
 import eionet.cr.dao.readers.UrlAuthenticationDTOReader;
+import eionet.cr.dto.HarvestScriptDTO.Phase;
+import eionet.cr.dto.HarvestScriptDTO.TargetType;
 import eionet.cr.dto.HarvestSourceDTO;
 import eionet.cr.dto.ObjectDTO;
 import eionet.cr.dto.SubjectDTO;
 import eionet.cr.dto.UrlAuthenticationDTO;
+import eionet.cr.dto.enums.HarvestScriptType;
 import eionet.cr.harvest.BaseHarvest;
 import eionet.cr.harvest.load.ContentLoader;
+import eionet.cr.harvest.load.ContentStream;
+import eionet.cr.harvest.load.FileContentStream;
+import eionet.cr.harvest.load.GraphDiff;
 import eionet.cr.harvest.load.RDFFormatLoader;
+import eionet.cr.harvest.load.TripleFingerprint;
+import eionet.cr.harvest.scheduled.HarvestSchedule;
+import eionet.cr.harvest.scheduled.HarvestSchedule.ScheduledSource;
 import eionet.cr.harvest.statistics.dto.HarvestedUrlCountDTO;
 import eionet.cr.util.*;
 import eionet.cr.util.pagination.PagingRequest;
+import eionet.cr.util.sesame.SPARQLResultCache;
 import eionet.cr.util.sesame.SesameUtil;
 import eionet.cr.util.sql.SQLUtil;
 import eionet.cr.util.sql.SingleObjectReader;
@@ -39,7 +52,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.*;
@@ -319,10 +331,12 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
     }
 
     /**
-     * Calculation of number of sources needed to be harvested in VirtuosoSQL syntax.
+     * Calculation of number of sources needed to be harvested in VirtuosoSQL syntax. Sources unavailable too many times are not
+     * batch-harvested, unless online CSV/TSV files, see {@link HarvestSchedule#countDue(long)}.
      */
     private static final String URGENCY_SOURCES_COUNT = "select count(*) from HARVEST_SOURCE where"
-            + " INTERVAL_MINUTES > 0 AND -datediff('second', now(), coalesce(LAST_HARVEST,"
+            + " INTERVAL_MINUTES > 0 AND (COUNT_UNAVAIL < 5 OR IS_ONLINE_CSV_TSV = 'Y')"
+            + " AND -datediff('second', now(), coalesce(LAST_HARVEST,"
             + " dateadd('minute', -INTERVAL_MINUTES, TIME_CREATED))) / (INTERVAL_MINUTES*60) >= 1.0";
 
     /*
@@ -333,6 +347,10 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
     @Override
     public Long getUrgencySourcesCount() throws DAOException {
 
+        if (isHarvestScheduleLoaded()) {
+            return Long.valueOf(HarvestSchedule.countDue(System.currentTimeMillis()));
+        }
+
         Connection conn = null;
         try {
             conn = getSQLConnection();
@@ -430,6 +448,7 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
 
             insertAndUpdate.executeBatch();
             updateLastHarvest.executeBatch();
+            HarvestSchedule.invalidate();
 
             LOGGER.info("Added/updated a total of " + counter + " bulk sources from Sparql endpoint query.");
 
@@ -503,7 +522,10 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
             ps = conn.prepareStatement("select identity_value()");
             ResultSet rs = ps.executeQuery();
             if (rs.next()) {
-                return rs.getInt(1);
+                int sourceId = rs.getInt(1);
+                HarvestSchedule.addIfAbsent(new ScheduledSource(sourceId, urlHash, new java.util.Date(), null, source
+                        .getIntervalMinutes(), 0, source.isOnlineCsvTsv()));
+                return sourceId;
             } else {
                 throw new CRException("No auto-generated keys returned!");
             }
@@ -545,6 +567,25 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
     /** delete post harvest scripts of the source. */
     private static final String DELETE_HARVEST_SCRIPTS = "DELETE FROM post_harvest_script WHERE target_source_url = ?";
 
+    /** Bulk version of {@link #DELETE_HARVEST_SOURCES}, "&lt;params&gt;" to be replaced by the parameter placeholders. */
+    private static final String BULK_DELETE_HARVEST_SOURCES = "delete from HARVEST_SOURCE where URL_HASH in (<params>)";
+
+    /** Bulk version of {@link #DELETE_FROM_URGENT_HARVEST_QUEUE}. */
+    private static final String BULK_DELETE_FROM_URGENT_HARVEST_QUEUE =
+            "delete from URGENT_HARVEST_QUEUE where URL in (<params>)";
+
+    /** Bulk version of {@link #DELETE_HARVEST_SCRIPTS}. */
+    private static final String BULK_DELETE_HARVEST_SCRIPTS =
+            "DELETE FROM post_harvest_script WHERE target_source_url in (<params>)";
+
+    /** SPARUL for deleting the triples of the given subjects from all graphs, "&lt;subjects&gt;" to be replaced by the IRIs. */
+    private static final String BULK_DELETE_RESOURCES_SPARUL =
+            "SPARQL DELETE {GRAPH ?g {?s ?p ?o}} WHERE {GRAPH ?g {?s ?p ?o filter (?s in (<subjects>))}}";
+
+    /** SQL for clearing the given graphs in one go, "&lt;params&gt;" to be replaced by the graph IRIs' id lookups. */
+    private static final String BULK_CLEAR_GRAPHS_SQL =
+            "DELETE FROM DB.DBA.RDF_QUAD TABLE OPTION (index RDF_QUAD_GS) WHERE G in (<params>)";
+
     /**
      * Removes HARVEST_SOURCE records matching the given URLs + all related records in other tables.
      *
@@ -604,12 +645,21 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
             harvestScriptsDeleteStatement.executeBatch();
             LOGGER.debug("Deleting requested sources from harvest source table.");
             sourcesDeleteStatement.executeBatch();
+            for (String sourceUrl : sourceUrls) {
+                HarvestSchedule.remove(Hashes.spoHash(sourceUrl));
+            }
             LOGGER.debug("Deleting requested sources from urgent harvest queue.");
             urgentQueueDeleteStatement.executeBatch();
             if (GeneralConfig.isUseInferencing()) {
                 LOGGER.debug("Deleting requested sources from inference ruleset.");
                 rulesetDeleteStatement.executeBatch();
             }
+            LOGGER.debug("Deleting requested sources' graph fingerprints.");
+            List<Long> urlHashes = new ArrayList<Long>();
+            for (String sourceUrl : sourceUrls) {
+                urlHashes.add(Long.valueOf(Hashes.spoHash(sourceUrl)));
+            }
+            deleteFingerprints(conn, urlHashes);
         } finally {
             SQLUtil.close(sourcesDeleteStatement);
             SQLUtil.close(urgentQueueDeleteStatement);
@@ -749,6 +799,10 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
         try {
             conn = getSQLConnection();
             SQLUtil.executeUpdate(EDIT_SOURCE_SQL, values, conn);
+            if (source.getSourceId() != null) {
+                HarvestSchedule.update(source.getSourceId(), (Long) values.get(1),
+                        source.getIntervalMinutes() == null ? 0 : source.getIntervalMinutes());
+            }
         } catch (Exception e) {
             throw new DAOException(e.getMessage(), e);
         } finally {
@@ -778,7 +832,7 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
             + "url, harvest_source_id, "
             + "url_hash, emails, time_created, statements, count_unavail,"
             + "cast(\"last_harvest\" as varchar) as last_harvest,interval_minutes,source, last_modified,"
-            + "gen_time,last_harvest_failed,priority_source,source_owner,permanent_error,media_type,last_harvest_id,is_sparql_endpoint,delete_requested,delete_flag, is_online_csv_tsv, csv_tsv_url "
+            + "gen_time,last_harvest_failed,priority_source,source_owner,permanent_error,media_type,last_harvest_id,is_sparql_endpoint,delete_requested,delete_flag, is_online_csv_tsv, csv_tsv_url, content_digest "
             + " from HARVEST_SOURCE where URL_HASH=?";
 
     /*
@@ -801,7 +855,7 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
             "from HARVEST_SOURCE where COUNT_UNAVAIL < 5 and INTERVAL_MINUTES > 0 " +
             "and <seconds_since_last_harvest> >= <harvest_interval_seconds> " +
             "and ( IS_ONLINE_CSV_TSV IS NULL or IS_ONLINE_CSV_TSV = 'N' ) " +
-            "ORDER BY urgency DESC";
+            "ORDER BY <seconds_since_last_harvest> - <harvest_interval_seconds> DESC";
 
     /** */
     private static final String SECONDS_SINCE_LAST_HARVEST_EXPR = "cast("
@@ -816,7 +870,7 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
             "from HARVEST_SOURCE where IS_ONLINE_CSV_TSV = 'Y' " +
             "and INTERVAL_MINUTES > 0 " +
             "and <seconds_since_last_harvest> >= <harvest_interval_seconds> " +
-            "ORDER BY urgency DESC";
+            "ORDER BY <seconds_since_last_harvest> - <harvest_interval_seconds> DESC";
 
     /*
      * (non-Javadoc)
@@ -830,6 +884,10 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
             throw new IllegalArgumentException("Limit must be >=1 ");
         }
 
+        if (isHarvestScheduleLoaded()) {
+            return getDueSources(false, limit);
+        }
+
         String query = GET_NEXT_SCHEDULED_SOURCES_SQL.replace("<limit>", String.valueOf(limit));
         query = query.replace("<seconds_since_last_harvest>", SECONDS_SINCE_LAST_HARVEST_EXPR);
         query = query.replace("<harvest_interval_seconds>", HARVEST_INTERVAL_SECONDS_EXPR);
@@ -850,12 +908,96 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
             throw new IllegalArgumentException("Limit must be >=1");
         }
 
+        if (isHarvestScheduleLoaded()) {
+            return getDueSources(true, limit);
+        }
+
         String query = GET_NEXT_SCHEDULED_ONLINE_SOURCES_SQL.replace("<limit>", String.valueOf(limit));
         query = query.replace("<seconds_since_last_harvest>", SECONDS_SINCE_LAST_HARVEST_EXPR);
         query = query.replace("<harvest_interval_seconds>", HARVEST_INTERVAL_SECONDS_EXPR);
         return executeSQL(query, Collections.EMPTY_LIST, new HarvestSourceDTOReader());
     }
 
+    /** Default interval of reloading the in-memory harvest schedule, in milliseconds. */
+    private static final int DEFAULT_HARVEST_SCHEDULE_RELOAD_INTERVAL = 60 * 60 * 1000;
+
+    /** */
+    private static final String GET_SCHEDULED_SOURCES_SQL = "select HARVEST_SOURCE_ID, URL_HASH, TIME_CREATED, LAST_HARVEST,"
+            + " INTERVAL_MINUTES, COUNT_UNAVAIL, IS_ONLINE_CSV_TSV from HARVEST_SOURCE";
+
+    /** */
+    private static final String GET_SOURCES_BY_URL_HASHES_SQL = "select * from HARVEST_SOURCE where URL_HASH in (<url_hashes>)";
+
+    /**
+     * Makes sure the in-memory harvest schedule is loaded, if it is enabled. It is (re)loaded from the database if not loaded
+     * yet, or if the configured reload interval has passed since the last load.
+     *
+     * @return True if the schedule is enabled and loaded, false if disabled.
+     * @throws DAOException If loading fails.
+     */
+    private boolean isHarvestScheduleLoaded() throws DAOException {
+
+        int reloadInterval =
+                GeneralConfig.getTimePropertyMilliseconds(GeneralConfig.HARVESTER_SCHEDULE_RELOAD_INTERVAL,
+                        DEFAULT_HARVEST_SCHEDULE_RELOAD_INTERVAL);
+        if (reloadInterval <= 0) {
+            return false;
+        }
+
+        long loadTime = HarvestSchedule.getLoadTime();
+        if (loadTime == 0L || System.currentTimeMillis() - loadTime >= reloadInterval) {
+
+            long started = System.currentTimeMillis();
+            HarvestSchedule.load(executeSQL(GET_SCHEDULED_SOURCES_SQL, Collections.EMPTY_LIST, new ScheduledSourceReader()));
+            LOGGER.debug("Loaded harvest schedule of " + HarvestSchedule.size() + " sources in "
+                    + (System.currentTimeMillis() - started) + " ms");
+        }
+        return true;
+    }
+
+    /**
+     * Returns the sources that the in-memory harvest schedule says are due now, the ones due for the longest first. The sources
+     * are read fresh from the database, and re-scheduled by what was read, so those not due any more (e.g. harvested by another
+     * application instance meanwhile) are left out.
+     *
+     * @param onlineCsvTsv If true, only online CSV/TSV sources are returned, otherwise only other sources.
+     * @param limit Maximum number of sources to return.
+     * @return The sources.
+     * @throws DAOException If database access fails.
+     */
+    private List<HarvestSourceDTO> getDueSources(boolean onlineCsvTsv, int limit) throws DAOException {
+
+        long now = System.currentTimeMillis();
+        List<Long> urlHashes = HarvestSchedule.getDue(onlineCsvTsv, now, limit);
+        List<HarvestSourceDTO> result = new ArrayList<HarvestSourceDTO>();
+        if (urlHashes.isEmpty()) {
+            return result;
+        }
+
+        String query = GET_SOURCES_BY_URL_HASHES_SQL.replace("<url_hashes>", StringUtils.join(urlHashes, ","));
+        Map<Long, HarvestSourceDTO> sourcesByUrlHash = new HashMap<Long, HarvestSourceDTO>();
+        for (HarvestSourceDTO source : executeSQL(query, Collections.EMPTY_LIST, new HarvestSourceDTOReader())) {
+            sourcesByUrlHash.put(source.getUrlHash(), source);
+        }
+
+        for (Long urlHash : urlHashes) {
+
+            HarvestSourceDTO source = sourcesByUrlHash.get(urlHash);
+            if (source == null) {
+                HarvestSchedule.remove(urlHash);
+                continue;
+            }
+
+            int countUnavail = source.getCountUnavail() == null ? 0 : source.getCountUnavail();
+            HarvestSchedule.update(urlHash, source.getLastHarvest(),
+                    source.getIntervalMinutes() == null ? 0 : source.getIntervalMinutes(), countUnavail);
+            if (HarvestSchedule.isDue(urlHash, now) && (onlineCsvTsv || countUnavail < HarvestSchedule.MAX_COUNT_UNAVAIL)) {
+                result.add(source);
+            }
+        }
+        return result;
+    }
+
     /** */
     private static final String INCREASE_UNAVAIL_COUNT =
             "update HARVEST_SOURCE set COUNT_UNAVAIL=(COUNT_UNAVAIL+1) where URL_HASH=?";
@@ -873,6 +1015,7 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
             ArrayList<Object> values = new ArrayList<Object>();
             values.add(Long.valueOf(Hashes.spoHash(sourceUrl)));
             SQLUtil.executeUpdate(INCREASE_UNAVAIL_COUNT, values, conn);
+            HarvestSchedule.increaseUnavailableCount(Hashes.spoHash(sourceUrl));
         } catch (Exception e) {
             throw new DAOException(e.getMessage(), e);
         } finally {
@@ -990,11 +1133,14 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
 
     }
 
+    /** */
+    private static final String RESET_CONTENT_DIGEST_SQL = "update HARVEST_SOURCE set CONTENT_DIGEST=NULL where URL_HASH=?";
+
     /** */
     private static final String UPDATE_SOURCE_HARVEST_FINISHED_SQL =
             "update HARVEST_SOURCE set EMAILS=?, STATEMENTS=?, COUNT_UNAVAIL=?, LAST_HARVEST=?, INTERVAL_MINUTES=?,"
-                    + " LAST_HARVEST_FAILED=?, PRIORITY_SOURCE=?, SOURCE_OWNER=?, PERMANENT_ERROR=?, LAST_HARVEST_ID=?, LAST_MODIFIED=? "
-                    + "where URL_HASH=?";
+                    + " LAST_HARVEST_FAILED=?, PRIORITY_SOURCE=?, SOURCE_OWNER=?, PERMANENT_ERROR=?, LAST_HARVEST_ID=?, LAST_MODIFIED=?,"
+                    + " CONTENT_DIGEST=? where URL_HASH=?";
 
     /*
      * (non-Javadoc)
@@ -1022,12 +1168,16 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
         values.add(YesNoBoolean.format(sourceDTO.isPermanentError()));
         values.add(sourceDTO.getLastHarvestId());
         values.add(sourceDTO.getLastModified());
+        values.add(sourceDTO.getContentDigest());
         values.add(Hashes.spoHash(sourceDTO.getUrl()));
 
         Connection conn = null;
         try {
             conn = getSQLConnection();
             SQLUtil.executeUpdate(UPDATE_SOURCE_HARVEST_FINISHED_SQL, values, conn);
+            HarvestSchedule.update(Hashes.spoHash(sourceDTO.getUrl()), sourceDTO.getLastHarvest(),
+                    sourceDTO.getIntervalMinutes() == null ? 0 : sourceDTO.getIntervalMinutes(),
+                    sourceDTO.getCountUnavail() == null ? 0 : sourceDTO.getCountUnavail());
         } catch (Exception e) {
             throw new DAOException(e.getMessage(), e);
         } finally {
@@ -1092,7 +1242,86 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
         } finally {
             SesameUtil.close(repoConn);
             SQLUtil.close(sqlConn);
+
+            SPARQLResultCache.invalidate(GeneralConfig.HARVESTER_URI);
+            for (String sourceUrl : sourceUrls) {
+                SPARQLResultCache.invalidate(sourceUrl);
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.dao.HarvestSourceDAO#removeHarvestSourcesInBulk(java.util.Collection)
+     */
+    @Override
+    public void removeHarvestSourcesInBulk(Collection<String> sourceUrls) throws DAOException {
+
+        if (sourceUrls == null || sourceUrls.isEmpty()) {
+            return;
+        }
+
+        List<String> urls = new ArrayList<String>(new LinkedHashSet<String>(sourceUrls));
+        List<Long> urlHashes = new ArrayList<Long>();
+        StringBuilder subjects = new StringBuilder();
+        for (String url : urls) {
+            urlHashes.add(Long.valueOf(Hashes.spoHash(url)));
+            subjects.append(subjects.length() > 0 ? ", " : "").append('<').append(URLUtil.escapeIRI(url)).append('>');
+        }
+        String params = placeholders("?", urls.size());
+
+        Connection conn = null;
+        try {
+            conn = getSQLConnection();
+
+            LOGGER.debug("Deleting the triples of " + urls.size() + " sources from all graphs");
+            SQLUtil.executeUpdate(StringUtils.replace(BULK_DELETE_RESOURCES_SPARUL, "<subjects>", subjects.toString()), conn);
+
+            LOGGER.debug("Deleting " + urls.size() + " sources from harvest scripts, harvest sources, urgent harvest queue and fingerprints");
+            SQLUtil.executeUpdate(StringUtils.replace(BULK_DELETE_HARVEST_SCRIPTS, "<params>", params), urls, conn);
+            SQLUtil.executeUpdate(StringUtils.replace(BULK_DELETE_HARVEST_SOURCES, "<params>", params), urlHashes, conn);
+            for (Long urlHash : urlHashes) {
+                HarvestSchedule.remove(urlHash.longValue());
+            }
+            SQLUtil.executeUpdate(StringUtils.replace(BULK_DELETE_FROM_URGENT_HARVEST_QUEUE, "<params>", params), urls, conn);
+            deleteFingerprints(conn, urlHashes);
+            if (GeneralConfig.isUseInferencing()) {
+                String ruleSetName = GeneralConfig.getRequiredProperty(GeneralConfig.VIRTUOSO_CR_RULESET_NAME);
+                for (String url : urls) {
+                    SQLUtil.executeUpdate(DELETE_FROM_RULESET, Arrays.asList(ruleSetName, url), conn);
+                }
+            }
+
+            LOGGER.debug("Clearing the graphs of " + urls.size() + " sources");
+            String graphParams = placeholders("iri_to_id(?, 0)", urls.size());
+            SQLUtil.executeUpdate(StringUtils.replace(BULK_CLEAR_GRAPHS_SQL, "<params>", graphParams), urls, conn);
+        } catch (SQLException e) {
+            throw new DAOException("SQLException when deleting sources", e);
+        } finally {
+            SQLUtil.close(conn);
+
+            SPARQLResultCache.invalidate(GeneralConfig.HARVESTER_URI);
+            for (String url : urls) {
+                SPARQLResultCache.invalidate(url);
+            }
+        }
+    }
+
+    /**
+     * Returns the given placeholder repeated the given number of times, separated by commas.
+     *
+     * @param placeholder The placeholder.
+     * @param count The number of times.
+     * @return The placeholders.
+     */
+    private static String placeholders(String placeholder, int count) {
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i > 0 ? ", " : "").append(placeholder);
         }
+        return sb.toString();
     }
 
     /*
@@ -1111,10 +1340,16 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
         try {
             sqlConn = getSQLConnection();
             SQLUtil.executeUpdate("sparql clear graph <" + graphUri + ">", sqlConn);
+            deleteFingerprint(sqlConn, graphUri);
+
+            // The content of the source's last harvest is not in the graph any more, so it must not be skipped as unchanged.
+            SQLUtil.executeUpdate(RESET_CONTENT_DIGEST_SQL, Collections.singletonList(Long.valueOf(Hashes.spoHash(graphUri))),
+                    sqlConn);
         } catch (SQLException e) {
             throw new DAOException("Exception when clearing graph: e", e);
         } finally {
             SQLUtil.close(sqlConn);
+            SPARQLResultCache.invalidate(graphUri);
         }
     }
 
@@ -1609,6 +1844,21 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
     @Override
     public int loadContent(Map<File, ContentLoader> filesAndLoaders, String graphUri) throws DAOException {
 
+        List<ContentStream> contentStreams = new ArrayList<ContentStream>();
+        for (Entry<File, ContentLoader> entry : filesAndLoaders.entrySet()) {
+            contentStreams.add(new FileContentStream(entry.getKey(), entry.getValue()));
+        }
+        return loadContent(contentStreams, graphUri);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.dao.HarvestSourceDAO#loadContent(java.util.Collection, java.lang.String)
+     */
+    @Override
+    public int loadContent(Collection<? extends ContentStream> contentStreams, String graphUri) throws DAOException {
+
         LOGGER.debug(BaseHarvest.loggerMsg("Starting content loading ...", graphUri));
 
         // Prepare connections (repository and SQL).
@@ -1634,7 +1884,7 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
         int currentTriplesCount = getNoOfHarvestedStatements(sqlConn, graphUri);
         int xoringThresholdTriplesCount = GeneralConfig.getIntProperty(
                 GeneralConfig.HARVESTER_SKIP_XORING_NOOFTRIPLES_THRESHOLD, 1000000000);
-        long fileSize = getFileSizesSum(filesAndLoaders.keySet());
+        long fileSize = getContentSizesSum(contentStreams);
         long fileSizeThreshold = GeneralConfig.getLongProperty(
                 GeneralConfig.HARVESTER_SKIP_XORING_FILESIZE_BYTES_THRESHOLD, 1000000000000L);
         boolean isDirectLoading = currentTriplesCount > xoringThresholdTriplesCount || fileSize > fileSizeThreshold;
@@ -1649,11 +1899,30 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
         String tempGraphUri = graphUri + TEMP_GRAPH_SUFFIX;
         URI tempGraphResource = repoConn.getValueFactory().createURI(tempGraphUri);
 
+        // Loading by difference with the graph's previous content is not done for graphs modified by post-harvest scripts,
+        // as their fingerprints would not match what is in the graph.
+        boolean isDiffLoading = GraphDiff.isApplicable(contentStreams) && !hasPostHarvestScripts(repoConn, graphUri);
+
         // Start loading steps.
 
         int triplesLoaded = 0;
         boolean wasOrigEmpty = false;
+        TripleFingerprint.Builder fingerprintBuilder = null;
         try {
+            // Try loading only the difference between the graph's previous and new content.
+            if (isDiffLoading) {
+                int diffTriplesCount = loadDifference(contentStreams, repoConn, sqlConn, graphResource);
+                if (diffTriplesCount >= 0) {
+                    return diffTriplesCount;
+                }
+            }
+
+            // The graph's fingerprint, if any, will not match it any more. A new one is computed while loading, if applicable.
+            deleteFingerprint(sqlConn, graphUri);
+            if (isDiffLoading) {
+                fingerprintBuilder = new TripleFingerprint.Builder(GraphDiff.getMaxTriples());
+            }
+
             // Ensure auto-commit.
             forceLogEnable(3, sqlConn, LOGGER);
 
@@ -1681,31 +1950,46 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
                 // Ensure auto-commit, as Virtuoso tends to forget it at long harvests.
                 forceLogEnable(3, sqlConn, LOGGER);
 
-                for (Entry<File, ContentLoader> entry : filesAndLoaders.entrySet()) {
+                for (ContentStream contentStream : contentStreams) {
 
-                    File file = entry.getKey();
-                    ContentLoader loader = entry.getValue();
+                    long loadingStarted = System.currentTimeMillis();
+                    ContentLoader loader = contentStream.getContentLoader();
 
-                    if (loader instanceof RDFFormatLoader) {
+                    // RDF files are loaded by Virtuoso's own bulk loader, everything else (including in-memory content)
+                    // is parsed and loaded by the content loader. Content to be fingerprinted is always parsed here, so that
+                    // the fingerprint is computed in the same pass.
+                    if (fingerprintBuilder == null && loader instanceof RDFFormatLoader
+                            && contentStream instanceof FileContentStream) {
                         RDFFormat rdfFormat = ((RDFFormatLoader) loader).getRdfFormat();
+                        File file = ((FileContentStream) contentStream).getFile();
                         loadRdfFile(file, rdfFormat, sqlConn, baseUri, targetGraphUri);
                     } else {
                         InputStream inputStream = null;
                         try {
-                            inputStream = new FileInputStream(file);
+                            inputStream = contentStream.openStream();
 
                             // Essential to set auto-commit to false, cause' otherwise lazy-loading will cause
                             // "Too many open statements".
                             // Read more about lazy-loading in the JavaDocs of virtuoso.sesame2.driver.VirtuosoRepository
                             // and eionet.cr.util.sesame.SesameConnectionProvider.java.createRepository().
                             repoConn.setAutoCommit(false);
-                            triplesLoaded += loader.load(inputStream, repoConn, sqlConn, baseUri, targetGraphUri);
+                            if (fingerprintBuilder != null) {
+                                triplesLoaded += GraphDiff.load((RDFFormatLoader) loader, inputStream, repoConn, sqlConn, baseUri,
+                                        targetGraphUri, fingerprintBuilder);
+                            } else {
+                                triplesLoaded += loader.load(inputStream, repoConn, sqlConn, baseUri, targetGraphUri);
+                            }
                             repoConn.commit();
                             repoConn.setAutoCommit(true);
                         } finally {
                             IOUtils.closeQuietly(inputStream);
                         }
                     }
+
+                    if (contentStreams.size() > 1) {
+                        LOGGER.debug(BaseHarvest.loggerMsg(String.format("Loaded %s in %d ms", contentStream,
+                                System.currentTimeMillis() - loadingStarted), graphUri));
+                    }
                 }
 
                 if (!isDirectLoading && !wasOrigEmpty) {
@@ -1746,16 +2030,384 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
             // Get the total number of triples in the loaded graph
             triplesLoaded = getGraphTriplesCount(sqlConn, graphResource);
 
+            // Remember what was loaded, so that the next load of this graph can be done by difference.
+            if (fingerprintBuilder != null && !hasPostHarvestScripts(repoConn, graphUri)) {
+                saveFingerprint(fingerprintBuilder.build(), sqlConn, graphUri, triplesLoaded);
+            }
+
         } finally {
             // Ensure connections will be closed regardless of success or exceptions.
             SQLUtil.close(sqlConn);
             SesameUtil.close(repoConn);
+
+            // Even a failed loading may have changed the graph.
+            SPARQLResultCache.invalidate(graphUri);
         }
 
         // Return the number of triples loaded into the graph.
         return triplesLoaded;
     }
 
+    /**
+     * Loads the given content by difference with the graph's previous content: the triples that are not in the previous
+     * fingerprint are added, and the ones that are not in the new content's fingerprint any more are removed from the graph
+     * (looked up in the graph by their hashes). Triples with blank nodes are replaced wholesale, as blank node identifiers are
+     * not stable across harvests. All graph changes are done in one transaction of the repository connection, and rolled back
+     * if the graph turns out not to match the previous fingerprint (e.g. because it has been changed by something else than
+     * harvesting). Nothing is done (and -1 returned) if the graph has no persisted fingerprint, or its triples count differs
+     * from the fingerprinted one. If anything fails, -1 is returned too, so the caller falls back to full loading, which fixes
+     * whatever has been changed in the graph.
+     *
+     * @param contentStreams The content, see {@link GraphDiff#isApplicable(Collection)}.
+     * @param repoConn Repository connection.
+     * @param sqlConn SQL connection.
+     * @param graphResource The graph.
+     * @return The number of triples in the graph after loading, or -1 if the content was not loaded by difference.
+     * @throws DAOException If reading the persisted fingerprint fails.
+     */
+    private int loadDifference(Collection<? extends ContentStream> contentStreams, RepositoryConnection repoConn,
+            Connection sqlConn, URI graphResource) throws DAOException {
+
+        String graphUri = graphResource.stringValue();
+        long graphHash = Hashes.spoHash(graphUri);
+        TripleFingerprint previousFingerprint = readFingerprint(sqlConn, graphUri);
+        if (previousFingerprint == null) {
+            return -1;
+        }
+
+        int graphTriplesCount = getGraphTriplesCount(sqlConn, graphResource);
+        if (graphTriplesCount != previousFingerprint.getGraphTriplesCount()) {
+            LOGGER.debug(BaseHarvest.loggerMsg(String.format(
+                    "Graph has %d triples instead of fingerprinted %d, not loading by difference", graphTriplesCount,
+                    previousFingerprint.getGraphTriplesCount()), graphUri));
+            return -1;
+        }
+
+        FingerprintTripleWriter tripleWriter = null;
+        try {
+            // Invalidate the fingerprint while the graph is being changed, in case the loading gets interrupted.
+            SQLUtil.executeUpdate(DELETE_FINGERPRINT_SQL, Collections.singletonList(Long.valueOf(graphHash)), sqlConn);
+            tripleWriter = new FingerprintTripleWriter(sqlConn, graphHash);
+
+            repoConn.setAutoCommit(false);
+            if (previousFingerprint.getBlankNodeTriples() > 0) {
+                LOGGER.debug(BaseHarvest.loggerMsg("Deleting triples with blank nodes", graphUri));
+                SesameUtil.executeSPARUL(String.format("DELETE FROM GRAPH <%s> {?s ?p ?o} WHERE {GRAPH <%s> {?s ?p ?o}"
+                        + " FILTER (isBlank(?s) || isBlank(?o))}", graphUri, graphUri), repoConn);
+            }
+
+            TripleFingerprint fingerprint = GraphDiff.addDifference(contentStreams, repoConn, sqlConn, graphUri, graphUri,
+                    previousFingerprint, tripleWriter);
+            if (fingerprint == null) {
+                throw new CRException("Content has more than " + GraphDiff.getMaxTriples() + " triples");
+            }
+            tripleWriter.flush();
+
+            List<org.openrdf.model.Statement> removedTriples =
+                    GraphDiff.findRemovedTriples(repoConn, graphResource, previousFingerprint, fingerprint);
+            if (removedTriples == null) {
+                throw new CRException("Graph does not match its fingerprint");
+            }
+            GraphDiff.removeTriples(repoConn, graphResource, removedTriples);
+
+            repoConn.commit();
+            repoConn.setAutoCommit(true);
+            LOGGER.debug(BaseHarvest.loggerMsg(String.format("Loaded by difference: %d triples removed, %d added",
+                    removedTriples.size(), tripleWriter.getTriplesWritten()), graphUri));
+
+            deleteFingerprintTriples(sqlConn, graphHash, previousFingerprint.minus(fingerprint));
+            graphTriplesCount = getGraphTriplesCount(sqlConn, graphResource);
+            if (hasPostHarvestScripts(repoConn, graphUri)) {
+                deleteFingerprint(sqlConn, graphUri);
+            } else {
+                SQLUtil.executeUpdate(SAVE_FINGERPRINT_SQL, Arrays.asList(Long.valueOf(graphHash), graphUri,
+                        Long.valueOf(graphTriplesCount), Integer.valueOf(fingerprint.getBlankNodeTriples())), sqlConn);
+            }
+            return graphTriplesCount;
+
+        } catch (Exception e) {
+            SesameUtil.rollback(repoConn);
+            try {
+                repoConn.setAutoCommit(true);
+            } catch (RepositoryException re) {
+                LOGGER.warn(BaseHarvest.loggerMsg("Failed to restore auto-commit", graphUri), re);
+            }
+            deleteFingerprint(sqlConn, graphUri);
+            LOGGER.warn(BaseHarvest.loggerMsg("Failed to load by difference, going for full loading: " + e, graphUri));
+            return -1;
+        } finally {
+            if (tripleWriter != null) {
+                tripleWriter.close();
+            }
+        }
+    }
+
+    /**
+     * Returns true if the given graph is subject to any active post-harvest scripts that are run after new content has been
+     * harvested: scripts for all sources, for this source, or for any of the types in the graph. Returns true also if the
+     * scripts could not be checked.
+     *
+     * @param repoConn Repository connection.
+     * @param graphUri The graph.
+     * @return As indicated above.
+     */
+    private boolean hasPostHarvestScripts(RepositoryConnection repoConn, String graphUri) {
+
+        try {
+            HarvestScriptDAO dao = DAOFactory.get().getDao(HarvestScriptDAO.class);
+            if (!dao.listActive(null, null, Phase.AFTER_NEW, HarvestScriptType.POST_HARVEST).isEmpty()
+                    || !dao.listActive(TargetType.SOURCE, graphUri, Phase.AFTER_NEW, HarvestScriptType.POST_HARVEST).isEmpty()) {
+                return true;
+            }
+
+            SingleObjectReader<String> reader = new SingleObjectReader<String>();
+            SesameUtil.executeQuery("select distinct ?type from <" + graphUri + "> where {?s a ?type}", reader, repoConn);
+            List<String> distinctTypes = reader.getResultList();
+            return distinctTypes != null && !distinctTypes.isEmpty()
+                    && !dao.listActiveForTypes(distinctTypes, Phase.AFTER_NEW, HarvestScriptType.POST_HARVEST).isEmpty();
+        } catch (Exception e) {
+            LOGGER.warn(BaseHarvest.loggerMsg("Failed to check post-harvest scripts: " + e, graphUri));
+            return true;
+        }
+    }
+
+    /** Fingerprint of a graph: its triples count when the fingerprint was persisted, and the number of blank node triples. */
+    private static final String GET_FINGERPRINT_SQL =
+            "select GRAPH_URI, GRAPH_TRIPLES, BLANK_NODE_TRIPLES from HARVEST_FINGERPRINT where GRAPH_HASH=?";
+
+    /** Hashes of the ground triples of a graph's fingerprint. */
+    private static final String GET_FINGERPRINT_HASHES_SQL = "select TRIPLE_HASH from HARVEST_FINGERPRINT_TRIPLE where GRAPH_HASH=?";
+
+    /** */
+    private static final String SAVE_FINGERPRINT_SQL = "insert replacing HARVEST_FINGERPRINT"
+            + " (GRAPH_HASH, GRAPH_URI, GRAPH_TRIPLES, BLANK_NODE_TRIPLES, UPDATED) values (?, ?, ?, ?, now())";
+
+    /** */
+    private static final String ADD_FINGERPRINT_TRIPLE_SQL =
+            "insert soft HARVEST_FINGERPRINT_TRIPLE (GRAPH_HASH, TRIPLE_HASH) values (?, ?)";
+
+    /** */
+    private static final String DELETE_FINGERPRINT_SQL = "delete from HARVEST_FINGERPRINT where GRAPH_HASH=?";
+
+    /** Deletes the given triples of a graph's fingerprint, "&lt;params&gt;" to be replaced by the placeholders. */
+    private static final String DELETE_FINGERPRINT_TRIPLES_SQL =
+            "delete from HARVEST_FINGERPRINT_TRIPLE where GRAPH_HASH=? and TRIPLE_HASH in (<params>)";
+
+    /** Deletes the fingerprints of the given graphs, "&lt;params&gt;" to be replaced by the placeholders. */
+    private static final String BULK_DELETE_FINGERPRINTS_SQL = "delete from HARVEST_FINGERPRINT where GRAPH_HASH in (<params>)";
+
+    /** Deletes the triples of the fingerprints of the given graphs, "&lt;params&gt;" to be replaced by the placeholders. */
+    private static final String BULK_DELETE_FINGERPRINT_TRIPLES_SQL =
+            "delete from HARVEST_FINGERPRINT_TRIPLE where GRAPH_HASH in (<params>)";
+
+    /** Number of triples per query when writing or deleting fingerprint triples. */
+    private static final int FINGERPRINT_BATCH_SIZE = 1000;
+
+    /**
+     * Reads the persisted fingerprint of the given graph.
+     *
+     * @param sqlConn SQL connection.
+     * @param graphUri The graph.
+     * @return The fingerprint, or null if none persisted.
+     * @throws DAOException If reading fails.
+     */
+    private TripleFingerprint readFingerprint(Connection sqlConn, String graphUri) throws DAOException {
+
+        long graphHash = Hashes.spoHash(graphUri);
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = sqlConn.prepareStatement(GET_FINGERPRINT_SQL);
+            stmt.setLong(1, graphHash);
+            rs = stmt.executeQuery();
+            if (!rs.next() || !graphUri.equals(rs.getString(1))) {
+                return null;
+            }
+            long graphTriplesCount = rs.getLong(2);
+            int blankNodeTriples = rs.getInt(3);
+            SQLUtil.close(rs);
+            SQLUtil.close(stmt);
+
+            stmt = sqlConn.prepareStatement(GET_FINGERPRINT_HASHES_SQL);
+            stmt.setLong(1, graphHash);
+            rs = stmt.executeQuery();
+            long[] hashes = new long[1024];
+            int size = 0;
+            while (rs.next()) {
+                if (size == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, size * 2);
+                }
+                hashes[size++] = rs.getLong(1);
+            }
+            return TripleFingerprint.create(Arrays.copyOf(hashes, size), blankNodeTriples, graphTriplesCount);
+        } catch (SQLException e) {
+            throw new DAOException("Failed to read fingerprint of <" + graphUri + ">", e);
+        } finally {
+            SQLUtil.close(rs);
+            SQLUtil.close(stmt);
+        }
+    }
+
+    /**
+     * Deletes the given triples of the given graph's persisted fingerprint.
+     *
+     * @param sqlConn SQL connection.
+     * @param graphHash Hash of the graph's URI.
+     * @param tripleHashes Hashes of the triples.
+     * @throws SQLException If deleting fails.
+     */
+    private void deleteFingerprintTriples(Connection sqlConn, long graphHash, long[] tripleHashes) throws SQLException {
+
+        for (int from = 0; from < tripleHashes.length; from += FINGERPRINT_BATCH_SIZE) {
+
+            int to = Math.min(from + FINGERPRINT_BATCH_SIZE, tripleHashes.length);
+            List<Long> values = new ArrayList<Long>();
+            values.add(Long.valueOf(graphHash));
+            for (int i = from; i < to; i++) {
+                values.add(Long.valueOf(tripleHashes[i]));
+            }
+            SQLUtil.executeUpdate(StringUtils.replace(DELETE_FINGERPRINT_TRIPLES_SQL, "<params>", placeholders("?", to - from)),
+                    values, sqlConn);
+        }
+    }
+
+    /**
+     * Persists the given fingerprint of the content just loaded into the given graph, so that the next load of the graph can be
+     * done by difference. Failures are only logged, as a missing fingerprint only means that the next load of the graph is not
+     * done by difference.
+     *
+     * @param fingerprint The fingerprint, or null if the content had too many triples to be fingerprinted.
+     * @param sqlConn SQL connection.
+     * @param graphUri The graph.
+     * @param graphTriplesCount Number of triples in the graph.
+     */
+    private void saveFingerprint(TripleFingerprint fingerprint, Connection sqlConn, String graphUri, long graphTriplesCount) {
+
+        if (fingerprint == null) {
+            LOGGER.debug(BaseHarvest.loggerMsg("Content has too many triples to be fingerprinted", graphUri));
+            return;
+        }
+
+        long graphHash = Hashes.spoHash(graphUri);
+        FingerprintTripleWriter tripleWriter = null;
+        try {
+            tripleWriter = new FingerprintTripleWriter(sqlConn, graphHash);
+            for (long hash : fingerprint.getHashes()) {
+                tripleWriter.add(hash);
+            }
+            tripleWriter.flush();
+            SQLUtil.executeUpdate(SAVE_FINGERPRINT_SQL, Arrays.asList(Long.valueOf(graphHash), graphUri,
+                    Long.valueOf(graphTriplesCount), Integer.valueOf(fingerprint.getBlankNodeTriples())), sqlConn);
+        } catch (Exception e) {
+            LOGGER.warn(BaseHarvest.loggerMsg("Failed to save fingerprint: " + e, graphUri));
+            deleteFingerprint(sqlConn, graphUri);
+        } finally {
+            if (tripleWriter != null) {
+                tripleWriter.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes the persisted fingerprint of the given graph, if any. Failures are only logged, as the fingerprint is not trusted
+     * anyway if the graph's triples count does not match it.
+     *
+     * @param sqlConn SQL connection.
+     * @param graphUri The graph.
+     */
+    private void deleteFingerprint(Connection sqlConn, String graphUri) {
+
+        try {
+            deleteFingerprints(sqlConn, Collections.singletonList(Long.valueOf(Hashes.spoHash(graphUri))));
+        } catch (SQLException e) {
+            LOGGER.warn(BaseHarvest.loggerMsg("Failed to delete fingerprint: " + e, graphUri));
+        }
+    }
+
+    /**
+     * Deletes the persisted fingerprints of the given graphs.
+     *
+     * @param sqlConn SQL connection.
+     * @param graphHashes Hashes of the graphs' URIs.
+     * @throws SQLException If deleting fails.
+     */
+    private void deleteFingerprints(Connection sqlConn, List<Long> graphHashes) throws SQLException {
+
+        String params = placeholders("?", graphHashes.size());
+        SQLUtil.executeUpdate(StringUtils.replace(BULK_DELETE_FINGERPRINTS_SQL, "<params>", params), graphHashes, sqlConn);
+        SQLUtil.executeUpdate(StringUtils.replace(BULK_DELETE_FINGERPRINT_TRIPLES_SQL, "<params>", params), graphHashes, sqlConn);
+    }
+
+    /**
+     * Persists the hashes of the ground triples of a graph's fingerprint, in batches.
+     */
+    private static class FingerprintTripleWriter implements GraphDiff.TripleSink {
+
+        /** */
+        private final PreparedStatement stmt;
+
+        /** */
+        private final long graphHash;
+
+        /** */
+        private int batchSize;
+
+        /** */
+        private int triplesWritten;
+
+        /**
+         * @param sqlConn
+         * @param graphHash
+         * @throws SQLException
+         */
+        FingerprintTripleWriter(Connection sqlConn, long graphHash) throws SQLException {
+            this.stmt = sqlConn.prepareStatement(ADD_FINGERPRINT_TRIPLE_SQL);
+            this.graphHash = graphHash;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see eionet.cr.harvest.load.GraphDiff.TripleSink#add(long)
+         */
+        @Override
+        public void add(long hash) throws SQLException {
+
+            stmt.setLong(1, graphHash);
+            stmt.setLong(2, hash);
+            stmt.addBatch();
+            if (++batchSize >= FINGERPRINT_BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * Writes the batched triples.
+         *
+         * @throws SQLException
+         */
+        void flush() throws SQLException {
+
+            if (batchSize > 0) {
+                stmt.executeBatch();
+                triplesWritten += batchSize;
+                batchSize = 0;
+            }
+        }
+
+        /**
+         * @return Number of triples written, including duplicates.
+         */
+        int getTriplesWritten() {
+            return triplesWritten;
+        }
+
+        /** */
+        void close() {
+            SQLUtil.close(stmt);
+        }
+    }
+
     /**
      * Gets the {@link Predicates#CR_HARVESTED_STATEMENTS} value for given subject.
      * Defaults to -1, if not found.
@@ -1835,15 +2487,15 @@ public class VirtuosoHarvestSourceDAO extends VirtuosoBaseDAO implements Harvest
 
     /**
      *
-     * @param files
+     * @param contentStreams
      * @return
      */
-    private long getFileSizesSum(Collection<File> files) {
+    private long getContentSizesSum(Collection<? extends ContentStream> contentStreams) {
 
         long result = 0L;
 
-        for (File file : files) {
-            result = result + file.length();
+        for (ContentStream contentStream : contentStreams) {
+            result = result + Math.max(0L, contentStream.getSize());
         }
 
         return result;
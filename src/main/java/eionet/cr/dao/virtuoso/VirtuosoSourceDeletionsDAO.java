@@ -30,6 +30,7 @@ import eionet.cr.util.pagination.PagingRequest;
 import eionet.cr.util.sesame.SesameUtil;
 import eionet.cr.util.sql.PairReader;
 import eionet.cr.util.sql.SQLUtil;
+import eionet.cr.util.sql.SingleObjectReader;
 
 /**
  * Virtuoso-specific implementation of {@link SourceDeletionsDAO}.
@@ -74,6 +75,10 @@ public class VirtuosoSourceDeletionsDAO extends VirtuosoBaseDAO implements Sourc
     private static final String PICK_FOR_DELETION_SQL = "SELECT TOP 1 url FROM harvest_source "
             + "WHERE delete_flag=1 ORDER BY delete_requested, url";
 
+    /** SQL for picking the given range of sources from the deletion queue. */
+    private static final String PICK_RANGE_FOR_DELETION_SQL = "SELECT TOP <offset>, <limit> url FROM harvest_source "
+            + "WHERE delete_flag=1 ORDER BY delete_requested, url";
+
     /*
      * (non-Javadoc)
      *
@@ -341,4 +346,21 @@ public class VirtuosoSourceDeletionsDAO extends VirtuosoBaseDAO implements Sourc
             SQLUtil.close(conn);
         }
     }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.dao.SourceDeletionsDAO#pickForDeletion(int, int)
+     */
+    @Override
+    public List<String> pickForDeletion(int offset, int limit) throws DAOException {
+
+        if (limit < 1) {
+            return new ArrayList<String>();
+        }
+
+        String sql = StringUtils.replace(PICK_RANGE_FOR_DELETION_SQL, "<offset>", String.valueOf(Math.max(0, offset)));
+        sql = StringUtils.replace(sql, "<limit>", String.valueOf(limit));
+        return executeSQL(sql, new ArrayList<Object>(), new SingleObjectReader<String>());
+    }
 }
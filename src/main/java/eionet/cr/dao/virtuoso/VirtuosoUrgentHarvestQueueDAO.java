@@ -50,11 +50,13 @@ public class VirtuosoUrgentHarvestQueueDAO extends VirtuosoBaseDAO implements Ur
     /** */
     private static final String ADD_PUSH_HARVEST_SQL =
             "insert into URGENT_HARVEST_QUEUE (URL,\"TIMESTAMP\",PUSHED_CONTENT, USERNAME) VALUES (?,NOW(),?,?)";
-    /** */
-    private static final String GET_URGENT_HARVEST_QUEUE_SQL = "select * from URGENT_HARVEST_QUEUE order by \"TIMESTAMP\" asc";
+    /** Items claimed by a harvester are not in the queue any more, see {@link #claim(int, String, int)}. */
+    private static final String GET_URGENT_HARVEST_QUEUE_SQL =
+            "select * from URGENT_HARVEST_QUEUE where LEASE_TOKEN is null order by \"TIMESTAMP\" asc";
 
     /** */
-    private static final String PEEK_SQL = "select top 1 * from URGENT_HARVEST_QUEUE order by \"TIMESTAMP\" asc";
+    private static final String PEEK_SQL =
+            "select top 1 * from URGENT_HARVEST_QUEUE where LEASE_TOKEN is null order by \"TIMESTAMP\" asc";
     
     /** SQL for removing occurrences of a given URL from urgent harvest queue table. */
     private static final String REMOVE_URL_SQL = "delete from URGENT_HARVEST_QUEUE where URL=?";
@@ -62,6 +64,23 @@ public class VirtuosoUrgentHarvestQueueDAO extends VirtuosoBaseDAO implements Ur
     /** SQL for removing a harvest queue item with the given id. */
     private static final String REMOVE_ITEM_SQL = "delete from URGENT_HARVEST_QUEUE where ITEM_ID=?";
 
+    /** SQL for claiming the top-most unclaimed items. The outer condition makes sure that no one else's claim is overwritten. */
+    private static final String CLAIM_SQL =
+            "update URGENT_HARVEST_QUEUE set LEASE_TOKEN=?, LEASE_EXPIRES=dateadd('second', ?, now())"
+                    + " where LEASE_TOKEN is null and ITEM_ID in (select top <limit> ITEM_ID from URGENT_HARVEST_QUEUE"
+                    + " where LEASE_TOKEN is null order by \"TIMESTAMP\" asc)";
+
+    /** SQL for getting the items claimed with a given token. */
+    private static final String GET_CLAIMED_SQL =
+            "select * from URGENT_HARVEST_QUEUE where LEASE_TOKEN=? order by \"TIMESTAMP\" asc";
+
+    /** SQL for removing the items claimed with a given token. */
+    private static final String REMOVE_CLAIMED_SQL = "delete from URGENT_HARVEST_QUEUE where LEASE_TOKEN=?";
+
+    /** SQL for releasing the expired claims. */
+    private static final String RELEASE_EXPIRED_CLAIMS_SQL =
+            "update URGENT_HARVEST_QUEUE set LEASE_TOKEN=null, LEASE_EXPIRES=null where LEASE_EXPIRES < now()";
+
     /*
      * (non-Javadoc)
      *
@@ -172,6 +191,74 @@ public class VirtuosoUrgentHarvestQueueDAO extends VirtuosoBaseDAO implements Ur
         }
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.dao.UrgentHarvestQueueDAO#claim(int, java.lang.String, int)
+     */
+    @Override
+    public List<UrgentHarvestQueueItemDTO> claim(int limit, String leaseToken, int leaseSeconds) throws DAOException {
+
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be >=1");
+        } else if (StringUtils.isBlank(leaseToken)) {
+            throw new IllegalArgumentException("The lease token must not be blank!");
+        }
+
+        Connection conn = null;
+        try {
+            conn = getSQLConnection();
+            int claimed =
+                    SQLUtil.executeUpdate(CLAIM_SQL.replace("<limit>", String.valueOf(limit)),
+                            Arrays.asList(leaseToken, Integer.valueOf(leaseSeconds)), conn);
+            if (claimed == 0) {
+                return new ArrayList<UrgentHarvestQueueItemDTO>();
+            }
+
+            HarvestQueueItemDTOReader rsReader = new HarvestQueueItemDTOReader();
+            SQLUtil.executeQuery(GET_CLAIMED_SQL, Arrays.asList(leaseToken), rsReader, conn);
+            return rsReader.getResultList();
+        } catch (Exception e) {
+            throw new DAOException(e.getMessage(), e);
+        } finally {
+            SQLUtil.close(conn);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.dao.UrgentHarvestQueueDAO#removeClaimed(java.lang.String)
+     */
+    @Override
+    public void removeClaimed(String leaseToken) throws DAOException {
+
+        if (StringUtils.isBlank(leaseToken)) {
+            throw new IllegalArgumentException("The lease token must not be blank!");
+        }
+
+        executeSQL(REMOVE_CLAIMED_SQL, Arrays.asList(leaseToken));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.dao.UrgentHarvestQueueDAO#releaseExpiredClaims()
+     */
+    @Override
+    public int releaseExpiredClaims() throws DAOException {
+
+        Connection conn = null;
+        try {
+            conn = getSQLConnection();
+            return SQLUtil.executeUpdate(RELEASE_EXPIRED_CLAIMS_SQL, conn);
+        } catch (Exception e) {
+            throw new DAOException(e.getMessage(), e);
+        } finally {
+            SQLUtil.close(conn);
+        }
+    }
+
     /**
      * Returns top-most item in queue, but does not remove it.
      *
@@ -217,7 +304,7 @@ public class VirtuosoUrgentHarvestQueueDAO extends VirtuosoBaseDAO implements Ur
     public boolean isInQueue(String url) throws DAOException {
 
         boolean ret = false;
-        String sql = "select top 1 * from URGENT_HARVEST_QUEUE where URL = ?";
+        String sql = "select top 1 * from URGENT_HARVEST_QUEUE where URL = ? and LEASE_TOKEN is null";
         PreparedStatement ps = null;
         Connection conn = null;
         ResultSet rs = null;
@@ -247,7 +334,7 @@ public class VirtuosoUrgentHarvestQueueDAO extends VirtuosoBaseDAO implements Ur
     @Override
     public boolean isInQueue(String url, String userName) throws DAOException {
 
-        String sql = "select top 1 URL from URGENT_HARVEST_QUEUE where URL = ? and USERNAME = ?";
+        String sql = "select top 1 URL from URGENT_HARVEST_QUEUE where URL = ? and USERNAME = ? and LEASE_TOKEN is null";
 
         Connection conn = null;
         try {
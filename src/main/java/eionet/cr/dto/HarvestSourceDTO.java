@@ -65,6 +65,7 @@ public class HarvestSourceDTO implements Serializable, Cloneable {
     private Integer lastHarvestId;
     private boolean isSparqlEndpoint;
     private boolean isOnlineCsvTsv;
+    private String contentDigest;
 
     /**
      * Fields are used when adding new source.
@@ -319,6 +320,21 @@ public class HarvestSourceDTO implements Serializable, Cloneable {
         this.lastHarvestId = lastHarvestId;
     }
 
+    /**
+     * @return the hex-encoded SHA-256 digest of the content downloaded by the last successful harvest, or null if not known
+     */
+    public String getContentDigest() {
+        return contentDigest;
+    }
+
+    /**
+     * @param contentDigest
+     *            the contentDigest to set
+     */
+    public void setContentDigest(String contentDigest) {
+        this.contentDigest = contentDigest;
+    }
+
     /**
      *
      * @param url
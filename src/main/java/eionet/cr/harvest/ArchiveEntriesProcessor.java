@@ -0,0 +1,504 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.harvest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.openrdf.rio.RDFFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eionet.cr.config.GeneralConfig;
+import eionet.cr.harvest.load.ContentLoader;
+import eionet.cr.harvest.load.RDFFormatLoader;
+import eionet.cr.harvest.util.ContentSniff;
+import eionet.cr.harvest.util.FileRdfFormatDetector;
+import eionet.cr.util.CompressUtil;
+import eionet.cr.util.TempSpace;
+import eionet.cr.util.UnpackedInputStream;
+
+/**
+ * Processes all file entries of a (possibly compressed) archive file, e.g. a zip bundle of many RDF files. The entries are
+ * extracted into files next to the archive file, in one sequential pass over the archive. Then the RDF format of every entry
+ * is detected by parsing it on a bounded pool of threads shared by all harvests. The result is a map of the RDF entries' files
+ * and the loaders to load them with, see {@link eionet.cr.dao.HarvestSourceDAO#loadContent(Map, String)}. The files of the
+ * entries that are not RDF, but possibly XML convertible into RDF, are kept too, see {@link #getConvertibleEntryFiles()}.
+ *
+ * The total size of the extracted entries is bounded (see {@link GeneralConfig#HARVESTER_ARCHIVE_MAX_EXTRACTED_BYTES}), and so
+ * is the temporary space they take (see {@link TempSpace}), so that a small archive of huge entries cannot fill the disk.
+ *
+ * @author agent
+ */
+public class ArchiveEntriesProcessor {
+
+    /** */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveEntriesProcessor.class);
+
+    /** Default number of threads for parsing archive entries. */
+    public static final int DEFAULT_THREADS = 2;
+
+    /** Default max total size of an archive's extracted entries, in bytes. */
+    public static final long DEFAULT_MAX_EXTRACTED_BYTES = 4L * 1024 * 1024 * 1024;
+
+    /** Size of the buffer that the entries are extracted through. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Number of bytes extracted between the checks of the temporary space quota. */
+    private static final long TEMP_SPACE_CHECK_BYTES = 8L * 1024 * 1024;
+
+    /** The threads shared by all instances of this class. Lazily created, see {@link #getThreads()}. */
+    private static ExecutorService threads;
+
+    /** The archive file to process. */
+    private final File file;
+
+    /** The context URL where this file was downloaded from (i.e. the harvest source). */
+    private final String contextUrl;
+
+    /** The results of all processed entries, in the order of the archive. */
+    private final List<EntryResult> entryResults = new ArrayList<EntryResult>();
+
+    /**
+     * Creates a new processor of the given archive file.
+     *
+     * @param file The archive file.
+     * @param contextUrl The context URL where this file was downloaded from.
+     */
+    public ArchiveEntriesProcessor(File file, String contextUrl) {
+
+        if (file == null || contextUrl == null) {
+            throw new IllegalArgumentException("File and context URL must not be null!");
+        }
+
+        this.file = file;
+        this.contextUrl = contextUrl;
+    }
+
+    /**
+     * Extracts all file entries of the archive, and detects the RDF format of each of them. The files of the entries that are
+     * neither in any RDF format nor possibly XML are deleted straight away, the rest are to be deleted by the caller, see
+     * {@link #deleteEntryFiles()}.
+     *
+     * @return The files of the entries that are in RDF format, and the loaders to load them with. Ordered as in the archive.
+     * @throws IOException If reading the archive or writing the entries fails, or the entries exceed the allowed size.
+     */
+    public Map<File, ContentLoader> process() throws IOException {
+
+        extractEntries();
+        LOGGER.debug(loggerMsg("Extracted " + entryResults.size() + " file entries from archive, detecting their formats"));
+
+        // Detect the entries' formats in parallel.
+        List<Future<RDFFormat>> futures = new ArrayList<Future<RDFFormat>>();
+        for (final EntryResult entryResult : entryResults) {
+            futures.add(getThreads().submit(new Callable<RDFFormat>() {
+                @Override
+                public RDFFormat call() throws Exception {
+                    return detectFormat(entryResult);
+                }
+            }));
+        }
+
+        Map<File, ContentLoader> result = new LinkedHashMap<File, ContentLoader>();
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+
+                EntryResult entryResult = entryResults.get(i);
+                entryResult.rdfFormat = getResult(futures.get(i));
+                if (entryResult.rdfFormat != null) {
+                    result.put(entryResult.file, new RDFFormatLoader(entryResult.rdfFormat));
+                } else if (!entryResult.possiblyXml) {
+                    TempSpace.release(entryResult.file);
+                    entryResult.released = true;
+                }
+                LOGGER.debug(loggerMsg(entryResult.toString()));
+            }
+        } finally {
+            for (Future<RDFFormat> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Extracts all file entries of the archive into files next to the archive file. Fails as soon as the entries exceed
+     * {@link #getMaxExtractedBytes()} or the temporary space quota.
+     *
+     * @throws IOException If reading the archive or writing the entries fails, or the entries exceed the allowed size.
+     */
+    private void extractEntries() throws IOException {
+
+        long maxBytes = getMaxExtractedBytes();
+        long extractedBytes = 0L;
+        UnpackedInputStream inputStream = CompressUtil.openUnpacked(file);
+        try {
+            if (inputStream.getArchiverName() == null) {
+                throw new IOException("Not an archive file: " + file);
+            }
+
+            for (String entryName = inputStream.getEntryName(); entryName != null; entryName = inputStream.nextEntry()) {
+
+                awaitTempSpace();
+                long started = System.currentTimeMillis();
+                File entryFile = new File(file.getParent(), file.getName() + ".extracted" + (entryResults.size() + 1));
+                TempSpace.track(entryFile);
+                OutputStream outputStream = new FileOutputStream(entryFile);
+                try {
+                    extractedBytes = copyEntry(inputStream, outputStream, entryFile, extractedBytes, maxBytes);
+                } catch (IOException e) {
+                    TempSpace.release(entryFile);
+                    throw e;
+                } finally {
+                    IOUtils.closeQuietly(outputStream);
+                }
+                TempSpace.update(entryFile);
+
+                entryResults.add(new EntryResult(entryName, entryFile, System.currentTimeMillis() - started));
+            }
+        } catch (IOException e) {
+            deleteEntryFiles();
+            throw e;
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * Copies the current entry of the archive into the given output stream, checking the total size of the extracted entries
+     * and the temporary space quota on the way. The bytes copied so far are accounted to the entry's file as they go, so that
+     * the quota check sees them.
+     *
+     * @param inputStream The archive, positioned at the entry.
+     * @param outputStream The stream of the entry's file.
+     * @param entryFile The entry's file.
+     * @param extractedBytes Total size of the entries extracted before this one.
+     * @param maxBytes Max total size of the extracted entries, zero or less if unlimited.
+     * @return Total size of the entries extracted, including this one.
+     * @throws IOException If reading or writing fails, or the entries exceed the allowed size.
+     */
+    private long copyEntry(InputStream inputStream, OutputStream outputStream, File entryFile, long extractedBytes,
+            long maxBytes) throws IOException {
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = extractedBytes;
+        long checked = extractedBytes;
+        for (int n = inputStream.read(buffer); n >= 0; n = inputStream.read(buffer)) {
+
+            if (maxBytes > 0 && total + n > maxBytes) {
+                throw new IOException("Archive entries exceed the max total size of " + maxBytes + " bytes: " + file);
+            }
+            outputStream.write(buffer, 0, n);
+            total += n;
+
+            if (total - checked >= TEMP_SPACE_CHECK_BYTES) {
+                TempSpace.reserve(entryFile, total - extractedBytes);
+                checkTempSpace();
+                checked = total;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Waits until there is free temporary space for the next entry (see {@link TempSpace#awaitSpace()}), and fails if there is
+     * still none.
+     *
+     * @throws IOException If the temporary space quota is exceeded, or interrupted while waiting.
+     */
+    private void awaitTempSpace() throws IOException {
+
+        try {
+            TempSpace.awaitSpace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for temporary space to extract archive entries");
+        }
+        checkTempSpace();
+    }
+
+    /**
+     * Fails if the temporary space quota is exceeded.
+     *
+     * @throws IOException If the quota is exceeded.
+     */
+    private void checkTempSpace() throws IOException {
+
+        long quota = TempSpace.getQuota();
+        if (quota > 0 && TempSpace.getUsedBytes() > quota) {
+            throw new IOException("Temporary space quota of " + quota + " bytes exceeded by archive entries: " + file);
+        }
+    }
+
+    /**
+     * Detects the RDF format of the given entry.
+     *
+     * @param entryResult The entry.
+     * @return The RDF format, or null if the entry is not in any RDF format.
+     * @throws IOException If reading the entry fails.
+     */
+    private RDFFormat detectFormat(EntryResult entryResult) throws IOException {
+
+        long started = System.currentTimeMillis();
+        try {
+            ContentSniff sniff = ContentSniff.sniff(entryResult.file);
+            entryResult.possiblyXml = sniff.isPossiblyXml();
+            return new FileRdfFormatDetector().detect(entryResult.file, contextUrl, sniff);
+        } finally {
+            entryResult.detectMillis = System.currentTimeMillis() - started;
+        }
+    }
+
+    /**
+     * Waits for the given entry format detection result.
+     *
+     * @param future The detection's future.
+     * @return The detected RDF format.
+     * @throws IOException If the detection failed with an I/O error.
+     */
+    private RDFFormat getResult(Future<RDFFormat> future) throws IOException {
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while detecting the formats of archive entries", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Detecting the format of an archive entry failed", cause);
+        }
+    }
+
+    /**
+     * Registers the files of all extracted entries for deletion, except the ones already registered by {@link #process()}.
+     */
+    public void deleteEntryFiles() {
+
+        for (EntryResult entryResult : entryResults) {
+            if (!entryResult.released) {
+                TempSpace.release(entryResult.file);
+                entryResult.released = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the files of the processed entries that are not in any RDF format, but are possibly XML, i.e. might be convertible
+     * into RDF by a conversion schema, see {@link FileToRdfProcessor}.
+     *
+     * @return The files of such entries found by {@link #process()}, in the order of the archive.
+     */
+    public List<File> getConvertibleEntryFiles() {
+
+        List<File> files = new ArrayList<File>();
+        for (EntryResult entryResult : entryResults) {
+            if (entryResult.rdfFormat == null && entryResult.possiblyXml) {
+                files.add(entryResult.file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @return The files of all extracted entries.
+     */
+    public List<File> getEntryFiles() {
+
+        List<File> files = new ArrayList<File>();
+        for (EntryResult entryResult : entryResults) {
+            files.add(entryResult.file);
+        }
+        return files;
+    }
+
+    /**
+     * @return The results of all processed entries, in the order of the archive.
+     */
+    public List<EntryResult> getEntryResults() {
+        return Collections.unmodifiableList(entryResults);
+    }
+
+    /**
+     *
+     * @param messageObject
+     * @return
+     */
+    private String loggerMsg(Object messageObject) {
+        return messageObject + " [" + contextUrl + "]";
+    }
+
+    /**
+     * @return Max total size of an archive's extracted entries in bytes, zero or less if unlimited.
+     */
+    public static long getMaxExtractedBytes() {
+        return GeneralConfig.getLongProperty(GeneralConfig.HARVESTER_ARCHIVE_MAX_EXTRACTED_BYTES, DEFAULT_MAX_EXTRACTED_BYTES);
+    }
+
+    /**
+     * Lazy getter for the threads shared by all instances of this class.
+     *
+     * @return The threads.
+     */
+    private static synchronized ExecutorService getThreads() {
+
+        if (threads == null) {
+            int noOfThreads = Math.max(1,
+                    GeneralConfig.getIntProperty(GeneralConfig.HARVESTER_ARCHIVE_ENTRY_THREADS, DEFAULT_THREADS));
+            threads = Executors.newFixedThreadPool(noOfThreads, new ThreadFactory() {
+
+                /** Counter for thread names. */
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "archive-entry-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return threads;
+    }
+
+    /**
+     * Shuts down the threads shared by all instances of this class.
+     */
+    public static synchronized void shutdown() {
+
+        if (threads != null) {
+            threads.shutdownNow();
+            try {
+                threads.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            threads = null;
+        }
+    }
+
+    /**
+     * The result of processing one archive entry.
+     */
+    public static class EntryResult {
+
+        /** */
+        private final String name;
+
+        /** */
+        private final File file;
+
+        /** */
+        private final long extractMillis;
+
+        /** */
+        private volatile long detectMillis;
+
+        /** */
+        private volatile RDFFormat rdfFormat;
+
+        /** */
+        private volatile boolean possiblyXml;
+
+        /** True if the entry's file has been registered for deletion. */
+        private boolean released;
+
+        /**
+         * @param name
+         * @param file
+         * @param extractMillis
+         */
+        EntryResult(String name, File file, long extractMillis) {
+            this.name = name;
+            this.file = file;
+            this.extractMillis = extractMillis;
+        }
+
+        /**
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the file
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return the extractMillis
+         */
+        public long getExtractMillis() {
+            return extractMillis;
+        }
+
+        /**
+         * @return the detectMillis
+         */
+        public long getDetectMillis() {
+            return detectMillis;
+        }
+
+        /**
+         * @return the rdfFormat, null if the entry is not in any RDF format
+         */
+        public RDFFormat getRdfFormat() {
+            return rdfFormat;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "Archive entry " + name + ": " + (rdfFormat == null ? "no RDF" : rdfFormat.getName()) + ", "
+                    + file.length() + " bytes, extracted in " + extractMillis + " ms, parsed in " + detectMillis + " ms, total "
+                    + (extractMillis + detectMillis) + " ms";
+        }
+    }
+}
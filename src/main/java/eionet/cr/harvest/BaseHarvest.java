@@ -29,17 +29,21 @@ import eionet.cr.dto.HarvestScriptDTO.Phase;
 import eionet.cr.dto.HarvestScriptDTO.TargetType;
 import eionet.cr.dto.enums.HarvestScriptType;
 import eionet.cr.harvest.load.ContentLoader;
+import eionet.cr.harvest.load.ContentStream;
 import eionet.cr.harvest.load.FeedFormatLoader;
+import eionet.cr.harvest.load.FileContentStream;
 import eionet.cr.harvest.load.RDFFormatLoader;
 import eionet.cr.harvest.service.ExternalService;
 import eionet.cr.harvest.service.ExternalServiceFactory;
 import eionet.cr.harvest.util.HarvestMessageType;
 import eionet.cr.harvest.util.RDFMediaTypes;
+import eionet.cr.util.CompressUtil;
 import eionet.cr.util.EMailSender;
-import eionet.cr.util.FileDeletionJob;
 import eionet.cr.util.Hashes;
+import eionet.cr.util.TempSpace;
 import eionet.cr.util.Util;
 import eionet.cr.util.cleanup.HarvestSourcesCleanupJob;
+import eionet.cr.util.sesame.SPARQLResultCache;
 import eionet.cr.util.sesame.SesameUtil;
 import eionet.cr.util.sql.SingleObjectReader;
 import eionet.cr.util.xml.ConversionSchema;
@@ -325,6 +329,7 @@ public abstract class BaseHarvest implements Harvest {
                 LOGGER.debug("Purging the graph of " + getContextUrl());
                 DAOFactory.get().getDao(HarvestSourceDAO.class).clearGraph(getContextUrl());
                 getContextSourceDTO().setStatements(0);
+                getContextSourceDTO().setContentDigest(null);
             }
 
             // Run post-harvest scripts.
@@ -381,6 +386,10 @@ public abstract class BaseHarvest implements Harvest {
                 throw new HarvestException(e.getMessage(), e);
             }
         } finally {
+            // The scripts and the source's meta-data written above have changed the graphs after their loading.
+            SPARQLResultCache.invalidate(getContextUrl());
+            SPARQLResultCache.invalidate(GeneralConfig.HARVESTER_URI);
+
             LOGGER.info(loggerMsg("Harvest finished"));
             LOGGER.debug("                                                                   ");
         }
@@ -838,11 +847,12 @@ public abstract class BaseHarvest implements Harvest {
     }
 
     /**
+     * Synchronized, as content may be downloaded by several threads of the same harvest.
      *
      * @param predicate
      * @param objectDTO
      */
-    protected void addSourceMetadata(String predicate, ObjectDTO objectDTO) {
+    protected synchronized void addSourceMetadata(String predicate, ObjectDTO objectDTO) {
 
         if (sourceMetadata == null) {
             sourceMetadata = new SubjectDTO(getContextUrl(), false);
@@ -1221,25 +1231,20 @@ public abstract class BaseHarvest implements Harvest {
         } else {
 
             LOGGER.debug(loggerMsg("File is not in RDF or web feed format, processing the file further"));
-            File processedFile = null;
-            try {
-                // The file could be a zipped RDF, an XML with an RDF conversion, N3, or actually a completely valid RDF
-                // that simply wasn't declared in the server-returned content type.
-                FileToRdfProcessor fileProcessor = new FileToRdfProcessor(file, getContextUrl());
-                processedFile = fileProcessor.process();
-
-                // Add conversion schema into source metadata under cr:xmlSchema attribute, unless there is no schema information
-                // or it is actually the file's root element.
-                ConversionSchema convSchema = fileProcessor.getConversionSchema();
-                if (convSchema != null && !ConversionSchema.Type.ROOT_ELEM.equals(convSchema.getType())) {
-                    addConversionSchemaMetadata(convSchema);
+            if (CompressUtil.isArchive(file)) {
+                Integer archiveResult = loadArchiveEntries(file);
+                if (archiveResult != null) {
+                    return archiveResult.intValue();
                 }
+            }
 
-                if (processedFile != null && fileProcessor.getRdfFormat() != null) {
+            // The file could be a zipped RDF, an XML with an RDF conversion, N3, or actually a completely valid RDF
+            // that simply wasn't declared in the server-returned content type.
+            ContentStream processedContent = processIntoRdf(file);
+            try {
+                if (processedContent != null) {
                     LOGGER.debug(loggerMsg("File processed into RDF format"));
-                    ContentLoader rdfLoader = new RDFFormatLoader(fileProcessor.getRdfFormat());
-                    rdfLoader.setTimeout(getTimeout());
-                    return loadFiles(Collections.singletonMap(processedFile, rdfLoader));
+                    return loadContentStreams(Collections.singletonList(processedContent));
                 } else {
                     LOGGER.debug(loggerMsg("File couldn't be processed into RDF format"));
                     // File couldn't be processed into RDF, schedule its content deletion for the finish-harvest phase
@@ -1247,10 +1252,129 @@ public abstract class BaseHarvest implements Harvest {
                     return 0;
                 }
             } finally {
-                if (processedFile != null && !file.getPath().equals(processedFile.getPath())) {
-                    FileDeletionJob.register(processedFile);
+                releaseProcessedContent(file, processedContent);
+            }
+        }
+    }
+
+    /**
+     * Processes the given file into RDF format by {@link FileToRdfProcessor}, and adds the conversion schema used (if any) into
+     * source metadata.
+     *
+     * @param file The file.
+     * @return The file's content in RDF format, with its loader's timeout set, or null if the file couldn't be processed into RDF
+     *         format. To be released by {@link #releaseProcessedContent(File, ContentStream)}.
+     * @throws IOException If error in I/O.
+     * @throws SAXException If SAX parsing fails.
+     * @throws RDFHandlerException If error in RDF handler.
+     * @throws RDFParseException If error in RDF parsing.
+     */
+    private ContentStream processIntoRdf(File file) throws IOException, SAXException, RDFHandlerException, RDFParseException {
+
+        FileToRdfProcessor fileProcessor = new FileToRdfProcessor(file, getContextUrl());
+        ContentStream processedContent;
+        long stageEntered = HarvestStage.PROCESS.enter();
+        try {
+            processedContent = fileProcessor.process();
+        } finally {
+            HarvestStage.PROCESS.exit(stageEntered);
+        }
+
+        // Add conversion schema into source metadata under cr:xmlSchema attribute, unless there is no schema information
+        // or it is actually the file's root element.
+        ConversionSchema convSchema = fileProcessor.getConversionSchema();
+        if (convSchema != null && !ConversionSchema.Type.ROOT_ELEM.equals(convSchema.getType())) {
+            addConversionSchemaMetadata(convSchema);
+        }
+
+        if (processedContent != null && fileProcessor.getRdfFormat() != null) {
+            processedContent.getContentLoader().setTimeout(getTimeout());
+            return processedContent;
+        } else {
+            releaseProcessedContent(file, processedContent);
+            return null;
+        }
+    }
+
+    /**
+     * Releases the file of the given content processed from the given file, unless it is the given file itself.
+     *
+     * @param file The file that was processed.
+     * @param processedContent The processed content, may be null.
+     */
+    private void releaseProcessedContent(File file, ContentStream processedContent) {
+
+        if (processedContent instanceof FileContentStream) {
+            File processedFile = ((FileContentStream) processedContent).getFile();
+            if (!file.getPath().equals(processedFile.getPath())) {
+                TempSpace.release(processedFile);
+            }
+        }
+    }
+
+    /**
+     * Loads all RDF entries of the given archive file, see {@link ArchiveEntriesProcessor}, together with the XML entries that
+     * {@link FileToRdfProcessor} converts into RDF (adding their conversion schemas into source metadata). Archives that have
+     * neither are not loaded here, but left to {@link FileToRdfProcessor} like any other file.
+     *
+     * @param file The archive file.
+     * @return Number of loaded triples, or null if the archive is to be processed by {@link FileToRdfProcessor}.
+     * @throws DAOException If DAO call fails.
+     * @throws IOException If error in I/O, or the archive's entries exceed the allowed size.
+     * @throws SAXException If SAX parsing fails.
+     * @throws RDFHandlerException If error in RDF handler.
+     * @throws RDFParseException If error in RDF parsing.
+     */
+    private Integer loadArchiveEntries(File file) throws DAOException, IOException, SAXException, RDFHandlerException,
+            RDFParseException {
+
+        LOGGER.debug(loggerMsg("File is an archive, processing all its entries"));
+        ArchiveEntriesProcessor archiveProcessor = new ArchiveEntriesProcessor(file, getContextUrl());
+        try {
+            Map<File, ContentLoader> entryFilesAndLoaders;
+            long stageEntered = HarvestStage.PROCESS.enter();
+            try {
+                entryFilesAndLoaders = archiveProcessor.process();
+            } finally {
+                HarvestStage.PROCESS.exit(stageEntered);
+            }
+
+            List<ContentStream> contentStreams = new ArrayList<ContentStream>();
+            for (Map.Entry<File, ContentLoader> entry : entryFilesAndLoaders.entrySet()) {
+                entry.getValue().setTimeout(getTimeout());
+                contentStreams.add(new FileContentStream(entry.getKey(), entry.getValue()));
+            }
+
+            Map<File, ContentStream> convertedEntries = new LinkedHashMap<File, ContentStream>();
+            try {
+                for (File entryFile : archiveProcessor.getConvertibleEntryFiles()) {
+                    try {
+                        ContentStream convertedContent = processIntoRdf(entryFile);
+                        if (convertedContent != null) {
+                            convertedEntries.put(entryFile, convertedContent);
+                        }
+                    } catch (SAXException e) {
+                        // Like entries in no RDF format at all, entries that turn out not to be well-formed XML are skipped.
+                        LOGGER.warn(loggerMsg("Skipping archive entry that failed XML processing: " + e));
+                    }
+                }
+                contentStreams.addAll(convertedEntries.values());
+
+                if (contentStreams.isEmpty()) {
+                    LOGGER.debug(loggerMsg("Found no RDF or convertible entries in the archive, processing it as a whole"));
+                    return null;
+                }
+
+                LOGGER.debug(loggerMsg("Loading " + entryFilesAndLoaders.size() + " RDF and " + convertedEntries.size()
+                        + " converted entries of the archive"));
+                return loadContentStreams(contentStreams);
+            } finally {
+                for (Map.Entry<File, ContentStream> entry : convertedEntries.entrySet()) {
+                    releaseProcessedContent(entry.getKey(), entry.getValue());
                 }
             }
+        } finally {
+            archiveProcessor.deleteEntryFiles();
         }
     }
 
@@ -1293,14 +1417,40 @@ public abstract class BaseHarvest implements Harvest {
             return 0;
         }
 
+        List<ContentStream> contentStreams = new ArrayList<ContentStream>();
+        for (Map.Entry<File, ContentLoader> entry : filesAndLoaders.entrySet()) {
+            contentStreams.add(new FileContentStream(entry.getKey(), entry.getValue()));
+        }
+        return loadContentStreams(contentStreams);
+    }
+
+    /**
+     * Loads given content streams into repository, each with its own loader. The streams may be file-based or in-memory.
+     *
+     * @param contentStreams Content streams to load.
+     * @return Total number of triples loaded.
+     * @throws DAOException When repository access error happens.
+     */
+    protected int loadContentStreams(Collection<? extends ContentStream> contentStreams) throws DAOException {
+
+        if (contentStreams == null || contentStreams.isEmpty()) {
+            return 0;
+        }
+
         HarvestSourceDAO dao = getHarvestSourceDAO();
         String url = getContextUrl();
 
         // Run harvest scripts meant to be run before clearing the graph before loading new content.
         runHarvestScripts(Phase.PRE_PURGE, HarvestScriptType.POST_HARVEST);
 
-        int tripleCount = dao.loadContent(filesAndLoaders, url);
-        return tripleCount;
+        long stageEntered = HarvestStage.LOAD.enter();
+        try {
+            LOGGER.debug(loggerMsg("Got a loading slot, loading stage is " + HarvestStage.LOAD));
+            int tripleCount = dao.loadContent(contentStreams, url);
+            return tripleCount;
+        } finally {
+            HarvestStage.LOAD.exit(stageEntered);
+        }
     }
 
     /**
@@ -20,8 +20,10 @@
  * Jaanus Heinlaid, Tieto Eesti*/
 package eionet.cr.harvest;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import eionet.cr.harvest.scheduled.HarvestingJob;
@@ -33,8 +35,8 @@ import eionet.cr.harvest.scheduled.HarvestingJob;
  */
 public final class CurrentHarvests {
 
-    /** Harvest currently executed by {@link HarvestingJob}. This can execute only harvest at a time. */
-    private static Harvest queuedHarvest;
+    /** Harvests currently executed by {@link HarvestingJob}, in the order they were queued. */
+    private static List<Harvest> queuedHarvests = new ArrayList<Harvest>();
 
     /** Map of on-going on-demand harvests. Key is source URL, value is harvesting user. */
     private static LinkedHashMap<String, String> onDemandHarvests = new LinkedHashMap<String, String>();
@@ -47,20 +49,80 @@ public final class CurrentHarvests {
     }
 
     /**
-     * Returns the harvest currently executed by {@link HarvestingJob}. This can execute only harvest at a time.
+     * Returns the first of the harvests currently executed by {@link HarvestingJob}, or null if there is none.
+     * See {@link #getQueuedHarvests()} for getting all of them.
      *
      * @return the queuedHarvest
      */
     public static synchronized Harvest getQueuedHarvest() {
-        return queuedHarvest;
+        return queuedHarvests.isEmpty() ? null : queuedHarvests.get(0);
     }
 
     /**
-     * Sets the harvest currently executed by {@link HarvestingJob}. This can execute only harvest at a time.
+     * Replaces all the harvests currently executed by {@link HarvestingJob} with the given one. If the given harvest is null,
+     * the effect is that no harvest is registered as currently executed by {@link HarvestingJob}.
+     *
      * @param queuedHarvest the queuedHarvest to set
      */
     public static synchronized void setQueuedHarvest(Harvest queuedHarvest) {
-        CurrentHarvests.queuedHarvest = queuedHarvest;
+        queuedHarvests.clear();
+        if (queuedHarvest != null) {
+            queuedHarvests.add(queuedHarvest);
+        }
+    }
+
+    /**
+     * Returns an unmodifiable copy of the list of harvests currently executed by {@link HarvestingJob}.
+     *
+     * @return The list as indicated above, in the order the harvests were queued.
+     */
+    public static synchronized List<Harvest> getQueuedHarvests() {
+        return Collections.unmodifiableList(new ArrayList<Harvest>(queuedHarvests));
+    }
+
+    /**
+     * Register the given harvest as currently executed by {@link HarvestingJob}.
+     *
+     * @param harvest The harvest.
+     */
+    public static synchronized void addQueuedHarvest(Harvest harvest) {
+
+        if (harvest != null) {
+            queuedHarvests.add(harvest);
+        }
+    }
+
+    /**
+     * Remove the given harvest from the ones currently executed by {@link HarvestingJob}.
+     *
+     * @param harvest The harvest.
+     */
+    public static synchronized void removeQueuedHarvest(Harvest harvest) {
+
+        if (harvest != null) {
+            queuedHarvests.remove(harvest);
+        }
+    }
+
+    /**
+     * Returns true if the given URL is currently being harvested by {@link HarvestingJob}. On-demand harvests are not considered.
+     *
+     * @param url The URL to check.
+     * @return The flag as indicated above.
+     */
+    public static synchronized boolean isQueued(String url) {
+
+        if (url == null) {
+            return false;
+        }
+
+        for (Harvest harvest : queuedHarvests) {
+            if (harvest.isBeingHarvested(url)) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
     /**
@@ -100,7 +162,7 @@ public final class CurrentHarvests {
             return false;
         }
 
-        if (queuedHarvest != null && queuedHarvest.isBeingHarvested(url)) {
+        if (isQueued(url)) {
             return true;
         }
 
@@ -23,20 +23,20 @@ package eionet.cr.harvest;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URLEncoder;
 import java.nio.channels.FileLockInterruptionException;
 import java.text.MessageFormat;
-import java.util.Collections;
-import java.util.List;
 import java.util.Map.Entry;
 
 import javax.imageio.IIOException;
 import javax.xml.parsers.ParserConfigurationException;
 
-import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 
 import org.openrdf.rio.RDFFormat;
@@ -48,10 +48,16 @@ import org.xml.sax.SAXException;
 
 import eionet.cr.common.CRRuntimeException;
 import eionet.cr.config.GeneralConfig;
+import eionet.cr.harvest.load.ContentLoader;
+import eionet.cr.harvest.load.ContentStream;
+import eionet.cr.harvest.load.FileContentStream;
+import eionet.cr.harvest.load.RDFFormatLoader;
+import eionet.cr.harvest.util.ContentSniff;
 import eionet.cr.harvest.util.FileRdfFormatDetector;
 import eionet.cr.util.CompressUtil;
-import eionet.cr.util.FileDeletionJob;
 import eionet.cr.util.FileUtil;
+import eionet.cr.util.TempSpace;
+import eionet.cr.util.UnpackedInputStream;
 import eionet.cr.util.xml.ConversionSchema;
 import eionet.cr.util.xml.ConversionsParser;
 import eionet.cr.util.xml.XmlAnalysis;
@@ -65,6 +71,9 @@ public class FileToRdfProcessor {
     /** Static Log4j logger for this class. */
     private static final Logger LOGGER = LoggerFactory.getLogger(FileToRdfProcessor.class);
 
+    /** Size of the buffer used for unpacking. */
+    private static final int BUFFER_SIZE = 8192;
+
     /** The file to process. */
     private File file;
 
@@ -103,7 +112,7 @@ public class FileToRdfProcessor {
 
     /**
      *
-     * @return file if type was known and detected otherwise null
+     * @return content to load, with a loader of the detected RDF format, or null if no RDF could be processed out of the file
      * @throws IOException
      *             if error at I/O level
      * @throws SAXException
@@ -113,156 +122,152 @@ public class FileToRdfProcessor {
      * @throws RDFHandlerException
      *             if exception occurs in RDF parser
      */
-    public File process() throws IOException, SAXException, RDFHandlerException, RDFParseException {
+    public ContentStream process() throws IOException, SAXException, RDFHandlerException, RDFParseException {
 
-        // Try unpacking (if the file is not zipped/archived, reference to the same file is returned,
-        // otherwise reference to the newly created unpacked file is returned)
-        File unpackedFile = tryUnpack(file);
-        if (unpackedFile != file) {
-            LOGGER.debug(loggerMsg("File was zipped!"));
+        // If the file is zipped/archived, unpack it once into a temporary file, so that the content is not decompressed again
+        // by every pass over it (sniffing, XML analysis, format detection, loading).
+        File contentFile = unpack();
+        ContentStream result = null;
+        try {
+            result = process(contentFile);
+            return result;
+        } finally {
+            boolean isResult = result instanceof FileContentStream && ((FileContentStream) result).getFile().equals(contentFile);
+            if (contentFile != file && !isResult) {
+                TempSpace.release(contentFile);
+            }
         }
+    }
 
-        // initialize result to null
-        File resultFile = null;
-        try {
-            // See if the unzipped (if it was zipped) file is an XML that can be processed into RDF.
-            XmlAnalysis xmlAnalysis = createXmlAnalysis(unpackedFile);
-            if (xmlAnalysis != null) {
-
-                // File seems to be XML.
-                // Get the file's start element: if it is RDF, the result will be the file as it is.
-                String startElemUri = xmlAnalysis.getStartElemUri();
-                if (startElemUri != null && startElemUri.startsWith("http://www.w3.org/1999/02/22-rdf-syntax-ns#RDF")) {
-                    // Unlikely to reach this block, as we already detected above that the file was not of any RDF format.
-                    LOGGER.debug(loggerMsg("Seems to be XML file with rdf:RDF start element"));
-                    resultFile = unpackedFile;
-                    rdfFormat = RDFFormat.RDFXML;
-                } else {
-                    // The file's start element was not RDF, so try to convert it to RDF.
-                    LOGGER.debug(loggerMsg("Seems to be XML file, attempting RDF conversion"));
-
-                    conversionSchema = xmlAnalysis.getConversionSchema();
-                    resultFile = attemptRdfConversion(unpackedFile, conversionSchema.getStringValue(), contextUrl);
-                    if (resultFile != null) {
-                        rdfFormat = RDFFormat.RDFXML;
-                    }
-                }
+    /**
+     * Processes the given file's content, see {@link #process()}.
+     *
+     * @param contentFile The file to process, or the temporary file that it was unpacked into.
+     * @return content to load, with a loader of the detected RDF format, or null if no RDF could be processed out of the file
+     * @throws IOException
+     *             if error at I/O level
+     * @throws SAXException
+     *             if error in SAX parser when analyzing XML
+     * @throws RDFParseException
+     *             if RDF parser fails
+     * @throws RDFHandlerException
+     *             if exception occurs in RDF parser
+     */
+    private ContentStream process(File contentFile) throws IOException, SAXException, RDFHandlerException, RDFParseException {
+
+        // Have a quick look at the first bytes of the content, so that it is not needlessly parsed for formats that it cannot
+        // be in.
+        ContentStream content = new FileContentStream(contentFile, null);
+        ContentSniff sniff = ContentSniff.sniff(contentFile);
+        LOGGER.debug(loggerMsg("Content sniffed as " + sniff));
+
+        // See if the (unpacked) content is an XML that can be processed into RDF.
+        XmlAnalysis xmlAnalysis = sniff.isPossiblyXml() ? createXmlAnalysis(content) : null;
+        if (xmlAnalysis != null) {
+
+            // Content seems to be XML.
+            // Get the content's start element: if it is RDF, the result will be the content as it is.
+            String startElemUri = xmlAnalysis.getStartElemUri();
+            if (startElemUri != null && startElemUri.startsWith("http://www.w3.org/1999/02/22-rdf-syntax-ns#RDF")) {
+                LOGGER.debug(loggerMsg("Seems to be XML file with rdf:RDF start element"));
+                rdfFormat = RDFFormat.RDFXML;
             } else {
-                // The file wasn't XML, so see if it is any of the supported RDF formats.
-                FileRdfFormatDetector rdfFormatDetector = new FileRdfFormatDetector();
-                rdfFormat = rdfFormatDetector.detect(unpackedFile, contextUrl);
-                if (rdfFormat != null) {
-                    // File was one of RDF formats, so assign to result file.
-                    resultFile = unpackedFile;
-                } else {
-                    // File was not of any RDF format, but log any parsing errors encountered in the process.
-                    for (Entry<RDFFormat, Exception> entry : rdfFormatDetector.getParsingExceptions().entrySet()) {
-                        String formatName = entry.getKey().getName();
-                        Exception formatParsingException = entry.getValue();
-                        LOGGER.debug(loggerMsg("Probably not a (valid) " + formatName + " file: " + formatParsingException));
-                    }
+                // The content's start element was not RDF, so try to convert it to RDF.
+                LOGGER.debug(loggerMsg("Seems to be XML file, attempting RDF conversion"));
 
+                conversionSchema = xmlAnalysis.getConversionSchema();
+                File convertedFile = attemptRdfConversion(contentFile, conversionSchema.getStringValue(), contextUrl);
+                if (convertedFile != null) {
+                    rdfFormat = RDFFormat.RDFXML;
+                    return new FileContentStream(convertedFile, new RDFFormatLoader(rdfFormat));
                 }
+                return null;
             }
-
-            // Return the final resulting file.
-            // May be null if the file was not of any RDF format, or not an XML that could be converted into RDF.
-            // Shortly: may be null if no RDF format was possible to process out of this file.
-            return resultFile;
-
-        } finally {
-            // if the result that's going to be returned is not the unzipped file,
-            // then delete the latter, as it won't be used outside of this method any more
-            // (this includes the case where the result is null)
-
-            // if file = unzippedFile (in case it could not be unzipped) it is deleted in the calling method
-            // will be excluded here to prevent local non-RDF (binary) files to be deleted
-            if (resultFile != unpackedFile && file != unpackedFile) {
-                FileDeletionJob.register(unpackedFile);
+        } else {
+            // The content wasn't XML, so see if it is any of the supported RDF formats.
+            FileRdfFormatDetector rdfFormatDetector = new FileRdfFormatDetector();
+            rdfFormat = rdfFormatDetector.detect(content, contextUrl, sniff);
+            if (rdfFormat == null) {
+                // Content was not of any RDF format, but log any parsing errors encountered in the process.
+                for (Entry<RDFFormat, Exception> entry : rdfFormatDetector.getParsingExceptions().entrySet()) {
+                    String formatName = entry.getKey().getName();
+                    Exception formatParsingException = entry.getValue();
+                    LOGGER.debug(loggerMsg("Probably not a (valid) " + formatName + " file: " + formatParsingException));
+                }
+                return null;
             }
         }
+
+        // The content is in the detected RDF format, so return it as it is.
+        return new FileContentStream(contentFile, new RDFFormatLoader(rdfFormat));
     }
 
     /**
-     * Attempts to unpack the given file.
-     *
-     * First the method checks if this is a compressed file (e.g. gzipped). If yes, then the file is uncompressed and it is checked
-     * if the latter is an archive file (e.g. TAR, ZIP) in which case the archive's first entry is what is finally returned by the
-     * method. If the uncompressed file is not an archive file, then the method returns the uncompressed file.
-     *
-     * However, if the original file was not a compressed file and actually happens to be an archive file, then again the archive's
-     * first entry is what is returned by the method.
-     *
-     * In all other cases the original file is returned as it is.
+     * Unpacks the file into a temporary file next to it, if it is compressed and/or archived (see
+     * {@link CompressUtil#openUnpacked(File)}). The unpacked content is bounded by
+     * {@link ArchiveEntriesProcessor#getMaxExtractedBytes()}.
      *
-     * @param file The file to process.
-     * @return The resulting file (may be the input file itself, it wasn't a packed file at all).
+     * @return The temporary file, to be released by the caller, or the file itself if it is not packed.
+     * @throws IOException If unpacking fails, or the unpacked content exceeds the allowed size.
      */
-    private File tryUnpack(File file) {
+    private File unpack() throws IOException {
 
-        File uncompressedFile = new File(file.getAbsolutePath() + ".uncmopressed");
+        UnpackedInputStream inputStream = CompressUtil.openUnpacked(file);
         try {
-            CompressUtil.uncompress(file, uncompressedFile);
-        } catch (IOException e) {
-            // Decompression failed, but check if this is an archive file.
-            List<ArchiveEntry> archiveEntries = CompressUtil.getArchiveEntries(file);
-            if (CollectionUtils.isNotEmpty(archiveEntries)) {
-                // Looks like archived file, so lets extract the first file.
-                String firstEntryName = archiveEntries.iterator().next().getName();
-                String extractedFileName = file.getName() + ".extracted";
-                try {
-                    CompressUtil.extract(file, Collections.singletonMap(firstEntryName, extractedFileName));
-                    return new File(file.getParent(), extractedFileName);
-                } catch (IOException ee) {
-                    // Extraction failed, yet at this point it *must* be an archived file. So lets just return the original file.
-                    return file;
-                }
-            } else {
-                // Not an archive file either, so return the original file as it is.
+            if (!inputStream.isUnpacked()) {
                 return file;
             }
-        }
+            LOGGER.debug(loggerMsg("File is packed, unpacking " + inputStream));
+
+            try {
+                TempSpace.awaitSpace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for temporary space to unpack " + file);
+            }
 
-        if (uncompressedFile.exists() && uncompressedFile.isFile()) {
-
-            // Check if the uncompressed file is an archive file.
-            List<ArchiveEntry> archiveEntries = CompressUtil.getArchiveEntries(uncompressedFile);
-            if (CollectionUtils.isNotEmpty(archiveEntries)) {
-
-                // Looks like archived file, so lets extract the first file.
-                String firstEntryName = archiveEntries.iterator().next().getName();
-                String extractedFileName = file.getName() + ".extracted";
-                try {
-                    CompressUtil.extract(uncompressedFile, Collections.singletonMap(firstEntryName, extractedFileName));
-                    // Ensure the uncompressed file gets deleted.
-                    FileDeletionJob.register(uncompressedFile);
-                    // Return final file, i.e. the extracted one.
-                    return new File(file.getParent(), extractedFileName);
-                } catch (IOException e) {
-                    // Extraction failed, yet at this point it *must* be an archived file. So lets just return the original file.
-                    return file;
+            File unpackedFile = new File(file.getAbsolutePath() + ".unpacked");
+            TempSpace.track(unpackedFile);
+            OutputStream outputStream = null;
+            try {
+                outputStream = new FileOutputStream(unpackedFile);
+                long maxBytes = ArchiveEntriesProcessor.getMaxExtractedBytes();
+                long total = 0L;
+                byte[] buffer = new byte[BUFFER_SIZE];
+                for (int n = inputStream.read(buffer); n >= 0; n = inputStream.read(buffer)) {
+                    if (maxBytes > 0 && total + n > maxBytes) {
+                        throw new IOException("Unpacked content exceeds the max size of " + maxBytes + " bytes: " + file);
+                    }
+                    outputStream.write(buffer, 0, n);
+                    total += n;
                 }
-            } else {
-                // The uncompressed file is not an archive file, so return it as it is.
-                return uncompressedFile;
+            } catch (IOException e) {
+                IOUtils.closeQuietly(outputStream);
+                TempSpace.release(unpackedFile);
+                throw e;
+            } finally {
+                IOUtils.closeQuietly(outputStream);
+                TempSpace.update(unpackedFile);
             }
-        } else {
-            // no uncompressed file actually existing
-            return file;
+            return unpackedFile;
+        } finally {
+            IOUtils.closeQuietly(inputStream);
         }
     }
 
     /**
      *
-     * @param file
+     * @param content
      * @return
      * @throws IOException
      */
-    private XmlAnalysis createXmlAnalysis(File file) throws IOException {
+    private XmlAnalysis createXmlAnalysis(ContentStream content) throws IOException {
 
         XmlAnalysis xmlAnalysis = new XmlAnalysis();
+        InputStream inputStream = null;
         try {
-            xmlAnalysis.parse(file);
+            inputStream = content.openStream();
+            xmlAnalysis.parse(inputStream);
             return xmlAnalysis;
         } catch (ParserConfigurationException e) {
             throw new CRRuntimeException("SAX parser configuration error", e);
@@ -281,6 +286,8 @@ public class FileToRdfProcessor {
             } else {
                 LOGGER.debug(loggerMsg("Probably not a (valid) XML file: " + e));
             }
+        } finally {
+            IOUtils.closeQuietly(inputStream);
         }
 
         return null;
@@ -331,7 +338,14 @@ public class FileToRdfProcessor {
 
             // run conversion and save the response to a new file
             File convertedFile = new File(file.getAbsolutePath() + ".converted");
-            FileUtil.downloadUrlToFile(convertUrl, convertedFile);
+            TempSpace.track(convertedFile);
+            try {
+                FileUtil.downloadUrlToFile(convertUrl, convertedFile);
+            } catch (IOException e) {
+                TempSpace.release(convertedFile);
+                throw e;
+            }
+            TempSpace.update(convertedFile);
 
             // return converted file
             return convertedFile;
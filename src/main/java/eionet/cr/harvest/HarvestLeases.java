@@ -0,0 +1,225 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.harvest;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eionet.cr.config.GeneralConfig;
+import eionet.cr.dao.DAOException;
+import eionet.cr.dao.DAOFactory;
+import eionet.cr.dao.HarvestLeaseDAO;
+import eionet.cr.util.Hashes;
+
+/**
+ * A global utility class for the leases by which application instances (nodes) sharing the same database take exclusive charge
+ * of harvest sources and periodic jobs, see {@link HarvestLeaseDAO}. A node harvests a source only while holding the source's
+ * lease, so no source is harvested by two nodes at once. Periodic jobs that must run on one node only (e.g. the source deletion
+ * job) run on the node that holds the job's lease.
+ *
+ * The leases held by this node are renewed by a heartbeat thread. When a node dies, its leases expire and other nodes take
+ * them over. Where {@link CurrentHarvests} tells what this node is harvesting, the leases tell what all nodes are.
+ *
+ * @author agent
+ */
+public final class HarvestLeases {
+
+    /** */
+    private static final Logger LOGGER = LoggerFactory.getLogger(HarvestLeases.class);
+
+    /** Default time after which a lease expires unless renewed, in milliseconds. */
+    public static final int DEFAULT_LEASE_TIME = 5 * 60 * 1000;
+
+    /** This node's id, lazily determined. */
+    private static String nodeId;
+
+    /** The heartbeat thread, lazily started at the first acquired lease. */
+    private static ScheduledExecutorService heartbeat;
+
+    /**
+     * Hide utility class constructor.
+     */
+    private HarvestLeases() {
+        // Hide utility class constructor.
+    }
+
+    /**
+     * @param sourceUrl URL of a harvest source.
+     * @return Name of the given harvest source's lease.
+     */
+    public static String sourceLeaseName(String sourceUrl) {
+        return "source:" + Hashes.spoHash(sourceUrl);
+    }
+
+    /**
+     * @param jobName Name of a periodic job.
+     * @return Name of the given job's lease.
+     */
+    public static String jobLeaseName(String jobName) {
+        return "job:" + jobName;
+    }
+
+    /**
+     * Acquires the lease of the given name for this node. Always succeeds if leases are disabled.
+     *
+     * @param leaseName Name of the lease.
+     * @return True if acquired (or already held by this node), false if held by another node or acquiring failed.
+     */
+    public static boolean acquire(String leaseName) {
+
+        int leaseTime = getLeaseTime();
+        if (leaseTime <= 0) {
+            return true;
+        }
+
+        try {
+            boolean acquired = getDao().acquire(leaseName, getNodeId(), toSeconds(leaseTime));
+            if (acquired) {
+                startHeartbeat(leaseTime);
+            }
+            return acquired;
+        } catch (DAOException e) {
+            LOGGER.error("Failed to acquire lease " + leaseName, e);
+            return false;
+        }
+    }
+
+    /**
+     * Releases the lease of the given name, if held by this node.
+     *
+     * @param leaseName Name of the lease.
+     */
+    public static void release(String leaseName) {
+
+        if (getLeaseTime() <= 0) {
+            return;
+        }
+
+        try {
+            getDao().release(leaseName, getNodeId());
+        } catch (DAOException e) {
+            LOGGER.error("Failed to release lease " + leaseName + ", it will expire by itself", e);
+        }
+    }
+
+    /**
+     * Stops the heartbeat and releases all leases held by this node, so that other nodes can take them over straight away.
+     */
+    public static synchronized void shutdown() {
+
+        if (heartbeat == null) {
+            return;
+        }
+
+        heartbeat.shutdownNow();
+        heartbeat = null;
+        try {
+            getDao().releaseAll(getNodeId());
+        } catch (DAOException e) {
+            LOGGER.error("Failed to release the leases of node " + getNodeId() + ", they will expire by themselves", e);
+        }
+    }
+
+    /**
+     * Returns the id of this node: the configured one, or the host name if none configured.
+     *
+     * @return The id.
+     */
+    public static synchronized String getNodeId() {
+
+        if (nodeId == null) {
+            nodeId = GeneralConfig.getProperty(GeneralConfig.HARVESTER_NODE_ID);
+            if (StringUtils.isBlank(nodeId) || nodeId.startsWith("${")) {
+                try {
+                    nodeId = InetAddress.getLocalHost().getHostName();
+                } catch (UnknownHostException e) {
+                    nodeId = "localhost";
+                }
+            }
+            LOGGER.info("Harvest leases are held by node id " + nodeId);
+        }
+        return nodeId;
+    }
+
+    /**
+     * Starts the heartbeat thread that renews this node's leases at a third of the lease time, unless already started.
+     *
+     * @param leaseTime The lease time in milliseconds.
+     */
+    private static synchronized void startHeartbeat(final int leaseTime) {
+
+        if (heartbeat != null) {
+            return;
+        }
+
+        heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "harvest-lease-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        long period = Math.max(1000L, leaseTime / 3);
+        heartbeat.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getDao().renew(getNodeId(), toSeconds(leaseTime));
+                } catch (Exception e) {
+                    LOGGER.error("Failed to renew the leases of node " + getNodeId(), e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The configured lease time in milliseconds, zero or less if leases are disabled.
+     */
+    private static int getLeaseTime() {
+        return GeneralConfig.getTimePropertyMilliseconds(GeneralConfig.HARVESTER_LEASE_TIME, DEFAULT_LEASE_TIME);
+    }
+
+    /**
+     * @param millis
+     * @return
+     */
+    private static int toSeconds(int millis) {
+        return Math.max(1, millis / 1000);
+    }
+
+    /**
+     * @return
+     */
+    private static HarvestLeaseDAO getDao() {
+        return DAOFactory.get().getDao(HarvestLeaseDAO.class);
+    }
+}
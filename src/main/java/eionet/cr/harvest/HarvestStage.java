@@ -0,0 +1,208 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by TripleDev or Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.harvest;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eionet.cr.config.GeneralConfig;
+
+/**
+ * One stage of the harvest pipeline: network fetch, content processing (unpacking, format detection, conversion) and
+ * triple-store loading. Every stage has its own configurable number of slots. A harvest that has finished a stage releases
+ * that stage's slot before waiting for a slot of the next stage, so that while one harvest is loading, another can already
+ * download. The harvests waiting for a slot form the bounded hand-off queue between two stages; its capacity is bounded by the
+ * number of harvest workers (see {@link eionet.cr.harvest.scheduled.HarvestExecutor}). The download stage is entered before
+ * the connection to the source is opened, so that no connection is held open while waiting for a slot.
+ *
+ * A stage also keeps simple statistics of its own usage.
+ *
+ * Usage:
+ * <pre>
+ * long started = HarvestStage.LOAD.enter();
+ * try {
+ *     ...
+ * } finally {
+ *     HarvestStage.LOAD.exit(started);
+ * }
+ * </pre>
+ *
+ * @author agent
+ */
+public final class HarvestStage {
+
+    /** Default number of slots of the download stage. */
+    public static final int DEFAULT_DOWNLOAD_SLOTS = 4;
+
+    /** Default number of slots of the content processing stage. */
+    public static final int DEFAULT_PROCESS_SLOTS = 2;
+
+    /** Default number of slots of the triple-store loading stage. */
+    public static final int DEFAULT_LOAD_SLOTS = 2;
+
+    /** The network fetch stage. */
+    public static final HarvestStage DOWNLOAD = new HarvestStage("download", GeneralConfig.HARVESTER_DOWNLOAD_SLOTS,
+            DEFAULT_DOWNLOAD_SLOTS);
+
+    /** The content processing stage (unpacking, format detection, conversion). */
+    public static final HarvestStage PROCESS = new HarvestStage("process", GeneralConfig.HARVESTER_PROCESS_SLOTS,
+            DEFAULT_PROCESS_SLOTS);
+
+    /** The triple-store loading stage. */
+    public static final HarvestStage LOAD = new HarvestStage("load", GeneralConfig.HARVESTER_LOAD_SLOTS, DEFAULT_LOAD_SLOTS);
+
+    /** The stage's name. */
+    private final String name;
+
+    /** Configuration key of the stage's number of slots. */
+    private final String slotsPropertyKey;
+
+    /** The stage's number of slots if not configured. */
+    private final int defaultSlots;
+
+    /** The stage's slots. Null if the number of slots is unlimited. Lazily initialized, see {@link #getSlots()}. */
+    private Semaphore slots;
+
+    /** True if {@link #slots} has been initialized. */
+    private boolean initialized;
+
+    /** Number of times the stage has been entered. */
+    private final AtomicLong entries = new AtomicLong();
+
+    /** Total milliseconds spent waiting for a slot. */
+    private final AtomicLong waitMillis = new AtomicLong();
+
+    /** Total milliseconds spent in the stage. */
+    private final AtomicLong busyMillis = new AtomicLong();
+
+    /** Number of harvests currently in the stage. */
+    private final AtomicLong active = new AtomicLong();
+
+    /**
+     * Creates a new stage.
+     *
+     * @param name The stage's name.
+     * @param slotsPropertyKey Configuration key of the stage's number of slots.
+     * @param defaultSlots The stage's number of slots if not configured.
+     */
+    HarvestStage(String name, String slotsPropertyKey, int defaultSlots) {
+        this.name = name;
+        this.slotsPropertyKey = slotsPropertyKey;
+        this.defaultSlots = defaultSlots;
+    }
+
+    /**
+     * Waits for a free slot of this stage and takes it.
+     *
+     * @return The time (milliseconds) the stage was entered, to be passed to {@link #exit(long)}.
+     */
+    public long enter() {
+
+        long waitStarted = System.currentTimeMillis();
+        Semaphore semaphore = getSlots();
+        if (semaphore != null) {
+            semaphore.acquireUninterruptibly();
+        }
+
+        long entered = System.currentTimeMillis();
+        waitMillis.addAndGet(entered - waitStarted);
+        entries.incrementAndGet();
+        active.incrementAndGet();
+        return entered;
+    }
+
+    /**
+     * Releases the slot taken by {@link #enter()}.
+     *
+     * @param entered The value returned by {@link #enter()}.
+     */
+    public void exit(long entered) {
+
+        busyMillis.addAndGet(System.currentTimeMillis() - entered);
+        active.decrementAndGet();
+        Semaphore semaphore = getSlots();
+        if (semaphore != null) {
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Lazy getter for the stage's slots.
+     *
+     * @return The slots, or null if the number of slots is unlimited.
+     */
+    private synchronized Semaphore getSlots() {
+
+        if (!initialized) {
+            int noOfSlots = GeneralConfig.getIntProperty(slotsPropertyKey, defaultSlots);
+            slots = noOfSlots > 0 ? new Semaphore(noOfSlots, true) : null;
+            initialized = true;
+        }
+        return slots;
+    }
+
+    /**
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Number of times the stage has been entered.
+     */
+    public long getEntries() {
+        return entries.get();
+    }
+
+    /**
+     * @return Total milliseconds spent waiting for a slot of this stage.
+     */
+    public long getWaitMillis() {
+        return waitMillis.get();
+    }
+
+    /**
+     * @return Total milliseconds spent in this stage.
+     */
+    public long getBusyMillis() {
+        return busyMillis.get();
+    }
+
+    /**
+     * @return Number of harvests currently in this stage.
+     */
+    public long getActive() {
+        return active.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return name + " [entries=" + entries + ", active=" + active + ", waitMillis=" + waitMillis + ", busyMillis="
+                + busyMillis + "]";
+    }
+}
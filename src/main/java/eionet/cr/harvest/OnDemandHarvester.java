@@ -112,6 +112,7 @@ public final class OnDemandHarvester extends Thread {
                 // needsHarvesting = true;//instantHarvest.needsHarvesting;
             }
             CurrentHarvests.removeOnDemandHarvest(sourceUrl);
+            HarvestLeases.release(HarvestLeases.sourceLeaseName(sourceUrl));
         }
     }
 
@@ -139,6 +140,9 @@ public final class OnDemandHarvester extends Thread {
 
         if (CurrentHarvests.contains(sourceUrl)) {
             return Resolution.ALREADY_HARVESTING;
+        } else if (!HarvestLeases.acquire(HarvestLeases.sourceLeaseName(sourceUrl))) {
+            // Being harvested by another node.
+            return Resolution.ALREADY_HARVESTING;
         }
 
         CurrentHarvests.addOnDemandHarvest(sourceUrl, userName);
@@ -177,6 +181,7 @@ public final class OnDemandHarvester extends Thread {
             // any more, make sure the current-harvest-source-url is nullified
             if (instantHarvester == null || !instantHarvester.isAlive()) {
                 CurrentHarvests.removeOnDemandHarvest(sourceUrl);
+                HarvestLeases.release(HarvestLeases.sourceLeaseName(sourceUrl));
             }
         }
     }
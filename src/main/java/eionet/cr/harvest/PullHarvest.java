@@ -21,23 +21,31 @@
 
 package eionet.cr.harvest;
 
+import eionet.cr.common.CRRuntimeException;
 import eionet.cr.common.Predicates;
-import eionet.cr.common.TempFilePathGenerator;
 import eionet.cr.config.GeneralConfig;
 import eionet.cr.dao.*;
 import eionet.cr.dto.*;
 import eionet.cr.filestore.FileStore;
 import eionet.cr.harvest.load.ContentLoader;
+import eionet.cr.harvest.load.ContentStream;
 import eionet.cr.harvest.load.FeedFormatLoader;
+import eionet.cr.harvest.load.FileContentStream;
+import eionet.cr.harvest.load.MemoryContentStream;
+import eionet.cr.harvest.load.PagedContentStream;
 import eionet.cr.harvest.load.RDFFormatLoader;
 import eionet.cr.harvest.util.HarvestMessageType;
+import eionet.cr.harvest.util.HostThrottle;
+import eionet.cr.harvest.util.HostUnavailableException;
 import eionet.cr.harvest.util.MediaTypeToDcmiTypeConverter;
 import eionet.cr.harvest.util.RDFMediaTypes;
 import eionet.cr.harvest.util.RedirectionDTO;
-import eionet.cr.util.FileDeletionJob;
+import eionet.cr.util.TempSpace;
 import eionet.cr.util.URLUtil;
 import eionet.cr.util.Util;
+import eionet.cr.util.sesame.SPARQLQueryUtil;
 import eionet.cr.util.xml.ConversionsParser;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
@@ -52,8 +60,23 @@ import org.xml.sax.SAXException;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static eionet.cr.harvest.ResponseCodeUtil.*;
 
@@ -74,17 +97,41 @@ public class PullHarvest extends BaseHarvest {
     /** Number of redirections to follow before giving up. */
     private static final int MAX_REDIRECTIONS = 4;
 
+    /** Default max size (bytes) of content kept in memory, see {@link GeneralConfig#HARVESTER_IN_MEMORY_CONTENT_THRESHOLD}. */
+    private static final int DEFAULT_IN_MEMORY_CONTENT_THRESHOLD = 4 * 1024 * 1024;
+
+    /** Default number of threads for executing remote endpoint harvest queries. */
+    private static final int DEFAULT_ENDPOINT_QUERY_THREADS = 4;
+
+    /** Default number of solutions per page of paged endpoint harvest queries. */
+    private static final int DEFAULT_ENDPOINT_PAGE_SIZE = 100000;
+
+    /** "Accept" HTTP header when executing paged endpoint harvest queries, whose pages must be in N-Triples. */
+    private static final String NTRIPLES_ACCEPT_HEADER = "application/n-triples,text/plain;q=0.9";
+
     /** Default "Accept" HTTP header when submitting HTTP requests to sources. */
     private static final String ACCEPT_HEADER = StringUtils.join(RDFMediaTypes.collection(), ',') + ",text/xml,*/*;q=0.6";
 
+    /** Algorithm of the digest computed from the downloaded content. */
+    private static final String CONTENT_DIGEST_ALGORITHM = "SHA-256";
+
+    /** Threads executing the harvest queries of remote endpoints, see {@link #getEndpointQueryThreads()}. */
+    private static ExecutorService endpointQueryThreads;
+
     /** Was the source available? */
     private boolean isSourceAvailable;
 
+    /** Hex-encoded digest of the content downloaded by this harvest, computed while downloading. */
+    private String contentDigest;
+
     /** */
     private final List<String> redirectedUrls = new ArrayList<String>();
     private List<RedirectionDTO> redirections = new ArrayList<RedirectionDTO>();
     private Set<String> sourcesToDelete = new LinkedHashSet<>();
 
+    /** The time this harvest entered the download stage of a URL harvest, 0 if not in the stage. */
+    private long downloadStageEntered;
+
     /**
      * Instantiates a new pull harvest.
      *
@@ -193,8 +240,7 @@ public class PullHarvest extends BaseHarvest {
 
         httpResponseCode = NO_RESPONSE;
         String responseMessage = null;
-        File downloadedFile = null;
-        HashMap<File, ContentLoader> filesAndLoaders = new HashMap<File, ContentLoader>();
+        List<ContentStream> contentStreams = new ArrayList<ContentStream>();
 
         try {
             // First see if this particular endpoint has any active harvest queries mapped to it at all.
@@ -208,66 +254,91 @@ public class PullHarvest extends BaseHarvest {
                 return;
             }
 
-            // Loop through the harvest queries, execute each one of them on the remote repository, save each response to a local
-            // temporary file. Then load all these files, and delete them afterwards.
-            // If any of the submitted queries fails, then so does the whole harvest of this remote endpoint.
+            // Execute the harvest queries on the remote repository concurrently, keep each response in memory or save it to a
+            // local temporary file (if too big). CONSTRUCT queries are executed page by page: their first page is downloaded
+            // here, and the rest are streamed straight into the loader. Then go through the responses in the order of the queries, load them
+            // all, and delete the files afterwards. If any of the submitted queries fails, then so does the whole harvest of this
+            // remote endpoint. All queries are waited for to complete, so that all their files get deleted in the end.
+
+            List<Callable<EndpointQueryResponse>> tasks = new ArrayList<Callable<EndpointQueryResponse>>();
+            for (final EndpointHarvestQueryDTO queryDTO : queries) {
+                tasks.add(new Callable<EndpointQueryResponse>() {
+                    @Override
+                    public EndpointQueryResponse call() throws Exception {
+                        return executeEndpointQuery(endpointUrl, queryDTO);
+                    }
+                });
+            }
+            List<Future<EndpointQueryResponse>> futures = getEndpointQueryThreads().invokeAll(tasks);
+
+            List<EndpointQueryResponse> responses = new ArrayList<EndpointQueryResponse>();
+            for (Future<EndpointQueryResponse> future : futures) {
+                EndpointQueryResponse response;
+                try {
+                    response = future.get();
+                } catch (ExecutionException e) {
+                    response = new EndpointQueryResponse(e.getCause());
+                }
+                downloaded(response.download);
+                responses.add(response);
+                if (response.contentStream != null) {
+                    contentStreams.add(response.contentStream);
+                }
+            }
 
             HttpURLConnection endpointConn = null;
-            for (EndpointHarvestQueryDTO queryDTO : queries) {
+            for (EndpointQueryResponse response : responses) {
 
-                int queryId = queryDTO.getId();
-                LOGGER.debug(loggerMsg("Executing endpoint harvest query with id = " + queryId));
+                if (response.exception instanceof Exception) {
+                    throw (Exception) response.exception;
+                } else if (response.exception != null) {
+                    throw new HarvestException(response.exception.toString(), response.exception);
+                }
 
-                try {
-                    endpointConn = prepareEndpointConnection(endpointUrl, queryDTO.getQuery());
-                    try {
-                        httpResponseCode = endpointConn.getResponseCode();
-                        responseMessage = endpointConn.getResponseMessage();
-                    } catch (IOException ioe) {
-                        // an error when connecting to server is considered a temporary error-
-                        // don't throw it, but log in the database and exit
-                        LOGGER.debug(loggerMsg("Error when connecting to server: " + ioe));
-                        finishWithError(NO_RESPONSE, null, ioe);
-                        return;
-                    }
+                endpointConn = response.connection;
+                httpResponseCode = response.responseCode;
+                responseMessage = response.responseMessage;
+                if (response.connectException instanceof HostUnavailableException) {
+                    LOGGER.debug(loggerMsg(response.connectException.getMessage()));
+                    finishWithHostUnavailable((HostUnavailableException) response.connectException);
+                    return;
+                } else if (response.connectException != null) {
+                    // an error when connecting to server is considered a temporary error-
+                    // don't throw it, but log in the database and exit
+                    LOGGER.debug(loggerMsg("Error when connecting to server: " + response.connectException));
+                    finishWithError(NO_RESPONSE, null, response.connectException);
+                    return;
+                }
 
-                    // Throws exception when the content-length indicated in HTTP response is more than the maximum allowed.
-                    validateContentLength(endpointConn);
-
-                    if (httpResponseCode == 200) {
-                        LOGGER.debug(loggerMsg("Downloading response of endpoint harvest query with id = " + queryId));
-                        downloadedFile = downloadFile(endpointConn);
-                        ContentLoader contentLoader = createContentLoader(endpointConn);
-                        if (contentLoader != null) {
-                            filesAndLoaders.put(downloadedFile, contentLoader);
-                        } else {
-                            String msg = "Response not in RDF or web feed format, unsupported for SPARQL endpoint harvest";
-                            LOGGER.warn(loggerMsg(msg));
-                            finishWithOK(endpointConn, getContextSourceDTO().getStatements(), msg);
-                            return;
-                        }
-                    } else if (isUnauthorized(httpResponseCode)) {
-                        LOGGER.debug(loggerMsg("Source unauthorized!"));
-                        finishWithUnauthorized();
-                        return;
-                    } else if (isError(httpResponseCode)) {
-                        LOGGER.debug(loggerMsg("Server returned error code " + httpResponseCode));
-                        finishWithError(httpResponseCode, responseMessage, null);
-                        return;
-                    } else {
-                        String msg = "Unsupported response code for SPARQL endpoint harvest: " + httpResponseCode;
+                if (httpResponseCode == 200) {
+                    if (response.contentStream == null) {
+                        String msg = "Response not in RDF or web feed format, unsupported for SPARQL endpoint harvest";
                         LOGGER.warn(loggerMsg(msg));
                         finishWithOK(endpointConn, getContextSourceDTO().getStatements(), msg);
                         return;
                     }
-                } finally {
-                    URLUtil.disconnect(endpointConn);
+                } else if (isUnauthorized(httpResponseCode)) {
+                    LOGGER.debug(loggerMsg("Source unauthorized!"));
+                    finishWithUnauthorized();
+                    return;
+                } else if (isError(httpResponseCode)) {
+                    LOGGER.debug(loggerMsg("Server returned error code " + httpResponseCode));
+                    finishWithError(httpResponseCode, responseMessage, null);
+                    return;
+                } else {
+                    String msg = "Unsupported response code for SPARQL endpoint harvest: " + httpResponseCode;
+                    LOGGER.warn(loggerMsg(msg));
+                    finishWithOK(endpointConn, getContextSourceDTO().getStatements(), msg);
+                    return;
                 }
             }
 
-            if (!filesAndLoaders.isEmpty()) {
+            // The digests of individual query responses are of no use for telling if the endpoint's content has changed.
+            contentDigest = null;
+
+            if (!contentStreams.isEmpty()) {
                 LOGGER.debug(loggerMsg("Loading downloaded query responses into triple store"));
-                int tripleCount = loadFiles(filesAndLoaders);
+                int tripleCount = loadContentStreams(contentStreams);
                 setStoredTriplesCount(tripleCount);
                 LOGGER.debug(loggerMsg("Total of " + tripleCount + " triples loaded"));
                 finishWithOK(endpointConn, tripleCount);
@@ -293,9 +364,12 @@ public class PullHarvest extends BaseHarvest {
                 throw new HarvestException(e.getMessage(), e);
             }
         } finally {
-            FileDeletionJob.register(downloadedFile);
-            for (File file : filesAndLoaders.keySet()) {
-                FileDeletionJob.register(file);
+            for (ContentStream contentStream : contentStreams) {
+                if (contentStream instanceof FileContentStream) {
+                    TempSpace.release(((FileContentStream) contentStream).getFile());
+                } else if (contentStream instanceof PagedContentStream) {
+                    ((PagedContentStream) contentStream).close();
+                }
             }
         }
     }
@@ -316,15 +390,23 @@ public class PullHarvest extends BaseHarvest {
         int noOfRedirections = 0;
 
         try {
+            // Take the download slot before connecting, and keep it over redirections until the content is downloaded.
+            downloadStageEntered = enterDownloadStage();
+
             String urlToConnect = getContextUrl();
             do {
                 LOGGER.debug(loggerMsg("Connecting " + urlToConnect));
                 urlConnection = prepareUrlConnection(urlToConnect);
 
                 try {
-                    httpResponseCode = urlConnection.getResponseCode();
+                    httpResponseCode = HostThrottle.getResponseCode(urlConnection);
                     responseMessage = urlConnection.getResponseMessage();
                     LOGGER.debug(loggerMsg("Received code " + httpResponseCode + " from " + urlToConnect));
+                } catch (HostUnavailableException hue) {
+                    // The host was not even contacted, so the harvest is postponed without charging the source.
+                    LOGGER.debug(loggerMsg(hue.getMessage()));
+                    finishWithHostUnavailable(hue);
+                    return;
                 } catch (IOException ioe) {
                     // Connecting error is considered temporary: don't throw it, log it in DB and exit.
                     LOGGER.debug("Error when connecting to server: " + ioe);
@@ -360,7 +442,7 @@ public class PullHarvest extends BaseHarvest {
                         redirections.add(new RedirectionDTO(urlToConnect, redirectLocation, httpResponseCode));
 
                         urlToConnect = redirectLocation;
-                        URLUtil.disconnect(urlConnection);
+                        URLUtil.release(urlConnection);
                     }
                 }
             } while (isRedirect(httpResponseCode));
@@ -376,9 +458,14 @@ public class PullHarvest extends BaseHarvest {
             if (!isError(httpResponseCode) && !isNotModified(httpResponseCode) && !isUnauthorized(httpResponseCode)) {
 
                 int noOfTriples = downloadAndProcessContent(urlConnection);
-                setStoredTriplesCount(noOfTriples);
-                LOGGER.debug(loggerMsg(noOfTriples + " triples loaded"));
-                finishWithOK(urlConnection, noOfTriples);
+                if (noOfTriples < 0) {
+                    LOGGER.debug(loggerMsg("Source content identical to the one of last harvest"));
+                    finishWithNotModified();
+                } else {
+                    setStoredTriplesCount(noOfTriples);
+                    LOGGER.debug(loggerMsg(noOfTriples + " triples loaded"));
+                    finishWithOK(urlConnection, noOfTriples);
+                }
 
             } else if (isNotModified(httpResponseCode)) {
                 LOGGER.debug(loggerMsg("Source not modified since last harvest"));
@@ -392,6 +479,10 @@ public class PullHarvest extends BaseHarvest {
                 LOGGER.debug(loggerMsg("Server returned error code " + httpResponseCode));
                 finishWithError(httpResponseCode, responseMessage, null);
             }
+
+            // Let the connection's socket be reused by the next request to the same host.
+            URLUtil.release(urlConnection);
+            urlConnection = null;
         } catch (Exception e) {
 
             LOGGER.debug(loggerMsg("Exception occurred (will be further logged by caller below): " + e.toString()));
@@ -411,6 +502,7 @@ public class PullHarvest extends BaseHarvest {
             }
         } finally {
             URLUtil.disconnect(urlConnection);
+            exitDownloadStage();
         }
     }
 
@@ -466,6 +558,7 @@ public class PullHarvest extends BaseHarvest {
         getContextSourceDTO().setLastHarvestFailed(false);
         getContextSourceDTO().setPermanentError(false);
         getContextSourceDTO().setCountUnavail(0);
+        getContextSourceDTO().setContentDigest(contentDigest);
 
         // add source metadata resulting from this harvest
         addSourceMetadata(urlConn, 0, null, null);
@@ -517,6 +610,22 @@ public class PullHarvest extends BaseHarvest {
         addSourceMetadata(Predicates.CR_LAST_REFRESHED, ObjectDTO.createLiteral(formatDate(new Date()), XMLSchema.DATETIME));
     }
 
+    /**
+     * Helper method for taking actions when the source's host was not connected, because it has failed too many times in a row
+     * (see {@link HostThrottle}). The harvest is postponed like after a temporary error, but the source's error flags and
+     * unavailability count are left as they are, since the source itself was not even tried.
+     *
+     * @param exception The exception telling that the host is unavailable.
+     */
+    private void finishWithHostUnavailable(HostUnavailableException exception) {
+
+        addHarvestMessage("Harvest postponed: " + exception.getMessage(), HarvestMessageType.WARNING);
+
+        // nothing new was learned about the source, so keep its previous metadata
+        getContextSourceDTO().setLastHarvest(temporaryErrorLastHarvest(new Date()));
+        setCleanAllPreviousSourceMetadata(false);
+    }
+
     /**
      * @param responseCode
      * @param exception
@@ -703,11 +812,13 @@ public class PullHarvest extends BaseHarvest {
     }
 
     /**
-     * Download and process content. If response content type is one of RDF, then proceed straight to loading. Otherwise process the
-     * file to see if it's zipped, it's an XML with RDF conversion, or actually an RDF file.
+     * Download and process content. If response content type is one of RDF, then proceed straight to loading, keeping the content
+     * in memory if it is small enough. Otherwise process the file to see if it's zipped, it's an XML with RDF conversion, or
+     * actually an RDF file.
      *
      * @param urlConn - connection to the remote source.
-     * @return number of triples harvested.
+     * @return number of triples harvested, or -1 if the content was not loaded because it is identical to the one of last harvest,
+     *         see {@link #isContentUnchanged()}.
      *
      * @throws IOException
      * @throws DAOException
@@ -718,57 +829,280 @@ public class PullHarvest extends BaseHarvest {
     private int downloadAndProcessContent(HttpURLConnection urlConn) throws IOException, DAOException, SAXException,
             RDFHandlerException, RDFParseException {
 
+        // If the downloaded content can be loaded straight away as it is, then proceed to loading straight away.
+        // Otherwise try to process the file into RDF format and *then* proceed to loading.
+
+        ContentLoader contentLoader = createContentLoader(urlConn);
+        if (contentLoader != null) {
+            contentLoader.setTimeout(getTimeout());
+            ContentStream contentStream = null;
+            try {
+                LOGGER.debug(loggerMsg("Downloading content"));
+                Download download = new Download();
+                try {
+                    contentStream = downloadContent(urlConn, contentLoader, download);
+                } finally {
+                    downloaded(download);
+                }
+                exitDownloadStage();
+                return isContentUnchanged() ? -1 : loadContentStreams(Collections.singletonList(contentStream));
+            } finally {
+                if (contentStream instanceof FileContentStream) {
+                    TempSpace.release(((FileContentStream) contentStream).getFile());
+                }
+            }
+        }
+
         File downloadedFile = null;
         try {
             LOGGER.debug(loggerMsg("Downloading file"));
-            downloadedFile = downloadFile(urlConn);
+            Download download = new Download();
+            try {
+                downloadedFile = downloadFile(urlConn, download);
+            } finally {
+                downloaded(download);
+            }
+            exitDownloadStage();
+            if (isContentUnchanged()) {
+                return -1;
+            }
+            int result = loadFileContent(downloadedFile, null);
+            return result;
+        } finally {
+            TempSpace.release(downloadedFile);
+        }
+    }
+
+    /**
+     * Download content that is to be loaded by the given loader. If the content is not bigger than
+     * {@link GeneralConfig#HARVESTER_IN_MEMORY_CONTENT_THRESHOLD}, it is kept in a heap buffer. Otherwise it is
+     * written into a temporary file, see {@link #downloadFile(HttpURLConnection)}. If the content length is not known in advance,
+     * the content is read into memory until the threshold, and spilled over into a temporary file if there is more. The caller
+     * holds a slot of the download stage. May be called by other threads than the harvest's own, so the content's size and
+     * digest are not set to the harvest, but to the given download, see {@link #downloaded(Download)}.
+     *
+     * @param urlConn - connection to the remote source.
+     * @param contentLoader - the loader that the content is meant for.
+     * @param download - the outcome of the download, to be filled in.
+     * @return the downloaded content.
+     * @throws IOException if the content is not downloadable.
+     */
+    private ContentStream downloadContent(HttpURLConnection urlConn, ContentLoader contentLoader, Download download)
+            throws IOException {
+
+        int threshold = GeneralConfig.getIntProperty(GeneralConfig.HARVESTER_IN_MEMORY_CONTENT_THRESHOLD,
+                DEFAULT_IN_MEMORY_CONTENT_THRESHOLD);
+        int contentLength = urlConn.getContentLength();
+        if (threshold <= 0 || contentLength > threshold) {
+            return new FileContentStream(downloadFile(urlConn, download), contentLoader);
+        }
+
+        InputStream inputStream = null;
+        File file = null;
+        try {
+            inputStream = openDigestingStream(urlConn);
+            download.opened = true;
+
+            // Read into memory until end of stream or until the buffer is full. The buffer is a heap one, as direct buffers of
+            // concurrent harvests are freed only by the garbage collector, and could exhaust the JVM's direct memory limit.
+            ByteBuffer buffer = ByteBuffer.allocate(contentLength >= 0 ? contentLength : threshold);
+            ReadableByteChannel channel = Channels.newChannel(inputStream);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                continue;
+            }
 
-            // If the downloaded file can be loaded straight away as it is, then proceed to loading straight away.
-            // Otherwise try to process the file into RDF format and *then* proceed to loading.
+            // If the buffer is full, check if there is more.
+            int nextByte = buffer.hasRemaining() ? -1 : inputStream.read();
+            if (nextByte < 0) {
+                buffer.flip();
+                download.byteSize = buffer.limit();
+                download.contentDigest = getContentDigest(inputStream);
+                return new MemoryContentStream(buffer, contentLoader);
+            }
 
-            ContentLoader contentLoader = createContentLoader(urlConn);
-            int result = loadFileContent(downloadedFile, contentLoader);
-            return result;
+            // There is more, so spill the buffer and the rest of the stream over into a temporary file. The temporary space was
+            // waited for before connecting, so as not to leave the connection unread meanwhile.
+            LOGGER.debug(loggerMsg("Content bigger than " + buffer.capacity() + " bytes, spilling over into a file"));
+            file = TempSpace.newFile();
+            TempSpace.reserve(file, contentLength);
+            FileOutputStream outputStream = new FileOutputStream(file);
+            try {
+                buffer.flip();
+                FileChannel fileChannel = outputStream.getChannel();
+                while (buffer.hasRemaining()) {
+                    fileChannel.write(buffer);
+                }
+                outputStream.write(nextByte);
+                download.byteSize = buffer.limit() + 1 + IOUtils.copyLarge(inputStream, outputStream);
+                download.contentDigest = getContentDigest(inputStream);
+            } finally {
+                IOUtils.closeQuietly(outputStream);
+                TempSpace.update(file);
+            }
+            return new FileContentStream(file, contentLoader);
+
+        } catch (IOException e) {
+            TempSpace.release(file);
+            URLUtil.disconnect(urlConn);
+            throw e;
         } finally {
-            FileDeletionJob.register(downloadedFile);
+            IOUtils.closeQuietly(inputStream);
         }
     }
 
     /**
-     * Download file from remote source to a temporary file locally. Side effect: adds the file size to the metadata to save in the
-     * harvester context.
+     * Download file from remote source to a temporary file locally. The caller holds a slot of the download stage. The file's
+     * size and digest are set to the given download, see {@link #downloaded(Download)}.
      *
      * @param urlConn - connection to the remote source.
+     * @param download - the outcome of the download, to be filled in.
      * @return object representing the temporary file.
      * @throws IOException if the file is not downloadable.
      */
-    private File downloadFile(HttpURLConnection urlConn) throws IOException {
+    private File downloadFile(HttpURLConnection urlConn, Download download) throws IOException {
 
         InputStream inputStream = null;
         OutputStream outputStream = null;
-        File file = TempFilePathGenerator.generate();
-        file.getParentFile().mkdirs();
+        File file = TempSpace.newFile();
+        TempSpace.reserve(file, urlConn.getContentLength());
         try {
             outputStream = new FileOutputStream(file);
-            inputStream = urlConn.getInputStream();
-            isSourceAvailable = true;
-            int bytesCopied = IOUtils.copy(inputStream, outputStream);
-
-            // add number of bytes to source metadata, unless it's already there
-            addSourceMetadata(Predicates.CR_BYTE_SIZE, ObjectDTO.createLiteral(bytesCopied));
+            inputStream = openDigestingStream(urlConn);
+            download.opened = true;
+            download.byteSize = IOUtils.copyLarge(inputStream, outputStream);
+            download.contentDigest = getContentDigest(inputStream);
 
         } catch (IOException e) {
-            FileDeletionJob.register(file);
+            TempSpace.release(file);
+            URLUtil.disconnect(urlConn);
             throw e;
         } finally {
             IOUtils.closeQuietly(inputStream);
             IOUtils.closeQuietly(outputStream);
-            URLUtil.disconnect(urlConn);
+            TempSpace.update(file);
         }
 
         return file;
     }
 
+    /**
+     * Waits until the temporary files of other harvests leave room within the quota, and then for a slot of the download
+     * stage. Called before connecting to a source, so that no connection is held open while waiting. The slot is to be
+     * released by {@link HarvestStage#exit(long)}.
+     *
+     * @return The value returned by {@link HarvestStage#enter()}.
+     * @throws IOException If interrupted while waiting for temporary space.
+     */
+    private static long enterDownloadStage() throws IOException {
+
+        try {
+            TempSpace.awaitSpace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for temporary space", e);
+        }
+        return HarvestStage.DOWNLOAD.enter();
+    }
+
+    /**
+     * Releases the download slot of this URL harvest, if it still holds it.
+     */
+    private void exitDownloadStage() {
+
+        if (downloadStageEntered > 0) {
+            HarvestStage.DOWNLOAD.exit(downloadStageEntered);
+            downloadStageEntered = 0;
+        }
+    }
+
+    /**
+     * Applies the given download's outcome to this harvest: the source is available if the content could be opened, and the
+     * content's size and digest are remembered. Called by the harvest's own thread, also for downloads that failed or were done
+     * by other threads, so that the harvest's state is only ever changed by its own thread.
+     *
+     * @param download - the download, null if the download never started.
+     */
+    private void downloaded(Download download) {
+
+        if (download == null) {
+            return;
+        }
+        if (download.opened) {
+            isSourceAvailable = true;
+        }
+        if (download.byteSize >= 0) {
+            addSourceMetadata(Predicates.CR_BYTE_SIZE, ObjectDTO.createLiteral(download.byteSize));
+        }
+        contentDigest = download.contentDigest;
+    }
+
+    /**
+     * Opens the given connection's input stream, wrapped into a stream that computes the digest of the content while it is read.
+     * The digest is to be picked up by {@link #getContentDigest(InputStream)} once the whole content has been read.
+     *
+     * @param urlConn - connection to the remote source.
+     * @return the input stream.
+     * @throws IOException if opening the stream fails.
+     */
+    private static InputStream openDigestingStream(HttpURLConnection urlConn) throws IOException {
+
+        try {
+            return new DigestInputStream(urlConn.getInputStream(), MessageDigest.getInstance(CONTENT_DIGEST_ALGORITHM));
+        } catch (NoSuchAlgorithmException e) {
+            throw new CRRuntimeException(e.toString(), e);
+        }
+    }
+
+    /**
+     * Returns the digest of the content that has been completely read from the given stream, opened by
+     * {@link #openDigestingStream(HttpURLConnection)}.
+     *
+     * @param inputStream the stream.
+     * @return the digest in hex.
+     */
+    private static String getContentDigest(InputStream inputStream) {
+        return new String(Hex.encodeHex(((DigestInputStream) inputStream).getMessageDigest().digest()));
+    }
+
+    /**
+     * Returns true if the content downloaded by this harvest is byte-identical to the one of the last successful harvest, and it
+     * does not need to be loaded again. Just like with "If-Modified-Since" (see {@link #prepareUrlConnection(String)}), this
+     * is never the case for on-demand harvests, after failed harvests, if the source's conversion stylesheet or post-harvest
+     * scripts have been modified since last harvest, or if the source's graph has been emptied since.
+     *
+     * @return as indicated above.
+     * @throws DAOException if checking the post-harvest scripts fails.
+     * @throws IOException if checking the conversion stylesheet fails.
+     * @throws SAXException if checking the conversion stylesheet fails.
+     */
+    private boolean isContentUnchanged() throws DAOException, IOException, SAXException {
+
+        HarvestSourceDTO sourceDTO = getContextSourceDTO();
+        Date lastHarvest = sourceDTO.getLastHarvest();
+        if (isOnDemandHarvest || sourceDTO.isLastHarvestFailed() || lastHarvest == null || contentDigest == null
+                || !contentDigest.equals(sourceDTO.getContentDigest())) {
+            return false;
+        }
+
+        String conversionStylesheetUrl;
+        try {
+            conversionStylesheetUrl = getConversionStylesheetUrl(getHelperDAO(), getContextUrl());
+        } catch (ParserConfigurationException e) {
+            throw new CRRuntimeException(e.toString(), e);
+        }
+        if (StringUtils.isNotBlank(conversionStylesheetUrl)
+                && URLUtil.isModifiedSince(conversionStylesheetUrl, lastHarvest.getTime())) {
+            return false;
+        }
+
+        if (DAOFactory.get().getDao(HarvestScriptDAO.class).isScriptsModified(lastHarvest, sourceDTO.getUrl())) {
+            return false;
+        }
+
+        // The graph may have been cleared by other means than harvesting, e.g. by a cleanup job or a CSV import.
+        return getHelperDAO().isGraphExists(getContextUrl());
+    }
+
     /**
      * Adds basic authentication information to URL connection
      */
@@ -796,7 +1130,6 @@ public class PullHarvest extends BaseHarvest {
         HttpURLConnection connection = (HttpURLConnection) new URL(sanitizedUrl).openConnection();
         connection.setRequestProperty("Accept", ACCEPT_HEADER);
         connection.setRequestProperty("User-Agent", URLUtil.userAgentHeader());
-        connection.setRequestProperty("Connection", "close");
 
         UrlAuthenticationDTO authentication = DAOFactory.get().getDao(HarvestSourceDAO.class).getUrlAuthentication(connectUrl);
         if (authentication != null) {
@@ -855,15 +1188,258 @@ public class PullHarvest extends BaseHarvest {
         return URLUtil.sanitizeHarvestSourceUrl(sourceUrl);
     }
 
+    /**
+     * Executes the given harvest query on the given remote endpoint, and downloads the response if it is in a supported format.
+     * Called concurrently for all harvest queries of the endpoint, see {@link #doEndpointHarvest()}. Each query takes its own
+     * slot of the download stage before connecting.
+     *
+     * @param endpointUrl The URL of the remote SPARQL endpoint to be queried.
+     * @param queryDTO The harvest query.
+     * @return The query's response.
+     * @throws IOException If preparing the connection or downloading the response fails.
+     * @throws DAOException If preparing the connection fails.
+     * @throws ContentTooLongException If the response is longer than allowed.
+     */
+    private EndpointQueryResponse executeEndpointQuery(String endpointUrl, EndpointHarvestQueryDTO queryDTO) throws IOException,
+            DAOException, ContentTooLongException {
+
+        long stageEntered = enterDownloadStage();
+        try {
+            return executeEndpointQuery(endpointUrl, queryDTO.getId(), queryDTO.getQuery());
+        } finally {
+            HarvestStage.DOWNLOAD.exit(stageEntered);
+        }
+    }
+
+    /**
+     * Executes the given harvest query on the given remote endpoint, see
+     * {@link #executeEndpointQuery(String, EndpointHarvestQueryDTO)}. The caller holds a slot of the download stage.
+     *
+     * @param endpointUrl The URL of the remote SPARQL endpoint to be queried.
+     * @param queryId The harvest query's id.
+     * @param query The harvest query.
+     * @return The query's response.
+     * @throws IOException If preparing the connection or downloading the response fails.
+     * @throws DAOException If preparing the connection fails.
+     * @throws ContentTooLongException If the response is longer than allowed.
+     */
+    private EndpointQueryResponse executeEndpointQuery(String endpointUrl, int queryId, String query) throws IOException,
+            DAOException, ContentTooLongException {
+
+        LOGGER.debug(loggerMsg("Executing endpoint harvest query with id = " + queryId));
+
+        int pageSize = GeneralConfig.getIntProperty(GeneralConfig.HARVESTER_ENDPOINT_PAGE_SIZE, DEFAULT_ENDPOINT_PAGE_SIZE);
+        if (pageSize > 0 && SPARQLQueryUtil.isPageable(query)) {
+            EndpointQueryResponse response = executePagedEndpointQuery(endpointUrl, query, pageSize);
+            if (response != null) {
+                return response;
+            }
+            LOGGER.debug(loggerMsg("No N-Triples returned for endpoint harvest query with id = " + queryId
+                    + ", executing it without paging"));
+        }
+
+        EndpointQueryResponse response = new EndpointQueryResponse(null);
+        HttpURLConnection endpointConn = null;
+        try {
+            endpointConn = prepareEndpointConnection(endpointUrl, query, ACCEPT_HEADER);
+            response.connection = endpointConn;
+            try {
+                response.responseCode = HostThrottle.getResponseCode(endpointConn);
+                response.responseMessage = endpointConn.getResponseMessage();
+            } catch (IOException ioe) {
+                response.connectException = ioe;
+                return response;
+            }
+
+            // Throws exception when the content-length indicated in HTTP response is more than the maximum allowed.
+            validateContentLength(endpointConn);
+
+            if (response.responseCode == 200) {
+                ContentLoader contentLoader = createContentLoader(endpointConn);
+                if (contentLoader != null) {
+                    LOGGER.debug(loggerMsg("Downloading response of endpoint harvest query with id = " + queryId));
+                    response.contentStream = downloadContent(endpointConn, contentLoader, response.download);
+                }
+            }
+
+            // Let the connection's socket be reused by the next query.
+            URLUtil.release(endpointConn);
+            endpointConn = null;
+            return response;
+        } finally {
+            URLUtil.disconnect(endpointConn);
+        }
+    }
+
+    /**
+     * Executes the first page of the given CONSTRUCT query on the given remote endpoint, asking for N-Triples. If the
+     * endpoint returns N-Triples, the first page is downloaded into a temporary file straight away, so that its connection is
+     * not left unread while the other queries of the harvest are executed. The response's content is then a
+     * {@link PagedContentStream} that reads the first page from the file, and streams the rest of the pages straight into the
+     * loader when it gets loaded. See {@link SPARQLQueryUtil#getPageQuery(String, int, int)}.
+     *
+     * @param endpointUrl The URL of the remote SPARQL endpoint to be queried.
+     * @param query The query.
+     * @param pageSize Number of solutions per page.
+     * @return The query's response, or null if the endpoint did not return N-Triples and the query is to be executed unpaged.
+     * @throws IOException If preparing the connection or downloading the first page fails.
+     * @throws DAOException If preparing the connection fails.
+     */
+    private EndpointQueryResponse executePagedEndpointQuery(final String endpointUrl, final String query, final int pageSize)
+            throws IOException, DAOException {
+
+        EndpointQueryResponse response = new EndpointQueryResponse(null);
+        HttpURLConnection endpointConn = null;
+        try {
+            String pageQuery = SPARQLQueryUtil.getPageQuery(query, pageSize, 0);
+            endpointConn = prepareEndpointConnection(endpointUrl, pageQuery, NTRIPLES_ACCEPT_HEADER);
+            response.connection = endpointConn;
+            try {
+                response.responseCode = HostThrottle.getResponseCode(endpointConn);
+                response.responseMessage = endpointConn.getResponseMessage();
+            } catch (IOException ioe) {
+                response.connectException = ioe;
+                return response;
+            }
+
+            if (response.responseCode != 200) {
+                URLUtil.release(endpointConn);
+                endpointConn = null;
+                return response;
+            } else if (!isNTriples(endpointConn)) {
+                return null;
+            }
+
+            // The size and digest of the first page alone are of no use, so only the source's availability is passed on.
+            Download firstPageDownload = new Download();
+            final File firstPageFile = downloadFile(endpointConn, firstPageDownload);
+            response.download.opened = firstPageDownload.opened;
+            URLUtil.release(endpointConn);
+            endpointConn = null;
+
+            InputStream firstPage;
+            try {
+                firstPage = new FileInputStream(firstPageFile) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            TempSpace.release(firstPageFile);
+                        }
+                    }
+                };
+            } catch (IOException e) {
+                TempSpace.release(firstPageFile);
+                throw e;
+            }
+            PagedContentStream.PageFetcher pageFetcher = new PagedContentStream.PageFetcher() {
+                @Override
+                public InputStream fetch(int pageNo) throws IOException {
+                    return fetchEndpointPage(endpointUrl, SPARQLQueryUtil.getPageQuery(query, pageSize, pageNo));
+                }
+            };
+            response.contentStream = new PagedContentStream(pageFetcher, firstPage, pageSize,
+                    new RDFFormatLoader(RDFFormat.NTRIPLES), getEndpointQueryThreads());
+            return response;
+        } finally {
+            URLUtil.disconnect(endpointConn);
+        }
+    }
+
+    /**
+     * Executes the given page query of a paged endpoint harvest query, see
+     * {@link #executePagedEndpointQuery(String, String, int)}.
+     *
+     * @param endpointUrl The URL of the remote SPARQL endpoint to be queried.
+     * @param pageQuery The page query.
+     * @return The page's content in N-Triples.
+     * @throws IOException If the query fails or does not return N-Triples.
+     */
+    private InputStream fetchEndpointPage(String endpointUrl, String pageQuery) throws IOException {
+
+        HttpURLConnection endpointConn = null;
+        try {
+            endpointConn = prepareEndpointConnection(endpointUrl, pageQuery, NTRIPLES_ACCEPT_HEADER);
+            int responseCode = HostThrottle.getResponseCode(endpointConn);
+            if (responseCode != 200 || !isNTriples(endpointConn)) {
+                throw new IOException("Endpoint returned " + responseCode + " (" + endpointConn.getContentType()
+                        + ") for paged query: " + pageQuery);
+            }
+
+            InputStream inputStream = endpointConn.getInputStream();
+            endpointConn = null;
+            return inputStream;
+        } catch (DAOException e) {
+            throw new IOException("Failed to prepare endpoint connection", e);
+        } finally {
+            URLUtil.disconnect(endpointConn);
+        }
+    }
+
+    /**
+     * @param urlConn
+     * @return True if the given connection's response is in N-Triples.
+     */
+    private boolean isNTriples(HttpURLConnection urlConn) {
+
+        String contentType = StringUtils.lowerCase(urlConn.getContentType());
+        return contentType != null && (contentType.startsWith("application/n-triples") || contentType.startsWith("text/plain"));
+    }
+
+    /**
+     * Lazy getter for the threads that execute the harvest queries of remote endpoints. Shared by all harvests.
+     *
+     * @return The threads.
+     */
+    private static synchronized ExecutorService getEndpointQueryThreads() {
+
+        if (endpointQueryThreads == null) {
+            int noOfThreads = Math.max(1, GeneralConfig.getIntProperty(GeneralConfig.HARVESTER_ENDPOINT_QUERY_THREADS,
+                    DEFAULT_ENDPOINT_QUERY_THREADS));
+            endpointQueryThreads = Executors.newFixedThreadPool(noOfThreads, new ThreadFactory() {
+
+                /** Counter for thread names. */
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "endpoint-query-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return endpointQueryThreads;
+    }
+
+    /**
+     * Shuts down the threads that execute the harvest queries of remote endpoints.
+     */
+    public static synchronized void shutdownEndpointQueryThreads() {
+
+        if (endpointQueryThreads != null) {
+            endpointQueryThreads.shutdownNow();
+            try {
+                endpointQueryThreads.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            endpointQueryThreads = null;
+        }
+    }
+
     /**
      * Prepares a {@link HttpURLConnection} to be invoked for the given remote endpoint harvest.
      *
      * @param endpointUrl The URL of the remote SPARQL endpoint to be queried.
      * @param query The SPARQL query to be submitted.
+     * @param accept The "Accept" HTTP header.
      * @return The prepared {@link HttpURLConnection}.
      * @throws IOException Several IO exception can happen on the way.
      */
-    private HttpURLConnection prepareEndpointConnection(String endpointUrl, String query) throws IOException, DAOException {
+    private HttpURLConnection prepareEndpointConnection(String endpointUrl, String query, String accept) throws IOException,
+            DAOException {
 
         String charset = "UTF-8";
         String queryString = String.format("query=%s", URLEncoder.encode(query, charset));
@@ -872,9 +1448,8 @@ public class PullHarvest extends BaseHarvest {
         connection.setDoOutput(true);
         connection.setRequestProperty("Accept-Charset", charset);
         connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=" + charset);
-        connection.setRequestProperty("Accept", ACCEPT_HEADER);
+        connection.setRequestProperty("Accept", accept);
         connection.setRequestProperty("User-Agent", URLUtil.userAgentHeader());
-        connection.setRequestProperty("Connection", "close");
         connection.setInstanceFollowRedirects(false);
 
         UrlAuthenticationDTO authentication = DAOFactory.get().getDao(HarvestSourceDAO.class).getUrlAuthentication(queryString);
@@ -1209,4 +1784,54 @@ public class PullHarvest extends BaseHarvest {
             }).start();
         }
     }
+
+    /**
+     * The outcome of downloading a source's content, filled in by the downloading thread and applied to the harvest by its own
+     * thread, see {@link PullHarvest#downloaded(Download)}.
+     */
+    private static class Download {
+
+        /** True if the content could be opened for reading. */
+        private boolean opened;
+
+        /** Number of bytes downloaded, -1 if the download did not complete. */
+        private long byteSize = -1;
+
+        /** Digest of the downloaded content, null if the download did not complete. */
+        private String contentDigest;
+    }
+
+    /**
+     * The outcome of one remote endpoint harvest query, see {@link PullHarvest#executeEndpointQuery(String, EndpointHarvestQueryDTO)}.
+     */
+    private static class EndpointQueryResponse {
+
+        /** */
+        private HttpURLConnection connection;
+
+        /** */
+        private int responseCode = NO_RESPONSE;
+
+        /** */
+        private String responseMessage;
+
+        /** The error that occurred when connecting to the endpoint, if any. */
+        private IOException connectException;
+
+        /** The downloaded response, or null if none downloaded. */
+        private ContentStream contentStream;
+
+        /** The outcome of downloading the response, applied to the harvest by its own thread. */
+        private final Download download = new Download();
+
+        /** The error that failed the query, if any. */
+        private final Throwable exception;
+
+        /**
+         * @param exception
+         */
+        EndpointQueryResponse(Throwable exception) {
+            this.exception = exception;
+        }
+    }
 }
@@ -0,0 +1,64 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.harvest.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A piece of harvested content that is to be loaded into the triple store by the given {@link ContentLoader}. The content may
+ * reside in a file (see {@link FileContentStream}), in memory (see {@link MemoryContentStream}), or be streamed from a remote
+ * server page by page (see {@link PagedContentStream}).
+ *
+ * @author agent
+ */
+public interface ContentStream {
+
+    /**
+     * Opens a new input stream for reading the content from the beginning. The caller is responsible for closing it.
+     *
+     * @return The input stream.
+     * @throws IOException If opening fails.
+     */
+    InputStream openStream() throws IOException;
+
+    /**
+     * Returns the size of the content in bytes, or -1 if not known.
+     *
+     * @return The size.
+     */
+    long getSize();
+
+    /**
+     * Returns true if the content can be read more than once, i.e. {@link #openStream()} may be called repeatedly.
+     *
+     * @return As indicated above.
+     */
+    boolean isRepeatable();
+
+    /**
+     * Returns the loader to be used for loading this content.
+     *
+     * @return The loader.
+     */
+    ContentLoader getContentLoader();
+}
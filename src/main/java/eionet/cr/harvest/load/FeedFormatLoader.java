@@ -35,6 +35,9 @@ import org.openrdf.repository.RepositoryConnection;
  */
 public class FeedFormatLoader implements ContentLoader {
 
+    /** Timeout for feed loading. */
+    private long timeout;
+
     /*
      * (non-Javadoc)
      * @see eionet.cr.harvest.load.ContentLoader#load(java.io.InputStream, org.openrdf.repository.RepositoryConnection, java.sql.Connection, java.lang.String, java.lang.String)
@@ -43,7 +46,7 @@ public class FeedFormatLoader implements ContentLoader {
     public int load(InputStream inputStream, RepositoryConnection repoConn, Connection sqlConn, String baseUri, String contextUri)
             throws IOException, OpenRDFException, ContentParsingException {
 
-        FeedSaver feedSaver = new FeedSaver(repoConn, sqlConn, contextUri);
+        FeedSaver feedSaver = new FeedSaver(repoConn, sqlConn, contextUri, timeout);
         feedSaver.save(inputStream);
         return feedSaver.getNumberOfTriplesSaved();
     }
@@ -54,7 +57,7 @@ public class FeedFormatLoader implements ContentLoader {
      */
     @Override
     public void setTimeout(long timeout) {
-        // not implemented yet
+        this.timeout = timeout;
     }
 
 }
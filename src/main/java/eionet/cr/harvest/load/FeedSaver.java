@@ -85,8 +85,8 @@ public class FeedSaver {
     /** The OpenRDF ValueFactory obtained from {@link #repoConn}. */
     private ValueFactory valueFactory;
 
-    /** Number of triples saved. */
-    private int triplesSaved;
+    /** Buffer where the triples are collected into and flushed from in batches. */
+    private StatementBuffer statementBuffer;
 
     /**
      * @param repoConn
@@ -94,10 +94,21 @@ public class FeedSaver {
      * @param contextUri
      */
     public FeedSaver(RepositoryConnection repoConn, Connection sqlConn, String contextUri) {
+        this(repoConn, sqlConn, contextUri, 0L);
+    }
+
+    /**
+     * @param repoConn
+     * @param sqlConn
+     * @param contextUri
+     * @param timeout Saving timeout in milliseconds. Zero or less means no timeout.
+     */
+    public FeedSaver(RepositoryConnection repoConn, Connection sqlConn, String contextUri, long timeout) {
         this.repoConn = repoConn;
         this.sqlConn = sqlConn;
         this.valueFactory = repoConn.getValueFactory();
         this.context = this.valueFactory.createURI(contextUri);
+        this.statementBuffer = new StatementBuffer(repoConn, context, timeout);
     }
 
     /**
@@ -135,8 +146,13 @@ public class FeedSaver {
 
                     // Save the relation between the feed and the item.
                     saveItemToFeedRelation(feedUri, itemUri, i + 1);
+
+                    statementBuffer.checkTimeout();
                 }
             }
+
+            // Flush whatever is left in the buffer.
+            statementBuffer.flush();
         } catch (FeedException e) {
             throw new ContentParsingException(e.getMessage(), e);
         }
@@ -146,7 +162,7 @@ public class FeedSaver {
      * @return the triplesSaved
      */
     public int getNumberOfTriplesSaved() {
-        return triplesSaved;
+        return statementBuffer.getFlushedCount();
     }
 
     /**
@@ -534,8 +550,7 @@ public class FeedSaver {
         }
 
         if (subjectResource != null) {
-            repoConn.add(subjectResource, valueFactory.createURI(predicateUri), object, context);
-            triplesSaved++;
+            statementBuffer.add(valueFactory.createStatement(subjectResource, valueFactory.createURI(predicateUri), object));
         }
     }
 
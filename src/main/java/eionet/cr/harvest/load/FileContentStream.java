@@ -0,0 +1,109 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.harvest.load;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link ContentStream} whose content resides in a file.
+ *
+ * @author agent
+ */
+public class FileContentStream implements ContentStream {
+
+    /** */
+    private final File file;
+
+    /** */
+    private final ContentLoader contentLoader;
+
+    /**
+     * Creates a new stream of the given file's content.
+     *
+     * @param file The file.
+     * @param contentLoader The loader to be used for loading the content.
+     */
+    public FileContentStream(File file, ContentLoader contentLoader) {
+        this.file = file;
+        this.contentLoader = contentLoader;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.harvest.load.ContentStream#openStream()
+     */
+    @Override
+    public InputStream openStream() throws IOException {
+        return new FileInputStream(file);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.harvest.load.ContentStream#getSize()
+     */
+    @Override
+    public long getSize() {
+        return file.length();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.harvest.load.ContentStream#isRepeatable()
+     */
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.harvest.load.ContentStream#getContentLoader()
+     */
+    @Override
+    public ContentLoader getContentLoader() {
+        return contentLoader;
+    }
+
+    /**
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+}
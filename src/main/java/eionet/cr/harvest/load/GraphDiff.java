@@ -0,0 +1,305 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.harvest.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.openrdf.OpenRDFException;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParser;
+
+import eionet.cr.config.GeneralConfig;
+
+/**
+ * Utility methods for loading only the difference between a graph's previous and new content, based on their
+ * {@link TripleFingerprint}s. The fingerprint of a graph's last loaded content is persisted in the database as the hashes of its
+ * ground triples, computed while the content is being loaded. The next harvest of the same graph (on whichever node) compares it
+ * with the fingerprint of the new content, adds the triples that are new, and removes the ones that are gone by looking them up
+ * in the graph by their hashes, instead of loading everything into a temporary graph and XOR-ing it with the original.
+ *
+ * Only content loaded by {@link RDFFormatLoader}s can be compared, since it is the only content that can be parsed without
+ * loading it.
+ *
+ * @author agent
+ */
+public final class GraphDiff {
+
+    /** Default maximum number of triples in content that is loaded by difference. */
+    public static final int DEFAULT_MAX_TRIPLES = 1000000;
+
+    /**
+     * Hide utility class constructor.
+     */
+    private GraphDiff() {
+        // Just an empty private constructor to avoid instantiating this utility class.
+    }
+
+    /**
+     * @return Maximum number of triples in content that is loaded by difference. Zero or less means the feature is disabled.
+     */
+    public static int getMaxTriples() {
+        return GeneralConfig.getIntProperty(GeneralConfig.HARVESTER_DIFF_LOADING_MAX_TRIPLES, DEFAULT_MAX_TRIPLES);
+    }
+
+    /**
+     * Returns true if the given content can be loaded by difference: the feature is enabled and all the content is to be loaded
+     * by {@link RDFFormatLoader}s from repeatable streams (as the content may be parsed more than once).
+     *
+     * @param contentStreams The content.
+     * @return As indicated above.
+     */
+    public static boolean isApplicable(Collection<? extends ContentStream> contentStreams) {
+
+        if (contentStreams.isEmpty() || getMaxTriples() <= 0) {
+            return false;
+        }
+        for (ContentStream contentStream : contentStreams) {
+            if (!(contentStream.getContentLoader() instanceof RDFFormatLoader) || !contentStream.isRepeatable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Loads the given content into the given graph like {@link RDFFormatLoader#load(InputStream, RepositoryConnection,
+     * Connection, String, String)} does, and adds every parsed triple to the given fingerprint builder in the same pass. The
+     * builder stops collecting once it has exceeded its maximum number of triples, but the loading goes on.
+     *
+     * @param loader The content's loader.
+     * @param inputStream The content.
+     * @param repoConn Repository connection.
+     * @param sqlConn SQL connection.
+     * @param baseUri Base URI for resolving relative URIs in the content.
+     * @param contextUri The graph.
+     * @param builder Receives the parsed triples.
+     * @return Number of loaded triples.
+     * @throws IOException If reading the content fails.
+     * @throws OpenRDFException If parsing or loading the content fails.
+     */
+    public static int load(RDFFormatLoader loader, InputStream inputStream, RepositoryConnection repoConn, Connection sqlConn,
+            String baseUri, String contextUri, final TripleFingerprint.Builder builder) throws IOException, OpenRDFException {
+
+        RDFParser rdfParser = loader.createParser(repoConn.getValueFactory());
+        RDFContentHandler rdfHandler = new RDFContentHandler(repoConn, sqlConn, contextUri, loader.getTimeout()) {
+            @Override
+            public void handleStatement(Statement statement) throws RDFHandlerException {
+                builder.add(statement);
+                super.handleStatement(statement);
+            }
+        };
+        rdfParser.setRDFHandler(rdfHandler);
+        rdfParser.parse(inputStream, baseUri);
+        return rdfHandler.getNumberOfTriplesSaved();
+    }
+
+    /**
+     * Parses the given content once, and adds into the given graph all of its triples with blank nodes and those of its ground
+     * triples that are not in the given previous fingerprint. The hashes of the added ground triples are also passed to the given
+     * sink.
+     *
+     * @param contentStreams The content, all to be loaded by {@link RDFFormatLoader}s, see {@link #isApplicable(Collection)}.
+     * @param repoConn Repository connection.
+     * @param sqlConn SQL connection.
+     * @param baseUri Base URI for resolving relative URIs in the content.
+     * @param contextUri The graph.
+     * @param previous Fingerprint of the graph's previous content.
+     * @param sink Receives the added ground triples.
+     * @return The fingerprint of the new content, or null if it has more triples than {@link #getMaxTriples()}, in which case
+     *         the graph has been partly changed.
+     * @throws IOException If reading the content fails.
+     * @throws OpenRDFException If parsing, adding or passing to the sink fails.
+     */
+    public static TripleFingerprint addDifference(Collection<? extends ContentStream> contentStreams,
+            RepositoryConnection repoConn, Connection sqlConn, String baseUri, String contextUri, final TripleFingerprint previous,
+            final TripleSink sink) throws IOException, OpenRDFException {
+
+        final TripleFingerprint.Builder builder = new TripleFingerprint.Builder(getMaxTriples());
+        final Set<Long> added = new HashSet<Long>();
+        for (ContentStream contentStream : contentStreams) {
+
+            RDFFormatLoader loader = (RDFFormatLoader) contentStream.getContentLoader();
+            RDFParser rdfParser = loader.createParser(repoConn.getValueFactory());
+            rdfParser.setRDFHandler(new RDFContentHandler(repoConn, sqlConn, contextUri, loader.getTimeout()) {
+                @Override
+                public void handleStatement(Statement statement) throws RDFHandlerException {
+
+                    if (!builder.add(statement)) {
+                        throw new TooManyTriplesException();
+                    }
+                    if (TripleFingerprint.hasBlankNode(statement)) {
+                        super.handleStatement(statement);
+                    } else {
+                        long hash = TripleFingerprint.hash(statement);
+                        if (!previous.contains(hash) && added.add(hash)) {
+                            super.handleStatement(statement);
+                            addToSink(sink, hash);
+                        }
+                    }
+                }
+            });
+
+            if (!parse(rdfParser, contentStream, baseUri)) {
+                return null;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Looks up in the given graph the ground triples that are in the previous fingerprint, but not in the current one, checking
+     * on the way that the graph matches the fingerprints: every ground triple of the previous fingerprint must be found in the
+     * graph, and the graph must have no ground triples other than those of the two fingerprints. To be called after the current
+     * content's difference has been added to the graph, see
+     * {@link #addDifference(Collection, RepositoryConnection, Connection, String, String, TripleFingerprint, TripleSink)}.
+     *
+     * @param repoConn Repository connection.
+     * @param context The graph.
+     * @param previous Fingerprint of the graph's previous content.
+     * @param current Fingerprint of the graph's new content.
+     * @return The triples to remove, or null if the graph does not match the fingerprints (e.g. because it has been changed by
+     *         something else than harvesting).
+     * @throws RepositoryException If reading the graph fails.
+     */
+    public static List<Statement> findRemovedTriples(RepositoryConnection repoConn, Resource context, TripleFingerprint previous,
+            TripleFingerprint current) throws RepositoryException {
+
+        List<Statement> result = new ArrayList<Statement>();
+        int previousFound = 0;
+        RepositoryResult<Statement> statements = repoConn.getStatements(null, null, null, false, context);
+        try {
+            while (statements.hasNext()) {
+
+                Statement statement = statements.next();
+                if (TripleFingerprint.hasBlankNode(statement)) {
+                    continue;
+                }
+
+                long hash = TripleFingerprint.hash(statement);
+                if (previous.contains(hash)) {
+                    previousFound++;
+                    if (!current.contains(hash)) {
+                        result.add(statement);
+                    }
+                } else if (!current.contains(hash)) {
+                    return null;
+                }
+            }
+        } finally {
+            statements.close();
+        }
+        return previousFound == previous.size() ? result : null;
+    }
+
+    /**
+     * Removes the given triples from the given graph, in batches of {@link StatementBuffer#getConfiguredBatchSize()}.
+     *
+     * @param repoConn Repository connection.
+     * @param context The graph.
+     * @param statements The triples to remove.
+     * @throws RepositoryException If removing fails.
+     */
+    public static void removeTriples(RepositoryConnection repoConn, Resource context, List<Statement> statements)
+            throws RepositoryException {
+
+        int batchSize = StatementBuffer.getConfiguredBatchSize();
+        for (int from = 0; from < statements.size(); from += batchSize) {
+            repoConn.remove(statements.subList(from, Math.min(from + batchSize, statements.size())), context);
+        }
+    }
+
+    /**
+     * @param rdfParser
+     * @param contentStream
+     * @param baseUri
+     * @return False if parsing was stopped because of too many triples, otherwise true.
+     * @throws IOException
+     * @throws OpenRDFException
+     */
+    private static boolean parse(RDFParser rdfParser, ContentStream contentStream, String baseUri) throws IOException,
+            OpenRDFException {
+
+        InputStream inputStream = contentStream.openStream();
+        try {
+            rdfParser.parse(inputStream, baseUri);
+            return true;
+        } catch (TooManyTriplesException e) {
+            return false;
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * @param sink
+     * @param hash
+     * @throws RDFHandlerException
+     */
+    private static void addToSink(TripleSink sink, long hash) throws RDFHandlerException {
+
+        try {
+            sink.add(hash);
+        } catch (SQLException e) {
+            throw new RDFHandlerException(e);
+        }
+    }
+
+    /**
+     * Receives the hashes of the ground triples of a graph's content, for persisting them as the graph's fingerprint.
+     */
+    public interface TripleSink {
+
+        /**
+         * @param hash The triple's hash, see {@link TripleFingerprint#hash(Statement)}.
+         * @throws SQLException If persisting fails.
+         */
+        void add(long hash) throws SQLException;
+    }
+
+    /**
+     * Thrown by the difference loading handler to stop parsing when the maximum number of triples is exceeded.
+     */
+    private static class TooManyTriplesException extends RDFHandlerException {
+
+        /** */
+        private static final long serialVersionUID = 1L;
+
+        /** */
+        TooManyTriplesException() {
+            super("Too many triples");
+        }
+    }
+}
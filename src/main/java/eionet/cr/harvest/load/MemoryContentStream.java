@@ -0,0 +1,173 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.harvest.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link ContentStream} whose content resides in memory, in a byte buffer. Used for small
+ * and medium sized harvested content that does not need to be written into a temporary file before loading.
+ *
+ * @author agent
+ */
+public class MemoryContentStream implements ContentStream {
+
+    /** The content, from position 0 to limit. */
+    private final ByteBuffer buffer;
+
+    /** */
+    private final ContentLoader contentLoader;
+
+    /**
+     * Creates a new stream of the given buffer's content. The content is expected to lie between the buffer's position 0 and its
+     * limit. The buffer must not be modified afterwards.
+     *
+     * @param buffer The buffer.
+     * @param contentLoader The loader to be used for loading the content.
+     */
+    public MemoryContentStream(ByteBuffer buffer, ContentLoader contentLoader) {
+        this.buffer = buffer;
+        this.contentLoader = contentLoader;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.harvest.load.ContentStream#openStream()
+     */
+    @Override
+    public InputStream openStream() throws IOException {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(0);
+        return new ByteBufferInputStream(duplicate);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.harvest.load.ContentStream#getSize()
+     */
+    @Override
+    public long getSize() {
+        return buffer.limit();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.harvest.load.ContentStream#isRepeatable()
+     */
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.harvest.load.ContentStream#getContentLoader()
+     */
+    @Override
+    public ContentLoader getContentLoader() {
+        return contentLoader;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "in-memory content of " + buffer.limit() + " bytes";
+    }
+
+    /**
+     * An input stream reading the remaining bytes of a given byte buffer.
+     */
+    static class ByteBufferInputStream extends InputStream {
+
+        /** */
+        private final ByteBuffer buffer;
+
+        /**
+         * @param buffer
+         */
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#skip(long)
+         */
+        @Override
+        public long skip(long n) throws IOException {
+
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#available()
+         */
+        @Override
+        public int available() throws IOException {
+            return buffer.remaining();
+        }
+    }
+}
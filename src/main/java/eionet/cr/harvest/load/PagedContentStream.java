@@ -0,0 +1,454 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.harvest.load;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A {@link ContentStream} of N-Triples content that a remote server returns page by page, e.g. the response of a SPARQL
+ * CONSTRUCT query executed with increasing OFFSET. The first page is fetched by the creator (e.g. downloaded into a file), the
+ * rest are read one after another as one stream with it, so they go straight into the loader as they arrive, without being
+ * saved anywhere. While a page is being read, the next one is already requested. An empty page (i.e. one without non-blank
+ * lines) ends the content, as the number of triples in a page need not match the page size. Blank node labels are prefixed
+ * with the page number, so that the blank nodes of different pages are never merged, just as if every page were parsed as a
+ * document of its own.
+ *
+ * Unlike the other content streams, this one can be read only once, see {@link #isRepeatable()}.
+ *
+ * @author agent
+ */
+public class PagedContentStream implements ContentStream {
+
+    /** The fetcher of the pages. */
+    private final PageFetcher pageFetcher;
+
+    /** The first page, already fetched. */
+    private final InputStream firstPage;
+
+    /** Number of solutions in a page. */
+    private final int pageSize;
+
+    /** */
+    private final ContentLoader contentLoader;
+
+    /** Threads that fetch the next pages in advance. */
+    private final ExecutorService prefetchThreads;
+
+    /** The stream returned by {@link #openStream()}, null until opened. */
+    private PagesInputStream pagesInputStream;
+
+    /** True if this stream has been closed. */
+    private boolean closed;
+
+    /**
+     * Creates a new stream.
+     *
+     * @param pageFetcher The fetcher of the pages after the first one.
+     * @param firstPage The first page (number 0), already fetched.
+     * @param pageSize Number of solutions in a page.
+     * @param contentLoader The loader to be used for loading the content.
+     * @param prefetchThreads Threads that fetch the next pages in advance.
+     */
+    public PagedContentStream(PageFetcher pageFetcher, InputStream firstPage, int pageSize, ContentLoader contentLoader,
+            ExecutorService prefetchThreads) {
+
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive!");
+        }
+        this.pageFetcher = pageFetcher;
+        this.firstPage = firstPage;
+        this.pageSize = pageSize;
+        this.contentLoader = contentLoader;
+        this.prefetchThreads = prefetchThreads;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.harvest.load.ContentStream#openStream()
+     */
+    @Override
+    public synchronized InputStream openStream() throws IOException {
+
+        if (pagesInputStream != null || closed) {
+            throw new IOException("Paged content can be read only once");
+        }
+        pagesInputStream = new PagesInputStream();
+        return pagesInputStream;
+    }
+
+    /**
+     * Closes the page currently read (or the first page, if the stream was never opened), and the page fetched in advance. To be
+     * called if the content is not to be read to the end.
+     */
+    public synchronized void close() {
+
+        closed = true;
+        if (pagesInputStream != null) {
+            pagesInputStream.close();
+        } else {
+            IOUtils.closeQuietly(firstPage);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.harvest.load.ContentStream#getSize()
+     */
+    @Override
+    public long getSize() {
+        // The size is not known until all pages have been read.
+        return -1L;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.harvest.load.ContentStream#isRepeatable()
+     */
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.harvest.load.ContentStream#getContentLoader()
+     */
+    @Override
+    public ContentLoader getContentLoader() {
+        return contentLoader;
+    }
+
+    /**
+     * @return Number of pages read so far, including the current one.
+     */
+    public synchronized int getPagesRead() {
+        return pagesInputStream == null ? 0 : pagesInputStream.pageNo + 1;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "paged content of " + pageSize + " solutions per page";
+    }
+
+    /**
+     * Returns the prefix of the blank node labels of the given page: a letter, the page number and another letter, so that the
+     * prefixed labels stay valid and those of different pages never clash.
+     *
+     * @param pageNo Number of the page.
+     * @return The prefix as ASCII bytes.
+     */
+    private static byte[] getBlankNodePrefix(int pageNo) {
+
+        try {
+            return ("p" + pageNo + "x").getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param c
+     * @return True if the given byte can be part of a blank node label or a prefixed name, in which case "_:" that follows it
+     *         does not start a blank node.
+     */
+    private static boolean isLabelChar(int c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '-'
+                || c >= 0x80;
+    }
+
+    /**
+     * Fetches the pages of the content.
+     */
+    public interface PageFetcher {
+
+        /**
+         * Fetches the given page.
+         *
+         * @param pageNo Number of the page, starting from 0.
+         * @return The page's content.
+         * @throws IOException If fetching fails.
+         */
+        InputStream fetch(int pageNo) throws IOException;
+    }
+
+    /**
+     * The stream of all pages, one after another. Every page is made to end with a line break, so that the last line of a page is
+     * not joined with the first line of the next one.
+     */
+    private class PagesInputStream extends InputStream {
+
+        /** The page being read, null when all read. */
+        private InputStream page = firstPage;
+
+        /** Number of the page being read. */
+        private int pageNo;
+
+        /** The next page being fetched in advance, null if none. */
+        private Future<InputStream> nextPage;
+
+        /** Bytes read from the current page. */
+        private final byte[] chunk = new byte[8192];
+
+        /** The current page's bytes with blank node labels prefixed, not yet returned. */
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream(chunk.length * 2);
+
+        /** The bytes in {@link #pending}, and the number of them already returned. */
+        private byte[] pendingBytes = new byte[0];
+
+        /** */
+        private int pendingPos;
+
+        /** Prefix of the blank node labels of the current page. */
+        private byte[] blankNodePrefix;
+
+        /** Number of non-blank lines read from the current page. */
+        private int lines;
+
+        /** True if the current line has non-whitespace characters. */
+        private boolean lineHasContent;
+
+        /** The last byte read from the current page. */
+        private int lastByte = '\n';
+
+        /** The byte before the last one read from the current page. */
+        private int byteBeforeLast = '\n';
+
+        /** True if inside a literal or an IRI, respectively, where blank node labels are not looked for. */
+        private boolean inLiteral;
+
+        /** */
+        private boolean inIri;
+
+        /** True if the last byte read was a backslash escaping the next one in a literal. */
+        private boolean escaped;
+
+        /** */
+        PagesInputStream() {
+            blankNodePrefix = getBlankNodePrefix(0);
+            prefetch();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return count < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            if (len == 0) {
+                return 0;
+            }
+
+            while (pendingPos >= pendingBytes.length) {
+
+                if (page == null) {
+                    return -1;
+                }
+
+                int count = page.read(chunk, 0, chunk.length);
+                if (count > 0) {
+                    pending.reset();
+                    scan(chunk, count);
+                    pendingBytes = pending.toByteArray();
+                    pendingPos = 0;
+                } else if (count < 0) {
+                    // End of page: terminate its last line, then move on to the next page, if any.
+                    if (lastByte != '\n') {
+                        chunk[0] = '\n';
+                        pending.reset();
+                        scan(chunk, 1);
+                        pendingBytes = pending.toByteArray();
+                        pendingPos = 0;
+                    } else {
+                        nextPage();
+                    }
+                }
+            }
+
+            int count = Math.min(len, pendingBytes.length - pendingPos);
+            System.arraycopy(pendingBytes, pendingPos, b, off, count);
+            pendingPos += count;
+            return count;
+        }
+
+        /**
+         * Copies the given bytes read from the current page into {@link #pending}, prefixing the blank node labels outside
+         * literals and IRIs, and counts the non-blank lines.
+         *
+         * @param b
+         * @param count
+         */
+        private void scan(byte[] b, int count) {
+
+            for (int i = 0; i < count; i++) {
+
+                byte c = b[i];
+                pending.write(c);
+                if (c == '\n') {
+                    if (lineHasContent) {
+                        lines++;
+                    }
+                    lineHasContent = false;
+                    inLiteral = false;
+                    inIri = false;
+                    escaped = false;
+                } else if (c != ' ' && c != '\t' && c != '\r') {
+                    lineHasContent = true;
+                }
+
+                if (inLiteral) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (c == '\\') {
+                        escaped = true;
+                    } else if (c == '"') {
+                        inLiteral = false;
+                    }
+                } else if (inIri) {
+                    inIri = c != '>';
+                } else if (c == '"') {
+                    inLiteral = true;
+                } else if (c == '<') {
+                    inIri = true;
+                } else if (c == ':' && lastByte == '_' && !isLabelChar(byteBeforeLast)) {
+                    pending.write(blankNodePrefix, 0, blankNodePrefix.length);
+                }
+
+                byteBeforeLast = lastByte;
+                lastByte = c;
+            }
+        }
+
+        /**
+         * Closes the current page and moves on to the next one, unless the current one was empty.
+         *
+         * @throws IOException If fetching the next page failed.
+         */
+        private void nextPage() throws IOException {
+
+            IOUtils.closeQuietly(page);
+            page = null;
+            if (lines == 0) {
+                cancelPrefetch();
+                return;
+            }
+
+            Future<InputStream> future = nextPage;
+            nextPage = null;
+            try {
+                page = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while fetching page " + (pageNo + 1), e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Fetching page " + (pageNo + 1) + " failed", cause);
+            }
+
+            pageNo++;
+            blankNodePrefix = getBlankNodePrefix(pageNo);
+            lines = 0;
+            lineHasContent = false;
+            prefetch();
+        }
+
+        /**
+         * Starts fetching the page after the current one.
+         */
+        private void prefetch() {
+
+            final int nextPageNo = pageNo + 1;
+            nextPage = prefetchThreads.submit(new Callable<InputStream>() {
+                @Override
+                public InputStream call() throws Exception {
+                    return pageFetcher.fetch(nextPageNo);
+                }
+            });
+        }
+
+        /**
+         * Cancels the fetching of the next page, or closes it if already being fetched.
+         */
+        private void cancelPrefetch() {
+
+            if (nextPage == null) {
+                return;
+            }
+            if (!nextPage.cancel(false)) {
+                try {
+                    IOUtils.closeQuietly(nextPage.get());
+                } catch (Exception e) {
+                    // The page is of no interest any more.
+                }
+            }
+            nextPage = null;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.io.InputStream#close()
+         */
+        @Override
+        public void close() {
+
+            IOUtils.closeQuietly(page);
+            page = null;
+            cancelPrefetch();
+        }
+    }
+}
@@ -25,7 +25,6 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
-
 import org.openrdf.model.Literal;
 import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
@@ -37,10 +36,7 @@ import org.openrdf.repository.RepositoryException;
 import org.openrdf.rio.RDFHandler;
 import org.openrdf.rio.RDFHandlerException;
 
-import eionet.cr.harvest.TimeoutException;
 import eionet.cr.util.sql.SQLUtil;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * Implementation of OpenRDF's {@link RDFHandler} that will be used by implementations of {@link ContentLoader}. Contains callback
@@ -50,14 +46,6 @@ import org.slf4j.LoggerFactory;
  */
 public class RDFContentHandler implements RDFHandler {
 
-    /** */
-    private static final Logger LOGGER = LoggerFactory.getLogger(RDFContentHandler.class);
-
-    /**
-     * Triples will be logged and/or committed in batches of this size. Virtuoso's Sesame driver uses 5000 by default.
-     */
-    private static final int BATCH_SIZE = 5000;
-
     /** Connections to the repository and SQL database where the content is persisted into. */
     private RepositoryConnection repoConn;
     private Connection sqlConn;
@@ -65,22 +53,16 @@ public class RDFContentHandler implements RDFHandler {
     /** The graph where the triples will be loaded into. */
     private Resource context;
 
-    /** Number of triples saved. */
-    private int triplesSaved;
-
     /** Value factory created from the repository connection. */
     private ValueFactory valueFactory;
 
-    /**
-     * total time of processing RDF.
-     */
-    private long totalTime;
+    /** Buffer where the triples are collected into and flushed from in batches. Created in {@link #startRDF()}. */
+    private StatementBuffer statementBuffer;
 
-    /**
-     * total time of processing RDF.
-     */
-    private long startTime;
+    /** Number of statements per flushed batch. */
+    private final int batchSize;
 
+    /** Loading timeout in milliseconds. */
     private final long timeout;
 
     /**
@@ -88,8 +70,24 @@ public class RDFContentHandler implements RDFHandler {
      * @param sqlConn
      * @param contextUri
      *            The URI of the graph where the triples will be loaded into.
+     * @param timeout
+     *            Loading timeout in milliseconds. Zero or less means no timeout.
      */
     public RDFContentHandler(RepositoryConnection repoConn, Connection sqlConn, String contextUri, long timeout) {
+        this(repoConn, sqlConn, contextUri, timeout, StatementBuffer.getConfiguredBatchSize());
+    }
+
+    /**
+     * @param repoConn
+     * @param sqlConn
+     * @param contextUri
+     *            The URI of the graph where the triples will be loaded into.
+     * @param timeout
+     *            Loading timeout in milliseconds. Zero or less means no timeout.
+     * @param batchSize
+     *            Number of triples that are flushed into the repository at once.
+     */
+    public RDFContentHandler(RepositoryConnection repoConn, Connection sqlConn, String contextUri, long timeout, int batchSize) {
 
         this.repoConn = repoConn;
         this.sqlConn = sqlConn;
@@ -97,6 +95,7 @@ public class RDFContentHandler implements RDFHandler {
         this.context = this.valueFactory.createURI(contextUri);
 
         this.timeout = timeout;
+        this.batchSize = batchSize;
     }
 
     /*
@@ -105,8 +104,7 @@ public class RDFContentHandler implements RDFHandler {
      */
     @Override
     public void startRDF() throws RDFHandlerException {
-        // No specific handling here.
-        startTime = System.currentTimeMillis();
+        statementBuffer = new StatementBuffer(repoConn, context, batchSize, timeout);
     }
 
     /*
@@ -142,21 +140,11 @@ public class RDFContentHandler implements RDFHandler {
         // Pre-process the statement.
         rdfStatement = preProcess(rdfStatement);
 
-        // Add the given statement (i.e. triple) into repository.
+        // Add the given statement (i.e. triple) into the buffer. The timeout is checked whenever a batch has been flushed.
         try {
-            repoConn.add(rdfStatement, context);
-            triplesSaved++;
-            totalTime = System.currentTimeMillis();
-
-            // check timeout:
-            if (timeout > 0 && (totalTime - startTime > timeout)) {
-                throw new TimeoutException("Timeout (" + timeout + "ms) exceeded when parsing triples");
-            }
-
-            if (triplesSaved % BATCH_SIZE == 0) {
-                LOGGER.trace("Statement counter = " + triplesSaved);
+            if (statementBuffer.add(rdfStatement)) {
+                statementBuffer.checkTimeout();
             }
-
         } catch (RepositoryException e) {
             throw new RDFHandlerException(e.getMessage(), e);
         }
@@ -177,7 +165,13 @@ public class RDFContentHandler implements RDFHandler {
      */
     @Override
     public void endRDF() throws RDFHandlerException {
-        // No specific handling here.
+
+        // Flush whatever is left in the buffer.
+        try {
+            statementBuffer.flush();
+        } catch (RepositoryException e) {
+            throw new RDFHandlerException(e.getMessage(), e);
+        }
     }
 
     /**
@@ -210,6 +204,6 @@ public class RDFContentHandler implements RDFHandler {
      * @return the triplesLoaded
      */
     public int getNumberOfTriplesSaved() {
-        return triplesSaved;
+        return statementBuffer == null ? 0 : statementBuffer.getFlushedCount();
     }
 }
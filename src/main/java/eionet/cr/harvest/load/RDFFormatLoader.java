@@ -26,6 +26,7 @@ import java.io.InputStream;
 import java.sql.Connection;
 
 import org.openrdf.OpenRDFException;
+import org.openrdf.model.ValueFactory;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFParser;
@@ -63,14 +64,7 @@ public class RDFFormatLoader implements ContentLoader {
     public int load(InputStream inputStream, RepositoryConnection repoConn, Connection sqlConn, String baseUri, String contextUri)
             throws IOException, OpenRDFException, ContentParsingException {
 
-        // Let Sesame create an RDF parser.
-        RDFParser rdfParser = Rio.createParser(rdfFormat, repoConn.getValueFactory());
-        rdfParser.setVerifyData(true);
-        rdfParser.setStopAtFirstError(true);
-
-        // By default, Virtuoso's implementation of RepositoryConnection.add(File ...) ignores data types,
-        // so doing the same here by default.
-        rdfParser.setDatatypeHandling(RDFParser.DatatypeHandling.IGNORE);
+        RDFParser rdfParser = createParser(repoConn.getValueFactory());
 
         // Set the RDF parser's RDF handler to our implementation that loads triples into repository.
         RDFContentHandler rdfHandler = new RDFContentHandler(repoConn, sqlConn, contextUri, timeout);
@@ -81,6 +75,27 @@ public class RDFFormatLoader implements ContentLoader {
         return rdfHandler.getNumberOfTriplesSaved();
     }
 
+    /**
+     * Creates a parser of this loader's {@link RDFFormat}, configured exactly as the one used by
+     * {@link #load(InputStream, RepositoryConnection, Connection, String, String)}. Useful for parsing the content the same way
+     * without loading it, e.g. see {@link GraphDiff}.
+     *
+     * @param valueFactory The value factory for the parser to create the parsed values with.
+     * @return The parser.
+     */
+    public RDFParser createParser(ValueFactory valueFactory) {
+
+        // Let Sesame create an RDF parser.
+        RDFParser rdfParser = Rio.createParser(rdfFormat, valueFactory);
+        rdfParser.setVerifyData(true);
+        rdfParser.setStopAtFirstError(true);
+
+        // By default, Virtuoso's implementation of RepositoryConnection.add(File ...) ignores data types,
+        // so doing the same here by default.
+        rdfParser.setDatatypeHandling(RDFParser.DatatypeHandling.IGNORE);
+        return rdfParser;
+    }
+
     /*
      * (non-Javadoc)
      * @see eionet.cr.harvest.load.ContentLoader#setTimeout(long)
@@ -90,6 +105,13 @@ public class RDFFormatLoader implements ContentLoader {
         this.timeout = timeout;
     }
 
+    /**
+     * @return the timeout
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
     /**
      * @return the rdfFormat
      */
@@ -0,0 +1,180 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.harvest.load;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eionet.cr.config.GeneralConfig;
+import eionet.cr.harvest.TimeoutException;
+
+/**
+ * A buffering sink of statements that are to be added into a given graph of a given repository connection. The statements are
+ * collected into a reusable array, and flushed into the repository in batches, one {@link RepositoryConnection#add(Iterable,
+ * Resource...)} call per batch. Virtuoso's Sesame driver turns such a call into one batched insert.
+ *
+ * The buffer also keeps track of the loading timeout, which is meant to be checked once per flushed batch rather than per
+ * statement, see {@link #checkTimeout()}.
+ *
+ * @author agent
+ */
+public class StatementBuffer {
+
+    /** */
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatementBuffer.class);
+
+    /** Default batch size. Virtuoso's Sesame driver uses 5000 by default. */
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+
+    /** The repository connection where the statements are flushed into. */
+    private final RepositoryConnection repoConn;
+
+    /** The graph where the statements are flushed into. */
+    private final Resource context;
+
+    /** The reusable array of buffered statements. */
+    private final Statement[] statements;
+
+    /** List view of {@link #statements}, used for handing the buffered statements over to the repository connection. */
+    private final List<Statement> statementsView;
+
+    /** Number of currently buffered statements. */
+    private int size;
+
+    /** Total number of statements flushed so far. */
+    private int flushedCount;
+
+    /** Loading timeout in milliseconds. Zero or less means no timeout. */
+    private final long timeout;
+
+    /** Time (milliseconds) when this buffer was created. */
+    private final long startTime;
+
+    /**
+     * Creates a new buffer with the configured batch size.
+     *
+     * @param repoConn The repository connection where the statements are flushed into.
+     * @param context The graph where the statements are flushed into.
+     * @param timeout Loading timeout in milliseconds. Zero or less means no timeout.
+     */
+    public StatementBuffer(RepositoryConnection repoConn, Resource context, long timeout) {
+        this(repoConn, context, getConfiguredBatchSize(), timeout);
+    }
+
+    /**
+     * Creates a new buffer with the given batch size.
+     *
+     * @param repoConn The repository connection where the statements are flushed into.
+     * @param context The graph where the statements are flushed into.
+     * @param batchSize Number of statements flushed at once.
+     * @param timeout Loading timeout in milliseconds. Zero or less means no timeout.
+     */
+    public StatementBuffer(RepositoryConnection repoConn, Resource context, int batchSize, long timeout) {
+
+        this.repoConn = repoConn;
+        this.context = context;
+        this.statements = new Statement[Math.max(1, batchSize)];
+        this.statementsView = Arrays.asList(statements);
+        this.timeout = timeout;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds the given statement into the buffer. If the buffer becomes full, it is flushed.
+     *
+     * @param statement The statement to add.
+     * @return True if the buffer was flushed, otherwise false.
+     * @throws RepositoryException If flushing into the repository fails.
+     */
+    public boolean add(Statement statement) throws RepositoryException {
+
+        statements[size++] = statement;
+        if (size == statements.length) {
+            flush();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Flushes the buffered statements into the repository, if there are any.
+     *
+     * @throws RepositoryException If flushing into the repository fails.
+     */
+    public void flush() throws RepositoryException {
+
+        if (size == 0) {
+            return;
+        }
+
+        repoConn.add(statementsView.subList(0, size), context);
+        flushedCount += size;
+
+        // Release the references so that the flushed statements can be garbage-collected.
+        Arrays.fill(statements, 0, size, null);
+        size = 0;
+
+        LOGGER.trace("Statement counter = " + flushedCount);
+    }
+
+    /**
+     * Throws {@link TimeoutException} if the loading timeout given to this buffer has been exceeded.
+     *
+     * @throws TimeoutException As indicated above.
+     */
+    public void checkTimeout() throws TimeoutException {
+
+        if (timeout > 0 && System.currentTimeMillis() - startTime > timeout) {
+            throw new TimeoutException("Timeout (" + timeout + "ms) exceeded when parsing triples");
+        }
+    }
+
+    /**
+     * @return Total number of statements flushed so far.
+     */
+    public int getFlushedCount() {
+        return flushedCount;
+    }
+
+    /**
+     * @return Number of currently buffered statements.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the configured batch size, see {@link GeneralConfig#HARVESTER_LOAD_BATCH_SIZE}.
+     *
+     * @return The batch size.
+     */
+    public static int getConfiguredBatchSize() {
+        return Math.max(1, GeneralConfig.getIntProperty(GeneralConfig.HARVESTER_LOAD_BATCH_SIZE, DEFAULT_BATCH_SIZE));
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.harvest.load;
+
+import java.util.Arrays;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+
+import eionet.cr.util.Hashes;
+
+/**
+ * A compact fingerprint of a graph's content: the sorted set of 64-bit hashes of all its ground triples (i.e. triples without
+ * blank nodes). Comparing the fingerprints of a graph's previous and new content tells exactly which triples were added and
+ * which removed, without having to load the new content into a temporary graph. Triples with blank nodes cannot be compared
+ * across harvests, since blank node identifiers are not stable, so they are only counted.
+ *
+ * @author agent
+ */
+public final class TripleFingerprint {
+
+    /** Datatypes whose literals are stored as plain literals, so they are hashed as such. See {@link RDFContentHandler}. */
+    private static final String[] PLAIN_DATATYPES = {"http://www.w3.org/2001/XMLSchema#string",
+            "http://www.openlinksw.com/schemas/virtrdf#Geometry"};
+
+    /** Sorted distinct hashes of the ground triples. */
+    private final long[] hashes;
+
+    /** Number of triples with blank nodes. */
+    private final int blankNodeTriples;
+
+    /** Number of triples in the graph when this fingerprint was persisted, or -1 if not known. */
+    private final long graphTriplesCount;
+
+    /**
+     * @param hashes
+     * @param blankNodeTriples
+     * @param graphTriplesCount
+     */
+    private TripleFingerprint(long[] hashes, int blankNodeTriples, long graphTriplesCount) {
+        this.hashes = hashes;
+        this.blankNodeTriples = blankNodeTriples;
+        this.graphTriplesCount = graphTriplesCount;
+    }
+
+    /**
+     * Creates a fingerprint of the given persisted triple hashes.
+     *
+     * @param hashes Distinct hashes of the ground triples, in any order. The array is sorted in place.
+     * @param blankNodeTriples Number of triples with blank nodes.
+     * @param graphTriplesCount Number of triples in the graph when the fingerprint was persisted.
+     * @return The fingerprint.
+     */
+    public static TripleFingerprint create(long[] hashes, int blankNodeTriples, long graphTriplesCount) {
+
+        Arrays.sort(hashes);
+        return new TripleFingerprint(hashes, blankNodeTriples, graphTriplesCount);
+    }
+
+    /**
+     * Returns the hash of the given ground triple. The hash ignores the triple's context, and treats literals the same way as
+     * they end up in the triple store, so that the hash of a parsed triple equals the hash of the same triple read back from the
+     * store.
+     *
+     * @param statement The triple.
+     * @return The hash.
+     */
+    public static long hash(Statement statement) {
+
+        long hash = Hashes.spoHash(toCanonicalString(statement.getSubject()));
+        hash = Hashes.spoHash(toCanonicalString(statement.getPredicate()), hash);
+        return Hashes.spoHash(toCanonicalString(statement.getObject()), hash);
+    }
+
+    /**
+     * Returns true if the given triple's subject or object is a blank node.
+     *
+     * @param statement The triple.
+     * @return As indicated above.
+     */
+    public static boolean hasBlankNode(Statement statement) {
+        return statement.getSubject() instanceof BNode || statement.getObject() instanceof BNode;
+    }
+
+    /**
+     * @param value
+     * @return
+     */
+    private static String toCanonicalString(Value value) {
+
+        if (value instanceof Literal) {
+
+            Literal literal = (Literal) value;
+            StringBuilder sb = new StringBuilder().append('"').append(literal.getLabel()).append('"');
+            URI datatype = literal.getDatatype();
+            if (literal.getLanguage() != null) {
+                sb.append('@').append(literal.getLanguage().toLowerCase());
+            } else if (datatype != null && !Arrays.asList(PLAIN_DATATYPES).contains(datatype.stringValue())) {
+                sb.append("^^<").append(datatype.stringValue()).append('>');
+            }
+            return sb.toString();
+        } else if (value instanceof BNode) {
+            return "_:" + value.stringValue();
+        } else {
+            return "<" + value.stringValue() + ">";
+        }
+    }
+
+    /**
+     * Returns true if this fingerprint contains the given triple hash.
+     *
+     * @param hash The hash.
+     * @return As indicated above.
+     */
+    public boolean contains(long hash) {
+        return Arrays.binarySearch(hashes, hash) >= 0;
+    }
+
+    /**
+     * Returns the sorted hashes that are in this fingerprint, but not in the given one.
+     *
+     * @param other The other fingerprint.
+     * @return The sorted difference.
+     */
+    public long[] minus(TripleFingerprint other) {
+
+        long[] result = new long[hashes.length];
+        int size = 0;
+        int j = 0;
+        for (long hash : hashes) {
+            while (j < other.hashes.length && other.hashes[j] < hash) {
+                j++;
+            }
+            if (j >= other.hashes.length || other.hashes[j] != hash) {
+                result[size++] = hash;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @return Number of distinct ground triples.
+     */
+    public int size() {
+        return hashes.length;
+    }
+
+    /**
+     * @return Number of triples with blank nodes.
+     */
+    public int getBlankNodeTriples() {
+        return blankNodeTriples;
+    }
+
+    /**
+     * @return Number of triples in the graph when this fingerprint was persisted, or -1 if not known.
+     */
+    public long getGraphTriplesCount() {
+        return graphTriplesCount;
+    }
+
+    /**
+     * @return The sorted distinct hashes of the ground triples. Not to be modified.
+     */
+    public long[] getHashes() {
+        return hashes;
+    }
+
+    /**
+     * Collects the triples of a fingerprint.
+     */
+    public static class Builder {
+
+        /** */
+        private long[] hashes = new long[1024];
+
+        /** */
+        private int size;
+
+        /** */
+        private int blankNodeTriples;
+
+        /** */
+        private final int maxTriples;
+
+        /** */
+        private boolean exceeded;
+
+        /**
+         * @param maxTriples Maximum number of triples to collect, zero or less means no limit.
+         */
+        public Builder(int maxTriples) {
+            this.maxTriples = maxTriples;
+        }
+
+        /**
+         * Adds the given triple.
+         *
+         * @param statement The triple.
+         * @return False if the maximum number of triples has been exceeded, otherwise true.
+         */
+        public boolean add(Statement statement) {
+
+            if (exceeded || maxTriples > 0 && size + blankNodeTriples >= maxTriples) {
+                exceeded = true;
+                return false;
+            }
+
+            if (hasBlankNode(statement)) {
+                blankNodeTriples++;
+            } else {
+                if (size == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, size * 2);
+                }
+                hashes[size++] = hash(statement);
+            }
+            return true;
+        }
+
+        /**
+         * @return The fingerprint of the triples added so far, or null if the maximum number of triples has been exceeded.
+         */
+        public TripleFingerprint build() {
+
+            if (exceeded) {
+                return null;
+            }
+
+            long[] sorted = Arrays.copyOf(hashes, size);
+            Arrays.sort(sorted);
+
+            int distinct = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[distinct - 1]) {
+                    sorted[distinct++] = sorted[i];
+                }
+            }
+            return new TripleFingerprint(Arrays.copyOf(sorted, distinct), blankNodeTriples, -1);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by TripleDev or Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ */
+package eionet.cr.harvest.scheduled;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+import org.openrdf.rio.RDFParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eionet.cr.config.GeneralConfig;
+import eionet.cr.harvest.CurrentHarvests;
+import eionet.cr.harvest.Harvest;
+import eionet.cr.harvest.HarvestException;
+import eionet.cr.harvest.util.HostThrottle;
+
+/**
+ * A bounded executor of the harvests submitted by {@link HarvestingJob}.
+ *
+ * Harvests are executed by a configurable number of worker threads (see {@link GeneralConfig#HARVESTER_WORKER_THREADS}).
+ * At most {@link GeneralConfig#HARVESTER_MAX_CONCURRENT_HARVESTS_PER_HOST} harvests of the same host are executed at the same
+ * time, fewer if the host is slow or failing (see {@link HostThrottle}), the rest wait in the queue without occupying a
+ * worker. Urgent harvests are preferred over batch harvests, but after {@link GeneralConfig#HARVESTER_URGENT_TO_BATCH_RATIO}
+ * consecutive urgent harvests a waiting batch harvest is given its turn, so that a busy urgent queue cannot starve the batch
+ * queue.
+ *
+ * A harvest is registered in {@link CurrentHarvests} from when it is started until it has finished. Harvests waiting for their
+ * turn are not, so that they hold back neither the deletion nor the on-demand harvest of their sources. The submitter is to
+ * check {@link #isWaiting(String)} to avoid queuing the same source twice.
+ *
+ * @author agent
+ */
+public class HarvestExecutor {
+
+    /** Static logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(HarvestExecutor.class);
+
+    /** Default number of worker threads, i.e. harvests are executed one at a time. */
+    public static final int DEFAULT_WORKER_THREADS = 1;
+
+    /** Default max number of harvests executed concurrently against the same host, i.e. one at a time. */
+    public static final int DEFAULT_MAX_CONCURRENT_HARVESTS_PER_HOST = 1;
+
+    /** Default number of consecutive urgent harvests after which a waiting batch harvest gets its turn. */
+    public static final int DEFAULT_URGENT_TO_BATCH_RATIO = 3;
+
+    /** The worker threads shared by all instances of this class. Lazily created, see {@link #getWorkers()}. */
+    private static ExecutorService workers;
+
+    /** Configured number of worker threads. */
+    private static int workerThreads;
+
+    /** The threads executing the harvests. */
+    private final ExecutorService threads;
+
+    /** Max number of concurrently running harvests. */
+    private final int maxRunning;
+
+    /** Max number of concurrently running harvests per host. */
+    private final int maxPerHost;
+
+    /** Number of consecutive urgent harvests after which a batch harvest gets its turn. */
+    private final int urgentToBatchRatio;
+
+    /** Urgent harvests waiting for their turn. */
+    private final LinkedList<Harvest> urgentQueue = new LinkedList<Harvest>();
+
+    /** Batch harvests waiting for their turn. */
+    private final LinkedList<Harvest> batchQueue = new LinkedList<Harvest>();
+
+    /** Number of currently running harvests per host. */
+    private final Map<String, Integer> runningPerHost = new HashMap<String, Integer>();
+
+    /** Number of currently running harvests. */
+    private int running;
+
+    /** Number of urgent harvests started since the last batch harvest was started. */
+    private int urgentsSinceBatch;
+
+    /**
+     * Creates a new executor with the configured limits.
+     */
+    public HarvestExecutor() {
+        this(getWorkers(), getWorkerThreads(), GeneralConfig.getIntProperty(
+                GeneralConfig.HARVESTER_MAX_CONCURRENT_HARVESTS_PER_HOST, DEFAULT_MAX_CONCURRENT_HARVESTS_PER_HOST),
+                GeneralConfig.getIntProperty(GeneralConfig.HARVESTER_URGENT_TO_BATCH_RATIO, DEFAULT_URGENT_TO_BATCH_RATIO));
+    }
+
+    /**
+     * Creates a new executor with the given threads and limits.
+     *
+     * @param threads The threads executing the harvests.
+     * @param maxRunning Max number of concurrently running harvests.
+     * @param maxPerHost Max number of concurrently running harvests per host.
+     * @param urgentToBatchRatio Number of consecutive urgent harvests after which a waiting batch harvest gets its turn.
+     */
+    HarvestExecutor(ExecutorService threads, int maxRunning, int maxPerHost, int urgentToBatchRatio) {
+        this.threads = threads;
+        this.maxRunning = Math.max(1, maxRunning);
+        this.maxPerHost = Math.max(1, maxPerHost);
+        this.urgentToBatchRatio = Math.max(1, urgentToBatchRatio);
+    }
+
+    /**
+     * Submits the given harvest for urgent execution.
+     *
+     * @param harvest The harvest.
+     */
+    public void submitUrgent(Harvest harvest) {
+        submit(harvest, urgentQueue);
+    }
+
+    /**
+     * Submits the given harvest for batch execution.
+     *
+     * @param harvest The harvest.
+     */
+    public void submitBatch(Harvest harvest) {
+        submit(harvest, batchQueue);
+    }
+
+    /**
+     * Blocks until all submitted harvests have finished.
+     *
+     * @throws InterruptedException If the waiting thread was interrupted.
+     */
+    public synchronized void awaitCompletion() throws InterruptedException {
+
+        while (running > 0 || !urgentQueue.isEmpty() || !batchQueue.isEmpty()) {
+            wait();
+        }
+    }
+
+    /**
+     * Returns the number of harvests currently running or waiting for their turn.
+     *
+     * @return The number.
+     */
+    public synchronized int size() {
+        return running + urgentQueue.size() + batchQueue.size();
+    }
+
+    /**
+     * Returns true if a harvest of the given URL is waiting for its turn, i.e. has been submitted but not yet started.
+     *
+     * @param url The URL.
+     * @return As indicated above.
+     */
+    public synchronized boolean isWaiting(String url) {
+
+        if (url == null) {
+            return false;
+        }
+        for (Harvest harvest : urgentQueue) {
+            if (harvest.isBeingHarvested(url)) {
+                return true;
+            }
+        }
+        for (Harvest harvest : batchQueue) {
+            if (harvest.isBeingHarvested(url)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the given harvest to the given queue and dispatches whatever can be started.
+     *
+     * @param harvest The harvest.
+     * @param queue The queue.
+     */
+    private void submit(Harvest harvest, LinkedList<Harvest> queue) {
+
+        if (harvest == null) {
+            return;
+        }
+
+        synchronized (this) {
+            queue.add(harvest);
+            dispatch();
+        }
+    }
+
+    /**
+     * Starts as many waiting harvests as the limits allow. Must be called while holding this object's monitor.
+     */
+    private void dispatch() {
+
+        while (running < maxRunning) {
+
+            Harvest next = null;
+            boolean batchFirst = urgentsSinceBatch >= urgentToBatchRatio;
+            if (batchFirst) {
+                next = pollStartable(batchQueue);
+            }
+            if (next == null) {
+                next = pollStartable(urgentQueue);
+            }
+            if (next == null && !batchFirst) {
+                next = pollStartable(batchQueue);
+            }
+            if (next == null) {
+                break;
+            }
+
+            start(next);
+        }
+    }
+
+    /**
+     * Removes and returns the first harvest in the given queue whose host has not yet reached its concurrency limit. The limit
+     * adapts to the host's responsiveness (see {@link HostThrottle}), but never exceeds the configured max.
+     *
+     * @param queue The queue.
+     * @return The harvest or null if none can be started at the moment.
+     */
+    private Harvest pollStartable(LinkedList<Harvest> queue) {
+
+        for (Iterator<Harvest> iter = queue.iterator(); iter.hasNext();) {
+            Harvest harvest = iter.next();
+            String host = hostOf(harvest);
+            Integer count = runningPerHost.get(host);
+            if (count == null || count.intValue() < Math.min(maxPerHost, HostThrottle.forHost(host).getConcurrencyLimit())) {
+                iter.remove();
+                urgentsSinceBatch = queue == batchQueue ? 0 : urgentsSinceBatch + 1;
+                return harvest;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hands the given harvest over to the worker threads, and registers it as currently executed. Must be called while holding
+     * this object's monitor, so that the harvest is always either waiting or registered, see {@link #isWaiting(String)}.
+     *
+     * @param harvest The harvest.
+     */
+    private void start(final Harvest harvest) {
+
+        final String host = hostOf(harvest);
+        Integer count = runningPerHost.get(host);
+        runningPerHost.put(host, count == null ? 1 : count.intValue() + 1);
+        running++;
+        CurrentHarvests.addQueuedHarvest(harvest);
+
+        try {
+            threads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        executeHarvest(harvest);
+                    } finally {
+                        finished(harvest, host);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.error("Harvest executor rejected " + harvest.getContextUrl(), e);
+            CurrentHarvests.removeQueuedHarvest(harvest);
+            release(host);
+        }
+    }
+
+    /**
+     * Called when the given harvest has finished. Releases its slot and dispatches the next waiting harvests.
+     *
+     * @param harvest The harvest.
+     * @param host The harvest's host.
+     */
+    private void finished(Harvest harvest, String host) {
+
+        CurrentHarvests.removeQueuedHarvest(harvest);
+        synchronized (this) {
+            release(host);
+            dispatch();
+        }
+    }
+
+    /**
+     * Releases the slot taken by a harvest of the given host. Must be called while holding this object's monitor.
+     *
+     * @param host The host.
+     */
+    private void release(String host) {
+
+        Integer count = runningPerHost.get(host);
+        if (count == null || count.intValue() <= 1) {
+            runningPerHost.remove(host);
+        } else {
+            runningPerHost.put(host, count.intValue() - 1);
+        }
+        running--;
+        notifyAll();
+    }
+
+    /**
+     * Executes the given harvest and logs any exception it throws.
+     *
+     * @param harvest The harvest.
+     */
+    private static void executeHarvest(Harvest harvest) {
+
+        try {
+            harvest.execute();
+        } catch (HarvestException e) {
+            if (e.getCause() instanceof RDFParseException) {
+                LOGGER.warn("Got exception from " + harvest.getClass().getSimpleName() + " [" + harvest.getContextUrl() + "] - "
+                        + e.toString());
+            } else {
+                LOGGER.error("Got exception from " + harvest.getClass().getSimpleName() + " [" + harvest.getContextUrl() + "]", e);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Got exception from " + harvest.getClass().getSimpleName() + " [" + harvest.getContextUrl() + "]", e);
+        }
+    }
+
+    /**
+     * Returns the lower-cased host of the given harvest's URL, or the URL itself if the host cannot be detected.
+     *
+     * @param harvest The harvest.
+     * @return The host.
+     */
+    static String hostOf(Harvest harvest) {
+
+        String url = harvest.getContextUrl();
+        if (StringUtils.isBlank(url)) {
+            return "";
+        }
+
+        try {
+            String host = new URL(url).getHost();
+            return StringUtils.isBlank(host) ? url : host.toLowerCase();
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+    /**
+     * Returns the configured number of worker threads.
+     *
+     * @return The number.
+     */
+    public static synchronized int getWorkerThreads() {
+
+        if (workerThreads <= 0) {
+            workerThreads = Math.max(1, GeneralConfig.getIntProperty(GeneralConfig.HARVESTER_WORKER_THREADS,
+                    DEFAULT_WORKER_THREADS));
+        }
+        return workerThreads;
+    }
+
+    /**
+     * Lazy getter for the worker threads shared by all instances of this class.
+     *
+     * @return The worker threads.
+     */
+    private static synchronized ExecutorService getWorkers() {
+
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(getWorkerThreads(), new ThreadFactory() {
+
+                /** Counter for thread names. */
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "harvest-worker-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return workers;
+    }
+
+    /**
+     * Shuts down the worker threads, waiting a while for the running harvests to finish.
+     */
+    public static synchronized void shutdown() {
+
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                    workers.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            workers = null;
+        }
+    }
+}
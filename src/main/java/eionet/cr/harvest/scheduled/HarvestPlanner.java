@@ -0,0 +1,299 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.harvest.scheduled;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eionet.cr.dao.DAOException;
+import eionet.cr.dao.DAOFactory;
+import eionet.cr.dao.HarvestDAO;
+import eionet.cr.dto.HarvestSourceDTO;
+import eionet.cr.dto.HarvestStatDTO;
+
+/**
+ * Plans the batch harvests of one {@link HarvestingJob} interval, so that the interval's time budget is filled but not overrun.
+ *
+ * The duration of every candidate source's harvest is predicted from the harvest history (see
+ * {@link HarvestDAO#getLastHarvestStats(Integer)}). The candidates are then packed into the budget by a 0/1 knapsack, where
+ * the value of a source is how long it is overdue, i.e. the same order as {@link HarvestSchedule#getNextDueTime(long, long, int)}.
+ * A source whose predicted duration alone exceeds the budget is harvested alone once it has missed its deadline (a whole
+ * interval overdue), so large sources are spread out over intervals of their own. At least as many sources as the old evenly
+ * divided share of the due sources are always picked, even if their predicted durations do not fit into the budget.
+ *
+ * @author agent
+ */
+public final class HarvestPlanner {
+
+    /** Static logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(HarvestPlanner.class);
+
+    /** Predicted harvest duration (ms) of sources that have no harvest history, if no history is available at all. */
+    public static final long DEFAULT_DURATION = 60000L;
+
+    /** Number of latest finished harvests that the predictions are based on. */
+    private static final int HISTORY_SIZE = 10000;
+
+    /** Max number of latest harvests of a source that its prediction is averaged from. */
+    private static final int HARVESTS_PER_SOURCE = 3;
+
+    /** Interval (ms) of reloading the harvest history. */
+    private static final long RELOAD_INTERVAL = 60 * 60 * 1000L;
+
+    /** Max number of units that the time budget is divided into for the knapsack. */
+    private static final int MAX_BUDGET_UNITS = 1000;
+
+    /** Predicted harvest durations (ms) by source URL. */
+    private static Map<String, Long> durations = new HashMap<String, Long>();
+
+    /** Predicted duration (ms) of sources not in {@link #durations}. */
+    private static long defaultDuration = DEFAULT_DURATION;
+
+    /** Time when the harvest history was last loaded, 0 if never. */
+    private static long loadTime;
+
+    /**
+     * Hide utility class constructor.
+     */
+    private HarvestPlanner() {
+        // Hide utility class constructor.
+    }
+
+    /**
+     * Picks the sources to be batch-harvested in the current interval, from the given candidates.
+     *
+     * @param candidates The candidate sources, the most overdue first.
+     * @param budgetMillis The time budget of the interval, in milliseconds.
+     * @param minSources Minimum number of sources to pick, if there are as many candidates.
+     * @return The picked sources, in the candidates' order.
+     */
+    public static List<HarvestSourceDTO> plan(List<HarvestSourceDTO> candidates, long budgetMillis, int minSources) {
+
+        if (candidates == null || candidates.isEmpty() || budgetMillis <= 0) {
+            return candidates;
+        }
+
+        reloadIfNeeded();
+        List<HarvestSourceDTO> result = plan(candidates, budgetMillis, minSources, System.currentTimeMillis());
+        LOGGER.trace("Planned " + result.size() + " of " + candidates.size() + " candidate sources into " + budgetMillis + " ms");
+        return result;
+    }
+
+    /**
+     * Picks the sources to be batch-harvested in an interval starting at the given time, from the given candidates.
+     *
+     * @param candidates The candidate sources.
+     * @param budgetMillis The time budget of the interval, in milliseconds.
+     * @param minSources Minimum number of sources to pick, if there are as many candidates.
+     * @param now The interval's start time.
+     * @return The picked sources, in the candidates' order.
+     */
+    static List<HarvestSourceDTO> plan(List<HarvestSourceDTO> candidates, long budgetMillis, int minSources, long now) {
+
+        int n = candidates.size();
+        long unit = Math.max(1L, budgetMillis / MAX_BUDGET_UNITS);
+        int capacity = (int) (budgetMillis / unit);
+
+        int[] weights = new int[n];
+        double[] values = new double[n];
+        int lateOversized = -1;
+        for (int i = 0; i < n; i++) {
+
+            HarvestSourceDTO source = candidates.get(i);
+            long overdue = getOverdue(source, now);
+            long weight = (getPredictedDuration(source.getUrl()) + unit - 1) / unit;
+            weights[i] = (int) Math.min(weight, capacity + 1L);
+            values[i] = Math.max(1L, overdue);
+
+            boolean late = source.getIntervalMinutes() != null && overdue >= source.getIntervalMinutes() * 60000L;
+            if (late && weights[i] > capacity && (lateOversized < 0 || values[i] > values[lateOversized])) {
+                lateOversized = i;
+            }
+        }
+
+        // A late source that does not fit into any budget gets the whole interval, unless fitting sources are even later.
+        double lateFittingValue = 0;
+        boolean[] picked = knapsack(weights, values, capacity);
+        for (int i = 0; i < n; i++) {
+            if (picked[i] && values[i] > lateFittingValue) {
+                lateFittingValue = values[i];
+            }
+        }
+        if (lateOversized >= 0 && values[lateOversized] > lateFittingValue) {
+            Arrays.fill(picked, false);
+            picked[lateOversized] = true;
+        }
+
+        // Never leave an interval idle, nor harvest fewer sources than the minimum: the most overdue sources are added.
+        int pickedCount = 0;
+        for (boolean p : picked) {
+            pickedCount += p ? 1 : 0;
+        }
+        for (int count = pickedCount; count < Math.max(1, minSources) && count < n; count++) {
+            int best = -1;
+            for (int i = 0; i < n; i++) {
+                if (!picked[i] && (best < 0 || values[i] > values[best])) {
+                    best = i;
+                }
+            }
+            picked[best] = true;
+        }
+
+        List<HarvestSourceDTO> result = new ArrayList<HarvestSourceDTO>();
+        for (int i = 0; i < n; i++) {
+            if (picked[i]) {
+                result.add(candidates.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Solves the 0/1 knapsack problem for the given items.
+     *
+     * @param weights The items' weights.
+     * @param values The items' values.
+     * @param capacity The knapsack's capacity.
+     * @return The picked items.
+     */
+    private static boolean[] knapsack(int[] weights, double[] values, int capacity) {
+
+        int n = weights.length;
+        double[] best = new double[capacity + 1];
+        boolean[][] taken = new boolean[n][capacity + 1];
+        for (int i = 0; i < n; i++) {
+            for (int w = capacity; w >= weights[i]; w--) {
+                double value = best[w - weights[i]] + values[i];
+                if (value > best[w]) {
+                    best[w] = value;
+                    taken[i][w] = true;
+                }
+            }
+        }
+
+        boolean[] picked = new boolean[n];
+        for (int i = n - 1, w = capacity; i >= 0; i--) {
+            if (taken[i][w]) {
+                picked[i] = true;
+                w -= weights[i];
+            }
+        }
+        return picked;
+    }
+
+    /**
+     * Returns how long the given source is overdue at the given time, see
+     * {@link HarvestSchedule#getNextDueTime(long, long, int)}. Sources never harvested and of unknown creation time are due
+     * just now.
+     *
+     * @param source The source.
+     * @param now The time.
+     * @return The time in milliseconds, negative if the source is not due yet, 0 if it has no harvest interval.
+     */
+    static long getOverdue(HarvestSourceDTO source, long now) {
+
+        Integer intervalMinutes = source.getIntervalMinutes();
+        if (intervalMinutes == null || intervalMinutes.intValue() <= 0) {
+            return 0L;
+        }
+
+        long lastHarvest = source.getLastHarvest() == null ? 0L : source.getLastHarvest().getTime();
+        long timeCreated = source.getTimeCreated() == null ? now : source.getTimeCreated().getTime();
+        return now - HarvestSchedule.getNextDueTime(timeCreated, lastHarvest, intervalMinutes.intValue());
+    }
+
+    /**
+     * Returns the predicted harvest duration of the given source.
+     *
+     * @param url The source's URL.
+     * @return The duration in milliseconds, at least 1.
+     */
+    static synchronized long getPredictedDuration(String url) {
+
+        Long duration = durations.get(url);
+        return Math.max(1L, duration == null ? defaultDuration : duration.longValue());
+    }
+
+    /**
+     * Loads the predicted durations from the given harvest statistics.
+     *
+     * @param stats The statistics of the latest finished harvests, the latest first.
+     */
+    static synchronized void loadDurations(List<HarvestStatDTO> stats) {
+
+        Map<String, long[]> totals = new HashMap<String, long[]>();
+        for (HarvestStatDTO stat : stats) {
+            Integer seconds = stat.getDuration();
+            if (stat.getSourceUrl() == null || seconds == null) {
+                continue;
+            }
+            long[] total = totals.get(stat.getSourceUrl());
+            if (total == null) {
+                total = new long[2];
+                totals.put(stat.getSourceUrl(), total);
+            }
+            if (total[1] < HARVESTS_PER_SOURCE) {
+                total[0] += seconds.longValue() * 1000L;
+                total[1]++;
+            }
+        }
+
+        Map<String, Long> newDurations = new HashMap<String, Long>();
+        for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+            newDurations.put(entry.getKey(), entry.getValue()[0] / entry.getValue()[1]);
+        }
+
+        // Sources without history are predicted to take as long as the median of those with history.
+        long[] sorted = new long[newDurations.size()];
+        int i = 0;
+        for (Long duration : newDurations.values()) {
+            sorted[i++] = duration.longValue();
+        }
+        Arrays.sort(sorted);
+
+        durations = newDurations;
+        defaultDuration = sorted.length == 0 ? DEFAULT_DURATION : sorted[sorted.length / 2];
+        loadTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Reloads the harvest history, if not loaded within {@link #RELOAD_INTERVAL}.
+     */
+    private static synchronized void reloadIfNeeded() {
+
+        if (loadTime == 0 || System.currentTimeMillis() - loadTime > RELOAD_INTERVAL) {
+            try {
+                loadDurations(DAOFactory.get().getDao(HarvestDAO.class).getLastHarvestStats(HISTORY_SIZE));
+                LOGGER.debug("Loaded predicted harvest durations of " + durations.size() + " sources");
+            } catch (DAOException e) {
+                LOGGER.error("Failed to load harvest history, keeping the previous predictions", e);
+                loadTime = System.currentTimeMillis();
+            }
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.harvest.scheduled;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A global in-memory schedule of batch harvests. Keeps every harvest source's next due time, so that picking the next sources
+ * to harvest needs no scan of the whole HARVEST_SOURCE table. The sources that can be batch-harvested are kept ordered by their
+ * next due time, i.e. the source that has been due for the longest is first, in two separate orders: one of the online CSV/TSV
+ * sources, and one of the other sources. So picking the next sources of either kind takes O(log n) time, without skipping
+ * sources of the other kind or sources that are not harvested any more.
+ *
+ * The schedule is loaded from the database in full (see {@link #load(Collection)}) and then kept up to date by the DAO
+ * methods that change the sources' schedule-related columns. Since other writers (e.g. other application instances) may
+ * change the sources too, the schedule is meant to be reloaded periodically.
+ *
+ * @author agent
+ */
+public final class HarvestSchedule {
+
+    /** Sources that have been unavailable this many times in a row are not batch-harvested any more. */
+    public static final int MAX_COUNT_UNAVAIL = 5;
+
+    /** Orders sources by their next due time, and by URL hash if due at the same time. */
+    private static final Comparator<ScheduledSource> DUE_TIME_ORDER = new Comparator<ScheduledSource>() {
+        @Override
+        public int compare(ScheduledSource source1, ScheduledSource source2) {
+            if (source1.nextDueTime != source2.nextDueTime) {
+                return source1.nextDueTime < source2.nextDueTime ? -1 : 1;
+            }
+            return source1.urlHash < source2.urlHash ? -1 : (source1.urlHash == source2.urlHash ? 0 : 1);
+        }
+    };
+
+    /** All known sources by their URL hashes. */
+    private static Map<Long, ScheduledSource> sourcesByUrlHash = new HashMap<Long, ScheduledSource>();
+
+    /** All known sources by their ids. */
+    private static Map<Integer, ScheduledSource> sourcesById = new HashMap<Integer, ScheduledSource>();
+
+    /**
+     * The sources other than online CSV/TSV ones, that have a positive harvest interval and have not been unavailable too many
+     * times, by next due time. A sorted set rather than a binary heap, because sources get re-scheduled and removed at
+     * arbitrary positions, which is O(log n) for the set, but O(n) for a heap.
+     */
+    private static TreeSet<ScheduledSource> dueTimeOrder = new TreeSet<ScheduledSource>(DUE_TIME_ORDER);
+
+    /** The online CSV/TSV sources that have a positive harvest interval, by next due time. */
+    private static TreeSet<ScheduledSource> csvTsvDueTimeOrder = new TreeSet<ScheduledSource>(DUE_TIME_ORDER);
+
+    /** Time when the schedule was last loaded, or 0 if not loaded. */
+    private static long loadTime;
+
+    /**
+     * Hide utility class constructor.
+     */
+    private HarvestSchedule() {
+        // Hide utility class constructor.
+    }
+
+    /**
+     * Replaces the whole schedule with the given sources.
+     *
+     * @param sources The sources.
+     */
+    public static synchronized void load(Collection<ScheduledSource> sources) {
+
+        clear();
+        for (ScheduledSource source : sources) {
+            add(source);
+        }
+        loadTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Clears the schedule, so that it has to be loaded again.
+     */
+    public static synchronized void invalidate() {
+        clear();
+    }
+
+    /**
+     * @return Time when the schedule was last loaded, or 0 if it is not loaded.
+     */
+    public static synchronized long getLoadTime() {
+        return loadTime;
+    }
+
+    /**
+     * Adds the given source to the schedule, unless a source with the same URL is already in there. Does nothing if the
+     * schedule is not loaded.
+     *
+     * @param source The source.
+     */
+    public static synchronized void addIfAbsent(ScheduledSource source) {
+
+        if (loadTime > 0 && !sourcesByUrlHash.containsKey(source.urlHash)) {
+            add(source);
+        }
+    }
+
+    /**
+     * Re-schedules the source with the given URL hash after its harvest, or after it has been changed otherwise. Does nothing
+     * if the source is not in the schedule.
+     *
+     * @param urlHash The source's URL hash.
+     * @param lastHarvest The source's last harvest time, null if never harvested.
+     * @param intervalMinutes The source's harvest interval in minutes.
+     * @param countUnavail How many times in a row the source has been unavailable.
+     */
+    public static synchronized void update(long urlHash, Date lastHarvest, int intervalMinutes, int countUnavail) {
+
+        ScheduledSource source = remove(urlHash);
+        if (source != null) {
+            add(new ScheduledSource(source.sourceId, urlHash, source.timeCreated,
+                    lastHarvest == null ? 0L : lastHarvest.getTime(), intervalMinutes, countUnavail, source.onlineCsvTsv));
+        }
+    }
+
+    /**
+     * Re-schedules the source with the given id after it has been edited. Does nothing if the source is not in the schedule.
+     *
+     * @param sourceId The source's id.
+     * @param urlHash The source's URL hash that may have changed in the edit.
+     * @param intervalMinutes The source's harvest interval in minutes.
+     */
+    public static synchronized void update(int sourceId, long urlHash, int intervalMinutes) {
+
+        ScheduledSource source = sourcesById.get(sourceId);
+        if (source != null) {
+            remove(source.urlHash);
+            add(new ScheduledSource(sourceId, urlHash, source.timeCreated, source.lastHarvestTime, intervalMinutes,
+                    source.countUnavail, source.onlineCsvTsv));
+        }
+    }
+
+    /**
+     * Increments the unavailability count of the source with the given URL hash.
+     *
+     * @param urlHash The source's URL hash.
+     */
+    public static synchronized void increaseUnavailableCount(long urlHash) {
+
+        ScheduledSource source = sourcesByUrlHash.get(urlHash);
+        if (source != null) {
+            update(urlHash, source.lastHarvestTime == 0L ? null : new Date(source.lastHarvestTime), source.intervalMinutes,
+                    source.countUnavail + 1);
+        }
+    }
+
+    /**
+     * Removes the source with the given URL hash from the schedule.
+     *
+     * @param urlHash The source's URL hash.
+     * @return The removed source, or null if it was not in the schedule.
+     */
+    public static synchronized ScheduledSource remove(long urlHash) {
+
+        ScheduledSource source = sourcesByUrlHash.remove(urlHash);
+        if (source != null) {
+            getDueTimeOrder(source.onlineCsvTsv).remove(source);
+            if (source.sourceId != null) {
+                sourcesById.remove(source.sourceId);
+            }
+        }
+        return source;
+    }
+
+    /**
+     * Returns the URL hashes of the sources that are due at the given time, the ones due for the longest first. Sources that
+     * have been unavailable {@link #MAX_COUNT_UNAVAIL} times are skipped, unless online CSV/TSV sources are asked for.
+     *
+     * @param onlineCsvTsv If true, only online CSV/TSV sources are returned, otherwise only other sources.
+     * @param time The time in question, in milliseconds.
+     * @param limit Maximum number of sources to return.
+     * @return The URL hashes.
+     */
+    public static synchronized List<Long> getDue(boolean onlineCsvTsv, long time, int limit) {
+
+        List<Long> result = new ArrayList<Long>();
+        for (ScheduledSource source : getDueTimeOrder(onlineCsvTsv)) {
+            if (result.size() >= limit || source.nextDueTime > time) {
+                break;
+            }
+            result.add(source.urlHash);
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if the source with the given URL hash is in the schedule and due at the given time.
+     *
+     * @param urlHash The source's URL hash.
+     * @param time The time in question, in milliseconds.
+     * @return As indicated above.
+     */
+    public static synchronized boolean isDue(long urlHash, long time) {
+
+        ScheduledSource source = sourcesByUrlHash.get(urlHash);
+        return source != null && source.intervalMinutes > 0 && source.nextDueTime <= time;
+    }
+
+    /**
+     * Returns the number of sources (of either kind) that are due at the given time, and would be returned by
+     * {@link #getDue(boolean, long, int)}.
+     *
+     * @param time The time in question, in milliseconds.
+     * @return The number.
+     */
+    public static synchronized long countDue(long time) {
+        return countDue(dueTimeOrder, time) + countDue(csvTsvDueTimeOrder, time);
+    }
+
+    /**
+     * @param order One of the due time orders.
+     * @param time The time in question, in milliseconds.
+     * @return Number of sources in the given order that are due at the given time.
+     */
+    private static long countDue(TreeSet<ScheduledSource> order, long time) {
+
+        long count = 0;
+        for (ScheduledSource source : order) {
+            if (source.nextDueTime > time) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the time when a source is next due for harvest: one harvest interval after its last harvest. A never harvested
+     * source is due straight away, ranked as if harvested one interval before its creation. Batch harvests go in the order of
+     * this time, i.e. the source that is overdue by the longest time goes first, see also {@link HarvestPlanner}.
+     *
+     * @param timeCreated The source's creation time, in milliseconds.
+     * @param lastHarvestTime The source's last harvest time in milliseconds, 0 if never harvested.
+     * @param intervalMinutes The source's harvest interval in minutes.
+     * @return The time in milliseconds.
+     */
+    public static long getNextDueTime(long timeCreated, long lastHarvestTime, int intervalMinutes) {
+        return lastHarvestTime == 0L ? timeCreated : lastHarvestTime + intervalMinutes * 60000L;
+    }
+
+    /**
+     * @return Number of sources in the schedule.
+     */
+    public static synchronized int size() {
+        return sourcesByUrlHash.size();
+    }
+
+    /**
+     * @param source
+     */
+    private static void add(ScheduledSource source) {
+
+        remove(source.urlHash);
+        sourcesByUrlHash.put(source.urlHash, source);
+        if (source.sourceId != null) {
+            sourcesById.put(source.sourceId, source);
+        }
+        if (source.intervalMinutes > 0 && (source.onlineCsvTsv || source.countUnavail < MAX_COUNT_UNAVAIL)) {
+            getDueTimeOrder(source.onlineCsvTsv).add(source);
+        }
+    }
+
+    /**
+     * @param onlineCsvTsv True for the order of online CSV/TSV sources, false for the order of other sources.
+     * @return The due time order of the given kind of sources.
+     */
+    private static TreeSet<ScheduledSource> getDueTimeOrder(boolean onlineCsvTsv) {
+        return onlineCsvTsv ? csvTsvDueTimeOrder : dueTimeOrder;
+    }
+
+    /**
+     *
+     */
+    private static void clear() {
+
+        sourcesByUrlHash.clear();
+        sourcesById.clear();
+        dueTimeOrder.clear();
+        csvTsvDueTimeOrder.clear();
+        loadTime = 0L;
+    }
+
+    /**
+     * A harvest source's data that determines its place in the schedule.
+     */
+    public static final class ScheduledSource {
+
+        /** */
+        private final Integer sourceId;
+
+        /** */
+        private final long urlHash;
+
+        /** */
+        private final long timeCreated;
+
+        /** */
+        private final long lastHarvestTime;
+
+        /** */
+        private final int intervalMinutes;
+
+        /** */
+        private final int countUnavail;
+
+        /** */
+        private final boolean onlineCsvTsv;
+
+        /** Time when the source is next due for harvest. */
+        private final long nextDueTime;
+
+        /**
+         * Creates a new source.
+         *
+         * @param sourceId The source's id, may be null.
+         * @param urlHash The source's URL hash.
+         * @param timeCreated The source's creation time, null if not known.
+         * @param lastHarvest The source's last harvest time, null if never harvested.
+         * @param intervalMinutes The source's harvest interval in minutes.
+         * @param countUnavail How many times in a row the source has been unavailable.
+         * @param onlineCsvTsv True if the source is an online CSV/TSV file.
+         */
+        public ScheduledSource(Integer sourceId, long urlHash, Date timeCreated, Date lastHarvest, int intervalMinutes,
+                int countUnavail, boolean onlineCsvTsv) {
+            this(sourceId, urlHash, timeCreated == null ? 0L : timeCreated.getTime(), lastHarvest == null ? 0L : lastHarvest
+                    .getTime(), intervalMinutes, countUnavail, onlineCsvTsv);
+        }
+
+        /**
+         * @param sourceId
+         * @param urlHash
+         * @param timeCreated
+         * @param lastHarvestTime
+         * @param intervalMinutes
+         * @param countUnavail
+         * @param onlineCsvTsv
+         */
+        private ScheduledSource(Integer sourceId, long urlHash, long timeCreated, long lastHarvestTime, int intervalMinutes,
+                int countUnavail, boolean onlineCsvTsv) {
+
+            this.sourceId = sourceId;
+            this.urlHash = urlHash;
+            this.timeCreated = timeCreated;
+            this.lastHarvestTime = lastHarvestTime;
+            this.intervalMinutes = intervalMinutes;
+            this.countUnavail = countUnavail;
+            this.onlineCsvTsv = onlineCsvTsv;
+
+            this.nextDueTime = HarvestSchedule.getNextDueTime(timeCreated, lastHarvestTime, intervalMinutes);
+        }
+
+        /**
+         * @return the urlHash
+         */
+        public long getUrlHash() {
+            return urlHash;
+        }
+
+        /**
+         * @return Time when the source is next due for harvest, in milliseconds.
+         */
+        public long getNextDueTime() {
+            return nextDueTime;
+        }
+    }
+}
@@ -31,13 +31,15 @@ import eionet.cr.dto.SubjectDTO;
 import eionet.cr.dto.UrgentHarvestQueueItemDTO;
 import eionet.cr.filestore.FileStore;
 import eionet.cr.harvest.*;
+import eionet.cr.harvest.util.HostThrottle;
+import eionet.cr.harvest.util.HostUnavailableException;
 import eionet.cr.util.FolderUtil;
 import eionet.cr.web.action.DataLinkingScript;
 import eionet.cr.web.action.UploadCSVActionBean;
 import eionet.cr.web.security.CRUser;
 import net.sourceforge.stripes.action.FileBean;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
-import org.openrdf.rio.RDFParseException;
 import org.quartz.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,6 +82,9 @@ public class HarvestingJob implements StatefulJob, ServletContextListener {
     /** Number of minutes in an hour. */
     private static final int MINUTES = 60;
 
+    /** Number of candidate sources per source of the upper limit, that a batch harvesting interval is planned from. */
+    private static final int CANDIDATES_FACTOR = 4;
+
     /** Upper limit for the number of urgent harvests performed at one interval. */
     public static int URGENT_HARVEST_LIMIT;
 
@@ -98,6 +103,15 @@ public class HarvestingJob implements StatefulJob, ServletContextListener {
     /** Total number of minutes per day when the batch-harvesting is active. */
     private static Integer dailyActiveMinutes;
 
+    /** Executor of the urgent and batch harvests of the current run. */
+    private HarvestExecutor harvestExecutor;
+
+    /** Token of the current run's claim of urgent harvest queue items, null if nothing claimed. */
+    private String urgentLeaseToken;
+
+    /** Names of the source leases acquired by the current run, see {@link HarvestLeases}. */
+    private final List<String> sourceLeases = Collections.synchronizedList(new ArrayList<String>());
+
     /*
      * (non-Javadoc)
      *
@@ -109,6 +123,7 @@ public class HarvestingJob implements StatefulJob, ServletContextListener {
         // Ensure that the job rests the configured amount of time after last run, before proceeding.
         ensureRestingTime(jobExecContext);
 
+        harvestExecutor = new HarvestExecutor();
         try {
             // Harvest urgent queue.
             handleUrgentQueue();
@@ -118,10 +133,24 @@ public class HarvestingJob implements StatefulJob, ServletContextListener {
                 handleBatchQueue();
             }
 
+            // Wait until the urgent and batch harvests submitted above have finished.
+            harvestExecutor.awaitCompletion();
+
             handleOnlineCsvTsv();
         } catch (Exception e) {
             throw new JobExecutionException(e.toString(), e);
         } finally {
+            // Make sure no harvest is left running when an exception cut the above short.
+            try {
+                harvestExecutor.awaitCompletion();
+            } catch (InterruptedException e) {
+                LOGGER.warn("Waiting for harvests to finish was interrupted: " + e);
+            }
+            harvestExecutor = null;
+            // The claimed urgent harvests are done (or failed), so remove them from the queue.
+            removeClaimedUrgentHarvests();
+            // Let other nodes harvest the sources harvested by this run.
+            releaseSourceLeases();
             // State that no harvest is currently queued.
             CurrentHarvests.setQueuedHarvest(null);
             // Reset batch-harvesting queue
@@ -135,11 +164,13 @@ public class HarvestingJob implements StatefulJob, ServletContextListener {
     protected void handleUrgentQueue() {
 
         try {
-            int counter = 0;
-            UrgentHarvestQueueItemDTO queueItem;
-            for (queueItem = UrgentHarvestQueue.poll(); queueItem != null; queueItem = UrgentHarvestQueue.poll()) {
+            // Make the items of harvesters that died during their harvests available again.
+            UrgentHarvestQueue.releaseExpiredClaims();
 
-                counter++;
+            // Claim at most as many items as allowed per one interval. They are removed from the queue after their harvests.
+            urgentLeaseToken = UrgentHarvestQueue.newLeaseToken();
+            List<UrgentHarvestQueueItemDTO> queueItems = UrgentHarvestQueue.claim(Math.max(1, URGENT_HARVEST_LIMIT), urgentLeaseToken);
+            for (UrgentHarvestQueueItemDTO queueItem : queueItems) {
 
                 String url = queueItem.getUrl();
                 if (!StringUtils.isBlank(url)) {
@@ -155,17 +186,57 @@ public class HarvestingJob implements StatefulJob, ServletContextListener {
                         }
                     }
                 }
-
-                // Just a security measure to avoid an infinite loop here.
-                if (counter == URGENT_HARVEST_LIMIT) {
-                    break;
-                }
             }
         } catch (DAOException e) {
             LOGGER.error(e.toString(), e);
         }
     }
 
+    /**
+     * Acquires the lease of the given source for this node, and remembers it for releasing at the end of this run.
+     *
+     * @param url The source's URL.
+     * @return True if acquired, false if the source is being harvested by another node.
+     */
+    private boolean acquireSourceLease(String url) {
+
+        String leaseName = HarvestLeases.sourceLeaseName(url);
+        if (!HarvestLeases.acquire(leaseName)) {
+            LOGGER.debug("Source is currently being harvested by another node, so skipping it: " + url);
+            return false;
+        }
+        sourceLeases.add(leaseName);
+        return true;
+    }
+
+    /**
+     * Releases the source leases acquired by this run.
+     */
+    private void releaseSourceLeases() {
+
+        synchronized (sourceLeases) {
+            for (String leaseName : sourceLeases) {
+                HarvestLeases.release(leaseName);
+            }
+            sourceLeases.clear();
+        }
+    }
+
+    /**
+     * Removes the urgent harvest queue items claimed by this run, if any.
+     */
+    private void removeClaimedUrgentHarvests() {
+
+        if (urgentLeaseToken != null) {
+            try {
+                UrgentHarvestQueue.removeClaimed(urgentLeaseToken);
+            } catch (DAOException e) {
+                LOGGER.error("Failed to remove claimed urgent harvests, they will be harvested again when the claim expires", e);
+            }
+            urgentLeaseToken = null;
+        }
+    }
+
     /**
      *
      * @throws DAOException
@@ -264,6 +335,10 @@ public class HarvestingJob implements StatefulJob, ServletContextListener {
 
         for (HarvestSourceDTO sourceDTO : nextScheduledSources) {
 
+            if (!acquireSourceLease(sourceDTO.getUrl())) {
+                continue;
+            }
+
             String fileName = null;
             String fileUri = null;
             FileBean fileBean = null;
@@ -279,11 +354,19 @@ public class HarvestingJob implements StatefulJob, ServletContextListener {
                 File tempFile = new File(tempFilePath);
                 tempFile.getParentFile().mkdirs();
                 tempFile.createNewFile();
-                ReadableByteChannel rbc = Channels.newChannel(website.openStream());
+                ReadableByteChannel rbc = Channels.newChannel(HostThrottle.openStream(website));
                 FileOutputStream fos = new FileOutputStream(tempFile);
-                fos.getChannel().transferFrom(rbc, 0, Long.MAX_VALUE);
+                try {
+                    fos.getChannel().transferFrom(rbc, 0, Long.MAX_VALUE);
+                } finally {
+                    IOUtils.closeQuietly(fos);
+                    IOUtils.closeQuietly(rbc);
+                }
 
                 fileBean = new FileBean(tempFile, "text/plain", StringUtils.replace(fileName, " ", "%20"));
+            } catch (HostUnavailableException e) {
+                LOGGER.warn("Skipping the refresh of " + sourceDTO.getUrl() + ": " + e.getMessage());
+                continue;
             } catch (MalformedURLException e) {
                 LOGGER.error("Cannot get URL");
                 e.printStackTrace();
@@ -422,6 +505,9 @@ public class HarvestingJob implements StatefulJob, ServletContextListener {
     }
 
     /**
+     * Returns the sources to be batch-harvested in the current interval. The most overdue sources are the candidates, from
+     * which as many are picked as fit into the interval's time budget, but at least {@link #getSourcesLimitForInterval()}, see
+     * {@link HarvestPlanner}.
      *
      * @return List<HarvestSourceDTO>
      * @throws DAOException
@@ -429,7 +515,10 @@ public class HarvestingJob implements StatefulJob, ServletContextListener {
     public static List<HarvestSourceDTO> getNextScheduledSources() throws DAOException {
 
         if (isBatchHarvestingEnabled()) {
-            return DAOFactory.get().getDao(HarvestSourceDAO.class).getNextScheduledSources(getSourcesLimitForInterval());
+            int sourcesLimit = getSourcesLimitForInterval();
+            List<HarvestSourceDTO> candidates = DAOFactory.get().getDao(HarvestSourceDAO.class)
+                    .getNextScheduledSources(getCandidatesLimitForInterval(sourcesLimit));
+            return HarvestPlanner.plan(candidates, getBatchTimeBudgetMillis(), sourcesLimit);
         } else {
             return new ArrayList<HarvestSourceDTO>();
         }
@@ -580,10 +669,12 @@ public class HarvestingJob implements StatefulJob, ServletContextListener {
      */
     private void pushHarvest(String url, String pushedContent) {
 
-        // if the source is currently being harvested then return
-        if (url != null && CurrentHarvests.contains(url)) {
+        // if the source is currently being harvested or waiting for its harvest then return
+        if (url != null && (CurrentHarvests.contains(url) || harvestExecutor.isWaiting(url))) {
             LOGGER.debug("The source is currently being harvested, so skipping it");
             return;
+        } else if (url != null && !acquireSourceLease(url)) {
+            return;
         }
 
         try {
@@ -597,7 +688,7 @@ public class HarvestingJob implements StatefulJob, ServletContextListener {
 
             Harvest harvest = new PushHarvest(pushedContent, url);
             harvest.setHarvestUser(CRUser.PUSH_HARVEST.getUserName());
-            executeHarvest(harvest);
+            harvestExecutor.submitUrgent(harvest);
         } catch (DAOException e) {
             LOGGER.error(e.toString(), e);
         } catch (HarvestException e) {
@@ -617,39 +708,21 @@ public class HarvestingJob implements StatefulJob, ServletContextListener {
 
         if (harvestSource != null) {
 
-            // if the source is currently being harvested then return
-            if (CurrentHarvests.contains(harvestSource.getUrl())) {
+            // if the source is currently being harvested or waiting for its harvest then return
+            if (CurrentHarvests.contains(harvestSource.getUrl()) || harvestExecutor.isWaiting(harvestSource.getUrl())) {
                 LOGGER.debug("Source is currently already being harvested, so skipping it: " + harvestSource.getUrl());
                 return;
+            } else if (!acquireSourceLease(harvestSource.getUrl())) {
+                return;
             }
 
             PullHarvest harvest = new PullHarvest(harvestSource);
             harvest.setOnDemandHarvest(isUrgentHarvest);
             harvest.setHarvestUser(userName);
-            executeHarvest(harvest);
-        }
-    }
-
-    /**
-     *
-     * @param harvest
-     */
-    private void executeHarvest(Harvest harvest) {
-
-        if (harvest != null) {
-            CurrentHarvests.setQueuedHarvest(harvest);
-            try {
-                harvest.execute();
-            } catch (HarvestException e) {
-                if (e.getCause() instanceof RDFParseException) {
-                    LOGGER.warn("Got exception from " + harvest.getClass().getSimpleName() + " [" + harvest.getContextUrl()
-                            + "] - " + e.toString());
-                } else {
-                    LOGGER.error(
-                            "Got exception from " + harvest.getClass().getSimpleName() + " [" + harvest.getContextUrl() + "]", e);
-                }
-            } finally {
-                CurrentHarvests.setQueuedHarvest(null);
+            if (isUrgentHarvest) {
+                harvestExecutor.submitUrgent(harvest);
+            } else {
+                harvestExecutor.submitBatch(harvest);
             }
         }
     }
@@ -697,6 +770,30 @@ public class HarvestingJob implements StatefulJob, ServletContextListener {
         return limit;
     }
 
+    /**
+     * Returns the number of candidate sources to plan the current interval's batch harvests from: {@link #CANDIDATES_FACTOR}
+     * times the configured upper limit of sources per interval (or the given number, if greater), so that the planner can fill
+     * the time budget beyond what the upper limit alone would give.
+     *
+     * @param sourcesLimit The number calculated by {@link #getSourcesLimitForInterval()}.
+     * @return The number of candidates.
+     */
+    private static int getCandidatesLimitForInterval(int sourcesLimit) {
+
+        return Math.max(getBatchHarvestLimit(), sourcesLimit) * CANDIDATES_FACTOR;
+    }
+
+    /**
+     * Returns the time budget of one interval's batch harvests: the interval's length times the number of harvest worker
+     * threads.
+     *
+     * @return The budget in milliseconds.
+     */
+    private static long getBatchTimeBudgetMillis() {
+
+        return getIntervalSeconds().longValue() * 1000L * HarvestExecutor.getWorkerThreads();
+    }
+
     /**
      * Returns true if batch the current hour is a batch harvesting hour. Otherwise returns false.
      *
@@ -758,6 +855,10 @@ public class HarvestingJob implements StatefulJob, ServletContextListener {
      */
     @Override
     public void contextDestroyed(ServletContextEvent servletContextEvent) {
+        HarvestExecutor.shutdown();
+        ArchiveEntriesProcessor.shutdown();
+        PullHarvest.shutdownEndpointQueryThreads();
+        HarvestLeases.shutdown();
     }
 
     /**
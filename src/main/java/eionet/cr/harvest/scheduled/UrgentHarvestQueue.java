@@ -20,6 +20,7 @@
  */
 package eionet.cr.harvest.scheduled;
 
+import eionet.cr.config.GeneralConfig;
 import eionet.cr.dao.DAOException;
 import eionet.cr.dao.DAOFactory;
 import eionet.cr.dao.UrgentHarvestQueueDAO;
@@ -35,6 +36,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Utility class for common operations with urgent harvest queue.
@@ -48,6 +50,9 @@ public final class UrgentHarvestQueue {
     /** Static logger for this class. */
     private static final Logger LOGGER = LoggerFactory.getLogger(UrgentHarvestQueue.class);
 
+    /** Default time after which a claim of queue items expires, in milliseconds. */
+    private static final int DEFAULT_LEASE_TIME = 2 * 60 * 60 * 1000;
+
     /**
      * Hide utility class constructor.
      */
@@ -144,6 +149,55 @@ public final class UrgentHarvestQueue {
         return DAOFactory.get().getDao(UrgentHarvestQueueDAO.class).poll();
     }
 
+    /**
+     * Claims the top-most unclaimed items of the urgent harvest queue, and returns them. The items stay in the queue, but no one
+     * else can claim them, until they are removed by {@link #removeClaimed(String)} or the claim expires. Unlike
+     * {@link #poll()}, this is not synchronized, as the claim is atomic in the database, and so safe for concurrent claimers,
+     * even in different application instances.
+     *
+     * @param limit Maximum number of items to claim.
+     * @param leaseToken Unique token identifying the claim, see {@link #newLeaseToken()}.
+     * @return The claimed items.
+     * @throws DAOException the DAO exception
+     */
+    public static List<UrgentHarvestQueueItemDTO> claim(int limit, String leaseToken) throws DAOException {
+
+        int leaseTime =
+                GeneralConfig.getTimePropertyMilliseconds(GeneralConfig.HARVESTER_URGENT_HARVEST_LEASE_TIME, DEFAULT_LEASE_TIME);
+        return DAOFactory.get().getDao(UrgentHarvestQueueDAO.class).claim(limit, leaseToken, Math.max(1, leaseTime / 1000));
+    }
+
+    /**
+     * Removes the items claimed with the given token from the urgent harvest queue.
+     *
+     * @param leaseToken The token of the claim.
+     * @throws DAOException the DAO exception
+     */
+    public static void removeClaimed(String leaseToken) throws DAOException {
+        DAOFactory.get().getDao(UrgentHarvestQueueDAO.class).removeClaimed(leaseToken);
+    }
+
+    /**
+     * Releases the expired claims of urgent harvest queue items, i.e. the claims of claimers that died before finishing the
+     * items' harvests. The items will then be claimed again.
+     *
+     * @throws DAOException the DAO exception
+     */
+    public static void releaseExpiredClaims() throws DAOException {
+
+        int released = DAOFactory.get().getDao(UrgentHarvestQueueDAO.class).releaseExpiredClaims();
+        if (released > 0) {
+            LOGGER.warn("Released " + released + " urgent harvest queue items whose claim had expired");
+        }
+    }
+
+    /**
+     * @return A new unique token for claiming queue items.
+     */
+    public static String newLeaseToken() {
+        return UUID.randomUUID().toString();
+    }
+
     /**
      * Returns true if the given URL is already in queue.
      *
@@ -0,0 +1,345 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.harvest.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.openrdf.rio.RDFFormat;
+
+/**
+ * The result of a quick look at the first few kilobytes of a file, telling whether the content is XML, text or binary, and which
+ * RDF format it is likely to be in. Meant for avoiding the full parsing of content that cannot be of some format at all. Note
+ * that the "likely" RDF format is just a guess that still needs to be verified by a parser.
+ *
+ * @author agent
+ */
+public final class ContentSniff {
+
+    /** The kinds of content that are distinguished. */
+    public enum Type {
+
+        /** Content that starts like an XML document. */
+        XML,
+        /** Textual content that does not start like an XML document. */
+        TEXT,
+        /** Binary content, i.e. not RDF in any format. */
+        BINARY,
+        /** The content could not be classified, so nothing can be ruled out. */
+        UNKNOWN
+    }
+
+    /** Number of bytes looked at. */
+    public static final int SNIFF_SIZE = 8192;
+
+    /** Per-thread reusable buffer for reading the sniffed bytes. */
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(SNIFF_SIZE);
+        }
+    };
+
+    /** The RDF namespace. */
+    private static final String RDF_NAMESPACE = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+
+    /** Matches any IRI in angle brackets (absolute, relative or empty) followed by whitespace, i.e. a possible triple start. */
+    private static final Pattern IRI_START = Pattern.compile("^<([^\\s<>\"{}|^`\\\\]*)>\\s");
+
+    /** Matches IRIs that cannot be XML element names, as they have a path, a fragment or nothing at all. */
+    private static final Pattern NON_ELEMENT_IRI = Pattern.compile("(.*[/#].*)?");
+
+    /** Matches the content of an empty XML element tag without attributes, e.g. the "a/" in "&lt;a/&gt;". */
+    private static final Pattern EMPTY_ELEMENT = Pattern.compile("[\\w:.\\-]+/");
+
+    /** Matches Turtle and SPARQL style prefix and base declarations. */
+    private static final Pattern TURTLE_DIRECTIVE = Pattern.compile("^(@prefix|@base|(?i:prefix|base))\\s");
+
+    /** Matches N3 keywords that Turtle does not have. */
+    private static final Pattern N3_KEYWORD = Pattern.compile("(@forAll|@forSome|@keywords|\\s=>\\s)");
+
+    /** Matches the start tag of an XML document's root element. */
+    private static final Pattern ROOT_ELEMENT = Pattern.compile("<([A-Za-z_][\\w.\\-]*:)?([A-Za-z_][\\w.\\-]*)[\\s/>]");
+
+    /** A sniff of empty or unclassifiable content. */
+    private static final ContentSniff UNKNOWN_CONTENT = new ContentSniff(Type.UNKNOWN, null);
+
+    /** */
+    private final Type type;
+
+    /** */
+    private final RDFFormat likelyRdfFormat;
+
+    /**
+     * @param type
+     * @param likelyRdfFormat
+     */
+    private ContentSniff(Type type, RDFFormat likelyRdfFormat) {
+        this.type = type;
+        this.likelyRdfFormat = likelyRdfFormat;
+    }
+
+    /**
+     * Sniffs the first {@link #SNIFF_SIZE} bytes of the given file.
+     *
+     * @param file The file.
+     * @return The sniff.
+     * @throws IOException If reading the file fails.
+     */
+    public static ContentSniff sniff(File file) throws IOException {
+
+        ByteBuffer buffer = BUFFERS.get();
+        buffer.clear();
+
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            FileChannel channel = inputStream.getChannel();
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                continue;
+            }
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+
+        return sniff(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Sniffs the given bytes.
+     *
+     * @param bytes The bytes.
+     * @param length Number of bytes to look at, starting from the first.
+     * @return The sniff.
+     */
+    public static ContentSniff sniff(byte[] bytes, int length) {
+
+        if (length <= 0) {
+            return UNKNOWN_CONTENT;
+        }
+
+        // Content with byte order mark or UTF-16 XML without it.
+        String charset = null;
+        int offset = 0;
+        if (startsWith(bytes, length, 0xEF, 0xBB, 0xBF)) {
+            charset = "UTF-8";
+            offset = 3;
+        } else if (startsWith(bytes, length, 0xFE, 0xFF)) {
+            charset = "UTF-16BE";
+            offset = 2;
+        } else if (startsWith(bytes, length, 0xFF, 0xFE)) {
+            charset = "UTF-16LE";
+            offset = 2;
+        } else if (length >= 4 && bytes[0] == 0 && bytes[1] != 0 && bytes[2] == 0 && bytes[3] != 0) {
+            charset = "UTF-16BE";
+        } else if (length >= 4 && bytes[0] != 0 && bytes[1] == 0 && bytes[2] != 0 && bytes[3] == 0) {
+            charset = "UTF-16LE";
+        }
+
+        if (charset == null) {
+            if (isBinary(bytes, length)) {
+                return new ContentSniff(Type.BINARY, null);
+            }
+            // Enough for recognizing the ASCII-based syntax, and safe for any byte sequence.
+            charset = "ISO-8859-1";
+        }
+
+        String text = new String(bytes, offset, length - offset, Charset.forName(charset));
+        return sniff(text);
+    }
+
+    /**
+     * Sniffs the given decoded text.
+     *
+     * @param text The text.
+     * @return The sniff.
+     */
+    private static ContentSniff sniff(String text) {
+
+        // Skip leading whitespace and Turtle/N3 comment lines.
+        int start = 0;
+        while (start < text.length()) {
+            char c = text.charAt(start);
+            if (Character.isWhitespace(c)) {
+                start++;
+            } else if (c == '#') {
+                int lineEnd = text.indexOf('\n', start);
+                start = lineEnd < 0 ? text.length() : lineEnd + 1;
+            } else {
+                break;
+            }
+        }
+        if (start >= text.length()) {
+            return UNKNOWN_CONTENT;
+        }
+
+        String content = text.substring(start);
+        RDFFormat turtleOrN3 = N3_KEYWORD.matcher(content).find() ? RDFFormat.N3 : RDFFormat.TURTLE;
+        if (content.charAt(0) == '<') {
+            Matcher iriMatcher = IRI_START.matcher(content);
+            if (iriMatcher.find() && !EMPTY_ELEMENT.matcher(iriMatcher.group(1)).matches()) {
+                if (NON_ELEMENT_IRI.matcher(iriMatcher.group(1)).matches()) {
+                    return new ContentSniff(Type.TEXT, turtleOrN3);
+                } else if (!isRdfXml(content)) {
+                    // E.g. "<urn:x:1> <p> <o> ." or "<a> <b>", which can be a triple as well as the start of an XML document.
+                    return new ContentSniff(Type.UNKNOWN, turtleOrN3);
+                }
+            }
+            return new ContentSniff(Type.XML, isRdfXml(content) ? RDFFormat.RDFXML : null);
+        } else if (TURTLE_DIRECTIVE.matcher(content).find() || content.startsWith("_:")) {
+            return new ContentSniff(Type.TEXT, turtleOrN3);
+        } else {
+            return new ContentSniff(Type.TEXT, null);
+        }
+    }
+
+    /**
+     * Returns true if the given XML content's root element seems to be rdf:RDF.
+     *
+     * @param content The content, starting with '<'.
+     * @return As indicated above.
+     */
+    private static boolean isRdfXml(String content) {
+
+        // Skip the XML declaration, processing instructions, comments and document type declaration.
+        int pos = 0;
+        while (pos < content.length() && content.charAt(pos) == '<') {
+            if (content.startsWith("<?", pos)) {
+                pos = content.indexOf("?>", pos);
+            } else if (content.startsWith("<!--", pos)) {
+                pos = content.indexOf("-->", pos);
+            } else if (content.startsWith("<!", pos)) {
+                pos = content.indexOf('>', pos);
+            } else {
+                break;
+            }
+            if (pos < 0) {
+                return false;
+            }
+            pos = content.indexOf('<', pos);
+            if (pos < 0) {
+                return false;
+            }
+        }
+
+        Matcher matcher = ROOT_ELEMENT.matcher(content);
+        return matcher.find(pos) && matcher.start() == pos && "RDF".equals(matcher.group(2))
+                && content.indexOf(RDF_NAMESPACE) >= 0;
+    }
+
+    /**
+     * Returns true if the given bytes look like binary content: they contain zero bytes or a considerable share of control
+     * characters.
+     *
+     * @param bytes The bytes.
+     * @param length Number of bytes to look at.
+     * @return As indicated above.
+     */
+    private static boolean isBinary(byte[] bytes, int length) {
+
+        int controlChars = 0;
+        for (int i = 0; i < length; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b == 0) {
+                return true;
+            } else if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f') {
+                controlChars++;
+            }
+        }
+        return controlChars * 10 > length;
+    }
+
+    /**
+     * @param bytes
+     * @param length
+     * @param prefix
+     * @return
+     */
+    private static boolean startsWith(byte[] bytes, int length, int... prefix) {
+
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((bytes[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The RDF format that the content is likely to be in, or null if no guess can be made.
+     */
+    public RDFFormat getLikelyRdfFormat() {
+        return likelyRdfFormat;
+    }
+
+    /**
+     * @return True if the content may be XML, i.e. it is not known to be something else.
+     */
+    public boolean isPossiblyXml() {
+        return type == Type.XML || type == Type.UNKNOWN;
+    }
+
+    /**
+     * Returns true if the content may be in the given RDF format, i.e. it is not known to be something else.
+     *
+     * @param rdfFormat The RDF format in question.
+     * @return As indicated above.
+     */
+    public boolean isPossibly(RDFFormat rdfFormat) {
+
+        if (type == Type.BINARY) {
+            return false;
+        } else if (type == Type.XML) {
+            return RDFFormat.RDFXML.equals(rdfFormat);
+        } else if (type == Type.TEXT) {
+            return !RDFFormat.RDFXML.equals(rdfFormat);
+        } else {
+            return true;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return type + (likelyRdfFormat == null ? "" : " (likely " + likelyRdfFormat.getName() + ")");
+    }
+}
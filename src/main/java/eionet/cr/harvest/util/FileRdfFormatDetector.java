@@ -22,7 +22,6 @@
 package eionet.cr.harvest.util;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -47,6 +46,9 @@ import org.openrdf.rio.n3.N3ParserFactory;
 import org.openrdf.rio.rdfxml.RDFXMLParserFactory;
 import org.openrdf.rio.turtle.TurtleParserFactory;
 
+import eionet.cr.harvest.load.ContentStream;
+import eionet.cr.harvest.load.FileContentStream;
+
 /**
  * Detects the {@link RDFFormat} of a given file.
  *
@@ -78,27 +80,85 @@ public class FileRdfFormatDetector {
      * @throws IOException
      */
     public RDFFormat detect(File file, String baseUri) throws IOException {
+        return detect(file, baseUri, ContentSniff.sniff(file));
+    }
 
-        RDFFormat result = null;
+    /**
+     * Same as {@link #detect(File, String)}, but uses the given sniff of the file's first bytes to decide which RDF formats are
+     * worth parsing the file for at all, and which one to try first. Binary content is not parsed at all.
+     *
+     * @param file
+     * @param baseUri
+     * @param sniff
+     * @return
+     * @throws IOException
+     */
+    public RDFFormat detect(File file, String baseUri, ContentSniff sniff) throws IOException {
+        return detect(new FileContentStream(file, null), baseUri, sniff);
+    }
 
-        for (int i = 0; i < PARSER_FACTORIES.length; i++) {
+    /**
+     * Same as {@link #detect(File, String, ContentSniff)}, but for content that does not necessarily reside in a plain file, e.g.
+     * content kept in memory.
+     *
+     * @param contentStream
+     * @param baseUri
+     * @param sniff
+     * @return
+     * @throws IOException
+     */
+    public RDFFormat detect(ContentStream contentStream, String baseUri, ContentSniff sniff) throws IOException {
 
-            FileInputStream inputStream = null;
-            try {
-                inputStream = new FileInputStream(file);
-                RDFParserFactory parserFactory = PARSER_FACTORIES[i];
+        if (sniff.getType() == ContentSniff.Type.BINARY) {
+            LOGGER.debug("Binary content, not parsing for any RDF format: " + contentStream);
+            return null;
+        }
 
-                boolean success = parse(inputStream, baseUri, parserFactory);
-                if (success == true) {
-                    result = parserFactory.getRDFFormat();
+        // First try the likely format, then fall back to the rest of the possible formats.
+        RDFFormat likelyFormat = sniff.getLikelyRdfFormat();
+        if (likelyFormat != null) {
+            for (int i = 0; i < PARSER_FACTORIES.length; i++) {
+                if (PARSER_FACTORIES[i].getRDFFormat().equals(likelyFormat)) {
+                    if (parse(contentStream, baseUri, PARSER_FACTORIES[i])) {
+                        return likelyFormat;
+                    }
                     break;
                 }
-            } finally {
-                IOUtils.closeQuietly(inputStream);
             }
         }
 
-        return result;
+        for (int i = 0; i < PARSER_FACTORIES.length; i++) {
+
+            RDFParserFactory parserFactory = PARSER_FACTORIES[i];
+            RDFFormat rdfFormat = parserFactory.getRDFFormat();
+            if (!rdfFormat.equals(likelyFormat) && sniff.isPossibly(rdfFormat)) {
+                if (parse(contentStream, baseUri, parserFactory)) {
+                    return rdfFormat;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns true if the given content is a valid notation of the RDF format whose parser-factory has been supplied.
+     *
+     * @param contentStream
+     * @param baseUri
+     * @param parserFactory
+     * @return
+     * @throws IOException
+     */
+    private boolean parse(ContentStream contentStream, String baseUri, RDFParserFactory parserFactory) throws IOException {
+
+        InputStream inputStream = null;
+        try {
+            inputStream = contentStream.openStream();
+            return parse(inputStream, baseUri, parserFactory);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
     }
 
     /**
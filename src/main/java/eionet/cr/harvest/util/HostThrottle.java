@@ -0,0 +1,345 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.harvest.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eionet.cr.config.GeneralConfig;
+import eionet.cr.harvest.scheduled.HarvestExecutor;
+
+/**
+ * Politeness towards one remote host, shared by all harvests of the host's sources: URL harvests, SPARQL endpoint harvests
+ * and the refreshing of online CSV/TSV files.
+ *
+ * Every request to the host takes a token from a token bucket that is refilled at the configured rate (see
+ * {@link GeneralConfig#HARVESTER_HOST_REQUESTS_PER_MINUTE}), so that a burst of harvests cannot hammer the host. A
+ * "Retry-After" in a 429 or 503 response pauses the bucket for the given time.
+ *
+ * The number of harvests that may run concurrently against the host (see {@link HarvestExecutor}) is adapted by the host's
+ * responses: every fast successful response increases it additively, every slow (see
+ * {@link GeneralConfig#HARVESTER_HOST_SLOW_RESPONSE_TIME}) or failed one halves it. The limit stays between 1 and
+ * {@link GeneralConfig#HARVESTER_MAX_CONCURRENT_HARVESTS_PER_HOST}.
+ *
+ * After {@link GeneralConfig#HARVESTER_HOST_FAILURE_THRESHOLD} consecutive failures (no response, 429 or 5xx), the circuit to
+ * the host is opened: requests fail with {@link HostUnavailableException} without contacting the host, for the time given by
+ * {@link GeneralConfig#HARVESTER_HOST_CIRCUIT_OPEN_TIME}. After that a single trial request is let through, and depending on
+ * its outcome the circuit is either closed again or kept open for another period.
+ *
+ * @author agent
+ */
+public final class HostThrottle {
+
+    /** Static logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(HostThrottle.class);
+
+    /** Default max number of requests per minute to the same host. */
+    public static final int DEFAULT_REQUESTS_PER_MINUTE = 120;
+
+    /** Default response time (ms) above which a host is considered slow. */
+    public static final int DEFAULT_SLOW_RESPONSE_TIME = 10000;
+
+    /** Default number of consecutive failures after which the circuit to a host is opened. */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /** Default time (ms) for which the circuit to a failing host is kept open. */
+    public static final int DEFAULT_CIRCUIT_OPEN_TIME = 600000;
+
+    /** Max number of requests that may be made to a host in a burst, i.e. the capacity of its token bucket. */
+    private static final int BURST_SIZE = 5;
+
+    /** Max number of seconds that a "Retry-After" response header can pause the requests to a host. */
+    private static final int MAX_RETRY_AFTER_SECONDS = 3600;
+
+    /** The throttles of all hosts contacted so far. */
+    private static final ConcurrentMap<String, HostThrottle> THROTTLES = new ConcurrentHashMap<String, HostThrottle>();
+
+    /** The host. */
+    private final String host;
+
+    /** The token bucket's refill rate in tokens per millisecond, or zero if the request rate is not limited. */
+    private final double tokensPerMilli;
+
+    /** Upper bound of the adaptive concurrency limit. */
+    private final int maxConcurrency;
+
+    /** Response time (ms) above which the host is considered slow. */
+    private final long slowResponseTime;
+
+    /** Number of consecutive failures after which the circuit is opened, or zero if the circuit is never opened. */
+    private final int failureThreshold;
+
+    /** Time (ms) for which the circuit is kept open. */
+    private final long circuitOpenTime;
+
+    /** Tokens currently in the bucket. Negative if requests are waiting for tokens. */
+    private double tokens = BURST_SIZE;
+
+    /** Time when the bucket was last refilled. */
+    private long refilled = System.currentTimeMillis();
+
+    /** Time until which no requests are made, as requested by the host's "Retry-After". */
+    private long pausedUntil;
+
+    /** The adaptive concurrency limit. */
+    private double concurrencyLimit = 1;
+
+    /** Number of consecutive failures. */
+    private int consecutiveFailures;
+
+    /** Time until which the circuit is open, or zero if it is closed. If in the past, the circuit is half-open. */
+    private long openUntil;
+
+    /** True if a half-open circuit's trial request is in progress. */
+    private boolean trialInProgress;
+
+    /**
+     * Creates a new throttle with the given settings.
+     *
+     * @param host The host.
+     * @param requestsPerMinute Max number of requests per minute, zero or less for no limit.
+     * @param maxConcurrency Upper bound of the adaptive concurrency limit.
+     * @param slowResponseTime Response time (ms) above which the host is considered slow.
+     * @param failureThreshold Number of consecutive failures that opens the circuit, zero or less to never open it.
+     * @param circuitOpenTime Time (ms) for which the circuit is kept open.
+     */
+    HostThrottle(String host, int requestsPerMinute, int maxConcurrency, long slowResponseTime, int failureThreshold,
+            long circuitOpenTime) {
+
+        this.host = host;
+        this.tokensPerMilli = Math.max(0, requestsPerMinute) / 60000d;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.slowResponseTime = slowResponseTime;
+        this.failureThreshold = Math.max(0, failureThreshold);
+        this.circuitOpenTime = Math.max(0, circuitOpenTime);
+    }
+
+    /**
+     * Returns the throttle of the given host, creating it with the configured settings if not yet existing.
+     *
+     * @param host The host, case-insensitive.
+     * @return The throttle.
+     */
+    public static HostThrottle forHost(String host) {
+
+        String key = host == null ? "" : host.toLowerCase();
+        HostThrottle throttle = THROTTLES.get(key);
+        if (throttle == null) {
+            HostThrottle newThrottle = new HostThrottle(key,
+                    GeneralConfig.getIntProperty(GeneralConfig.HARVESTER_HOST_REQUESTS_PER_MINUTE, DEFAULT_REQUESTS_PER_MINUTE),
+                    GeneralConfig.getIntProperty(GeneralConfig.HARVESTER_MAX_CONCURRENT_HARVESTS_PER_HOST,
+                            HarvestExecutor.DEFAULT_MAX_CONCURRENT_HARVESTS_PER_HOST),
+                    GeneralConfig.getTimePropertyMilliseconds(GeneralConfig.HARVESTER_HOST_SLOW_RESPONSE_TIME,
+                            DEFAULT_SLOW_RESPONSE_TIME),
+                    GeneralConfig.getIntProperty(GeneralConfig.HARVESTER_HOST_FAILURE_THRESHOLD, DEFAULT_FAILURE_THRESHOLD),
+                    GeneralConfig.getTimePropertyMilliseconds(GeneralConfig.HARVESTER_HOST_CIRCUIT_OPEN_TIME,
+                            DEFAULT_CIRCUIT_OPEN_TIME));
+            throttle = THROTTLES.putIfAbsent(key, newThrottle);
+            if (throttle == null) {
+                throttle = newThrottle;
+            }
+        }
+        return throttle;
+    }
+
+    /**
+     * Executes the given HTTP connection's request, i.e. waits for the response code, obeying the throttle of the connection's
+     * host. The outcome is recorded in the throttle.
+     *
+     * @param connection The connection.
+     * @return The response code.
+     * @throws IOException If the request fails, or is not made because the host's circuit is open (see
+     *             {@link HostUnavailableException}).
+     */
+    public static int getResponseCode(HttpURLConnection connection) throws IOException {
+
+        HostThrottle throttle = forHost(connection.getURL().getHost());
+        long started = throttle.acquire();
+        int responseCode = -1;
+        try {
+            responseCode = connection.getResponseCode();
+        } finally {
+            throttle.release(started, responseCode, responseCode > 0 ? connection.getHeaderField("Retry-After") : null);
+        }
+        return responseCode;
+    }
+
+    /**
+     * Opens an input stream of the given URL's content like {@link URL#openStream()}, but obeying the throttle of the URL's host
+     * if it is an HTTP(S) URL.
+     *
+     * @param url The URL.
+     * @return The input stream.
+     * @throws IOException If opening the stream fails.
+     */
+    public static InputStream openStream(URL url) throws IOException {
+
+        URLConnection connection = url.openConnection();
+        if (connection instanceof HttpURLConnection) {
+            getResponseCode((HttpURLConnection) connection);
+        }
+        return connection.getInputStream();
+    }
+
+    /**
+     * Waits until a request can be made to the host. Must be followed by {@link #release(long, int, String)} once the response
+     * (or failure) has been received.
+     *
+     * @return The time when the request is made, to be passed to {@link #release(long, int, String)}.
+     * @throws HostUnavailableException If the host's circuit is open.
+     * @throws InterruptedIOException If interrupted while waiting.
+     */
+    public long acquire() throws HostUnavailableException, InterruptedIOException {
+
+        long waitMillis;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (openUntil > 0) {
+                if (now < openUntil || trialInProgress) {
+                    throw new HostUnavailableException("Not connecting " + host + ", it failed " + consecutiveFailures
+                            + " times in a row, next trial after " + new Date(Math.max(now, openUntil)));
+                }
+                trialInProgress = true;
+            }
+            waitMillis = reserveToken(now);
+        }
+
+        if (waitMillis > 0) {
+            try {
+                Thread.sleep(waitMillis);
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    trialInProgress = false;
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a request to " + host);
+            }
+        }
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Records the outcome of a request acquired by {@link #acquire()}.
+     *
+     * @param started The time returned by {@link #acquire()}.
+     * @param responseCode The HTTP response code, zero or less if no response was received.
+     * @param retryAfter The response's "Retry-After" header, may be null.
+     */
+    public synchronized void release(long started, int responseCode, String retryAfter) {
+
+        long now = System.currentTimeMillis();
+        trialInProgress = false;
+
+        if (responseCode <= 0 || responseCode == 429 || responseCode >= 500) {
+
+            consecutiveFailures++;
+            concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+            if (failureThreshold > 0 && (openUntil > 0 || consecutiveFailures >= failureThreshold)) {
+                if (openUntil == 0) {
+                    LOGGER.warn("Opening the circuit to " + host + " after " + consecutiveFailures + " consecutive failures");
+                }
+                openUntil = now + circuitOpenTime;
+            }
+        } else {
+            consecutiveFailures = 0;
+            if (openUntil > 0) {
+                LOGGER.info("Closing the circuit to " + host + ", it responded again");
+                openUntil = 0;
+            }
+            if (now - started > slowResponseTime) {
+                concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+            } else {
+                concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1 / concurrencyLimit);
+            }
+        }
+
+        int retryAfterSeconds = StringUtils.isBlank(retryAfter) ? 0 : NumberUtils.toInt(retryAfter.trim(), 0);
+        if (retryAfterSeconds > 0) {
+            pausedUntil = Math.max(pausedUntil, now + Math.min(retryAfterSeconds, MAX_RETRY_AFTER_SECONDS) * 1000L);
+        }
+    }
+
+    /**
+     * Takes a token from the bucket, and returns the time to wait until it is actually available. Must be called while holding
+     * this object's monitor.
+     *
+     * @param now The current time.
+     * @return The time to wait in milliseconds.
+     */
+    private long reserveToken(long now) {
+
+        long waitMillis = 0;
+        if (tokensPerMilli > 0) {
+            tokens = Math.min(BURST_SIZE, tokens + (now - refilled) * tokensPerMilli);
+            refilled = now;
+            tokens--;
+            if (tokens < 0) {
+                waitMillis = (long) Math.ceil(-tokens / tokensPerMilli);
+            }
+        }
+        return Math.max(waitMillis, pausedUntil - now);
+    }
+
+    /**
+     * @return The number of harvests that may currently run concurrently against the host, at least 1.
+     */
+    public synchronized int getConcurrencyLimit() {
+        return (int) concurrencyLimit;
+    }
+
+    /**
+     * @return True if the circuit to the host is open, i.e. requests to it are currently not made.
+     */
+    public synchronized boolean isCircuitOpen() {
+        return openUntil > 0 && (System.currentTimeMillis() < openUntil || trialInProgress);
+    }
+
+    /**
+     * @return The number of consecutive failed requests to the host.
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString() {
+        return host + " [limit=" + getConcurrencyLimit() + ", failures=" + consecutiveFailures + ", circuit="
+                + (openUntil == 0 ? "closed" : "open until " + new Date(openUntil)) + "]";
+    }
+}
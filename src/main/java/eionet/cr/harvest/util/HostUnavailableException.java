@@ -0,0 +1,44 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.harvest.util;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link HostThrottle} when a request to a host is not made, because the host has failed too many times in a row and
+ * is given time to recover. Being an {@link IOException}, it is handled like any other failure of connecting the host.
+ *
+ * @author agent
+ */
+public class HostUnavailableException extends IOException {
+
+    /** */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     *
+     * @param message
+     */
+    public HostUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -13,8 +14,10 @@ import java.util.Map;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveException;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.CompressorInputStream;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
 import org.apache.commons.compress.compressors.FileNameUtil;
@@ -94,6 +97,96 @@ public class CompressUtil {
         }
     }
 
+    /**
+     * Opens the given file for reading its content unpacked on the fly, without writing any temporary files. If the file is
+     * compressed, the content is decompressed. If the (decompressed) content is an archive, the returned stream is positioned at
+     * the content of the archive's first file entry. Otherwise the file's bytes are read as they are.
+     *
+     * @param file The file to open.
+     * @return The stream. The caller is responsible for closing it.
+     * @throws IOException If opening the file fails, or it is an archive with no readable file entries.
+     */
+    public static UnpackedInputStream openUnpacked(File file) throws IOException {
+
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
+        try {
+            String compressorName = null;
+            try {
+                String detectedName = CompressorStreamFactory.detect(inputStream);
+                inputStream = new BufferedInputStream(
+                        new CompressorStreamFactory(true).createCompressorInputStream(detectedName, inputStream));
+                compressorName = detectedName;
+            } catch (CompressorException e) {
+                // Not compressed, or in a compression format that cannot be read.
+                LOGGER.trace("Not a readable compressed file: " + file + ": " + e);
+            }
+
+            String archiverName = null;
+            String entryName = null;
+            try {
+                String detectedName = ArchiveStreamFactory.detect(inputStream);
+                ArchiveInputStream archiveInputStream =
+                        new ArchiveStreamFactory().createArchiveInputStream(detectedName, inputStream);
+                inputStream = archiveInputStream;
+                archiverName = detectedName;
+
+                ArchiveEntry entry = getNextFileEntry(archiveInputStream);
+                if (entry == null) {
+                    throw new IOException("Found no readable file entries in " + archiverName + " archive: " + file);
+                }
+                entryName = entry.getName();
+            } catch (ArchiveException e) {
+                // Not an archive, or in an archive format that cannot be streamed.
+                LOGGER.trace("Not a streamable archive file: " + file + ": " + e);
+            }
+
+            return new UnpackedInputStream(inputStream, compressorName, archiverName, entryName);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(inputStream);
+            throw e;
+        } catch (RuntimeException e) {
+            IOUtils.closeQuietly(inputStream);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if the given file is a (possibly compressed) archive with at least one readable file entry.
+     *
+     * @param file The file to check.
+     * @return As indicated above.
+     */
+    public static boolean isArchive(File file) {
+
+        UnpackedInputStream inputStream = null;
+        try {
+            inputStream = openUnpacked(file);
+            return inputStream.getArchiverName() != null;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * Moves the given archive stream to the next entry that is a file (i.e. not a directory) and whose data can be read.
+     *
+     * @param archiveInputStream The archive stream.
+     * @return The entry, or null if no more such entries.
+     * @throws IOException If reading the archive fails.
+     */
+    public static ArchiveEntry getNextFileEntry(ArchiveInputStream archiveInputStream) throws IOException {
+
+        ArchiveEntry entry;
+        while ((entry = archiveInputStream.getNextEntry()) != null) {
+            if (!entry.isDirectory() && archiveInputStream.canReadEntryData(entry)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
     /**
      *
      * @param file
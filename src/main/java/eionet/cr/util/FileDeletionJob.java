@@ -24,10 +24,6 @@ package eionet.cr.util;
 import java.io.File;
 import java.io.FileFilter;
 import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
 
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
@@ -46,7 +42,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Background job that silently deletes CR's temporary files in the background. Files must be registered to this job to get deleted.
+ * Background job that retries the deletion of CR's temporary files whose deletion failed when they were released, see
+ * {@link TempSpace}. At startup, it also deletes the temporary files left over from previous application runs.
  *
  * @author Jaanus Heinlaid
  */
@@ -58,9 +55,6 @@ public class FileDeletionJob implements ServletContextListener, StatefulJob {
     /** */
     private static long RUNNING_INTERVAL_MS;
 
-    /** */
-    private static final Collection<File> QUEUED_FILES = Collections.synchronizedSet(new HashSet<File>());
-
     /** */
     private static final TempFileFilter TEMP_FILE_FILTER = new FileDeletionJob.TempFileFilter();
 
@@ -90,8 +84,8 @@ public class FileDeletionJob implements ServletContextListener, StatefulJob {
             LOGGER.error("Failed to schedule " + clazz.getSimpleName(), exception);
         }
 
-        // find and register for deletion the temporary files still left from previous application runs
-        queueLeftovers();
+        // find and delete the temporary files still left from previous application runs
+        deleteLeftovers();
     }
 
     /*
@@ -102,43 +96,13 @@ public class FileDeletionJob implements ServletContextListener, StatefulJob {
     @Override
     public void execute(JobExecutionContext executionContext) throws JobExecutionException {
 
-        ArrayList<File> toBeRemvedFromQueue = new ArrayList<File>();
-
-        for (File file : QUEUED_FILES) {
-            if (file != null && file.exists()) {
-                try {
-                    if (file.delete() == true) {
-                        toBeRemvedFromQueue.add(file);
-                        LOGGER.debug("File successfully deleted: " + file);
-                    } else {
-                        LOGGER.debug("Deleting this file failed, trying next time: " + file);
-                    }
-                } catch (SecurityException e) {
-                    LOGGER.error("Security exception when trying to delete " + file, e);
-                } catch (RuntimeException e) {
-                    LOGGER.error("Unexpected RuntimeException when trying to delete " + file, e);
-                }
-            } else {
-                toBeRemvedFromQueue.add(file);
-            }
+        int pending = TempSpace.getPendingCount();
+        if (pending > 0) {
+            LOGGER.debug("Retrying the deletion of " + pending + " temporary files");
+            TempSpace.retryDeletions();
         }
-
-        QUEUED_FILES.removeAll(toBeRemvedFromQueue);
-    }
-
-    /**
-     *
-     * @param file
-     * @param marker
-     */
-    public static synchronized void register(File file) {
-
-        if (file != null && file.exists()) {
-            if (file.delete() == false) {
-                QUEUED_FILES.add(file);
-            } else {
-                LOGGER.debug("File successfully deleted: " + file);
-            }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(TempSpace.getUsageSummary());
         }
     }
 
@@ -153,9 +117,9 @@ public class FileDeletionJob implements ServletContextListener, StatefulJob {
     }
 
     /**
-     * Finds and register for deletion the temporary files still left from previous application runs.
+     * Finds and deletes the temporary files still left from previous application runs.
      */
-    private void queueLeftovers() {
+    private void deleteLeftovers() {
 
         for (File tempFileDir : TempFilePathGenerator.TEMP_FILE_DIRECTORIES) {
 
@@ -164,8 +128,8 @@ public class FileDeletionJob implements ServletContextListener, StatefulJob {
                 File[] tempFiles = tempFileDir.listFiles(TEMP_FILE_FILTER);
                 for (int i = 0; i < tempFiles.length; i++) {
 
-                    LOGGER.debug("Found leftover temporary file from previous runs, re-registering for deletion: " + tempFiles[i]);
-                    register(tempFiles[i]);
+                    LOGGER.debug("Found leftover temporary file from previous runs, deleting: " + tempFiles[i]);
+                    TempSpace.discard(tempFiles[i]);
                 }
             }
         }
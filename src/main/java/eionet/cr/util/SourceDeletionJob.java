@@ -1,10 +1,20 @@
 package eionet.cr.util;
 
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
@@ -24,14 +34,14 @@ import eionet.cr.dao.DAOFactory;
 import eionet.cr.dao.HarvestSourceDAO;
 import eionet.cr.dao.SourceDeletionsDAO;
 import eionet.cr.harvest.CurrentHarvests;
-import eionet.cr.harvest.Harvest;
+import eionet.cr.harvest.HarvestLeases;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A background job that deletes harvest sources that have been scheduled for background deletion.
- * Source deletion is delegated to {@link HarvestSourceDAO#removeHarvestSources(java.util.Collection, boolean).} See also
- * {@link SourceDeletionsDAO} for more background information.
+ * Source deletion is delegated to {@link HarvestSourceDAO#removeHarvestSourcesInBulk(java.util.Collection)}, executed in
+ * batches on a pool of deletion threads. See also {@link SourceDeletionsDAO} for more background information.
  *
  * @author Jaanus
  */
@@ -46,9 +56,18 @@ public class SourceDeletionJob implements StatefulJob, ServletContextListener {
     /** Hours when the job should be active. */
     public static HashSet<Integer> ACTIVE_HOURS;
 
-    /** Number of sources that the job should delete during one run. Default is 20. */
+    /** Number of sources that are deleted together by grouped statements. Default is 100. */
     private static int BATCH_SIZE;
 
+    /** Max time (ms) that one run of the job keeps draining the deletion queue. Default is 10 minutes. */
+    private static int MAX_RUN_TIME;
+
+    /** Default number of threads that delete the batches of sources in parallel. */
+    public static final int DEFAULT_THREADS = 2;
+
+    /** The threads deleting the batches of sources. Lazily created, see {@link #getThreads()}. */
+    private static ExecutorService threads;
+
     /** Simple name of this class. */
     private static final String CLASS_SIMPLE_NAME = SourceDeletionJob.class.getSimpleName();
 
@@ -61,7 +80,8 @@ public class SourceDeletionJob implements StatefulJob, ServletContextListener {
     public void contextInitialized(ServletContextEvent contextEvent) {
 
         ACTIVE_HOURS = getConfiguredActiveHours();
-        BATCH_SIZE = GeneralConfig.getIntProperty(GeneralConfig.SOURCE_DELETION_JOB_BATCH_SIZE, 20);
+        BATCH_SIZE = Math.max(1, GeneralConfig.getIntProperty(GeneralConfig.SOURCE_DELETION_JOB_BATCH_SIZE, 100));
+        MAX_RUN_TIME = GeneralConfig.getTimePropertyMilliseconds(GeneralConfig.SOURCE_DELETION_JOB_MAX_RUN_TIME, 600000);
         INTERVAL_MILLIS = GeneralConfig.getTimePropertyMilliseconds(GeneralConfig.SOURCE_DELETION_JOB_INTERVAL, 20000);
 
         JobDetail jobDetails = new JobDetail(CLASS_SIMPLE_NAME, getClass().getName(), getClass());
@@ -95,6 +115,9 @@ public class SourceDeletionJob implements StatefulJob, ServletContextListener {
         if (!ACTIVE_HOURS.contains(currentHour)) {
             LOGGER.trace(currentHour + " is not an active hour, exiting!");
             return;
+        } else if (!HarvestLeases.acquire(HarvestLeases.jobLeaseName(CLASS_SIMPLE_NAME))) {
+            LOGGER.trace(CLASS_SIMPLE_NAME + " is in charge of another node, exiting!");
+            return;
         }
 
         long startTime = System.currentTimeMillis();
@@ -108,37 +131,186 @@ public class SourceDeletionJob implements StatefulJob, ServletContextListener {
     }
 
     /**
-     * Performs the deletion of next {@link #BATCH_SIZE} sources.
+     * Drains the deletion queue until it is empty or {@link #MAX_RUN_TIME} has passed. The queue is picked in windows of
+     * {@link #BATCH_SIZE} sources per deletion thread, and every batch of the window is deleted by grouped statements on the
+     * deletion threads. Sources currently being harvested are skipped, i.e. left in the queue for a later run.
      *
      * @throws DAOException If database error occurs.
      */
     private void performDeletions() throws DAOException {
 
         SourceDeletionsDAO sourceDeletionsDao = DAOFactory.get().getDao(SourceDeletionsDAO.class);
-        HarvestSourceDAO harvestSourceDao = DAOFactory.get().getDao(HarvestSourceDAO.class);
 
-        int countFoundUrls = 0;
-        for (int i = 1; i <= BATCH_SIZE; i++) {
+        long started = System.currentTimeMillis();
+        int windowSize = BATCH_SIZE * getThreadCount();
+        int skipped = 0;
+        int deleted = 0;
+        while (System.currentTimeMillis() - started < MAX_RUN_TIME) {
+
+            // The skipped sources stay at the head of the queue, the deleted ones are gone from it.
+            List<String> sourceUrls = sourceDeletionsDao.pickForDeletion(skipped, windowSize);
+            if (sourceUrls.isEmpty()) {
+                break;
+            }
+
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            List<Integer> batchSizes = new ArrayList<Integer>();
+            List<String> batch = new ArrayList<String>();
+            for (String sourceUrl : sourceUrls) {
 
-            String sourceUrl = sourceDeletionsDao.pickForDeletion();
-            if (StringUtils.isNotBlank(sourceUrl)) {
-                countFoundUrls++;
-                Harvest currHarvest = CurrentHarvests.getQueuedHarvest();
-                if (currHarvest != null && currHarvest.isBeingHarvested(sourceUrl)) {
+                if (StringUtils.isBlank(sourceUrl)) {
+                    LOGGER.warn("Found a blank URL in deletion queue!");
+                    skipped++;
+                } else if (CurrentHarvests.isQueued(sourceUrl)
+                        || !HarvestLeases.acquire(HarvestLeases.sourceLeaseName(sourceUrl))) {
                     LOGGER.debug("Postponing the deletion of currently harvested " + sourceUrl);
-                    break;
+                    skipped++;
                 } else {
-                    LOGGER.debug("Deleting " + sourceUrl);
-                    harvestSourceDao.removeHarvestSources(Collections.singletonList(sourceUrl), false);
+                    batch.add(sourceUrl);
+                    if (batch.size() >= BATCH_SIZE) {
+                        futures.add(submitDeletion(batch));
+                        batchSizes.add(batch.size());
+                        batch = new ArrayList<String>();
+                    }
                 }
-            } else if (sourceUrl != null && sourceUrl.trim().length() == 0) {
-                LOGGER.warn("Found a blank URL in deletion queue!");
+            }
+            if (!batch.isEmpty()) {
+                futures.add(submitDeletion(batch));
+                batchSizes.add(batch.size());
+            }
+
+            // The sources that failed to be deleted stay in the queue, so they are skipped just like the busy ones.
+            for (int i = 0; i < futures.size(); i++) {
+                int failed = getFailedCount(futures.get(i), batchSizes.get(i));
+                deleted += batchSizes.get(i) - failed;
+                skipped += failed;
+            }
+
+            if (sourceUrls.size() < windowSize) {
+                break;
             }
         }
 
-        if (countFoundUrls == 0) {
+        if (deleted == 0 && skipped == 0) {
             LOGGER.trace("Found no URLs in deletion queue!");
+        } else {
+            LOGGER.debug("Deleted " + deleted + " sources, skipped " + skipped + ", in " + (System.currentTimeMillis() - started)
+                    + " ms");
+        }
+    }
+
+    /**
+     * Submits the deletion of the given batch of sources to the deletion threads. The sources' leases must have been acquired,
+     * they are released once the deletion is done.
+     *
+     * @param sourceUrls The sources' URLs.
+     * @return The deletion's future, giving the number of sources that failed to be deleted.
+     */
+    private Future<Integer> submitDeletion(final List<String> sourceUrls) {
+
+        try {
+            return getThreads().submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    try {
+                        return deleteSources(sourceUrls);
+                    } finally {
+                        for (String sourceUrl : sourceUrls) {
+                            HarvestLeases.release(HarvestLeases.sourceLeaseName(sourceUrl));
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            for (String sourceUrl : sourceUrls) {
+                HarvestLeases.release(HarvestLeases.sourceLeaseName(sourceUrl));
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the given sources by grouped statements. If that fails, they are deleted one by one, so that a single
+     * problematic source does not hold back the others.
+     *
+     * @param sourceUrls The sources' URLs.
+     * @return The number of sources that failed to be deleted.
+     */
+    private static int deleteSources(List<String> sourceUrls) {
+
+        HarvestSourceDAO harvestSourceDao = DAOFactory.get().getDao(HarvestSourceDAO.class);
+        try {
+            LOGGER.debug("Deleting " + sourceUrls.size() + " sources, starting from " + sourceUrls.get(0));
+            harvestSourceDao.removeHarvestSourcesInBulk(sourceUrls);
+            return 0;
+        } catch (DAOException e) {
+            LOGGER.warn("Bulk deletion of " + sourceUrls.size() + " sources failed, deleting them one by one: " + e);
+        }
+
+        int failed = 0;
+        for (String sourceUrl : sourceUrls) {
+            try {
+                harvestSourceDao.removeHarvestSources(Collections.singletonList(sourceUrl), false);
+            } catch (DAOException e) {
+                LOGGER.error("Failed to delete " + sourceUrl, e);
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Waits for the given deletion's result.
+     *
+     * @param future The deletion's future.
+     * @param batchSize Number of sources in the deletion's batch.
+     * @return As returned by {@link #deleteSources(List)}, the whole batch if the deletion failed unexpectedly.
+     */
+    private static int getFailedCount(Future<Integer> future, int batchSize) {
+
+        try {
+            return future.get().intValue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            return batchSize;
+        } catch (ExecutionException e) {
+            LOGGER.error("Source deletion failed", e.getCause());
+            return batchSize;
+        }
+    }
+
+    /**
+     * Returns the configured number of deletion threads.
+     *
+     * @return The number.
+     */
+    private static int getThreadCount() {
+        return Math.max(1, GeneralConfig.getIntProperty(GeneralConfig.SOURCE_DELETION_JOB_THREADS, DEFAULT_THREADS));
+    }
+
+    /**
+     * Lazy getter for the deletion threads.
+     *
+     * @return The threads.
+     */
+    private static synchronized ExecutorService getThreads() {
+
+        if (threads == null) {
+            threads = Executors.newFixedThreadPool(getThreadCount(), new ThreadFactory() {
+
+                /** Counter for thread names. */
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "source-deletion-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
         }
+        return threads;
     }
 
     /*
@@ -148,6 +320,13 @@ public class SourceDeletionJob implements StatefulJob, ServletContextListener {
      */
     @Override
     public void contextDestroyed(ServletContextEvent contextEvent) {
+
+        synchronized (SourceDeletionJob.class) {
+            if (threads != null) {
+                threads.shutdownNow();
+                threads = null;
+            }
+        }
         LOGGER.debug(this.getClass().getName() + " context destroyed");
     }
 
@@ -0,0 +1,467 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eionet.cr.common.TempFilePathGenerator;
+import eionet.cr.config.GeneralConfig;
+
+/**
+ * A global utility class that manages the temporary files of the application (e.g. downloaded harvest content). Every temporary
+ * file has a reference count: it is created or tracked with one reference, users that share it take more by
+ * {@link #acquire(File)}, and every user gives its own up by {@link #release(File)}. The file is deleted as soon as the last
+ * reference is released. Files that cannot be deleted at once (e.g. still open on some platforms) are left pending, and their
+ * deletion is retried by {@link FileDeletionJob}.
+ *
+ * The total size of the temporary files can be bounded by a quota (see {@link GeneralConfig#TEMP_SPACE_QUOTA}). The used space
+ * is a running total of the sizes accounted to the files: a file is accounted its length when tracked, more by
+ * {@link #reserve(File, long)} while it is written, its actual length by {@link #update(File)} once written, and nothing once
+ * deleted. Harvests call {@link #awaitSpace()} or {@link #awaitSpace(File, long)} before downloading, and so wait while the
+ * quota is full. The wait is bounded, so that harvests holding temporary files themselves cannot block each other forever.
+ *
+ * @author agent
+ */
+public final class TempSpace {
+
+    /** */
+    private static final Logger LOGGER = LoggerFactory.getLogger(TempSpace.class);
+
+    /** Default max time to wait for free temporary space, in milliseconds. */
+    public static final int DEFAULT_MAX_WAIT = 10 * 60 * 1000;
+
+    /** Lock for all of the below. */
+    private static final Object LOCK = new Object();
+
+    /** The reference counts of the tracked temporary files. */
+    private static final Map<File, Integer> REFERENCES = new HashMap<File, Integer>();
+
+    /** Released files whose deletion failed, to be retried. */
+    private static final Set<File> PENDING = new HashSet<File>();
+
+    /** The bytes accounted to the tracked and pending files. */
+    private static final Map<File, Long> SIZES = new HashMap<File, Long>();
+
+    /** Total of the bytes accounted to the tracked and pending files. */
+    private static long usedBytes;
+
+    /** Number of files deleted so far. */
+    private static long deletedCount;
+
+    /** Number of bytes deleted so far. */
+    private static long deletedBytes;
+
+    /** Number of times a harvest had to wait for free space. */
+    private static long waitCount;
+
+    /** Total milliseconds waited for free space. */
+    private static long waitMillis;
+
+    /**
+     * Hide utility class constructor.
+     */
+    private TempSpace() {
+        // Hide utility class constructor.
+    }
+
+    /**
+     * Creates a new temporary file path, with its parent directory, and tracks it with one reference. The file itself is to be
+     * created by the caller.
+     *
+     * @return The file.
+     */
+    public static File newFile() {
+
+        File file = TempFilePathGenerator.generate();
+        file.getParentFile().mkdirs();
+        track(file);
+        return file;
+    }
+
+    /**
+     * Tracks the given temporary file with one reference, e.g. a file derived from another temporary file. Does nothing if the
+     * file is already tracked.
+     *
+     * @param file The file.
+     */
+    public static void track(File file) {
+
+        if (file == null) {
+            return;
+        }
+        synchronized (LOCK) {
+            if (!REFERENCES.containsKey(file)) {
+                REFERENCES.put(file, 1);
+                account(file, file.length(), false);
+            }
+        }
+    }
+
+    /**
+     * Accounts at least the given number of bytes to the given tracked file, e.g. the expected size of content being written
+     * into it. Does not wait for the space, see {@link #awaitSpace(File, long)} for that. Untracked files are ignored.
+     *
+     * @param file The file.
+     * @param bytes The number of bytes.
+     */
+    public static void reserve(File file, long bytes) {
+
+        if (file == null) {
+            return;
+        }
+        synchronized (LOCK) {
+            if (REFERENCES.containsKey(file)) {
+                account(file, bytes, false);
+            }
+        }
+    }
+
+    /**
+     * Accounts the actual length of the given tracked file to it, giving back whatever was reserved in excess. To be called once
+     * the file has been written. Untracked files are ignored.
+     *
+     * @param file The file.
+     */
+    public static void update(File file) {
+
+        if (file == null) {
+            return;
+        }
+        long length = file.length();
+        synchronized (LOCK) {
+            if (REFERENCES.containsKey(file)) {
+                account(file, length, true);
+            }
+        }
+    }
+
+    /**
+     * Takes one more reference of the given temporary file, so that it is not deleted until this reference too is released.
+     *
+     * @param file The file.
+     */
+    public static void acquire(File file) {
+
+        if (file == null) {
+            return;
+        }
+        synchronized (LOCK) {
+            Integer count = REFERENCES.get(file);
+            REFERENCES.put(file, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Releases one reference of the given file, and deletes the file if it was the last. Null, untracked or already released
+     * files are ignored, see {@link #discard(File)} for deleting files that were never tracked.
+     *
+     * @param file The file.
+     */
+    public static void release(File file) {
+
+        if (file == null) {
+            return;
+        }
+
+        synchronized (LOCK) {
+            Integer count = REFERENCES.get(file);
+            if (count == null) {
+                LOGGER.debug("Ignoring release of untracked or already released file: " + file);
+                return;
+            } else if (count > 1) {
+                REFERENCES.put(file, count - 1);
+                return;
+            }
+            REFERENCES.remove(file);
+        }
+
+        delete(file);
+    }
+
+    /**
+     * Deletes the given untracked file (e.g. a leftover of a previous application run), or leaves it pending for deletion by
+     * {@link FileDeletionJob} if the deletion fails. Null or tracked files are ignored, the latter are to be released instead.
+     *
+     * @param file The file.
+     */
+    public static void discard(File file) {
+
+        if (file == null) {
+            return;
+        }
+
+        synchronized (LOCK) {
+            if (REFERENCES.containsKey(file)) {
+                LOGGER.debug("Ignoring discard of tracked file: " + file);
+                return;
+            }
+        }
+
+        delete(file);
+    }
+
+    /**
+     * Retries the deletion of the released files whose deletion failed.
+     *
+     * @return Number of files still pending deletion.
+     */
+    public static int retryDeletions() {
+
+        List<File> files;
+        synchronized (LOCK) {
+            files = new ArrayList<File>(PENDING);
+            PENDING.clear();
+        }
+
+        for (File file : files) {
+            delete(file);
+        }
+
+        synchronized (LOCK) {
+            return PENDING.size();
+        }
+    }
+
+    /**
+     * Waits until the temporary files are within the quota, or until the max wait time has passed. Returns straight away if no
+     * quota is configured.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public static void awaitSpace() throws InterruptedException {
+        awaitSpace(null, 0L);
+    }
+
+    /**
+     * Waits until the temporary files leave room for the given number of bytes within the quota, or until the max wait time
+     * has passed, and then reserves them for the given tracked file (see {@link #reserve(File, long)}), so that concurrent
+     * waiters do not count on the same room. The reservation is given back by {@link #update(File)} or {@link #release(File)}.
+     * Returns straight away, reserving nonetheless, if no quota is configured.
+     *
+     * @param file The tracked file that the bytes are to be written into, null if none yet.
+     * @param expectedBytes Number of bytes expected to be written, 0 or negative if not known.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public static void awaitSpace(File file, long expectedBytes) throws InterruptedException {
+
+        long needed = Math.max(0L, expectedBytes);
+        long quota = getQuota();
+        if (quota <= 0) {
+            reserve(file, needed);
+            return;
+        }
+
+        long started = System.currentTimeMillis();
+        long deadline = started + GeneralConfig.getTimePropertyMilliseconds(GeneralConfig.TEMP_SPACE_MAX_WAIT, DEFAULT_MAX_WAIT);
+        boolean waited = false;
+
+        synchronized (LOCK) {
+            long used = usedBytes - getAccounted(file);
+            while (used > 0 && used + needed > quota) {
+
+                long now = System.currentTimeMillis();
+                if (now >= deadline) {
+                    LOGGER.warn("Temporary space still full after waiting " + (now - started) + " ms, proceeding anyway: "
+                            + used + " of " + quota + " bytes used");
+                    break;
+                }
+                if (!waited) {
+                    LOGGER.debug("Waiting for temporary space: " + used + " of " + quota + " bytes used, " + needed + " needed");
+                    waited = true;
+                    waitCount++;
+                }
+                LOCK.wait(deadline - now);
+                used = usedBytes - getAccounted(file);
+            }
+
+            if (waited) {
+                waitMillis += System.currentTimeMillis() - started;
+            }
+            if (file != null && REFERENCES.containsKey(file)) {
+                account(file, needed, false);
+            }
+        }
+    }
+
+    /**
+     * Sets the number of bytes accounted to the given file, and adjusts the used space accordingly. Wakes up the waiters if the
+     * used space decreased. Must be called while holding {@link #LOCK}.
+     *
+     * @param file The file.
+     * @param bytes The number of bytes.
+     * @param exact If false, the accounted bytes are only raised to the given number, never lowered.
+     */
+    private static void account(File file, long bytes, boolean exact) {
+
+        long accounted = getAccounted(file);
+        long newAccounted = exact ? Math.max(0L, bytes) : Math.max(accounted, bytes);
+        if (newAccounted != accounted) {
+            SIZES.put(file, newAccounted);
+            usedBytes += newAccounted - accounted;
+            if (newAccounted < accounted) {
+                LOCK.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes accounted to the given file. Must be called while holding {@link #LOCK}.
+     *
+     * @param file The file, may be null.
+     * @return The number of bytes, 0 if none.
+     */
+    private static long getAccounted(File file) {
+
+        Long accounted = file == null ? null : SIZES.get(file);
+        return accounted == null ? 0L : accounted.longValue();
+    }
+
+    /**
+     * Deletes the given file, or leaves it pending if the deletion fails.
+     *
+     * @param file The file.
+     */
+    private static void delete(File file) {
+
+        long length = file.length();
+        boolean existed = file.exists();
+        boolean deleted = false;
+        try {
+            deleted = !existed || file.delete();
+        } catch (SecurityException e) {
+            LOGGER.error("Security exception when trying to delete " + file, e);
+        }
+
+        synchronized (LOCK) {
+            if (deleted) {
+                PENDING.remove(file);
+                Long accounted = SIZES.remove(file);
+                if (accounted != null) {
+                    usedBytes -= accounted.longValue();
+                }
+                if (existed) {
+                    deletedCount++;
+                    deletedBytes += length;
+                }
+                LOCK.notifyAll();
+            } else {
+                PENDING.add(file);
+                account(file, length, true);
+            }
+        }
+
+        if (deleted) {
+            LOGGER.debug("File successfully deleted: " + file);
+        } else {
+            LOGGER.debug("Deleting this file failed, trying next time: " + file);
+        }
+    }
+
+    /**
+     * @return The temporary space quota in bytes, 0 or negative if unlimited.
+     */
+    public static long getQuota() {
+        return GeneralConfig.getLongProperty(GeneralConfig.TEMP_SPACE_QUOTA, 0L);
+    }
+
+    /**
+     * @return Current total of the bytes accounted to the tracked and pending temporary files, see {@link #reserve(File, long)}
+     *         and {@link #update(File)}.
+     */
+    public static long getUsedBytes() {
+        synchronized (LOCK) {
+            return usedBytes;
+        }
+    }
+
+    /**
+     * @return Number of temporary files currently in use.
+     */
+    public static int getFileCount() {
+        synchronized (LOCK) {
+            return REFERENCES.size();
+        }
+    }
+
+    /**
+     * @return Number of released temporary files pending deletion.
+     */
+    public static int getPendingCount() {
+        synchronized (LOCK) {
+            return PENDING.size();
+        }
+    }
+
+    /**
+     * @return Number of temporary files deleted so far.
+     */
+    public static long getDeletedCount() {
+        synchronized (LOCK) {
+            return deletedCount;
+        }
+    }
+
+    /**
+     * @return Number of bytes of temporary files deleted so far.
+     */
+    public static long getDeletedBytes() {
+        synchronized (LOCK) {
+            return deletedBytes;
+        }
+    }
+
+    /**
+     * @return Number of times a harvest had to wait for free temporary space.
+     */
+    public static long getWaitCount() {
+        synchronized (LOCK) {
+            return waitCount;
+        }
+    }
+
+    /**
+     * @return Total milliseconds waited for free temporary space.
+     */
+    public static long getWaitMillis() {
+        synchronized (LOCK) {
+            return waitMillis;
+        }
+    }
+
+    /**
+     * @return A one-line summary of the current usage of temporary space, for logging.
+     */
+    public static String getUsageSummary() {
+        return "Temporary space [files=" + getFileCount() + ", usedBytes=" + getUsedBytes() + ", quota=" + getQuota()
+                + ", pending=" + getPendingCount() + ", deleted=" + getDeletedCount() + ", deletedBytes=" + getDeletedBytes()
+                + ", waits=" + getWaitCount() + ", waitMillis=" + getWaitMillis() + "]";
+    }
+}
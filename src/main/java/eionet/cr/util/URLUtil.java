@@ -29,6 +29,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.*;
 import java.text.MessageFormat;
@@ -265,6 +266,37 @@ public class URLUtil {
         return url == null ? null : StringUtils.replaceEach(url, BAD_IRI_CHARS, BAD_IRI_CHARS_ESCAPES);
     }
 
+    /**
+     * Releases the given connection whose response has been received, by closing its response stream instead of disconnecting
+     * it. This lets the JVM keep the underlying socket alive and reuse it for the next request to the same host (see the
+     * "http.keepAlive" and "http.maxConnections" system properties), rather than having to open a new one, possibly with a new
+     * TLS handshake. Any unread response body is drained or the socket closed, as the JVM sees fit.
+     *
+     * Must not be called on connections that have not been connected, use {@link #disconnect(URLConnection)} for those and for
+     * connections whose response failed half-way.
+     *
+     * @param urlConnection The connection.
+     */
+    public static void release(URLConnection urlConnection) {
+
+        if (urlConnection != null && urlConnection instanceof HttpURLConnection) {
+            HttpURLConnection httpConnection = (HttpURLConnection) urlConnection;
+            try {
+                httpConnection.getInputStream().close();
+            } catch (IOException e) {
+                // Error responses have their body in the error stream instead.
+                InputStream errorStream = httpConnection.getErrorStream();
+                if (errorStream != null) {
+                    try {
+                        errorStream.close();
+                    } catch (IOException ioe) {
+                        disconnect(urlConnection);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      *
      * @param urlConnection
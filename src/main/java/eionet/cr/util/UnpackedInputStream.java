@@ -0,0 +1,128 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+
+/**
+ * An input stream of a file's content that is decompressed and/or extracted from an archive on the fly, see
+ * {@link CompressUtil#openUnpacked(java.io.File)}. Closing this stream closes the whole chain of underlying streams.
+ *
+ * @author agent
+ */
+public class UnpackedInputStream extends FilterInputStream {
+
+    /** Name of the compression format (e.g. "gz"), or null if the file was not compressed. */
+    private final String compressorName;
+
+    /** Name of the archive format (e.g. "zip"), or null if the (decompressed) file was not an archive. */
+    private final String archiverName;
+
+    /** Name of the archive entry whose content this stream reads, or null if the file was not an archive. */
+    private String entryName;
+
+    /**
+     * Creates a new stream.
+     *
+     * @param in The underlying stream.
+     * @param compressorName Name of the compression format, or null if the file was not compressed.
+     * @param archiverName Name of the archive format, or null if the file was not an archive.
+     * @param entryName Name of the archive entry read, or null if the file was not an archive.
+     */
+    UnpackedInputStream(InputStream in, String compressorName, String archiverName, String entryName) {
+        super(in);
+        this.compressorName = compressorName;
+        this.archiverName = archiverName;
+        this.entryName = entryName;
+    }
+
+    /**
+     * @return True if the file was compressed and/or archived, i.e. this stream reads something else than the file's raw bytes.
+     */
+    public boolean isUnpacked() {
+        return compressorName != null || archiverName != null;
+    }
+
+    /**
+     * If the file is an archive, moves this stream to the content of the archive's next file entry.
+     *
+     * @return Name of the next file entry, or null if no more entries or the file is not an archive.
+     * @throws IOException If reading the archive fails.
+     */
+    public String nextEntry() throws IOException {
+
+        if (archiverName == null || entryName == null) {
+            return null;
+        }
+
+        ArchiveEntry entry = CompressUtil.getNextFileEntry((ArchiveInputStream) in);
+        entryName = entry == null ? null : entry.getName();
+        return entryName;
+    }
+
+    /**
+     * @return the compressorName
+     */
+    public String getCompressorName() {
+        return compressorName;
+    }
+
+    /**
+     * @return the archiverName
+     */
+    public String getArchiverName() {
+        return archiverName;
+    }
+
+    /**
+     * @return the entryName
+     */
+    public String getEntryName() {
+        return entryName;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+
+        if (!isUnpacked()) {
+            return "plain content";
+        }
+        StringBuilder sb = new StringBuilder();
+        if (compressorName != null) {
+            sb.append(compressorName);
+        }
+        if (archiverName != null) {
+            sb.append(sb.length() > 0 ? "+" : "").append(archiverName).append(" entry ").append(entryName);
+        }
+        return sb.toString();
+    }
+}
@@ -3,10 +3,12 @@ package eionet.cr.util.cleanup;
 import eionet.cr.common.CRRuntimeException;
 import eionet.cr.common.JobScheduler;
 import eionet.cr.common.Predicates;
+import eionet.cr.config.GeneralConfig;
 import eionet.cr.dao.DAOException;
 import eionet.cr.dao.DAOFactory;
 import eionet.cr.dao.HarvestSourceDAO;
 import eionet.cr.harvest.HarvestException;
+import eionet.cr.harvest.HarvestLeases;
 import eionet.cr.harvest.ResponseCodeUtil;
 import eionet.cr.harvest.scheduled.HarvestingJob;
 import eionet.cr.util.Pair;
@@ -28,6 +30,13 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class HarvestSourcesCleanupJob implements StatefulJob, ServletContextListener {
 
@@ -38,9 +47,21 @@ public class HarvestSourcesCleanupJob implements StatefulJob, ServletContextList
     public static final String CLEANUP_USERNAME = "cleanup";
     private static final Set<String> EXCEPT_PREDICATES = new HashSet<>(Arrays.asList(Predicates.CR_REDIRECTED_TO, Predicates.CR_LAST_REFRESHED));
     public static final int DELETE_BATCH_SIZE = 50;
-    public static final long DELETE_REST_MILLISECONDS = 10 * 1000;
-    public static final long SLEEP_MILLIS = 10 * 1000;
-    public static final int REDIRECTED_SOURCES_DELETION_BATCH = 100;
+
+    /** Default number of threads deleting batches of redirected sources in parallel. */
+    public static final int DEFAULT_THREADS = 2;
+
+    /** Default target latency of deleting one batch, in milliseconds. Above it, the deletions are paced down. */
+    public static final int DEFAULT_TARGET_LATENCY = 2000;
+
+    /** Max pause between batches, in milliseconds. */
+    public static final long MAX_PAUSE_MILLIS = 60 * 1000;
+
+    /** Number of batches fetched by one page of the redirected sources cursor. */
+    private static final int BATCHES_PER_PAGE = 20;
+
+    /** Name of this job's progress checkpoint, see {@link #loadCheckpoint()}. */
+    private static final String CHECKPOINT_NAME = "redirected-sources";
 
     /**
      *
@@ -66,52 +87,185 @@ public class HarvestSourcesCleanupJob implements StatefulJob, ServletContextList
     }
 
     /**
+     * Deletes the harvest sources whose last harvest got redirected. The candidates are paged through once by a cursor on their
+     * ids, and deleted in batches by a small pool of threads, paced by the measured deletion latency (see
+     * {@link LatencyThrottle}). The id up to which all batches are done is checkpointed after every page, so that a restarted
+     * run resumes from there rather than from the start.
      *
      * @throws DAOException
      * @throws SQLException
      */
     private void deleteRedirectedSources() throws DAOException, SQLException {
 
-        int i = 0;
-        Connection conn = null;
-        List<String> sources = null;
+        int batchSize = Math.max(1,
+                GeneralConfig.getIntProperty(GeneralConfig.SOURCES_CLEANUP_JOB_BATCH_SIZE, DELETE_BATCH_SIZE));
+        int noOfThreads = Math.max(1,
+                GeneralConfig.getIntProperty(GeneralConfig.SOURCES_CLEANUP_JOB_THREADS, DEFAULT_THREADS));
+        LatencyThrottle throttle = createThrottle();
+
+        long checkpoint = loadCheckpoint();
+        if (checkpoint > 0) {
+            LOGGER.info("Resuming deletion of redirected sources after source id {}", checkpoint);
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(noOfThreads, new ThreadFactory() {
+
+            /** Counter for thread names. */
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "sources-cleanup-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        int batches = 0;
+        int deleted = 0;
+        LinkedList<Pair<Future<Integer>, Long>> pending = new LinkedList<>();
         try {
-            conn = SesameUtil.getSQLConnection();
-            conn.setAutoCommit(true);
+            long cursor = checkpoint;
+            List<Long> ids = findRedirectedSourceIds(cursor, batchSize * BATCHES_PER_PAGE);
+            while (!ids.isEmpty()) {
+
+                for (int from = 0; from < ids.size(); from += batchSize) {
 
-            do {
-                sources = findTop100RedirectedSources();
-                if (sources == null || sources.isEmpty()) {
-                    break;
+                    // Keep at most one batch per thread in flight, completing them in order for the sake of the checkpoint.
+                    while (pending.size() >= noOfThreads) {
+                        Pair<Future<Integer>, Long> head = pending.removeFirst();
+                        deleted += getDeletedCount(head.getLeft());
+                        checkpoint = head.getRight();
+                    }
+
+                    throttle.await();
+                    List<Long> batch = new ArrayList<>(ids.subList(from, Math.min(from + batchSize, ids.size())));
+                    pending.add(new Pair<>(submitDeletion(workers, batch, throttle, ++batches), batch.get(batch.size() - 1)));
                 }
 
-                i++;
-                LOGGER.debug("Deleting redirected sources batch {}", i);
+                saveCheckpoint(checkpoint);
+                cursor = ids.get(ids.size() - 1);
+                ids = findRedirectedSourceIds(cursor, batchSize * BATCHES_PER_PAGE);
+            }
+
+            while (!pending.isEmpty()) {
+                deleted += getDeletedCount(pending.removeFirst().getLeft());
+            }
+
+            // All done, so the next run starts from scratch.
+            saveCheckpoint(0L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Interrupted while deleting redirected sources, will resume after source id {}", checkpoint);
+            saveCheckpoint(checkpoint);
+        } finally {
+            workers.shutdownNow();
+        }
+
+        LOGGER.info("Deleted {} redirected sources in {} batches, average batch latency {} ms", deleted, batches,
+                throttle.getAverageLatency());
+    }
+
+    /**
+     * @return A new throttle of deletions, pacing them by the configured target latency.
+     */
+    private LatencyThrottle createThrottle() {
+
+        int targetLatency = GeneralConfig.getTimePropertyMilliseconds(
+                GeneralConfig.SOURCES_CLEANUP_JOB_TARGET_LATENCY, DEFAULT_TARGET_LATENCY);
+        return new LatencyThrottle(Math.max(1, targetLatency), MAX_PAUSE_MILLIS);
+    }
+
+    /**
+     * Submits the deletion of the given batch of sources to the given workers.
+     *
+     * @param workers The workers.
+     * @param sourceIds Ids of the sources to delete.
+     * @param throttle The throttle to record the deletion's latency in.
+     * @param batchNo Number of the batch, for logging.
+     * @return Future of the number of deleted sources.
+     */
+    private Future<Integer> submitDeletion(ExecutorService workers, final List<Long> sourceIds, final LatencyThrottle throttle,
+            final int batchNo) {
+
+        return workers.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+
+                LOGGER.debug("Deleting redirected sources batch {}", batchNo);
+                long started = System.currentTimeMillis();
+                Connection conn = null;
                 try {
-                    deleteSourcesById(conn, sources);
+                    conn = SesameUtil.getSQLConnection();
+                    conn.setAutoCommit(true);
+                    deleteSourcesById(conn, sourceIds);
+                    return sourceIds.size();
                 } catch (Exception e) {
-                    LOGGER.error("Failed deleting redirected sources batch " + i, e);
+                    LOGGER.error("Failed deleting redirected sources batch " + batchNo, e);
+                    return 0;
+                } finally {
+                    SQLUtil.close(conn);
+                    throttle.record(System.currentTimeMillis() - started);
                 }
+            }
+        });
+    }
 
-                if (i % REDIRECTED_SOURCES_DELETION_BATCH == 0) {
-                    sleep(SLEEP_MILLIS);
-                }
-            } while (sources != null && !sources.isEmpty());
+    /**
+     * Waits for the given deletion result.
+     *
+     * @param future The deletion's future.
+     * @return Number of deleted sources.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private int getDeletedCount(Future<Integer> future) throws InterruptedException {
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            LOGGER.error("Deleting a batch of redirected sources failed", e.getCause());
+            return 0;
+        }
+    }
+
+    /**
+     * Loads the id of the last redirected source up to which the previous run of this job got, 0 if it got through all.
+     *
+     * @return The id.
+     * @throws DAOException
+     */
+    private long loadCheckpoint() throws DAOException {
+
+        String sql = "SELECT last_id FROM cleanup_checkpoint WHERE name=?";
+        Connection conn = null;
+        try {
+            conn = SesameUtil.getSQLConnection();
+            Object lastId = SQLUtil.executeSingleReturnValueQuery(sql, Collections.singletonList(CHECKPOINT_NAME), conn);
+            return lastId instanceof Number ? ((Number) lastId).longValue() : 0L;
+        } catch (Exception e) {
+            throw new DAOException(e.getMessage(), e);
         } finally {
             SQLUtil.close(conn);
         }
     }
 
     /**
+     * Saves the id of the last redirected source up to which this job has got.
      *
-     * @param sleepMillis
+     * @param lastId The id, 0 if all done.
+     * @throws DAOException
      */
-    private void sleep(long sleepMillis) {
-        LOGGER.debug("Sleeping for {} ms", sleepMillis);
+    private void saveCheckpoint(long lastId) throws DAOException {
+
+        String sql = "INSERT REPLACING cleanup_checkpoint (name, last_id, updated) VALUES (?, ?, now())";
+        Connection conn = null;
         try {
-            Thread.sleep(sleepMillis);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            conn = SesameUtil.getSQLConnection();
+            SQLUtil.executeUpdate(sql, Arrays.asList(CHECKPOINT_NAME, lastId), conn);
+        } catch (Exception e) {
+            throw new DAOException(e.getMessage(), e);
+        } finally {
+            SQLUtil.close(conn);
         }
     }
 
@@ -362,6 +516,7 @@ public class HarvestSourcesCleanupJob implements StatefulJob, ServletContextList
         Set<String> batch = new HashSet<>();
         Set<String> clearGraphBatch = new HashSet<>();
         HarvestSourceDAO harvestSourceDAO = DAOFactory.get().getDao(HarvestSourceDAO.class);
+        LatencyThrottle throttle = createThrottle();
 
         for (Pair<String, Integer> pair : resultList) {
 
@@ -380,13 +535,16 @@ public class HarvestSourcesCleanupJob implements StatefulJob, ServletContextList
                 batch.clear();
                 clearGraphBatch.clear();
 
+                long started = System.currentTimeMillis();
                 deleteBatch(set1, set2, harvestSourceDAO);
+                throttle.record(System.currentTimeMillis() - started);
 
-                LOGGER.debug("Resting before deleting next redirecting sources batch...");
+                LOGGER.debug("Pacing before deleting next redirecting sources batch...");
                 try {
-                    Thread.sleep(DELETE_REST_MILLISECONDS);
+                    throttle.await();
                 } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    Thread.currentThread().interrupt();
+                    return;
                 }
             }
         }
@@ -414,29 +572,35 @@ public class HarvestSourcesCleanupJob implements StatefulJob, ServletContextList
     }
 
     /**
+     * Returns the next page of the ids of the sources whose last harvest got redirected, in ascending order.
      *
-     * @return
+     * @param afterId The id after which the page starts.
+     * @param pageSize Max number of ids in the page.
+     * @return The ids.
      * @throws DAOException
      */
-    private List<String> findTop100RedirectedSources() throws DAOException {
+    private List<Long> findRedirectedSourceIds(long afterId, int pageSize) throws DAOException {
 
-        String sql = "select top 100 concat('', harvest_source_id) as srcid from CR.cr3user.harvest_source\n" +
-                "where last_harvest_code in (301,302,303,307,308)\n" +
+        String sql = "select top " + pageSize + " harvest_source_id from CR.cr3user.harvest_source\n" +
+                "where last_harvest_code in (301,302,303,307,308) and harvest_source_id > ?\n" +
                 "order by harvest_source_id asc";
 
-        SingleObjectReader<String> reader = new SingleObjectReader<>();
+        SingleObjectReader<Number> reader = new SingleObjectReader<>();
 
         Connection conn = null;
         try {
             conn = SesameUtil.getSQLConnection();
-            SQLUtil.executeQuery(sql, reader, conn);
+            SQLUtil.executeQuery(sql, Collections.singletonList(afterId), reader, conn);
         } catch (Exception e) {
             throw new DAOException(e.getMessage(), e);
         } finally {
             SQLUtil.close(conn);
         }
 
-        List<String> resultList = reader.getResultList();
+        List<Long> resultList = new ArrayList<>();
+        for (Number id : reader.getResultList()) {
+            resultList.add(id.longValue());
+        }
         return resultList;
     }
 
@@ -445,7 +609,7 @@ public class HarvestSourcesCleanupJob implements StatefulJob, ServletContextList
      * @param sourceIds
      * @throws DAOException
      */
-    private void deleteSourcesById(Connection conn, Collection<String> sourceIds) throws DAOException {
+    private void deleteSourcesById(Connection conn, Collection<Long> sourceIds) throws DAOException {
 
         if (sourceIds == null || sourceIds.isEmpty()) {
             return;
@@ -522,6 +686,12 @@ public class HarvestSourcesCleanupJob implements StatefulJob, ServletContextList
 
     @Override
     public void execute(JobExecutionContext jobExecutionContext) throws JobExecutionException {
+
+        if (!HarvestLeases.acquire(HarvestLeases.jobLeaseName(getClass().getSimpleName()))) {
+            LOGGER.debug(getClass().getSimpleName() + " is in charge of another node, exiting!");
+            return;
+        }
+
         try {
             executeInternal();
         } catch (Exception e) {
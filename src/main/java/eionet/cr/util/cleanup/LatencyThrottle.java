@@ -0,0 +1,115 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+package eionet.cr.util.cleanup;
+
+/**
+ * Paces a stream of bulk database operations (e.g. deletions) by their measured latency, instead of fixed rests between them.
+ * While the moving average latency of the operations stays within the target, no pauses are made. Above the target, every
+ * operation is followed by a pause that grows with the excess, so that at twice the target latency the database is left idle
+ * for as long as it is kept busy. The pauses are shared by all threads using the same throttle.
+ *
+ * @author agent
+ */
+public class LatencyThrottle {
+
+    /** Weight of the latest latency in the moving average. */
+    private static final double ALPHA = 0.3;
+
+    /** The target latency in milliseconds. */
+    private final long targetLatency;
+
+    /** Max length of one pause in milliseconds. */
+    private final long maxPause;
+
+    /** Moving average of the measured latencies, negative until the first measurement. */
+    private double averageLatency = -1;
+
+    /** Time until which operations are paused. */
+    private long pausedUntil;
+
+    /**
+     * Creates a new throttle.
+     *
+     * @param targetLatency The target latency in milliseconds, must be positive.
+     * @param maxPause Max length of one pause in milliseconds.
+     */
+    public LatencyThrottle(long targetLatency, long maxPause) {
+
+        if (targetLatency <= 0) {
+            throw new IllegalArgumentException("Target latency must be positive!");
+        }
+        this.targetLatency = targetLatency;
+        this.maxPause = maxPause;
+    }
+
+    /**
+     * Records the latency of a finished operation, and pauses the coming operations if the average latency is above target.
+     *
+     * @param latency The latency in milliseconds.
+     */
+    public synchronized void record(long latency) {
+
+        averageLatency = averageLatency < 0 ? latency : ALPHA * latency + (1 - ALPHA) * averageLatency;
+        long pause = getPause();
+        if (pause > 0) {
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + pause);
+        }
+    }
+
+    /**
+     * Waits until the current pause (if any) is over.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void await() throws InterruptedException {
+
+        long wait = getPausedUntil() - System.currentTimeMillis();
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    /**
+     * @return The length of the pause that follows each operation at the current average latency, in milliseconds.
+     */
+    public synchronized long getPause() {
+
+        if (averageLatency <= targetLatency) {
+            return 0L;
+        }
+        return Math.min(maxPause, (long) (averageLatency * (averageLatency - targetLatency) / targetLatency));
+    }
+
+    /**
+     * @return The moving average of the measured latencies in milliseconds, 0 if nothing measured yet.
+     */
+    public synchronized long getAverageLatency() {
+        return averageLatency < 0 ? 0L : Math.round(averageLatency);
+    }
+
+    /**
+     * @return the pausedUntil
+     */
+    private synchronized long getPausedUntil() {
+        return pausedUntil;
+    }
+}
@@ -0,0 +1,464 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+
+package eionet.cr.util.sesame;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eionet.cr.config.GeneralConfig;
+import eionet.cr.util.Hashes;
+
+/**
+ * Admission control of the SPARQL endpoint's queries, so that a few heavy clients cannot occupy all the triple store's
+ * connections and starve the others. A query is to be admitted by {@link #admit(String, String)} before execution, and the
+ * returned ticket released by {@link #release(Ticket)} after it.
+ *
+ * Every client (a user or an IP address) has a token bucket of query time, refilled at a fixed rate up to a max burst. An
+ * admitted query is charged its estimated execution time up front, and the difference with its actual time on release. The
+ * estimate is a moving average of the query's past execution times (the ones that the service log records too), or a default
+ * for unknown queries. A client whose bucket is empty is rejected at once.
+ *
+ * The number of queries executing at the same time is bounded too. Queries over the bound wait in a queue of bounded length,
+ * up to a max wait time. Queries that find the queue full, or time out waiting, are rejected. Rejected tickets tell the client
+ * when to retry.
+ *
+ * @author agent
+ */
+public final class SPARQLQueryAdmission {
+
+    /** */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SPARQLQueryAdmission.class);
+
+    /** Default max number of queries executing at the same time. */
+    public static final int DEFAULT_MAX_CONCURRENT = 8;
+
+    /** Default max number of queries waiting for admission. */
+    public static final int DEFAULT_MAX_QUEUED = 32;
+
+    /** Default max time that a query waits for admission, in milliseconds. */
+    public static final int DEFAULT_MAX_WAIT = 30 * 1000;
+
+    /** Default query time (ms) that a client earns per minute. */
+    public static final int DEFAULT_CLIENT_RATE = 60 * 1000;
+
+    /** Default max query time (ms) that a client can accumulate. */
+    public static final int DEFAULT_CLIENT_BURST = 5 * 60 * 1000;
+
+    /** Default estimated execution time (ms) of queries not executed before. */
+    public static final int DEFAULT_COST = 1000;
+
+    /** Max number of clients whose buckets are remembered. The least recently active are dropped first. */
+    private static final int MAX_CLIENTS = 10000;
+
+    /** Max number of queries whose execution times are remembered. The least recently executed are dropped first. */
+    private static final int MAX_COSTS = 10000;
+
+    /** Lock for all of the below. */
+    private static final Object LOCK = new Object();
+
+    /** The clients' token buckets, least recently active first. */
+    private static final LinkedHashMap<String, Bucket> BUCKETS = new LinkedHashMap<String, Bucket>(16, 0.75f, true);
+
+    /** Moving averages of the queries' execution times (ms), by hashes of the normalized queries. */
+    private static final LinkedHashMap<Long, Long> COSTS = new LinkedHashMap<Long, Long>(16, 0.75f, true);
+
+    /** Number of queries executing. */
+    private static int running;
+
+    /** Number of queries waiting for admission. */
+    private static int queued;
+
+    /** */
+    private static long admittedCount;
+
+    /** Number of queries rejected because their client's bucket was empty. */
+    private static long throttledCount;
+
+    /** Number of queries rejected because the queue was full, or they timed out in it. */
+    private static long busyCount;
+
+    /** Total milliseconds waited in the queue by admitted queries. */
+    private static long waitMillis;
+
+    /**
+     * Hide utility class constructor.
+     */
+    private SPARQLQueryAdmission() {
+        // Hide utility class constructor.
+    }
+
+    /**
+     * Admits the given query of the given client, waiting in the queue if needed.
+     *
+     * @param client Identifier of the client, e.g. user name or IP address.
+     * @param query The query.
+     * @return The ticket, to be released when the query is done, see {@link Ticket#isAdmitted()}.
+     */
+    public static Ticket admit(String client, String query) {
+
+        long costKey = Hashes.spoHash(SPARQLQueryUtil.normalizeQuery(query));
+        int maxConcurrent = GeneralConfig.getIntProperty(GeneralConfig.SPARQL_ADMISSION_MAX_CONCURRENT, DEFAULT_MAX_CONCURRENT);
+        int maxQueued = GeneralConfig.getIntProperty(GeneralConfig.SPARQL_ADMISSION_MAX_QUEUED, DEFAULT_MAX_QUEUED);
+        int maxWait = GeneralConfig.getTimePropertyMilliseconds(GeneralConfig.SPARQL_ADMISSION_MAX_WAIT, DEFAULT_MAX_WAIT);
+        int retryAfterBusy = Math.max(1, (maxWait + 999) / 1000);
+
+        synchronized (LOCK) {
+
+            Long cost = COSTS.get(costKey);
+            long estimatedCost = cost == null ? getDefaultCost() : cost;
+
+            // Charge the client's bucket first, so that throttled clients do not take up room in the queue.
+            Bucket bucket = getBucket(client);
+            if (bucket != null) {
+                if (bucket.tokens <= 0) {
+                    throttledCount++;
+                    int retryAfter = (int) Math.max(1, Math.ceil((1 - bucket.tokens) / getClientRatePerMilli() / 1000));
+                    LOGGER.debug("SPARQL query of " + client + " throttled, retry after " + retryAfter + " s");
+                    return new Ticket(client, costKey, 0, false, retryAfter);
+                }
+                bucket.tokens -= estimatedCost;
+            }
+
+            if (maxConcurrent > 0 && running >= maxConcurrent) {
+
+                if (queued >= maxQueued) {
+                    return reject(bucket, estimatedCost, client, "queue full", retryAfterBusy);
+                }
+
+                long started = System.currentTimeMillis();
+                long deadline = started + maxWait;
+                queued++;
+                try {
+                    while (running >= maxConcurrent) {
+                        long now = System.currentTimeMillis();
+                        if (now >= deadline) {
+                            return reject(bucket, estimatedCost, client, "timed out in queue", retryAfterBusy);
+                        }
+                        LOCK.wait(deadline - now);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return reject(bucket, estimatedCost, client, "interrupted in queue", retryAfterBusy);
+                } finally {
+                    queued--;
+                }
+                waitMillis += System.currentTimeMillis() - started;
+            }
+
+            running++;
+            admittedCount++;
+            return new Ticket(client, costKey, estimatedCost, true, 0);
+        }
+    }
+
+    /**
+     * Releases the given ticket, freeing its query's place, and records the query's execution time. Does nothing if the ticket
+     * is null, not admitted or already released.
+     *
+     * @param ticket The ticket.
+     */
+    public static void release(Ticket ticket) {
+
+        if (ticket == null || !ticket.admitted || ticket.released) {
+            return;
+        }
+        ticket.released = true;
+        long cost = System.currentTimeMillis() - ticket.started;
+
+        synchronized (LOCK) {
+            running--;
+            LOCK.notifyAll();
+
+            Long average = COSTS.get(ticket.costKey);
+            COSTS.put(ticket.costKey, average == null ? cost : (average * 3 + cost) / 4);
+            if (COSTS.size() > MAX_COSTS) {
+                Iterator<Long> iterator = COSTS.keySet().iterator();
+                iterator.next();
+                iterator.remove();
+            }
+
+            Bucket bucket = getBucket(ticket.client);
+            if (bucket != null) {
+                bucket.tokens += ticket.estimatedCost - cost;
+            }
+        }
+    }
+
+    /**
+     * Returns the IP address of the client that sent a request with the given remote address and X-Forwarded-For header. The
+     * header is trusted only as far as the request has passed through the proxies listed in
+     * {@link GeneralConfig#SPARQL_ADMISSION_TRUSTED_PROXIES}, as any client can send one: its addresses are taken from the last
+     * one back, until the first one that is not a trusted proxy.
+     *
+     * @param remoteAddr The request's remote address.
+     * @param forwardedFor The request's X-Forwarded-For header, null if none.
+     * @return The client's IP address.
+     */
+    public static String getClientAddress(String remoteAddr, String forwardedFor) {
+
+        String trustedProxies = GeneralConfig.getProperty(GeneralConfig.SPARQL_ADMISSION_TRUSTED_PROXIES);
+        if (trustedProxies == null || forwardedFor == null) {
+            return remoteAddr;
+        }
+
+        Set<String> proxies = new HashSet<String>();
+        for (String proxy : trustedProxies.split(",")) {
+            proxies.add(proxy.trim());
+        }
+
+        String address = remoteAddr;
+        String[] forwarded = forwardedFor.split(",");
+        for (int i = forwarded.length - 1; i >= 0 && proxies.contains(address); i--) {
+            String forwardedAddress = forwarded[i].trim();
+            if (forwardedAddress.length() > 0) {
+                address = forwardedAddress;
+            }
+        }
+        return address;
+    }
+
+    /**
+     * Rejects a query that did not make it through the queue, giving back what was charged from its client's bucket. Must be
+     * called while holding the lock.
+     *
+     * @param bucket The client's bucket, null if none.
+     * @param estimatedCost The cost charged from the bucket.
+     * @param client The client.
+     * @param reason Reason for logging.
+     * @param retryAfter Seconds after which the client should retry.
+     * @return The rejected ticket.
+     */
+    private static Ticket reject(Bucket bucket, long estimatedCost, String client, String reason, int retryAfter) {
+
+        if (bucket != null) {
+            bucket.tokens += estimatedCost;
+        }
+        busyCount++;
+        LOGGER.debug("SPARQL query of " + client + " rejected: " + reason + ", " + running + " running, " + queued + " queued");
+        return new Ticket(client, 0, 0, false, retryAfter);
+    }
+
+    /**
+     * Returns the given client's token bucket, refilled up to the current moment. Must be called while holding the lock.
+     *
+     * @param client The client.
+     * @return The bucket, or null if client buckets are disabled.
+     */
+    private static Bucket getBucket(String client) {
+
+        double ratePerMilli = getClientRatePerMilli();
+        if (ratePerMilli <= 0 || client == null) {
+            return null;
+        }
+
+        long burst = GeneralConfig.getTimePropertyMilliseconds(GeneralConfig.SPARQL_ADMISSION_CLIENT_BURST, DEFAULT_CLIENT_BURST);
+        long now = System.currentTimeMillis();
+        Bucket bucket = BUCKETS.get(client);
+        if (bucket == null) {
+            bucket = new Bucket(burst, now);
+            BUCKETS.put(client, bucket);
+            if (BUCKETS.size() > MAX_CLIENTS) {
+                Iterator<Bucket> iterator = BUCKETS.values().iterator();
+                iterator.next();
+                iterator.remove();
+            }
+        } else {
+            bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.updated) * ratePerMilli);
+            bucket.updated = now;
+        }
+        return bucket;
+    }
+
+    /**
+     * @return The query time (ms) that a client earns per millisecond, zero or less if client buckets are disabled.
+     */
+    private static double getClientRatePerMilli() {
+        return GeneralConfig.getTimePropertyMilliseconds(GeneralConfig.SPARQL_ADMISSION_CLIENT_RATE, DEFAULT_CLIENT_RATE)
+                / 60000d;
+    }
+
+    /**
+     * @return The estimated execution time (ms) of queries not executed before.
+     */
+    private static long getDefaultCost() {
+        return GeneralConfig.getTimePropertyMilliseconds(GeneralConfig.SPARQL_ADMISSION_DEFAULT_COST, DEFAULT_COST);
+    }
+
+    /**
+     * @return Number of queries executing.
+     */
+    public static int getRunningCount() {
+        synchronized (LOCK) {
+            return running;
+        }
+    }
+
+    /**
+     * @return Number of queries waiting for admission.
+     */
+    public static int getQueuedCount() {
+        synchronized (LOCK) {
+            return queued;
+        }
+    }
+
+    /**
+     * @return Number of queries admitted so far.
+     */
+    public static long getAdmittedCount() {
+        synchronized (LOCK) {
+            return admittedCount;
+        }
+    }
+
+    /**
+     * @return Number of queries rejected so far because their client had used up its query time.
+     */
+    public static long getThrottledCount() {
+        synchronized (LOCK) {
+            return throttledCount;
+        }
+    }
+
+    /**
+     * @return Number of queries rejected so far because of too many queries executing.
+     */
+    public static long getBusyCount() {
+        synchronized (LOCK) {
+            return busyCount;
+        }
+    }
+
+    /**
+     * @return Total milliseconds waited in the queue by admitted queries.
+     */
+    public static long getWaitMillis() {
+        synchronized (LOCK) {
+            return waitMillis;
+        }
+    }
+
+    /**
+     * @return A one-line summary of the admission control's current state, for logging.
+     */
+    public static String getUsageSummary() {
+        synchronized (LOCK) {
+            return "SPARQL query admission [running=" + running + ", queued=" + queued + ", admitted=" + admittedCount
+                    + ", throttled=" + throttledCount + ", busy=" + busyCount + ", waitMillis=" + waitMillis + ", clients="
+                    + BUCKETS.size() + "]";
+        }
+    }
+
+    /**
+     * Clears the clients' buckets and the recorded execution times.
+     */
+    public static void clear() {
+        synchronized (LOCK) {
+            BUCKETS.clear();
+            COSTS.clear();
+        }
+    }
+
+    /**
+     * The admission ticket of a query.
+     */
+    public static final class Ticket {
+
+        /** */
+        private final String client;
+
+        /** */
+        private final long costKey;
+
+        /** The cost charged from the client's bucket on admission. */
+        private final long estimatedCost;
+
+        /** */
+        private final boolean admitted;
+
+        /** */
+        private final int retryAfter;
+
+        /** */
+        private final long started = System.currentTimeMillis();
+
+        /** */
+        private boolean released;
+
+        /**
+         * @param client
+         * @param costKey
+         * @param estimatedCost
+         * @param admitted
+         * @param retryAfter
+         */
+        private Ticket(String client, long costKey, long estimatedCost, boolean admitted, int retryAfter) {
+            this.client = client;
+            this.costKey = costKey;
+            this.estimatedCost = estimatedCost;
+            this.admitted = admitted;
+            this.retryAfter = retryAfter;
+        }
+
+        /**
+         * @return True if the query was admitted, false if rejected.
+         */
+        public boolean isAdmitted() {
+            return admitted;
+        }
+
+        /**
+         * @return Seconds after which a rejected query's client should retry, zero if admitted.
+         */
+        public int getRetryAfter() {
+            return retryAfter;
+        }
+    }
+
+    /**
+     * A client's token bucket of query time.
+     */
+    private static final class Bucket {
+
+        /** Query time (ms) available, negative if overdrawn by queries that took longer than estimated. */
+        private double tokens;
+
+        /** When the tokens were last refilled. */
+        private long updated;
+
+        /**
+         * @param tokens
+         * @param updated
+         */
+        private Bucket(double tokens, long updated) {
+            this.tokens = tokens;
+            this.updated = updated;
+        }
+    }
+}
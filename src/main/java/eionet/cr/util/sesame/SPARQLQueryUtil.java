@@ -20,7 +20,13 @@
 
 package eionet.cr.util.sesame;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -37,6 +43,16 @@ public final class SPARQLQueryUtil {
     /** Chars not allowed in IRI. */
     private static final char[] BAD_CHARS = {' ', '{', '}', '<', '>', '"', '|', '\\', '^', '`'};
 
+    /** The keyword of the queries that can be paged. */
+    private static final String CONSTRUCT_KEYWORD = "CONSTRUCT";
+
+    /** The keyword of graph patterns. */
+    private static final String GRAPH_KEYWORD = "GRAPH";
+
+    /** Matches FROM and FROM NAMED clauses (but not variables or prefixed names like ?from or ex:from), capturing the graph. */
+    private static final Pattern FROM_CLAUSE =
+            Pattern.compile("(?<![?$\\w:])FROM\\s+(?:NAMED\\s+)?(<[^<>\\s]*>|\\S+)", Pattern.CASE_INSENSITIVE);
+
     /**
      * Owl Same As definition in SPARQL.
      */
@@ -211,4 +227,330 @@ public final class SPARQLQueryUtil {
 
         return tmpQuery;
     }
+
+    /**
+     * Returns true if the given query can be executed page by page, see {@link #getPageQuery(String, int, int)}: it is a
+     * CONSTRUCT query with an explicit template, and its WHERE clause has variables and is not followed by any solution
+     * modifiers of its own.
+     *
+     * @param query
+     *            SPARQL query
+     * @return As indicated above.
+     */
+    public static boolean isPageable(String query) {
+
+        if (query == null) {
+            return false;
+        }
+        String normalized = normalizeQuery(query);
+        int[] groups = getConstructGroups(normalized);
+        return groups != null && !getVariables(normalized.substring(groups[0] + 1, groups[1] - 1)).isEmpty();
+    }
+
+    /**
+     * Returns the query for the given page of the given query's result. The WHERE clause is turned into a sub-select ordered by
+     * all of its variables, with LIMIT and OFFSET, so that the pages are consistent as long as the endpoint's data does not
+     * change. Note that the page size limits the number of solutions, not triples: a page may have more or fewer triples than
+     * that, depending on the template, and only an empty page tells that there are no more.
+     *
+     * @param query
+     *            SPARQL query, see {@link #isPageable(String)}
+     * @param pageSize
+     *            number of solutions per page
+     * @param pageNo
+     *            number of the page, starting from 0
+     * @return The page's query.
+     */
+    public static String getPageQuery(String query, int pageSize, int pageNo) {
+
+        String normalized = normalizeQuery(query);
+        int[] groups = getConstructGroups(normalized);
+        if (groups == null) {
+            throw new IllegalArgumentException("Query cannot be paged: " + query);
+        }
+
+        String where = normalized.substring(groups[0] + 1, groups[1] - 1).trim();
+        StringBuilder sb = new StringBuilder(normalized.substring(0, groups[0]));
+        sb.append("{SELECT * WHERE {").append(where).append("} ORDER BY ");
+        sb.append(StringUtils.join(getVariables(where), ' '));
+        sb.append(" LIMIT ").append(pageSize).append(" OFFSET ").append((long) pageSize * pageNo).append('}');
+        return sb.toString();
+    }
+
+    /**
+     * Returns the start and end index (exclusive) of the WHERE group of the given normalized CONSTRUCT query.
+     *
+     * @param query
+     *            SPARQL query, normalized
+     * @return As indicated above, or null if it is not a CONSTRUCT query with an explicit template directly after the keyword,
+     *         or if there is anything after its WHERE group.
+     */
+    private static int[] getConstructGroups(String query) {
+
+        int constructEnd = -1;
+        List<int[]> groups = new ArrayList<int[]>();
+        int depth = 0;
+        int i = 0;
+        while (i < query.length()) {
+
+            char c = query.charAt(i);
+            if (c == '"' || c == '\'') {
+                i = getLiteralEnd(query, i);
+                continue;
+            } else if (c == '<') {
+                i = getIriEnd(query, i);
+                continue;
+            }
+
+            if (c == '{') {
+                if (depth++ == 0) {
+                    groups.add(new int[] {i, -1});
+                }
+            } else if (c == '}') {
+                if (--depth < 0) {
+                    return null;
+                } else if (depth == 0) {
+                    groups.get(groups.size() - 1)[1] = i + 1;
+                }
+            } else if (depth == 0 && constructEnd < 0 && isKeywordAt(query, i, CONSTRUCT_KEYWORD)) {
+                constructEnd = i + CONSTRUCT_KEYWORD.length();
+            }
+            i++;
+        }
+
+        if (constructEnd < 0 || depth != 0 || groups.size() != 2 || groups.get(1)[1] != query.length()
+                || !StringUtils.isBlank(query.substring(constructEnd, groups.get(0)[0]))) {
+            return null;
+        }
+        return groups.get(1);
+    }
+
+    /**
+     * Returns true if the given keyword (case-insensitive) is at the given index of the given query as a whole word.
+     *
+     * @param query
+     *            SPARQL query
+     * @param index
+     *            the index
+     * @param keyword
+     *            the keyword
+     * @return As indicated above.
+     */
+    private static boolean isKeywordAt(String query, int index, String keyword) {
+
+        int end = index + keyword.length();
+        return query.regionMatches(true, index, keyword, 0, keyword.length())
+                && (index == 0 || !isNameChar(query.charAt(index - 1)) && "?$:".indexOf(query.charAt(index - 1)) < 0)
+                && (end == query.length() || !isNameChar(query.charAt(end)) && query.charAt(end) != ':');
+    }
+
+    /**
+     * Returns the distinct variables (with their leading '?' or '$') of the given query part, in order of appearance.
+     *
+     * @param query
+     *            SPARQL query or its part
+     * @return As indicated above.
+     */
+    private static Set<String> getVariables(String query) {
+
+        Set<String> variables = new LinkedHashSet<String>();
+        int i = 0;
+        while (i < query.length()) {
+
+            char c = query.charAt(i);
+            if (c == '"' || c == '\'') {
+                i = getLiteralEnd(query, i);
+            } else if (c == '<') {
+                i = getIriEnd(query, i);
+            } else if (c == '?' || c == '$') {
+                int end = i + 1;
+                while (end < query.length() && isNameChar(query.charAt(end))) {
+                    end++;
+                }
+                if (end > i + 1) {
+                    variables.add("?" + query.substring(i + 1, end));
+                }
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return variables;
+    }
+
+    /**
+     * @param c
+     * @return True if the given character can be part of a variable name or keyword.
+     */
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * Returns the given query with comments removed and every run of whitespace collapsed into a single space, except within
+     * string literals and IRIs. Queries that differ only in their layout are normalized into the same text.
+     *
+     * @param query
+     *            SPARQL query
+     * @return The normalized query.
+     */
+    public static String normalizeQuery(String query) {
+        return normalizeQuery(query, true);
+    }
+
+    /**
+     * Returns the graphs of the given query's FROM and FROM NAMED clauses, i.e. its dataset unless the dataset is given by the
+     * protocol's default-graph-uri and named-graph-uri parameters.
+     *
+     * @param query
+     *            SPARQL query
+     * @return The graph URIs, empty if the query has no FROM clauses, or null if some of the graphs is not given by a full IRI.
+     */
+    public static Set<String> getFromGraphs(String query) {
+
+        Set<String> graphs = new LinkedHashSet<String>();
+        Matcher matcher = FROM_CLAUSE.matcher(normalizeQuery(query, false));
+        while (matcher.find()) {
+            String graph = matcher.group(1);
+            if (!graph.startsWith("<") || !graph.endsWith(">")) {
+                return null;
+            }
+            graphs.add(graph.substring(1, graph.length() - 1));
+        }
+        return graphs;
+    }
+
+    /**
+     * Returns true if the given query has a GRAPH pattern, i.e. it can match graphs other than those of its dataset.
+     *
+     * @param query
+     *            SPARQL query
+     * @return As indicated above.
+     */
+    public static boolean hasGraphPattern(String query) {
+
+        String normalized = normalizeQuery(query, false);
+        int i = 0;
+        while (i < normalized.length()) {
+
+            char c = normalized.charAt(i);
+            if (c == '"' || c == '\'') {
+                i = getLiteralEnd(normalized, i);
+            } else if (c == '<') {
+                i = getIriEnd(normalized, i);
+            } else if (isKeywordAt(normalized, i, GRAPH_KEYWORD)) {
+                return true;
+            } else {
+                i++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Normalizes the given query as described in {@link #normalizeQuery(String)}.
+     *
+     * @param query
+     *            SPARQL query
+     * @param keepLiterals
+     *            if false, the content of string literals is left out, i.e. every literal is normalized into an empty one
+     * @return The normalized query.
+     */
+    private static String normalizeQuery(String query, boolean keepLiterals) {
+
+        StringBuilder sb = new StringBuilder(query.length());
+        boolean isSpacePending = false;
+        int i = 0;
+        while (i < query.length()) {
+
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                isSpacePending = sb.length() > 0;
+                i++;
+                continue;
+            } else if (c == '#') {
+                // Comment till the end of line.
+                while (i < query.length() && query.charAt(i) != '\n' && query.charAt(i) != '\r') {
+                    i++;
+                }
+                isSpacePending = sb.length() > 0;
+                continue;
+            }
+
+            if (isSpacePending) {
+                sb.append(' ');
+                isSpacePending = false;
+            }
+
+            if (c == '"' || c == '\'') {
+                int end = getLiteralEnd(query, i);
+                if (keepLiterals) {
+                    sb.append(query, i, end);
+                } else {
+                    sb.append(c).append(c);
+                }
+                i = end;
+            } else if (c == '<') {
+                int end = getIriEnd(query, i);
+                sb.append(query, i, end);
+                i = end;
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the end index (exclusive) of the string literal that starts at the given index of the given query. Both short and
+     * long (triple-quoted) literals are supported.
+     *
+     * @param query
+     *            SPARQL query
+     * @param start
+     *            index of the literal's opening quote
+     * @return As indicated above, or the query's length if the literal is not closed.
+     */
+    private static int getLiteralEnd(String query, int start) {
+
+        char quote = query.charAt(start);
+        String delimiter = query.startsWith(StringUtils.repeat(String.valueOf(quote), 3), start)
+                ? StringUtils.repeat(String.valueOf(quote), 3) : String.valueOf(quote);
+
+        int i = start + delimiter.length();
+        while (i < query.length()) {
+            if (query.charAt(i) == '\\') {
+                i += 2;
+            } else if (query.startsWith(delimiter, i)) {
+                return i + delimiter.length();
+            } else {
+                i++;
+            }
+        }
+        return query.length();
+    }
+
+    /**
+     * Returns the end index (exclusive) of the IRI that starts at the given index of the given query. If the '<' at the given
+     * index does not start an IRI (i.e. it is the less-than operator), returns the next index.
+     *
+     * @param query
+     *            SPARQL query
+     * @param start
+     *            index of the '<'
+     * @return As indicated above.
+     */
+    private static int getIriEnd(String query, int start) {
+
+        for (int i = start + 1; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '>') {
+                return i + 1;
+            } else if (c == '<' || Character.isWhitespace(c)) {
+                break;
+            }
+        }
+        return start + 1;
+    }
 }
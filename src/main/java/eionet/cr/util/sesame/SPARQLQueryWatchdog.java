@@ -0,0 +1,425 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+
+package eionet.cr.util.sesame;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openrdf.query.Query;
+import org.openrdf.repository.RepositoryConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eionet.cr.config.GeneralConfig;
+
+/**
+ * Enforces the max execution time of the SPARQL endpoint's queries, and cancels the queries of clients that have gone away.
+ * The max time is given to the triple store by {@link #setMaxQueryTime(Query, long)}, which stops the query's evaluation. A
+ * query is also watched by {@link #watch(RepositoryConnection, long)}, and marked as timed out if it has not started streaming
+ * its result a grace period after its deadline. The result of a timed-out query is then refused by
+ * {@link Watch#startStreaming()}, so that the request thread stops the query itself. The connection is never closed by the
+ * watchdog's thread, as it may be a pooled connection that is still in use by the request thread.
+ *
+ * Once the result is being streamed, the query is not timed out by the max execution time any more, as a large result may take
+ * long to write to a slow client. Only the hard max time (see {@link #getHardMaxQueryTime(long)}) still applies: it is checked
+ * by the request thread on every write of the result, which cancels the query once past it. Also, {@link Watch#abort()} closes
+ * the query's connection as soon as the client is found to have disconnected, so that the query does not run to its end for
+ * nobody. Closing the connection is the only way to cancel a running query in Sesame, and it releases the triple store's
+ * resources at once.
+ *
+ * @author agent
+ */
+public final class SPARQLQueryWatchdog {
+
+    /** */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SPARQLQueryWatchdog.class);
+
+    /** Default max execution time of a query, in milliseconds. */
+    public static final int DEFAULT_MAX_QUERY_TIME = 5 * 60 * 1000;
+
+    /** Default hard max time of a query, including the time of streaming its result, in milliseconds. */
+    public static final int DEFAULT_HARD_MAX_QUERY_TIME = 30 * 60 * 1000;
+
+    /** Time (ms) given to the triple store to stop a query by itself, before the watchdog closes its connection. */
+    private static final long GRACE_TIME = 5000L;
+
+    /** Lock for all of the below. */
+    private static final Object LOCK = new Object();
+
+    /** The executor that times out the queries, started on first need. */
+    private static ScheduledExecutorService executor;
+
+    /** */
+    private static long watchedCount;
+
+    /** */
+    private static long timedOutCount;
+
+    /** */
+    private static long abortedCount;
+
+    /**
+     * Hide utility class constructor.
+     */
+    private SPARQLQueryWatchdog() {
+        // Just an empty private constructor to avoid instantiating this utility class.
+    }
+
+    /**
+     * Returns the max execution time of a query: the configured max, or the time requested by the client if that is shorter.
+     *
+     * @param requested Max execution time (ms) requested by the client, null or zero or less if none.
+     * @return The max execution time in milliseconds, zero if no limit.
+     */
+    public static long getMaxQueryTime(Integer requested) {
+
+        long max = GeneralConfig.getTimePropertyMilliseconds(GeneralConfig.SPARQL_QUERY_MAX_TIME, DEFAULT_MAX_QUERY_TIME);
+        if (requested != null && requested.intValue() > 0 && (max <= 0 || requested.intValue() < max)) {
+            return requested.intValue();
+        }
+        return Math.max(0L, max);
+    }
+
+    /**
+     * Returns the hard max time of a query, i.e. the time after which it is cancelled even while streaming its result: the
+     * configured hard max, but never less than the query's max execution time.
+     *
+     * @param maxQueryTime The query's max execution time in milliseconds, see {@link #getMaxQueryTime(Integer)}.
+     * @return The hard max time in milliseconds, zero if no limit.
+     */
+    public static long getHardMaxQueryTime(long maxQueryTime) {
+
+        long hardMax = GeneralConfig.getTimePropertyMilliseconds(GeneralConfig.SPARQL_QUERY_HARD_MAX_TIME,
+                DEFAULT_HARD_MAX_QUERY_TIME);
+        return hardMax <= 0 ? 0L : Math.max(hardMax, maxQueryTime);
+    }
+
+    /**
+     * Gives the given max execution time to the given query, rounded up to whole seconds.
+     *
+     * @param query The query.
+     * @param maxQueryTime Max execution time in milliseconds, zero if no limit.
+     */
+    public static void setMaxQueryTime(Query query, long maxQueryTime) {
+
+        if (maxQueryTime > 0) {
+            query.setMaxQueryTime((int) Math.min(Integer.MAX_VALUE, (maxQueryTime + 999L) / 1000L));
+        }
+    }
+
+    /**
+     * Starts watching the query executed on the given connection, with the hard max time that goes with the given max execution
+     * time, see {@link #watch(RepositoryConnection, long, long)}.
+     *
+     * @param conn The connection.
+     * @param maxQueryTime Max execution time in milliseconds, zero if no limit.
+     * @return The watch.
+     */
+    public static Watch watch(RepositoryConnection conn, long maxQueryTime) {
+        return watch(conn, maxQueryTime, getHardMaxQueryTime(maxQueryTime));
+    }
+
+    /**
+     * Starts watching the query executed on the given connection. The returned watch must be ended by {@link Watch#done()} when
+     * the query is done, before the connection is closed.
+     *
+     * @param conn The connection.
+     * @param maxQueryTime Max execution time in milliseconds, zero if no limit.
+     * @param hardMaxQueryTime Hard max time in milliseconds, including the time of streaming the result, zero if no limit.
+     * @return The watch.
+     */
+    public static Watch watch(RepositoryConnection conn, long maxQueryTime, long hardMaxQueryTime) {
+
+        final Watch watch = new Watch(conn, maxQueryTime, hardMaxQueryTime);
+        if (maxQueryTime > 0) {
+            ScheduledFuture<?> future = getExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    watch.timeOut();
+                }
+            }, maxQueryTime + GRACE_TIME, TimeUnit.MILLISECONDS);
+            watch.setFuture(future);
+        }
+
+        synchronized (LOCK) {
+            watchedCount++;
+        }
+        return watch;
+    }
+
+    /**
+     * @return The executor, started if not yet.
+     */
+    private static ScheduledExecutorService getExecutor() {
+
+        synchronized (LOCK) {
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "sparql-query-watchdog");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * @return Number of queries watched so far.
+     */
+    public static long getWatchedCount() {
+        synchronized (LOCK) {
+            return watchedCount;
+        }
+    }
+
+    /**
+     * @return Number of queries cancelled so far because of exceeding their max execution time.
+     */
+    public static long getTimedOutCount() {
+        synchronized (LOCK) {
+            return timedOutCount;
+        }
+    }
+
+    /**
+     * @return Number of queries cancelled so far because of their clients disconnecting.
+     */
+    public static long getAbortedCount() {
+        synchronized (LOCK) {
+            return abortedCount;
+        }
+    }
+
+    /**
+     * @return A one-line summary of the watchdog's counters, for logging.
+     */
+    public static String getUsageSummary() {
+        synchronized (LOCK) {
+            return "SPARQL query watchdog [watched=" + watchedCount + ", timedOut=" + timedOutCount + ", aborted=" + abortedCount
+                    + "]";
+        }
+    }
+
+    /**
+     * The watch of one query.
+     */
+    public static final class Watch {
+
+        /** */
+        private final RepositoryConnection conn;
+
+        /** */
+        private final long maxQueryTime;
+
+        /** */
+        private final long hardMaxQueryTime;
+
+        /** */
+        private final long started = System.currentTimeMillis();
+
+        /** */
+        private ScheduledFuture<?> future;
+
+        /** */
+        private boolean done;
+
+        /** */
+        private boolean streaming;
+
+        /** */
+        private boolean timedOut;
+
+        /** True if the query was cancelled because of exceeding its hard max time. */
+        private boolean hardTimedOut;
+
+        /** */
+        private boolean aborted;
+
+        /**
+         * @param conn
+         * @param maxQueryTime
+         * @param hardMaxQueryTime
+         */
+        private Watch(RepositoryConnection conn, long maxQueryTime, long hardMaxQueryTime) {
+            this.conn = conn;
+            this.maxQueryTime = maxQueryTime;
+            this.hardMaxQueryTime = hardMaxQueryTime;
+        }
+
+        /**
+         * @param future
+         */
+        private synchronized void setFuture(ScheduledFuture<?> future) {
+            if (done) {
+                future.cancel(false);
+            } else {
+                this.future = future;
+            }
+        }
+
+        /**
+         * Ends the watch of a query that is done, so that it is not timed out any more. Can be called several times.
+         */
+        public synchronized void done() {
+
+            if (!done) {
+                done = true;
+                if (future != null) {
+                    future.cancel(false);
+                    future = null;
+                }
+            }
+        }
+
+        /**
+         * Ends the timing of the query by its max execution time, as its result starts being streamed to the client. From then
+         * on, the query is cancelled only if the client disconnects or its hard max time is past. To be called by the request
+         * thread before every write of the result, as that is when the hard max time is checked.
+         *
+         * @throws IOException If the query has timed out already, or has just been cancelled because of being past its hard max
+         *             time, and its result is not to be streamed any more.
+         */
+        public void startStreaming() throws IOException {
+
+            synchronized (this) {
+                if (hardTimedOut) {
+                    throw new IOException("SPARQL query exceeded its hard max time of " + hardMaxQueryTime + " ms");
+                } else if (timedOut) {
+                    throw new IOException("SPARQL query exceeded its max execution time of " + maxQueryTime + " ms");
+                }
+                if (hardMaxQueryTime <= 0 || System.currentTimeMillis() - started < hardMaxQueryTime) {
+                    if (!streaming) {
+                        streaming = true;
+                        if (future != null) {
+                            future.cancel(false);
+                            future = null;
+                        }
+                    }
+                    return;
+                }
+                timedOut = true;
+                hardTimedOut = true;
+            }
+
+            synchronized (LOCK) {
+                timedOutCount++;
+            }
+            LOGGER.warn("SPARQL query exceeded its hard max time of " + hardMaxQueryTime + " ms, cancelling it");
+            cancel();
+            throw new IOException("SPARQL query exceeded its hard max time of " + hardMaxQueryTime + " ms");
+        }
+
+        /**
+         * Cancels the query because its client has disconnected. Does nothing if the query is done or cancelled already. To be
+         * called by the request thread, which is the one using the connection.
+         */
+        public void abort() {
+
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                aborted = true;
+            }
+            synchronized (LOCK) {
+                abortedCount++;
+            }
+            LOGGER.info("Client disconnected, cancelling its SPARQL query");
+            cancel();
+        }
+
+        /**
+         * Marks the query as timed out because it has exceeded its max execution time without starting to stream its result.
+         * Does nothing if the query is done, cancelled or streaming already.
+         */
+        private void timeOut() {
+
+            synchronized (this) {
+                if (done || streaming) {
+                    return;
+                }
+                timedOut = true;
+                future = null;
+            }
+            synchronized (LOCK) {
+                timedOutCount++;
+            }
+            LOGGER.warn("SPARQL query exceeded its max execution time of " + maxQueryTime + " ms, refusing its result");
+        }
+
+        /**
+         * Ends the watch, and closes the connection to stop the query in the triple store. To be called by the request thread
+         * only.
+         */
+        private void cancel() {
+
+            done();
+            SesameUtil.close(conn);
+        }
+
+        /**
+         * @return True if the query was marked as timed out, or has been running for at least its max execution time without
+         *         streaming its result, i.e. a failure of the query is to be taken as stopped by the triple store for the same
+         *         reason.
+         */
+        public synchronized boolean isTimedOut() {
+            return timedOut || !streaming && maxQueryTime > 0 && System.currentTimeMillis() - started >= maxQueryTime;
+        }
+
+        /**
+         * @return True if the query was cancelled because of its client disconnecting.
+         */
+        public synchronized boolean isAborted() {
+            return aborted;
+        }
+
+        /**
+         * @return True if the query was cancelled because of exceeding its hard max time, see {@link #startStreaming()}.
+         */
+        public synchronized boolean isHardTimedOut() {
+            return hardTimedOut;
+        }
+
+        /**
+         * @return The max execution time in milliseconds, zero if no limit.
+         */
+        public long getMaxQueryTime() {
+            return maxQueryTime;
+        }
+
+        /**
+         * @return The hard max time in milliseconds, zero if no limit.
+         */
+        public long getHardMaxQueryTime() {
+            return hardMaxQueryTime;
+        }
+    }
+}
@@ -0,0 +1,530 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+
+package eionet.cr.util.sesame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eionet.cr.config.GeneralConfig;
+
+/**
+ * A global cache of the serialized results of SPARQL endpoint queries. Results are keyed by the normalized query text (see
+ * {@link SPARQLQueryUtil#normalizeQuery(String)}), the dataset given by the request and the output format, and evicted in
+ * least-recently-used order once the max number or total size of entries is exceeded.
+ *
+ * Harvests report the change of a graph's content by {@link #invalidate(String)}, which gives the graph a new version. SPARUL
+ * statements executed through {@link SesameUtil} change graphs not known in advance, and are reported by
+ * {@link #invalidateAll()}. An entry remembers the version at which its query started, and is valid only as long as none of the
+ * graphs it was queried from has changed since. Queries whose dataset is not known (no FROM clauses nor dataset parameters) are
+ * considered to query all graphs.
+ *
+ * Other writes (direct repository updates, SQL bulk loads) are covered by the entries' max age only, which is why the cache is
+ * disabled by default: it is to be enabled only where serving results that stale is acceptable.
+ *
+ * @author agent
+ */
+public final class SPARQLResultCache {
+
+    /** */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SPARQLResultCache.class);
+
+    /** Default max number of cached results, zero as the cache is disabled by default. */
+    public static final int DEFAULT_MAX_ENTRIES = 0;
+
+    /** Default max total size of cached results in bytes. */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /** Default max size of a single cached result in bytes. */
+    public static final int DEFAULT_MAX_ENTRY_BYTES = 1024 * 1024;
+
+    /** Default max age of cached results in milliseconds. */
+    public static final int DEFAULT_MAX_AGE = 10 * 60 * 1000;
+
+    /** Max number of graphs whose last change version is remembered. */
+    private static final int MAX_TRACKED_GRAPHS = 100000;
+
+    /** Lock for all of the below. */
+    private static final Object LOCK = new Object();
+
+    /** The cached entries, in least-recently-used order. */
+    private static final LinkedHashMap<Key, Entry> ENTRIES = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+    /** The version at which each graph was last changed. */
+    private static final Map<String, Long> GRAPH_VERSIONS = new HashMap<String, Long>();
+
+    /** Current version, incremented by every graph change. */
+    private static long version;
+
+    /** Entries older than this version are invalid, as changes before it are not remembered any more. */
+    private static long floorVersion;
+
+    /** Total size of cached entries in bytes. */
+    private static long totalBytes;
+
+    /** */
+    private static long hits;
+
+    /** */
+    private static long misses;
+
+    /** */
+    private static long evictions;
+
+    /** */
+    private static long invalidations;
+
+    /**
+     * Hide utility class constructor.
+     */
+    private SPARQLResultCache() {
+        // Hide utility class constructor.
+    }
+
+    /**
+     * @return True if the cache is enabled, see {@link GeneralConfig#SPARQL_CACHE_MAX_ENTRIES}.
+     */
+    public static boolean isEnabled() {
+        return getMaxEntries() > 0;
+    }
+
+    /**
+     * Creates the cache key of the given query.
+     *
+     * @param query The query.
+     * @param defaultGraphUris The request's default-graph-uri parameters, may be null.
+     * @param namedGraphUris The request's named-graph-uri parameters, may be null.
+     * @param format The output format.
+     * @return The key.
+     */
+    public static Key createKey(String query, String[] defaultGraphUris, String[] namedGraphUris, String format) {
+        return new Key(query, defaultGraphUris, namedGraphUris, format);
+    }
+
+    /**
+     * Returns the current version, to be remembered before executing a query whose result is to be cached, see
+     * {@link #put(Key, long, byte[], Map, String)}.
+     *
+     * @return The version.
+     */
+    public static long getVersion() {
+        synchronized (LOCK) {
+            return version;
+        }
+    }
+
+    /**
+     * Returns the valid cached result of the given key.
+     *
+     * @param key The key.
+     * @return The cached result, or null if not cached or no longer valid.
+     */
+    public static Entry get(Key key) {
+
+        synchronized (LOCK) {
+            Entry entry = ENTRIES.get(key);
+            if (entry != null && !isValid(key, entry)) {
+                remove(key);
+                entry = null;
+            }
+            if (entry == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Caches the given result of the given key, unless it is too big, or some of the graphs it was queried from have changed
+     * since the query started.
+     *
+     * @param key The key.
+     * @param startVersion The version when the query started, see {@link #getVersion()}.
+     * @param bytes The serialized result.
+     * @param headers HTTP response headers to be sent with the result.
+     * @param characterEncoding Character encoding to be set to the HTTP response, or null if the default.
+     */
+    public static void put(Key key, long startVersion, byte[] bytes, Map<String, String> headers, String characterEncoding) {
+
+        if (bytes.length > getMaxEntryBytes()) {
+            return;
+        }
+
+        int maxEntries = getMaxEntries();
+        long maxBytes = GeneralConfig.getLongProperty(GeneralConfig.SPARQL_CACHE_MAX_BYTES, DEFAULT_MAX_BYTES);
+        Entry entry = new Entry(bytes, headers, characterEncoding, startVersion);
+
+        synchronized (LOCK) {
+            if (!isValid(key, entry)) {
+                return;
+            }
+
+            remove(key);
+            ENTRIES.put(key, entry);
+            totalBytes += bytes.length;
+
+            Iterator<Map.Entry<Key, Entry>> iterator = ENTRIES.entrySet().iterator();
+            while (iterator.hasNext() && (ENTRIES.size() > maxEntries || totalBytes > maxBytes)) {
+                Map.Entry<Key, Entry> eldest = iterator.next();
+                totalBytes -= eldest.getValue().bytes.length;
+                iterator.remove();
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Reports a change of the given graph's content, invalidating the cached results queried from it.
+     *
+     * @param graphUri The graph.
+     */
+    public static void invalidate(String graphUri) {
+
+        if (graphUri == null) {
+            return;
+        }
+
+        synchronized (LOCK) {
+            version++;
+            GRAPH_VERSIONS.put(graphUri, version);
+            if (GRAPH_VERSIONS.size() > MAX_TRACKED_GRAPHS) {
+                GRAPH_VERSIONS.clear();
+                floorVersion = version;
+            }
+
+            int removed = 0;
+            Iterator<Map.Entry<Key, Entry>> iterator = ENTRIES.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Key, Entry> mapEntry = iterator.next();
+                if (!isValid(mapEntry.getKey(), mapEntry.getValue())) {
+                    totalBytes -= mapEntry.getValue().bytes.length;
+                    iterator.remove();
+                    removed++;
+                }
+            }
+            invalidations += removed;
+        }
+        LOGGER.trace("Graph changed, SPARQL result cache now at version " + version + ": " + graphUri);
+    }
+
+    /**
+     * Reports a change of graphs not known in advance, invalidating all cached results.
+     */
+    public static void invalidateAll() {
+
+        synchronized (LOCK) {
+            version++;
+            GRAPH_VERSIONS.clear();
+            floorVersion = version;
+            invalidations += ENTRIES.size();
+            ENTRIES.clear();
+            totalBytes = 0;
+        }
+        LOGGER.trace("Unknown graphs changed, SPARQL result cache now at version " + version);
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public static void clear() {
+        synchronized (LOCK) {
+            ENTRIES.clear();
+            totalBytes = 0;
+        }
+    }
+
+    /**
+     * Returns true if none of the graphs that the given entry was queried from has changed since the entry's query started, and
+     * the entry is not older than the max age. Must be called while holding the lock.
+     *
+     * @param key The entry's key.
+     * @param entry The entry.
+     * @return As indicated above.
+     */
+    private static boolean isValid(Key key, Entry entry) {
+
+        if (entry.version < floorVersion) {
+            return false;
+        }
+        int maxAge = GeneralConfig.getTimePropertyMilliseconds(GeneralConfig.SPARQL_CACHE_MAX_AGE, DEFAULT_MAX_AGE);
+        if (maxAge > 0 && System.currentTimeMillis() - entry.created > maxAge) {
+            return false;
+        }
+        if (key.graphs == null) {
+            return entry.version == version;
+        }
+        for (String graph : key.graphs) {
+            Long graphVersion = GRAPH_VERSIONS.get(graph);
+            if (graphVersion != null && graphVersion > entry.version) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the entry of the given key. Must be called while holding the lock.
+     *
+     * @param key The key.
+     */
+    private static void remove(Key key) {
+
+        Entry removed = ENTRIES.remove(key);
+        if (removed != null) {
+            totalBytes -= removed.bytes.length;
+        }
+    }
+
+    /**
+     * @return The max number of cached results, zero or less if the cache is disabled.
+     */
+    public static int getMaxEntries() {
+        return GeneralConfig.getIntProperty(GeneralConfig.SPARQL_CACHE_MAX_ENTRIES, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @return The max size in bytes of a single result to be cached.
+     */
+    public static int getMaxEntryBytes() {
+        return GeneralConfig.getIntProperty(GeneralConfig.SPARQL_CACHE_MAX_ENTRY_BYTES, DEFAULT_MAX_ENTRY_BYTES);
+    }
+
+    /**
+     * @return Number of cached results.
+     */
+    public static int getSize() {
+        synchronized (LOCK) {
+            return ENTRIES.size();
+        }
+    }
+
+    /**
+     * @return Total size of cached results in bytes.
+     */
+    public static long getTotalBytes() {
+        synchronized (LOCK) {
+            return totalBytes;
+        }
+    }
+
+    /**
+     * @return Number of queries served from the cache so far.
+     */
+    public static long getHits() {
+        synchronized (LOCK) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return Number of queries not found in the cache so far.
+     */
+    public static long getMisses() {
+        synchronized (LOCK) {
+            return misses;
+        }
+    }
+
+    /**
+     * @return Number of results evicted for lack of room so far.
+     */
+    public static long getEvictions() {
+        synchronized (LOCK) {
+            return evictions;
+        }
+    }
+
+    /**
+     * @return Number of results removed due to graph changes so far.
+     */
+    public static long getInvalidations() {
+        synchronized (LOCK) {
+            return invalidations;
+        }
+    }
+
+    /**
+     * @return A one-line summary of the cache's current state, for logging.
+     */
+    public static String getUsageSummary() {
+        synchronized (LOCK) {
+            return "SPARQL result cache: " + ENTRIES.size() + " results, " + totalBytes + " bytes, " + hits + " hits, " + misses
+                    + " misses, " + evictions + " evictions, " + invalidations + " invalidations";
+        }
+    }
+
+    /**
+     * The key of a cached result.
+     */
+    public static final class Key {
+
+        /** */
+        private final String query;
+
+        /** */
+        private final Set<String> defaultGraphUris;
+
+        /** */
+        private final Set<String> namedGraphUris;
+
+        /** */
+        private final String format;
+
+        /** The graphs that the query reads, or null if it may read any. */
+        private final Set<String> graphs;
+
+        /**
+         * @param query
+         * @param defaultGraphUris
+         * @param namedGraphUris
+         * @param format
+         */
+        private Key(String query, String[] defaultGraphUris, String[] namedGraphUris, String format) {
+
+            this.query = SPARQLQueryUtil.normalizeQuery(query);
+            this.defaultGraphUris = toSet(defaultGraphUris);
+            this.namedGraphUris = toSet(namedGraphUris);
+            this.format = format;
+
+            // The protocol's dataset parameters override the query's FROM clauses, but taking both is on the safe side.
+            // Queries with GRAPH patterns or FROM clauses given by prefixed names are taken to read any graph.
+            Set<String> fromGraphs = SPARQLQueryUtil.getFromGraphs(query);
+            Set<String> datasetGraphs = new LinkedHashSet<String>(this.defaultGraphUris);
+            datasetGraphs.addAll(this.namedGraphUris);
+            if (fromGraphs != null) {
+                datasetGraphs.addAll(fromGraphs);
+            }
+            boolean isAnyGraph = fromGraphs == null || SPARQLQueryUtil.hasGraphPattern(query);
+            this.graphs = datasetGraphs.isEmpty() || isAnyGraph ? null : Collections.unmodifiableSet(datasetGraphs);
+        }
+
+        /**
+         * @param uris
+         * @return
+         */
+        private static Set<String> toSet(String[] uris) {
+            return uris == null ? Collections.<String>emptySet() : new TreeSet<String>(Arrays.asList(uris));
+        }
+
+        /**
+         * @return The graphs that the query reads, or null if it may read any.
+         */
+        public Set<String> getGraphs() {
+            return graphs;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+
+            if (this == obj) {
+                return true;
+            } else if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return query.equals(other.query) && defaultGraphUris.equals(other.defaultGraphUris)
+                    && namedGraphUris.equals(other.namedGraphUris) && String.valueOf(format).equals(String.valueOf(other.format));
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new Object[] {query, defaultGraphUris, namedGraphUris, format});
+        }
+    }
+
+    /**
+     * A cached result.
+     */
+    public static final class Entry {
+
+        /** */
+        private final byte[] bytes;
+
+        /** */
+        private final Map<String, String> headers;
+
+        /** */
+        private final String characterEncoding;
+
+        /** The version when the result's query started. */
+        private final long version;
+
+        /** */
+        private final long created = System.currentTimeMillis();
+
+        /**
+         * @param bytes
+         * @param headers
+         * @param characterEncoding
+         * @param version
+         */
+        private Entry(byte[] bytes, Map<String, String> headers, String characterEncoding, long version) {
+            this.bytes = bytes;
+            this.headers = headers == null ? Collections.<String, String>emptyMap() : Collections.unmodifiableMap(headers);
+            this.characterEncoding = characterEncoding;
+            this.version = version;
+        }
+
+        /**
+         * @return The serialized result.
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return HTTP response headers to be sent with the result.
+         */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * @return Character encoding to be set to the HTTP response, or null if the default.
+         */
+        public String getCharacterEncoding() {
+            return characterEncoding;
+        }
+    }
+}
@@ -211,7 +211,11 @@ public final class SesameUtil {
         }
 
         VirtuosoRepositoryConnection virtConn = (VirtuosoRepositoryConnection) conn;
-        return virtConn.executeSPARUL(sparul);
+        try {
+            return virtConn.executeSPARUL(sparul);
+        } finally {
+            SPARQLResultCache.invalidateAll();
+        }
     }
 
     /**
@@ -235,7 +239,11 @@ public final class SesameUtil {
         }
         long startTime = System.currentTimeMillis();
 
-        query.evaluate();
+        try {
+            query.evaluate();
+        } finally {
+            SPARQLResultCache.invalidateAll();
+        }
 
         if (LOGGER.isTraceEnabled()) {
             LOGGER.trace("SPARUL execution took " + Util.durationSince(startTime) + "; sparul=" + sparul);
@@ -80,6 +80,9 @@ public abstract class AbstractActionBean implements ActionBean {
     /** */
     private final Harvest currentQueuedHarvest = CurrentHarvests.getQueuedHarvest();
 
+    /** */
+    private final List<Harvest> currentQueuedHarvests = CurrentHarvests.getQueuedHarvests();
+
     /** */
     protected DAOFactory factory = DAOFactory.get();
 
@@ -282,6 +285,14 @@ public abstract class AbstractActionBean implements ActionBean {
         return currentQueuedHarvest;
     }
 
+    /**
+     *
+     * @return
+     */
+    public List<Harvest> getCurrentQueuedHarvests() {
+        return currentQueuedHarvests;
+    }
+
     /**
      * Get the user's preferred languages from the browser's accept-language header.
      *
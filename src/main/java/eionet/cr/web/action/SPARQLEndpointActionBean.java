@@ -11,7 +11,10 @@ import eionet.cr.util.FolderUtil;
 import eionet.cr.util.Hashes;
 import eionet.cr.util.Util;
 import eionet.cr.util.export.ExportFormat;
+import eionet.cr.util.sesame.SPARQLQueryAdmission;
 import eionet.cr.util.sesame.SPARQLQueryUtil;
+import eionet.cr.util.sesame.SPARQLQueryWatchdog;
+import eionet.cr.util.sesame.SPARQLResultCache;
 import eionet.cr.util.sesame.SesameConnectionProvider;
 import eionet.cr.util.sesame.SesameUtil;
 import eionet.cr.web.action.factsheet.FactsheetActionBean;
@@ -19,8 +22,11 @@ import eionet.cr.web.interceptor.annotation.DontSaveLastActionEvent;
 import eionet.cr.web.security.CRUser;
 import eionet.cr.web.sparqlClient.helpers.QueryResult;
 import eionet.cr.web.sparqlClient.helpers.*;
+import eionet.cr.web.util.BufferedResultWriter;
 import eionet.cr.web.util.CRSPARQLCSVWriter;
 import eionet.cr.web.util.CRSPARQLTSVWriter;
+import eionet.cr.web.util.CapturingOutputStream;
+import eionet.cr.web.util.ClientAbortDetectingOutputStream;
 import eionet.cr.web.util.ServletOutputLazyStream;
 import net.sourceforge.stripes.action.*;
 import net.sourceforge.stripes.validation.ValidationMethod;
@@ -44,7 +50,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
 import java.util.*;
 
 /**
@@ -115,6 +121,9 @@ public class SPARQLEndpointActionBean extends AbstractActionBean {
     /** The request parameter name for the names graph URI. */
     private static final String NAMED_GRAPH_URI = "named-graph-uri";
 
+    /** HTTP status code of requests rejected by the query admission control. */
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
     /** Internal variable for HTTP error code. */
     private int errorCode;
 
@@ -132,6 +141,9 @@ public class SPARQLEndpointActionBean extends AbstractActionBean {
     private String[] defaultGraphUris;
     private String[] namedGraphUris;
 
+    /** Max execution time (ms) of the query requested by the client, capped by the configured one. */
+    private Integer timeout;
+
     // CONSTRUCT query to HOMESPACE variables
     private String exportType;
     private String datasetName;
@@ -733,9 +745,13 @@ public class SPARQLEndpointActionBean extends AbstractActionBean {
                     outputStream = new ServletOutputLazyStream(response);
                     executeQuery(internalFormat == null ? FORMAT_XML : internalFormat, outputStream, response);
 
-                    if (errorCode > 0) {
+                    if (errorCode > 0 && response.isCommitted()) {
+                        // The result has been partly sent with a success status already, so it can only be left truncated.
+                        LOGGER.warn("SPARQL query failed after its result was partly sent: " + errorCode + " " + errorMessage);
+                    } else if (errorCode > 0) {
                         if (!isWebBrowser()) {
-                            // send plain text errors to external clients
+                            // send plain text errors to external clients, instead of any part of the result buffered so far
+                            response.resetBuffer();
                             outputStream.setContentType("text/plain");
                             response.setStatus(errorCode);
                             if (!StringUtils.isBlank(errorMessage)) {
@@ -793,10 +809,59 @@ public class SPARQLEndpointActionBean extends AbstractActionBean {
             outputFormat = FORMAT_XML;
         }
 
+        // Results streamed to clients are served from the cache if possible, see SPARQLResultCache.
+        SPARQLResultCache.Key cacheKey = null;
+        CapturingOutputStream capturingStream = null;
+        long cacheVersion = 0;
+        if (outputStream != null && SPARQLResultCache.isEnabled()) {
+            cacheKey = SPARQLResultCache.createKey(query, defaultGraphUris, namedGraphUris, outputFormat);
+        }
+
+        SPARQLQueryAdmission.Ticket ticket = null;
+        SPARQLQueryWatchdog.Watch watch = null;
         RepositoryConnection conn = null;
         try {
+            if (cacheKey != null) {
+                SPARQLResultCache.Entry cached = SPARQLResultCache.get(cacheKey);
+                if (cached != null) {
+                    for (Map.Entry<String, String> header : cached.getHeaders().entrySet()) {
+                        response.setHeader(header.getKey(), header.getValue());
+                    }
+                    if (cached.getCharacterEncoding() != null) {
+                        response.setCharacterEncoding(cached.getCharacterEncoding());
+                    }
+                    outputStream.write(cached.getBytes());
+                    return;
+                }
+                cacheVersion = SPARQLResultCache.getVersion();
+                capturingStream = new CapturingOutputStream(outputStream, SPARQLResultCache.getMaxEntryBytes());
+                outputStream = capturingStream;
+            }
+
+            ticket = SPARQLQueryAdmission.admit(getAdmissionClient(), query);
+            if (!ticket.isAdmitted()) {
+                errorCode = SC_TOO_MANY_REQUESTS;
+                errorMessage = "Too many queries, please retry after " + ticket.getRetryAfter() + " seconds";
+                response.setHeader("Retry-After", String.valueOf(ticket.getRetryAfter()));
+                if (outputStream == null) {
+                    response.setStatus(SC_TOO_MANY_REQUESTS);
+                }
+                addWarningMessage(errorMessage);
+                return;
+            }
+
             conn = SesameConnectionProvider.getReadOnlyRepositoryConnection();
+            long maxQueryTime = SPARQLQueryWatchdog.getMaxQueryTime(timeout);
+            watch = SPARQLQueryWatchdog.watch(conn, maxQueryTime);
+
+            // The BOMs of CSV and TSV results are written before the query is evaluated, so they bypass the watch.
+            OutputStream bomStream = outputStream;
+            if (outputStream != null) {
+                outputStream = new ClientAbortDetectingOutputStream(outputStream, watch);
+            }
+
             Query queryObject = conn.prepareQuery(QueryLanguage.SPARQL, query);
+            SPARQLQueryWatchdog.setMaxQueryTime(queryObject, maxQueryTime);
             SesameUtil.setDatasetParameters(queryObject, conn, defaultGraphUris, namedGraphUris);
 
             TupleQueryResult queryResult = null;
@@ -810,7 +875,7 @@ public class SPARQLEndpointActionBean extends AbstractActionBean {
                     Boolean askResult = ((BooleanQuery) queryObject).evaluate();
                     if (outputFormat.equals(FORMAT_XML)) {
 
-                        OutputStreamWriter writer = new OutputStreamWriter(outputStream);
+                        BufferedResultWriter writer = new BufferedResultWriter(outputStream, Charset.forName("UTF-8"));
                         writer.write("<?xml version=\"1.0\"?>");
                         writer.write("<sparql xmlns=\"http://www.w3.org/2005/sparql-results#\">");
                         writer.write("<head></head>");
@@ -818,11 +883,11 @@ public class SPARQLEndpointActionBean extends AbstractActionBean {
                         writer.write(askResult.toString());
                         writer.write("</boolean>");
                         writer.write("</sparql>");
-                        writer.flush();
+                        writer.finish();
 
                     } else if (outputFormat.equals(FORMAT_XML_SCHEMA)) {
 
-                        OutputStreamWriter writer = new OutputStreamWriter(outputStream);
+                        BufferedResultWriter writer = new BufferedResultWriter(outputStream, Charset.forName("UTF-8"));
                         writer.write("<?xml version=\"1.0\"?>");
                         writer.write("<sparql xmlns=\"http://www.w3.org/2005/sparql-results#\">");
                         writer.write("<head></head>");
@@ -830,15 +895,15 @@ public class SPARQLEndpointActionBean extends AbstractActionBean {
                         writer.write(askResult.toString());
                         writer.write("</boolean>");
                         writer.write("</sparql>");
-                        writer.flush();
+                        writer.finish();
 
                     } else if (outputFormat.equals(FORMAT_JSON)) {
 
-                        OutputStreamWriter writer = new OutputStreamWriter(outputStream);
+                        BufferedResultWriter writer = new BufferedResultWriter(outputStream, Charset.forName("UTF-8"));
                         writer.write("{  \"head\": { \"link\": [] }, \"boolean\": ");
                         writer.write(askResult.toString());
                         writer.write("}");
-                        writer.flush();
+                        writer.finish();
 
                     } else if (outputFormat.equals(FORMAT_HTML)) {
                         resultAsk = askResult.toString();
@@ -850,6 +915,7 @@ public class SPARQLEndpointActionBean extends AbstractActionBean {
                         long startTime = System.currentTimeMillis();
 
                         TupleQuery resultsTable = conn.prepareTupleQuery(QueryLanguage.SPARQL, query);
+                        SPARQLQueryWatchdog.setMaxQueryTime(resultsTable, maxQueryTime);
                         TupleQueryResult bindings = resultsTable.evaluate();
                         executionTime =  System.currentTimeMillis() - startTime;
 
@@ -893,7 +959,7 @@ public class SPARQLEndpointActionBean extends AbstractActionBean {
 
                     } else if (outputFormat != null && outputFormat.equals(FORMAT_CSV)) {
                         setFileNameToHeader(response, "csv");
-                        addBOM(outputStream, "UTF-8");
+                        addBOM(bomStream, "UTF-8");
 
                         // as main consumer of the result is Excel use ";" because otherwise Excel does not handle CSV correctly
                         CRSPARQLCSVWriter sparqlWriter = new CRSPARQLCSVWriter(outputStream, ';');
@@ -902,7 +968,7 @@ public class SPARQLEndpointActionBean extends AbstractActionBean {
                         setFileNameToHeader(response, "csv");
                         // MS Excel expects TSV to be UTF-16Little Endian
                         response.setCharacterEncoding("UTF-16LE");
-                        addBOM(outputStream, "utf-16le");
+                        addBOM(bomStream, "utf-16le");
                         CRSPARQLTSVWriter sparqlWriter = new CRSPARQLTSVWriter(outputStream);
                         ((TupleQuery) queryObject).evaluate(sparqlWriter);
 
@@ -923,19 +989,64 @@ public class SPARQLEndpointActionBean extends AbstractActionBean {
             } finally {
                 SesameUtil.close(queryResult);
             }
+
+            if (capturingStream != null && capturingStream.isComplete()) {
+                outputStream.flush();
+                Map<String, String> headers = new HashMap<String, String>();
+                String contentDisposition = response.getHeader("Content-Disposition");
+                if (contentDisposition != null) {
+                    headers.put("Content-Disposition", contentDisposition);
+                }
+                SPARQLResultCache.put(cacheKey, cacheVersion, capturingStream.getBytes(), headers,
+                        outputFormat.equals(FORMAT_TSV) ? response.getCharacterEncoding() : null);
+            }
         } catch (Exception e) {
 
-            // Add feedback message to user (ignored when client is not a browser)
-            addWarningMessage("Failure when executing the query: " + e);
+            if (watch != null && watch.isAborted()) {
+
+                // The client has disconnected, so there is nobody to report the failure to.
+                LOGGER.debug("Query cancelled because of client disconnecting: " + e);
+
+            } else if (watch != null && watch.isTimedOut()) {
+
+                errorCode = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+                errorMessage = watch.isHardTimedOut() ? "Query exceeded the hard max time of " + watch.getHardMaxQueryTime()
+                        + " ms" : "Query exceeded the max execution time of " + watch.getMaxQueryTime() + " ms";
+                addWarningMessage(errorMessage);
 
-            // Syntax error in query: http code - 400 - check query syntax with sesame parser
-            handleQueryExecutionException(e);
+            } else {
+
+                // Add feedback message to user (ignored when client is not a browser)
+                addWarningMessage("Failure when executing the query: " + e);
+
+                // Syntax error in query: http code - 400 - check query syntax with sesame parser
+                handleQueryExecutionException(e);
+            }
 
         } finally {
+            if (watch != null) {
+                watch.done();
+            }
             SesameUtil.close(conn);
+            SPARQLQueryAdmission.release(ticket);
         }
     }
 
+    /**
+     * Returns the identifier of the client whose queries are limited together by {@link SPARQLQueryAdmission}: the user name if
+     * logged in, and the IP address otherwise. The X-Forwarded-For header is taken into account only if sent by a trusted proxy.
+     *
+     * @return The client identifier.
+     */
+    private String getAdmissionClient() {
+
+        if (getUser() != null) {
+            return "user:" + getUserName();
+        }
+        HttpServletRequest request = getContext().getRequest();
+        return "ip:" + SPARQLQueryAdmission.getClientAddress(request.getRemoteAddr(), request.getHeader("X-Forwarded-For"));
+    }
+
     /**
      * Exports CONSTRUCT query results into user's home space.
      *
@@ -1318,6 +1429,20 @@ public class SPARQLEndpointActionBean extends AbstractActionBean {
         return namedGraphUris;
     }
 
+    /**
+     * @return the timeout
+     */
+    public Integer getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout the timeout to set
+     */
+    public void setTimeout(Integer timeout) {
+        this.timeout = timeout;
+    }
+
     /**
      * @return List<String> - user home folders
      */
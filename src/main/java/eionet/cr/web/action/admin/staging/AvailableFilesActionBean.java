@@ -45,7 +45,7 @@ import org.apache.commons.lang.math.NumberUtils;
 
 import eionet.cr.staging.AvailableFile;
 import eionet.cr.staging.FileDownloader;
-import eionet.cr.util.FileDeletionJob;
+import eionet.cr.util.TempSpace;
 import eionet.cr.util.URLUtil;
 import eionet.cr.web.action.AbstractActionBean;
 import eionet.cr.web.action.admin.AdminWelcomeActionBean;
@@ -138,7 +138,7 @@ public class AvailableFilesActionBean extends AbstractActionBean {
                 File file = new File(FileDownloader.FILES_DIR, fileName);
                 boolean success = file.delete();
                 if (success == false) {
-                    FileDeletionJob.register(file);
+                    TempSpace.discard(file);
                 }
             }
 
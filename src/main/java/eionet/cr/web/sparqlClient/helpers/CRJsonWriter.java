@@ -1,13 +1,9 @@
 package eionet.cr.web.sparqlClient.helpers;
 
 import info.aduna.io.IndentingWriter;
-import info.aduna.text.StringUtil;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.Iterator;
 import java.util.List;
@@ -22,6 +18,8 @@ import org.openrdf.query.TupleQueryResultHandlerException;
 import org.openrdf.query.resultio.TupleQueryResultFormat;
 import org.openrdf.query.resultio.TupleQueryResultWriter;
 
+import eionet.cr.web.util.BufferedResultWriter;
+
 /**
  * JSON writer.
  *
@@ -35,6 +33,9 @@ public class CRJsonWriter implements TupleQueryResultWriter {
 
     private IndentingWriter writer;
 
+    /** The writer under {@link #writer}, for writing escaped strings directly. */
+    private BufferedResultWriter resultWriter;
+
     private boolean firstTupleWritten;
 
     /*--------------*
@@ -42,9 +43,8 @@ public class CRJsonWriter implements TupleQueryResultWriter {
      *--------------*/
 
     public CRJsonWriter(OutputStream out) {
-        Writer w = new OutputStreamWriter(out, Charset.forName("UTF-8"));
-        w = new BufferedWriter(w, 1024);
-        writer = new IndentingWriter(w);
+        resultWriter = new BufferedResultWriter(out, Charset.forName("UTF-8"));
+        writer = new IndentingWriter(resultWriter);
     }
 
     /*---------*
@@ -85,7 +85,7 @@ public class CRJsonWriter implements TupleQueryResultWriter {
             closeArray(); // bindings array
             closeBraces(); // results braces
             closeBraces(); // root braces
-            writer.flush();
+            resultWriter.finish();
         } catch (IOException e) {
             throw new TupleQueryResultHandlerException(e);
         }
@@ -113,8 +113,6 @@ public class CRJsonWriter implements TupleQueryResultWriter {
             }
 
             closeBraces(); // end solution
-
-            writer.flush();
         } catch (IOException e) {
             throw new TupleQueryResultHandlerException(e);
         }
@@ -177,18 +175,9 @@ public class CRJsonWriter implements TupleQueryResultWriter {
     }
 
     private void writeString(String value) throws IOException {
-        // Escape special characters
-        value = StringUtil.gsub("\\", "\\\\", value);
-        value = StringUtil.gsub("\"", "\\\"", value);
-        value = StringUtil.gsub("/", "\\/", value);
-        value = StringUtil.gsub("\b", "\\b", value);
-        value = StringUtil.gsub("\f", "\\f", value);
-        value = StringUtil.gsub("\n", "\\n", value);
-        value = StringUtil.gsub("\r", "\\r", value);
-        value = StringUtil.gsub("\t", "\\t", value);
-
+        // The opening quote goes through the indenting writer, so that the line gets indented if this is its start.
         writer.write("\"");
-        writer.write(value);
+        resultWriter.writeJsonEscaped(value);
         writer.write("\"");
     }
 
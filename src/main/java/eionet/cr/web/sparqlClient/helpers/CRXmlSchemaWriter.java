@@ -1,6 +1,7 @@
 package eionet.cr.web.sparqlClient.helpers;
 
 import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -21,6 +22,7 @@ import eionet.cr.util.Util;
 import eionet.cr.util.export.SchemaHelper;
 import eionet.cr.util.export.XmlElementMetadata;
 import eionet.cr.util.export.XmlUtil;
+import eionet.cr.web.util.BufferedResultWriter;
 
 /**
  * A {@link TupleQueryResultWriter} that writes tuple query results in the XML with Schema (Microsoft Office format).
@@ -45,6 +47,9 @@ public class CRXmlSchemaWriter implements TupleQueryResultWriter {
      */
     private XMLStreamWriter writer = null;
 
+    /** The writer under {@link #writer}. */
+    private BufferedResultWriter resultWriter = null;
+
     /**
      *
      * Class constructor.
@@ -52,7 +57,8 @@ public class CRXmlSchemaWriter implements TupleQueryResultWriter {
      * @throws XMLStreamException
      */
     public CRXmlSchemaWriter(OutputStream out) throws XMLStreamException {
-        writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, ENCODING);
+        resultWriter = new BufferedResultWriter(out, Charset.forName(ENCODING));
+        writer = XMLOutputFactory.newInstance().createXMLStreamWriter(resultWriter);
         elements = new LinkedHashMap<String, XmlElementMetadata>();
         validNames = new HashSet<String>();
     }
@@ -86,6 +92,8 @@ public class CRXmlSchemaWriter implements TupleQueryResultWriter {
             // write XML schema
             new SchemaHelper(writer, elements).writeXmlSchema();
             writer.writeEndDocument();
+            writer.flush();
+            resultWriter.finish();
         } catch (Exception e) {
             throw new TupleQueryResultHandlerException(e);
         }
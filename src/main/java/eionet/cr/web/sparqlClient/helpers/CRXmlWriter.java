@@ -18,6 +18,7 @@ import info.aduna.xml.XMLWriter;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.util.List;
 
 import org.openrdf.model.BNode;
@@ -30,6 +31,8 @@ import org.openrdf.query.TupleQueryResultHandlerException;
 import org.openrdf.query.resultio.TupleQueryResultFormat;
 import org.openrdf.query.resultio.TupleQueryResultWriter;
 
+import eionet.cr.web.util.BufferedResultWriter;
+
 /**
  * A {@link TupleQueryResultWriter} that writes tuple query results in the <a href="http://www.w3.org/TR/rdf-sparql-XMLres/">SPARQL
  * Query Results XML Format</a>.
@@ -45,12 +48,17 @@ public class CRXmlWriter implements TupleQueryResultWriter {
      */
     private XMLWriter xmlWriter;
 
+    /**
+     * The writer under {@link #xmlWriter}, null if the latter was given by the caller.
+     */
+    private BufferedResultWriter resultWriter;
+
     /*--------------*
      * Constructors *
      *--------------*/
 
     public CRXmlWriter(OutputStream out) {
-        this(new XMLWriter(out));
+        this(new BufferedResultWriter(out, Charset.forName("UTF-8")));
     }
 
     public CRXmlWriter(XMLWriter xmlWriter) {
@@ -58,6 +66,11 @@ public class CRXmlWriter implements TupleQueryResultWriter {
         this.xmlWriter.setPrettyPrint(true);
     }
 
+    private CRXmlWriter(BufferedResultWriter resultWriter) {
+        this(new XMLWriter(resultWriter));
+        this.resultWriter = resultWriter;
+    }
+
     /*---------*
      * Methods *
      *---------*/
@@ -118,6 +131,9 @@ public class CRXmlWriter implements TupleQueryResultWriter {
             xmlWriter.endTag(ROOT_TAG);
 
             xmlWriter.endDocument();
+            if (resultWriter != null) {
+                resultWriter.finish();
+            }
         } catch (IOException e) {
             throw new TupleQueryResultHandlerException(e);
         }
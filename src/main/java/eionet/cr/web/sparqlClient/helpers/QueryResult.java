@@ -1,9 +1,17 @@
 package eionet.cr.web.sparqlClient.helpers;
 
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,20 +25,66 @@ import org.openrdf.query.TupleQueryResult;
 import eionet.cr.config.GeneralConfig;
 
 /**
+ * The result of a SELECT query, as displayed on the SPARQL client page. Stored by columns, one array of values per variable,
+ * with literals' languages and datatypes interned into tables, instead of a map of {@link ResultValue}s per row. The rows
+ * returned by {@link #getRows()} are views of the columns, creating the {@link ResultValue}s only for the cells that are
+ * actually displayed, e.g. the current page of a Displaytag table.
  *
  * @author jaanus
  *
  */
 public class QueryResult {
 
+    /** Kinds of the values in {@link #kinds}, zero stands for unbound. */
+    private static final byte RESOURCE = 1;
+    private static final byte BNODE = 2;
+    private static final byte LITERAL = 3;
+
+    /** */
+    private static final String XSD_NAMESPACE = "http://www.w3.org/2001/XMLSchema#";
+
+    /** Initial capacity of the columns. */
+    private static final int INITIAL_CAPACITY = 64;
+
     /** */
     private List<String> variables;
-    private ArrayList<HashMap<String, ResultValue>> rows;
     private ArrayList<Map<String, Object>> cols;
 
+    /** Indexes of the {@link #variables}. */
+    private Map<String, Integer> variableIndexes;
+
+    /** Number of rows. */
+    private int rowCount;
+
+    /** String values of the cells, by columns. */
+    private String[][] values;
+
+    /** Kinds of the cells' values, by columns. */
+    private byte[][] kinds;
+
+    /** Languages of the literal cells (index in {@link #languages} plus one, zero if none), only if {@link #virtuosoFormat}. */
+    private int[][] languageIds;
+
+    /** Datatypes of the literal cells (index in {@link #datatypes} plus one, zero if none), only if {@link #virtuosoFormat}. */
+    private int[][] datatypeIds;
+
+    /** Distinct languages of the literals. */
+    private List<String> languages = new ArrayList<String>();
+    private Map<String, Integer> languageIndexes = new HashMap<String, Integer>();
+
+    /** Distinct datatypes of the literals. */
+    private List<String> datatypes = new ArrayList<String>();
+    private Map<String, Integer> datatypeIndexes = new HashMap<String, Integer>();
+
+    /** The {@link #datatypes} in the Virtuoso format, formatted on first use. */
+    private String[] virtuosoDatatypes;
+
     /** When true, literal objects have language and type added at the end of the value. */
     private boolean virtuosoFormat;
 
+    /** */
+    private boolean limitResultCount;
+
     /**
      * If max rows count is not defined in properties, this constant value is used.
      */
@@ -68,11 +122,13 @@ public class QueryResult {
     public QueryResult(TupleQueryResult queryResult, boolean virtuosoFormat, boolean limitResultCount)
             throws QueryEvaluationException {
         this.virtuosoFormat = virtuosoFormat;
+        this.limitResultCount = limitResultCount;
 
         if (queryResult != null && queryResult.hasNext()) {
 
             this.variables = queryResult.getBindingNames();
             addCols();
+            createColumns();
             int counter = 0;
             while (queryResult.hasNext()) {
                 add(queryResult.next());
@@ -87,51 +143,160 @@ public class QueryResult {
         }
     }
 
+    /**
+     * Creates the empty columns of the {@link #variables}.
+     */
+    private void createColumns() {
+
+        if (variables == null || variables.isEmpty()) {
+            return;
+        }
+
+        int capacity = limitResultCount && MAX_ROWS_COUNT > 0 ? Math.min(INITIAL_CAPACITY, MAX_ROWS_COUNT) : INITIAL_CAPACITY;
+        int columnCount = variables.size();
+        variableIndexes = new HashMap<String, Integer>();
+        values = new String[columnCount][capacity];
+        kinds = new byte[columnCount][capacity];
+        if (virtuosoFormat) {
+            languageIds = new int[columnCount][capacity];
+            datatypeIds = new int[columnCount][capacity];
+        }
+        for (int i = 0; i < columnCount; i++) {
+            variableIndexes.put(variables.get(i), i);
+        }
+    }
+
     private void add(BindingSet bindingSet) {
 
         if (bindingSet == null || variables == null || variables.isEmpty()) {
             return;
         }
 
-        HashMap<String, ResultValue> map = new HashMap<String, ResultValue>();
-        for (String variable : variables) {
-
-            ResultValue resultValue = null;
-            Value value = bindingSet.getValue(variable);
+        if (rowCount == values[0].length) {
+            grow();
+        }
 
-            if (value != null) {
+        for (int i = 0; i < variables.size(); i++) {
 
-                String valueString = value.stringValue();
-                if (value instanceof Literal) {
-                    if (virtuosoFormat) {
-                        if (((Literal) value).getLanguage() != null) {
-                            valueString = "\"" + valueString + "\"@" + ((Literal) value).getLanguage();
-                        }
-                        if (((Literal) value).getDatatype() != null) {
-                            String type = ((Literal) value).getDatatype().stringValue();
-                            type = type.replaceFirst("http://www.w3.org/2001/XMLSchema#", "xsd:");
-                            if (!type.startsWith("xsd:")) {
-                                type = "<" + type + ">";
-                            }
+            Value value = bindingSet.getValue(variables.get(i));
+            if (value == null) {
+                continue;
+            }
 
-                            valueString = "\"" + valueString + "\"^^" + type;
-                        }
+            values[i][rowCount] = value.stringValue();
+            if (value instanceof Literal) {
+                kinds[i][rowCount] = LITERAL;
+                if (virtuosoFormat) {
+                    Literal literal = (Literal) value;
+                    if (literal.getLanguage() != null) {
+                        languageIds[i][rowCount] = intern(literal.getLanguage(), languages, languageIndexes);
+                    }
+                    if (literal.getDatatype() != null) {
+                        datatypeIds[i][rowCount] = intern(literal.getDatatype().stringValue(), datatypes, datatypeIndexes);
                     }
-                    resultValue = new ResultValue(valueString, true);
-                } else if (value instanceof BNode) {
-                    resultValue = new ResultValue(valueString, false, true);
-                } else {
-                    resultValue = new ResultValue(valueString, false);
                 }
+            } else if (value instanceof BNode) {
+                kinds[i][rowCount] = BNODE;
+            } else {
+                kinds[i][rowCount] = RESOURCE;
+            }
+        }
+        rowCount++;
+    }
+
+    /**
+     * Grows the columns, doubling their capacity, up to the max rows count if the result count is limited.
+     */
+    private void grow() {
+
+        int capacity = values[0].length * 2;
+        if (limitResultCount && MAX_ROWS_COUNT > values[0].length) {
+            capacity = Math.min(capacity, MAX_ROWS_COUNT);
+        }
+
+        for (int i = 0; i < variables.size(); i++) {
+            values[i] = Arrays.copyOf(values[i], capacity);
+            kinds[i] = Arrays.copyOf(kinds[i], capacity);
+            if (virtuosoFormat) {
+                languageIds[i] = Arrays.copyOf(languageIds[i], capacity);
+                datatypeIds[i] = Arrays.copyOf(datatypeIds[i], capacity);
             }
+        }
+    }
+
+    /**
+     * Returns the index of the given string in the given table, adding it to the end of the table if not there yet.
+     *
+     * @param str The string.
+     * @param table The table.
+     * @param indexes The indexes of the table's strings.
+     * @return The index plus one, as zero stands for none.
+     */
+    private static int intern(String str, List<String> table, Map<String, Integer> indexes) {
+
+        Integer index = indexes.get(str);
+        if (index == null) {
+            table.add(str);
+            index = table.size();
+            indexes.put(str, index);
+        }
+        return index;
+    }
+
+    /**
+     * Creates the value of the given cell, formatted in the Virtuoso format if required.
+     *
+     * @param column Index of the cell's column.
+     * @param row Index of the cell's row.
+     * @return The value, or null if the variable is unbound in that row.
+     */
+    private ResultValue getValue(int column, int row) {
+
+        String valueString = values[column][row];
+        switch (kinds[column][row]) {
+            case LITERAL:
+                if (virtuosoFormat) {
+                    int languageId = languageIds[column][row];
+                    if (languageId > 0) {
+                        valueString = "\"" + valueString + "\"@" + languages.get(languageId - 1);
+                    }
+                    int datatypeId = datatypeIds[column][row];
+                    if (datatypeId > 0) {
+                        valueString = "\"" + valueString + "\"^^" + getVirtuosoDatatype(datatypeId);
+                    }
+                }
+                return new ResultValue(valueString, true);
+            case BNODE:
+                return new ResultValue(valueString, false, true);
+            case RESOURCE:
+                return new ResultValue(valueString, false);
+            default:
+                return null;
+        }
+    }
 
-            map.put(variable, resultValue);
+    /**
+     * Returns the given datatype as it is written in the Virtuoso format: prefixed with "xsd:" if an XML Schema datatype, and
+     * in angle brackets otherwise. Formatted once per datatype.
+     *
+     * @param datatypeId The datatype's index in the table plus one.
+     * @return The formatted datatype.
+     */
+    private String getVirtuosoDatatype(int datatypeId) {
+
+        if (virtuosoDatatypes == null) {
+            virtuosoDatatypes = new String[datatypes.size()];
+        } else if (virtuosoDatatypes.length < datatypes.size()) {
+            virtuosoDatatypes = Arrays.copyOf(virtuosoDatatypes, datatypes.size());
         }
 
-        if (rows == null) {
-            rows = new ArrayList<HashMap<String, ResultValue>>();
+        String type = virtuosoDatatypes[datatypeId - 1];
+        if (type == null) {
+            type = datatypes.get(datatypeId - 1);
+            type = type.startsWith(XSD_NAMESPACE) ? "xsd:" + type.substring(XSD_NAMESPACE.length()) : "<" + type + ">";
+            virtuosoDatatypes[datatypeId - 1] = type;
         }
-        rows.add(map);
+        return type;
     }
 
     /**
@@ -165,10 +330,20 @@ public class QueryResult {
     }
 
     /**
-     * @return the rows
+     * Returns the rows as maps of variables to values. The rows are read-only views of the columns, and the values are created
+     * on every access.
+     *
+     * @return the rows, null if none
      */
-    public ArrayList<HashMap<String, ResultValue>> getRows() {
-        return rows;
+    public List<Map<String, ResultValue>> getRows() {
+        return rowCount == 0 ? null : new Rows();
+    }
+
+    /**
+     * @return Number of rows.
+     */
+    public int getRowCount() {
+        return rowCount;
     }
 
     /**
@@ -197,4 +372,126 @@ public class QueryResult {
         this.allRowsReturned = allRowsReturned;
     }
 
+    /**
+     * The list of rows returned by {@link QueryResult#getRows()}.
+     */
+    private class Rows extends AbstractList<Map<String, ResultValue>> implements RandomAccess {
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.AbstractList#get(int)
+         */
+        @Override
+        public Map<String, ResultValue> get(int index) {
+            if (index < 0 || index >= rowCount) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + rowCount);
+            }
+            return new Row(index);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.AbstractCollection#size()
+         */
+        @Override
+        public int size() {
+            return rowCount;
+        }
+    }
+
+    /**
+     * A row of the result, mapping every variable to its value in the row (null if unbound).
+     */
+    private class Row extends AbstractMap<String, ResultValue> {
+
+        /** */
+        private final int row;
+
+        /**
+         * @param row Index of the row.
+         */
+        Row(int row) {
+            this.row = row;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.AbstractMap#get(java.lang.Object)
+         */
+        @Override
+        public ResultValue get(Object key) {
+            Integer column = variableIndexes.get(key);
+            return column == null ? null : getValue(column, row);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.AbstractMap#containsKey(java.lang.Object)
+         */
+        @Override
+        public boolean containsKey(Object key) {
+            return variableIndexes.containsKey(key);
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.AbstractMap#size()
+         */
+        @Override
+        public int size() {
+            return variables.size();
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.util.AbstractMap#entrySet()
+         */
+        @Override
+        public Set<Map.Entry<String, ResultValue>> entrySet() {
+
+            return new AbstractSet<Map.Entry<String, ResultValue>>() {
+
+                @Override
+                public Iterator<Map.Entry<String, ResultValue>> iterator() {
+
+                    return new Iterator<Map.Entry<String, ResultValue>>() {
+
+                        private int column;
+
+                        @Override
+                        public boolean hasNext() {
+                            return column < variables.size();
+                        }
+
+                        @Override
+                        public Map.Entry<String, ResultValue> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<String, ResultValue> entry =
+                                    new SimpleImmutableEntry<String, ResultValue>(variables.get(column), getValue(column, row));
+                            column++;
+                            return entry;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return variables.size();
+                }
+            };
+        }
+    }
 }
@@ -0,0 +1,430 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+
+package eionet.cr.web.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+
+import eionet.cr.config.GeneralConfig;
+
+/**
+ * The serialization layer shared by the SPARQL endpoint's result writers ({@link CRSPARQLCSVWriter},
+ * {@link CRSPARQLTSVWriter}, {@link eionet.cr.web.sparqlClient.helpers.CRJsonWriter} etc). Characters are collected into a
+ * char buffer and encoded into a byte buffer, both taken from a pool, and the bytes are written to the underlying stream only
+ * once {@link GeneralConfig#SPARQL_WRITER_FLUSH_BYTES} of them have accumulated. The underlying stream itself is flushed by an
+ * explicit {@link #flush()} only, so a result should be written without flushing until its end. The write methods of the
+ * supported escaping schemes write the escaped characters straight into the buffer, without creating intermediate Strings.
+ *
+ * When done, call {@link #finish()} to write out the rest and return the buffers to the pool. Unlike {@link #close()}, it
+ * leaves the underlying stream open. Not thread-safe.
+ *
+ * @author agent
+ */
+public class BufferedResultWriter extends Writer {
+
+    /** Default number of bytes collected before writing them to the underlying stream. */
+    public static final int DEFAULT_FLUSH_BYTES = 32 * 1024;
+
+    /** Size of the char buffers. */
+    private static final int CHAR_BUFFER_SIZE = 8 * 1024;
+
+    /** Max number of buffers of each type kept in the pool. */
+    private static final int MAX_POOLED_BUFFERS = 16;
+
+    /** Lock for the pools. */
+    private static final Object LOCK = new Object();
+
+    /** */
+    private static final ArrayDeque<char[]> CHAR_BUFFER_POOL = new ArrayDeque<char[]>();
+
+    /** */
+    private static final ArrayDeque<byte[]> BYTE_BUFFER_POOL = new ArrayDeque<byte[]>();
+
+    /** */
+    private final OutputStream out;
+
+    /** */
+    private final CharsetEncoder encoder;
+
+    /** */
+    private char[] chars;
+
+    /** Number of characters in {@link #chars}. */
+    private int charCount;
+
+    /** */
+    private byte[] bytes;
+
+    /** Wraps {@link #bytes}. */
+    private ByteBuffer byteBuffer;
+
+    /**
+     * Constructor.
+     *
+     * @param out The stream to write to.
+     * @param charset The charset to encode the characters in.
+     */
+    public BufferedResultWriter(OutputStream out, Charset charset) {
+
+        this.out = out;
+        this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.chars = takeCharBuffer();
+        this.bytes = takeByteBuffer(Math.max(GeneralConfig.getIntProperty(GeneralConfig.SPARQL_WRITER_FLUSH_BYTES,
+                DEFAULT_FLUSH_BYTES), (int) Math.ceil(encoder.maxBytesPerChar()) * 2));
+        this.byteBuffer = ByteBuffer.wrap(bytes);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.Writer#write(int)
+     */
+    @Override
+    public void write(int c) throws IOException {
+
+        if (charCount == chars.length) {
+            encodeChars(false);
+        }
+        chars[charCount++] = (char) c;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.Writer#write(char[], int, int)
+     */
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+
+        while (len > 0) {
+            if (charCount == chars.length) {
+                encodeChars(false);
+            }
+            int count = Math.min(len, chars.length - charCount);
+            System.arraycopy(cbuf, off, chars, charCount, count);
+            charCount += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.Writer#write(java.lang.String, int, int)
+     */
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+
+        while (len > 0) {
+            if (charCount == chars.length) {
+                encodeChars(false);
+            }
+            int count = Math.min(len, chars.length - charCount);
+            str.getChars(off, off + count, chars, charCount);
+            charCount += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Writes the given string escaped for the inside of a JSON string literal.
+     *
+     * @param str The string.
+     * @throws IOException If writing fails.
+     */
+    public void writeJsonEscaped(String str) throws IOException {
+
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '\\':
+                case '"':
+                case '/':
+                    write('\\');
+                    write(c);
+                    break;
+                case '\b':
+                    write('\\');
+                    write('b');
+                    break;
+                case '\f':
+                    write('\\');
+                    write('f');
+                    break;
+                case '\n':
+                    write('\\');
+                    write('n');
+                    break;
+                case '\r':
+                    write('\\');
+                    write('r');
+                    break;
+                case '\t':
+                    write('\\');
+                    write('t');
+                    break;
+                default:
+                    write(c);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Writes the given string as a CSV field: quoted (with inner quotes doubled) if it contains the given separator, a comma,
+     * a line break or a quote, and as such otherwise.
+     *
+     * @param str The string.
+     * @param separator The field separator.
+     * @throws IOException If writing fails.
+     */
+    public void writeCsvEscaped(String str, char separator) throws IOException {
+
+        boolean quoted = false;
+        for (int i = 0; i < str.length() && !quoted; i++) {
+            char c = str.charAt(i);
+            quoted = c == separator || c == ',' || c == '\r' || c == '\n' || c == '"';
+        }
+
+        if (!quoted) {
+            write(str);
+            return;
+        }
+
+        write('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '"') {
+                write('"');
+            }
+            write(c);
+        }
+        write('"');
+    }
+
+    /**
+     * Writes the given string as a TSV field: backslashes and tabs are escaped, carriage returns dropped, and the field is
+     * quoted (with inner quotes doubled) if it contains a comma, a line break or a quote.
+     *
+     * @param str The string.
+     * @throws IOException If writing fails.
+     */
+    public void writeTsvEscaped(String str) throws IOException {
+
+        boolean quoted = false;
+        for (int i = 0; i < str.length() && !quoted; i++) {
+            char c = str.charAt(i);
+            quoted = c == ',' || c == '\r' || c == '\n' || c == '"';
+        }
+
+        if (quoted) {
+            write('"');
+        }
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '\\':
+                    write('\\');
+                    write('\\');
+                    break;
+                case '\t':
+                    write('\\');
+                    write('t');
+                    break;
+                case '\r':
+                    break;
+                case '"':
+                    write('"');
+                    write('"');
+                    break;
+                default:
+                    write(c);
+                    break;
+            }
+        }
+        if (quoted) {
+            write('"');
+        }
+    }
+
+    /**
+     * Writes out everything written so far, and flushes the underlying stream.
+     *
+     * @see java.io.Writer#flush()
+     */
+    @Override
+    public void flush() throws IOException {
+
+        ensureOpen();
+        encodeChars(false);
+        writeBytes();
+        out.flush();
+    }
+
+    /**
+     * Writes out everything written so far, flushes the underlying stream and returns the buffers to the pool. The underlying
+     * stream is left open. Does nothing if already finished.
+     *
+     * @throws IOException If writing fails.
+     */
+    public void finish() throws IOException {
+
+        if (chars == null) {
+            return;
+        }
+
+        try {
+            encodeChars(true);
+            CoderResult result;
+            while ((result = encoder.flush(byteBuffer)).isOverflow()) {
+                writeBytes();
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+            writeBytes();
+            out.flush();
+        } finally {
+            releaseBuffers(chars, bytes);
+            chars = null;
+            bytes = null;
+            byteBuffer = null;
+        }
+    }
+
+    /**
+     * Finishes the writing and closes the underlying stream.
+     *
+     * @see java.io.Writer#close()
+     */
+    @Override
+    public void close() throws IOException {
+
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Encodes the collected characters into the byte buffer, writing the latter out whenever it gets full. A trailing high
+     * surrogate is left in the char buffer, unless this is the end of input.
+     *
+     * @param endOfInput True if no more characters will be written.
+     * @throws IOException If writing fails.
+     */
+    private void encodeChars(boolean endOfInput) throws IOException {
+
+        CharBuffer charBuffer = CharBuffer.wrap(chars, 0, charCount);
+        CoderResult result;
+        while ((result = encoder.encode(charBuffer, byteBuffer, endOfInput)).isOverflow()) {
+            writeBytes();
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+
+        int remaining = charBuffer.remaining();
+        System.arraycopy(chars, charBuffer.position(), chars, 0, remaining);
+        charCount = remaining;
+    }
+
+    /**
+     * Writes the byte buffer's content to the underlying stream, and empties the buffer.
+     *
+     * @throws IOException If writing fails.
+     */
+    private void writeBytes() throws IOException {
+
+        if (byteBuffer.position() > 0) {
+            out.write(bytes, 0, byteBuffer.position());
+            byteBuffer.clear();
+        }
+    }
+
+    /**
+     * @throws IOException If the writer has been finished.
+     */
+    private void ensureOpen() throws IOException {
+        if (chars == null) {
+            throw new IOException("Writer already finished");
+        }
+    }
+
+    /**
+     * @return A char buffer from the pool, or a new one if the pool is empty.
+     */
+    private static char[] takeCharBuffer() {
+
+        synchronized (LOCK) {
+            char[] buffer = CHAR_BUFFER_POOL.poll();
+            return buffer == null ? new char[CHAR_BUFFER_SIZE] : buffer;
+        }
+    }
+
+    /**
+     * @param size Size of the buffer.
+     * @return A byte buffer of the given size from the pool, or a new one if the pool has none.
+     */
+    private static byte[] takeByteBuffer(int size) {
+
+        synchronized (LOCK) {
+            byte[] buffer = BYTE_BUFFER_POOL.poll();
+            // Buffers of another size, left over from a change of configuration, are dropped.
+            while (buffer != null && buffer.length != size) {
+                buffer = BYTE_BUFFER_POOL.poll();
+            }
+            return buffer == null ? new byte[size] : buffer;
+        }
+    }
+
+    /**
+     * Returns the given buffers to the pool, unless it is full.
+     *
+     * @param charBuffer The char buffer.
+     * @param byteBuffer The byte buffer.
+     */
+    private static void releaseBuffers(char[] charBuffer, byte[] byteBuffer) {
+
+        synchronized (LOCK) {
+            if (CHAR_BUFFER_POOL.size() < MAX_POOLED_BUFFERS) {
+                CHAR_BUFFER_POOL.push(charBuffer);
+            }
+            if (BYTE_BUFFER_POOL.size() < MAX_POOLED_BUFFERS) {
+                BYTE_BUFFER_POOL.push(byteBuffer);
+            }
+        }
+    }
+}
@@ -1,10 +1,7 @@
 package eionet.cr.web.util;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.List;
 
@@ -28,7 +25,7 @@ import org.openrdf.query.resultio.TupleQueryResultWriter;
 public class CRSPARQLCSVWriter implements TupleQueryResultWriter {
 
     /** internal writer object. */
-    private Writer writer;
+    private BufferedResultWriter writer;
 
     /**
      * internal data separator variable.
@@ -44,8 +41,7 @@ public class CRSPARQLCSVWriter implements TupleQueryResultWriter {
      * @param separator data separator for the CSV file
      */
     public CRSPARQLCSVWriter(OutputStream out, char separator) {
-        Writer w = new OutputStreamWriter(out, Charset.forName("UTF-8"));
-        writer = new BufferedWriter(w, 1024);
+        writer = new BufferedResultWriter(out, Charset.forName("UTF-8"));
         this.separator = separator;
     }
 
@@ -69,7 +65,7 @@ public class CRSPARQLCSVWriter implements TupleQueryResultWriter {
     @Override
     public void endQueryResult() throws TupleQueryResultHandlerException {
         try {
-            writer.flush();
+            writer.finish();
         } catch (IOException e) {
             throw new TupleQueryResultHandlerException(e);
         }
@@ -159,9 +155,6 @@ public class CRSPARQLCSVWriter implements TupleQueryResultWriter {
     private void writeLiteral(Literal literal) throws IOException {
         String label = literal.getLabel();
         URI datatype = literal.getDatatype();
-        String language = literal.getLanguage();
-
-        boolean quoted = false;
 
         if (datatype != null
                 && (XMLDatatypeUtil.isIntegerDatatype(datatype) || XMLDatatypeUtil.isDecimalDatatype(datatype) || XMLSchema.DOUBLE
@@ -176,29 +169,7 @@ public class CRSPARQLCSVWriter implements TupleQueryResultWriter {
             }
         }
 
-        if (label.contains(Character.toString(separator)) || label.contains(",") || label.contains("\r")
-                || label.contains("\n") || label.contains("\"")) {
-            quoted = true;
-
-            // escape quotes inside the string
-            label = label.replaceAll("\"", "\"\"");
-
-            // add quotes around the string (escaped with a second quote for the
-            // CSV parser)
-            // label = "\"\"" + label + "\"\"";
-        }
-
-        if (quoted) {
-            // write opening quote for entire value
-            writer.write("\"");
-        }
-
-        writer.write(label);
-
-        if (quoted) {
-            // write closing quote for entire value
-            writer.write("\"");
-        }
-
+        // quote the string if needed, escaping quotes inside it
+        writer.writeCsvEscaped(label, separator);
     }
 }
@@ -1,12 +1,7 @@
 package eionet.cr.web.util;
 
-import info.aduna.text.StringUtil;
-
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.List;
 
@@ -27,7 +22,7 @@ import org.openrdf.query.resultio.TupleQueryResultWriter;
  */
 public class CRSPARQLTSVWriter implements TupleQueryResultWriter {
     /** internal writer. */
-    private Writer writer;
+    private BufferedResultWriter writer;
 
     /** local binding names. */
     private List<String> bindingNames;
@@ -39,8 +34,7 @@ public class CRSPARQLTSVWriter implements TupleQueryResultWriter {
      *            outputStream
      */
     public CRSPARQLTSVWriter(OutputStream out) {
-        Writer w = new OutputStreamWriter(out, Charset.forName("UTF-16LE"));
-        writer = new BufferedWriter(w, 1024);
+        writer = new BufferedResultWriter(out, Charset.forName("UTF-16LE"));
     }
 
     @Override
@@ -64,7 +58,7 @@ public class CRSPARQLTSVWriter implements TupleQueryResultWriter {
     @Override
     public void endQueryResult() throws TupleQueryResultHandlerException {
         try {
-            writer.flush();
+            writer.finish();
         } catch (IOException e) {
             throw new TupleQueryResultHandlerException(e);
         }
@@ -127,8 +121,9 @@ public class CRSPARQLTSVWriter implements TupleQueryResultWriter {
      * @throws IOException if writing fails
      */
     protected void writeURI(URI uri) throws IOException {
-        String uriString = uri.toString();
-        writer.write("<" + uriString + ">");
+        writer.write('<');
+        writer.write(uri.toString());
+        writer.write('>');
     }
 
     /**
@@ -145,37 +140,11 @@ public class CRSPARQLTSVWriter implements TupleQueryResultWriter {
 
     /**
      * writes literal object.
+     * removes carriage returns but preserves linefeeds to make linefeeds to be handled correctly in TSV
      * @param lit Literal object
      * @throws IOException if writing fails
      */
     private void writeLiteral(Literal lit) throws IOException {
-        String label = lit.getLabel();
-
-        boolean quoted = false;
-        if (label.contains(",") || label.contains("\r") || label.contains("\n") || label.contains("\"")) {
-            quoted = true;
-            writer.write("\"");
-        }
-
-        writer.write(encodeString(label));
-
-        if (quoted) {
-            writer.write("\"");
-        }
-
-    }
-
-    /**
-     * encodes value string.
-     * removes carriage returns but preserves linefeeds to make linefeeds to be handled correctly in TSV
-     * @param s String to be encoded
-     * @return encoded String value
-     */
-    private static String encodeString(String s) {
-        s = StringUtil.gsub("\\", "\\\\", s);
-        s = StringUtil.gsub("\t", "\\t", s);
-        s = StringUtil.gsub("\r", "", s);
-        s = StringUtil.gsub("\"", "\"\"", s);
-        return s;
+        writer.writeTsvEscaped(lit.getLabel());
     }
 }
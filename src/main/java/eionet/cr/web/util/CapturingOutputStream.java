@@ -0,0 +1,105 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+
+package eionet.cr.web.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A {@link FilterOutputStream} that keeps a copy of everything written through it, up to a given number of bytes. Once more
+ * than that has been written, the copy is dropped and the stream just passes the rest through.
+ *
+ * @author agent
+ */
+public class CapturingOutputStream extends FilterOutputStream {
+
+    /** Max number of bytes to capture. */
+    private final int maxBytes;
+
+    /** The captured bytes, null if more than {@link #maxBytes} have been written. */
+    private ByteArrayOutputStream capture = new ByteArrayOutputStream();
+
+    /**
+     * Constructor.
+     *
+     * @param out The stream to write through to.
+     * @param maxBytes Max number of bytes to capture.
+     */
+    public CapturingOutputStream(OutputStream out, int maxBytes) {
+        super(out);
+        this.maxBytes = maxBytes;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.FilterOutputStream#write(int)
+     */
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        if (capture != null) {
+            capture.write(b);
+            checkCapture();
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.FilterOutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        if (capture != null) {
+            capture.write(b, off, len);
+            checkCapture();
+        }
+    }
+
+    /**
+     * Drops the capture if it has grown over the limit.
+     */
+    private void checkCapture() {
+        if (capture.size() > maxBytes) {
+            capture = null;
+        }
+    }
+
+    /**
+     * @return True if everything written so far has been captured.
+     */
+    public boolean isComplete() {
+        return capture != null;
+    }
+
+    /**
+     * @return Everything written so far, or null if it did not fit into the limit.
+     */
+    public byte[] getBytes() {
+        return capture == null ? null : capture.toByteArray();
+    }
+}
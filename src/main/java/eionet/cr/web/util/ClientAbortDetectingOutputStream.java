@@ -0,0 +1,102 @@
+/*
+ * The contents of this file are subject to the Mozilla Public
+ * License Version 1.1 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of
+ * the License at http://www.mozilla.org/MPL/
+ *
+ * Software distributed under the License is distributed on an "AS
+ * IS" basis, WITHOUT WARRANTY OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * rights and limitations under the License.
+ *
+ * The Original Code is Content Registry 3
+ *
+ * The Initial Owner of the Original Code is European Environment
+ * Agency. Portions created by Zero Technologies are Copyright
+ * (C) European Environment Agency.  All Rights Reserved.
+ *
+ * Contributor(s):
+ *        agent
+ */
+
+
+package eionet.cr.web.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import eionet.cr.util.sesame.SPARQLQueryWatchdog;
+
+/**
+ * A {@link FilterOutputStream} that takes a failure to write or flush to the client as the client having disconnected, and
+ * aborts the query whose result is being written, so that it does not hold on to the triple store until its end. The first
+ * write or flush tells the query's watch that the result has started streaming, and every one of them has the watch check the
+ * query's hard max time, see {@link SPARQLQueryWatchdog.Watch#startStreaming()}.
+ *
+ * @author agent
+ */
+public class ClientAbortDetectingOutputStream extends FilterOutputStream {
+
+    /** */
+    private final SPARQLQueryWatchdog.Watch watch;
+
+    /**
+     * Constructor.
+     *
+     * @param out The stream to the client.
+     * @param watch The watch of the query whose result is being written.
+     */
+    public ClientAbortDetectingOutputStream(OutputStream out, SPARQLQueryWatchdog.Watch watch) {
+        super(out);
+        this.watch = watch;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.FilterOutputStream#write(int)
+     */
+    @Override
+    public void write(int b) throws IOException {
+        watch.startStreaming();
+        try {
+            out.write(b);
+        } catch (IOException e) {
+            watch.abort();
+            throw e;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.FilterOutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        watch.startStreaming();
+        try {
+            out.write(b, off, len);
+        } catch (IOException e) {
+            watch.abort();
+            throw e;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.FilterOutputStream#flush()
+     */
+    @Override
+    public void flush() throws IOException {
+        watch.startStreaming();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            watch.abort();
+            throw e;
+        }
+    }
+}
@@ -36,11 +36,14 @@
             <c:if test="${not empty actionBean.currentQueuedHarvest or not empty actionBean.onDemandHarvestEntries}">
                 <c:if test="${not empty actionBean.currentQueuedHarvest}">
                     <p>
-                        Currently executing from the urgent or batch queue:<br/>
-                        <stripes:link beanclass="${actionBean.harvestSourceActionBeanClass}" title="${actionBean.currentQueuedHarvest.contextUrl}">
-                            <c:out value="${crfn:cutAtFirstLongToken(actionBean.currentQueuedHarvest.contextUrl,110)}"/>
-                                <stripes:param name="harvestSource.url" value="${actionBean.currentQueuedHarvest.contextUrl}"/>
-                        </stripes:link>
+                        Currently executing from the urgent or batch queue:
+                        <c:forEach items="${actionBean.currentQueuedHarvests}" var="queuedHarvest">
+                            <br/>
+                            <stripes:link beanclass="${actionBean.harvestSourceActionBeanClass}" title="${queuedHarvest.contextUrl}">
+                                <c:out value="${crfn:cutAtFirstLongToken(queuedHarvest.contextUrl,110)}"/>
+                                    <stripes:param name="harvestSource.url" value="${queuedHarvest.contextUrl}"/>
+                            </stripes:link>
+                        </c:forEach>
                     </p>
                 </c:if>
                 <c:if test="${not empty actionBean.onDemandHarvestEntries}">
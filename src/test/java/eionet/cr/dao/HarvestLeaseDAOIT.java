@@ -0,0 +1,74 @@
+package eionet.cr.dao;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eionet.cr.ApplicationTestContext;
+import eionet.cr.test.helpers.CRDatabaseTestCase;
+
+/**
+ * Tests for the {@link HarvestLeaseDAO}.
+ *
+ * @author agent
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { ApplicationTestContext.class })
+public class HarvestLeaseDAOIT extends CRDatabaseTestCase {
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.test.helpers.CRDatabaseTestCase#getXMLDataSetFiles()
+     */
+    @Override
+    protected List<String> getXMLDataSetFiles() {
+        return Arrays.asList("emptydb.xml");
+    }
+
+    /**
+     * Test that a lease is held by one node at a time, and that an expired lease is taken over.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testLeases() throws Exception {
+
+        HarvestLeaseDAO dao = DAOFactory.get().getDao(HarvestLeaseDAO.class);
+
+        assertTrue(dao.acquire("job:test", "node1", 60));
+        assertTrue("Expected the holder to re-acquire its lease", dao.acquire("job:test", "node1", 60));
+        assertFalse("Expected the lease to be held by another node", dao.acquire("job:test", "node2", 60));
+        assertEquals("node1", dao.getLeases().get("job:test"));
+
+        dao.release("job:test", "node2");
+        assertFalse("Expected release by non-holder to do nothing", dao.acquire("job:test", "node2", 60));
+
+        dao.release("job:test", "node1");
+        assertTrue(dao.acquire("job:test", "node2", 1));
+
+        Thread.sleep(2000);
+        assertTrue("Expected an expired lease to be taken over", dao.acquire("job:test", "node1", 60));
+        assertEquals(0, dao.renew("node2", 60));
+        assertEquals(1, dao.renew("node1", 60));
+
+        dao.releaseAll("node1");
+        assertTrue(dao.getLeases().isEmpty());
+    }
+}
@@ -252,4 +252,29 @@ public class SourceDeletionsDAOIT extends CRDatabaseTestCase {
         assertNotNull("Expected non-null deletion queue", deletionQueue);
         assertEquals("Unexpect size of deletion queue", 0, deletionQueue.size());
     }
+
+    /**
+     * Testing the picking of ranges from the deletion queue, and the bulk deletion of the picked sources.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBulkDeletion() throws Exception {
+
+        List<String> initialUrls =
+                Arrays.asList("http://rod.eionet.europa.eu/countries", "http://rod.eionet.europa.eu/instruments",
+                        "http://rod.eionet.europa.eu/obligations");
+        int updateCount = sourceDeletionsDAO.markForDeletion(initialUrls);
+        assertEquals("Unexpected update count", initialUrls.size(), updateCount);
+
+        assertEquals("Unexpected picked URLs", initialUrls.subList(0, 2), sourceDeletionsDAO.pickForDeletion(0, 2));
+        assertEquals("Unexpected picked URLs", initialUrls.subList(1, 3), sourceDeletionsDAO.pickForDeletion(1, 10));
+
+        harvestSourceDAO.removeHarvestSourcesInBulk(initialUrls.subList(0, 2));
+        assertEquals("Unexpected picked URLs", initialUrls.subList(2, 3), sourceDeletionsDAO.pickForDeletion(0, 10));
+        assertNull("Expected deleted source to be gone", harvestSourceDAO.getHarvestSourceByUrl(initialUrls.get(0)));
+
+        harvestSourceDAO.removeHarvestSourcesInBulk(initialUrls.subList(2, 3));
+        assertTrue("Expected empty deletion queue", sourceDeletionsDAO.pickForDeletion(0, 10).isEmpty());
+    }
 }
@@ -0,0 +1,175 @@
+package eionet.cr.harvest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.rio.RDFFormat;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eionet.cr.ApplicationTestContext;
+import eionet.cr.config.GeneralConfig;
+import eionet.cr.harvest.load.ContentLoader;
+import eionet.cr.harvest.load.RDFFormatLoader;
+import eionet.cr.util.TempSpace;
+
+/**
+ * Tests for the {@link ArchiveEntriesProcessor} class.
+ *
+ * @author agent
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { ApplicationTestContext.class })
+public class ArchiveEntriesProcessorTest {
+
+    /** */
+    private static final String CONTEXT_URL = "http://test.eu/archive.zip";
+
+    /** */
+    private static final String NTRIPLES = "<http://test.eu/s> <http://test.eu/p> \"o\" .\n";
+
+    /** */
+    private static final String RDFXML = "<?xml version=\"1.0\"?>\n"
+            + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\" xmlns:t=\"http://test.eu/\">\n"
+            + "  <rdf:Description rdf:about=\"http://test.eu/s\"><t:p>o</t:p></rdf:Description>\n" + "</rdf:RDF>\n";
+
+    /** */
+    private static final String XML = "<?xml version=\"1.0\"?>\n<report><country>EE</country></report>\n";
+
+    /** */
+    private File file;
+
+    /** */
+    private ArchiveEntriesProcessor processor;
+
+    /** */
+    private String originalMaxBytes;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("archive-entries-processor-test", ".zip");
+        originalMaxBytes = GeneralConfig.getProperties().getProperty(GeneralConfig.HARVESTER_ARCHIVE_MAX_EXTRACTED_BYTES);
+    }
+
+    @After
+    public void tearDown() {
+
+        if (processor != null) {
+            processor.deleteEntryFiles();
+        }
+        file.delete();
+        if (originalMaxBytes == null) {
+            GeneralConfig.getProperties().remove(GeneralConfig.HARVESTER_ARCHIVE_MAX_EXTRACTED_BYTES);
+        } else {
+            GeneralConfig.getProperties().setProperty(GeneralConfig.HARVESTER_ARCHIVE_MAX_EXTRACTED_BYTES, originalMaxBytes);
+        }
+    }
+
+    /**
+     * Test that all RDF entries of an archive are found, and the rest are deleted straight away.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testMultipleEntries() throws Exception {
+
+        zip("a.nt", NTRIPLES, "b.rdf", RDFXML, "readme.txt", "Just some text.\n");
+        processor = new ArchiveEntriesProcessor(file, CONTEXT_URL);
+        Map<File, ContentLoader> result = processor.process();
+
+        List<File> files = processor.getEntryFiles();
+        assertEquals(3, files.size());
+        assertEquals(2, result.size());
+        assertEquals(RDFFormat.NTRIPLES, ((RDFFormatLoader) result.get(files.get(0))).getRdfFormat());
+        assertEquals(RDFFormat.RDFXML, ((RDFFormatLoader) result.get(files.get(1))).getRdfFormat());
+        assertFalse(files.get(2).exists());
+        assertTrue(processor.getConvertibleEntryFiles().isEmpty());
+
+        processor.deleteEntryFiles();
+        assertFalse(files.get(0).exists());
+        assertFalse(files.get(1).exists());
+    }
+
+    /**
+     * Test that XML entries possibly convertible into RDF are kept apart from the RDF entries of the same archive.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testMixedEntries() throws Exception {
+
+        zip("a.nt", NTRIPLES, "report.xml", XML);
+        processor = new ArchiveEntriesProcessor(file, CONTEXT_URL);
+        Map<File, ContentLoader> result = processor.process();
+
+        List<File> files = processor.getEntryFiles();
+        assertEquals(1, result.size());
+        assertTrue(result.containsKey(files.get(0)));
+        assertEquals(1, processor.getConvertibleEntryFiles().size());
+        assertEquals(files.get(1), processor.getConvertibleEntryFiles().get(0));
+        assertTrue(files.get(1).exists());
+    }
+
+    /**
+     * Test that extracting fails as soon as the entries exceed the max total size, and that nothing is left behind.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testOversizedEntries() throws Exception {
+
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            large.append(NTRIPLES);
+        }
+        zip("a.nt", NTRIPLES, "b.nt", large.toString());
+        GeneralConfig.getProperties().setProperty(GeneralConfig.HARVESTER_ARCHIVE_MAX_EXTRACTED_BYTES,
+                String.valueOf(large.length()));
+
+        int fileCount = TempSpace.getFileCount();
+        processor = new ArchiveEntriesProcessor(file, CONTEXT_URL);
+        try {
+            processor.process();
+            fail("Was expecting the entries to exceed the max size");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("max total size"));
+        }
+        assertEquals(fileCount, TempSpace.getFileCount());
+        assertFalse(new File(file.getParent(), file.getName() + ".extracted1").exists());
+        assertFalse(new File(file.getParent(), file.getName() + ".extracted2").exists());
+    }
+
+    /**
+     * Writes a zip archive of the given entry names and contents into the test file.
+     *
+     * @param namesAndContents Entry names each followed by its content.
+     * @throws IOException
+     */
+    private void zip(String... namesAndContents) throws IOException {
+
+        ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (int i = 0; i < namesAndContents.length; i += 2) {
+                outputStream.putNextEntry(new ZipEntry(namesAndContents[i]));
+                outputStream.write(namesAndContents[i + 1].getBytes("UTF-8"));
+                outputStream.closeEntry();
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package eionet.cr.harvest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import eionet.cr.ApplicationTestContext;
+import eionet.cr.config.GeneralConfig;
+import eionet.cr.dao.DAOFactory;
+import eionet.cr.dao.EndpointHarvestQueryDAO;
+import eionet.cr.dao.HarvestSourceDAO;
+import eionet.cr.dto.EndpointHarvestQueryDTO;
+import eionet.cr.dto.HarvestSourceDTO;
+import eionet.cr.test.helpers.CRDatabaseTestCase;
+import eionet.cr.util.TempSpace;
+
+/**
+ * Tests the harvest of a remote SPARQL endpoint, served by an in-process HTTP server that answers every query with one triple
+ * of its own, and every page query with one triple per page until {@link #NO_OF_PAGES}.
+ *
+ * @author agent
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { ApplicationTestContext.class })
+public class EndpointHarvestIT extends CRDatabaseTestCase {
+
+    /** Number of harvest queries of the endpoint. */
+    private static final int NO_OF_QUERIES = 3;
+
+    /** Number of non-empty pages of a paged query. */
+    private static final int NO_OF_PAGES = 2;
+
+    /** How long the endpoint takes to answer a query, in milliseconds. */
+    private static final long RESPONSE_DELAY = 500L;
+
+    /** */
+    private HttpServer server;
+
+    /** */
+    private String endpointUrl;
+
+    /** Number of queries being answered right now. */
+    private final AtomicInteger activeQueries = new AtomicInteger();
+
+    /** Max number of queries answered at the same time. */
+    private final AtomicInteger maxActiveQueries = new AtomicInteger();
+
+    /** Number of queries answered. */
+    private final AtomicInteger answeredQueries = new AtomicInteger();
+
+    /** The client ports that queries came from, one for every connection. */
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+    /** */
+    private String originalPageSize;
+
+    @Before
+    public void setUp() throws Exception {
+
+        super.setUp();
+        originalPageSize = GeneralConfig.getProperty(GeneralConfig.HARVESTER_ENDPOINT_PAGE_SIZE);
+        GeneralConfig.getProperties().setProperty(GeneralConfig.HARVESTER_ENDPOINT_PAGE_SIZE, "0");
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/sparql", new EndpointHandler());
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        endpointUrl = "http://localhost:" + server.getAddress().getPort() + "/sparql";
+    }
+
+    @After
+    public void tearDown() throws Exception {
+
+        if (server != null) {
+            server.stop(0);
+        }
+        if (originalPageSize == null) {
+            GeneralConfig.getProperties().remove(GeneralConfig.HARVESTER_ENDPOINT_PAGE_SIZE);
+        } else {
+            GeneralConfig.getProperties().setProperty(GeneralConfig.HARVESTER_ENDPOINT_PAGE_SIZE, originalPageSize);
+        }
+        super.tearDown();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.test.helpers.CRDatabaseTestCase#getXMLDataSetFiles()
+     */
+    @Override
+    protected List<String> getXMLDataSetFiles() {
+        return Arrays.asList("emptydb.xml");
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.test.helpers.CRDatabaseTestCase#forceClearTriplesOnSetup()
+     */
+    @Override
+    protected boolean forceClearTriplesOnSetup() {
+        return true;
+    }
+
+    /**
+     * Test that the endpoint's queries are executed concurrently, that their outcome is applied to the harvest, and that the
+     * connections are reused by the next harvest.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentQueries() throws Exception {
+
+        HarvestSourceDTO source = new HarvestSourceDTO();
+        source.setUrl(endpointUrl);
+        source.setIntervalMinutes(5);
+        source.setSparqlEndpoint(true);
+        HarvestSourceDAO sourceDAO = DAOFactory.get().getDao(HarvestSourceDAO.class);
+        sourceDAO.addSource(source);
+
+        EndpointHarvestQueryDAO queryDAO = DAOFactory.get().getDao(EndpointHarvestQueryDAO.class);
+        for (int i = 0; i < NO_OF_QUERIES; i++) {
+            EndpointHarvestQueryDTO query = new EndpointHarvestQueryDTO();
+            query.setTitle("Query " + i);
+            query.setQuery("CONSTRUCT {?s ?p ?o} WHERE {?s ?p ?o} # " + i);
+            query.setEndpointUrl(endpointUrl);
+            query.setActive(true);
+            queryDAO.create(query);
+        }
+
+        PullHarvest harvest = new PullHarvest(endpointUrl);
+        harvest.execute();
+        assertTrue(harvest.isSourceAvailable());
+        assertEquals(NO_OF_QUERIES, harvest.getStoredTriplesCount());
+        assertEquals(NO_OF_QUERIES, answeredQueries.get());
+        assertTrue("Queries were not executed concurrently", maxActiveQueries.get() > 1);
+        assertNull(sourceDAO.getHarvestSourceByUrl(endpointUrl).getContentDigest());
+
+        // The connections of the first harvest were released for reuse, so the second one opens no new ones.
+        int noOfConnections = clientPorts.size();
+        harvest = new PullHarvest(endpointUrl);
+        harvest.execute();
+        assertEquals(NO_OF_QUERIES, harvest.getStoredTriplesCount());
+        assertEquals(2 * NO_OF_QUERIES, answeredQueries.get());
+        assertEquals("Connections were not reused: " + clientPorts, noOfConnections, clientPorts.size());
+    }
+
+    /**
+     * Test that a query is executed page by page, its first page being downloaded into a temporary file that is deleted once the
+     * harvest is over.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPagedQuery() throws Exception {
+
+        GeneralConfig.getProperties().setProperty(GeneralConfig.HARVESTER_ENDPOINT_PAGE_SIZE, "1");
+
+        HarvestSourceDTO source = new HarvestSourceDTO();
+        source.setUrl(endpointUrl);
+        source.setIntervalMinutes(5);
+        source.setSparqlEndpoint(true);
+        DAOFactory.get().getDao(HarvestSourceDAO.class).addSource(source);
+
+        EndpointHarvestQueryDTO query = new EndpointHarvestQueryDTO();
+        query.setTitle("Paged query");
+        query.setQuery("CONSTRUCT {?s ?p ?o} WHERE {?s ?p ?o}");
+        query.setEndpointUrl(endpointUrl);
+        query.setActive(true);
+        DAOFactory.get().getDao(EndpointHarvestQueryDAO.class).create(query);
+
+        int fileCount = TempSpace.getFileCount();
+        PullHarvest harvest = new PullHarvest(endpointUrl);
+        harvest.execute();
+        assertTrue(harvest.isSourceAvailable());
+        assertEquals(NO_OF_PAGES, harvest.getStoredTriplesCount());
+        assertEquals(NO_OF_PAGES + 1, answeredQueries.get());
+        assertEquals(fileCount, TempSpace.getFileCount());
+    }
+
+    /**
+     * Answers every query with one Turtle triple whose object is the query's trailing comment, and every page query with one
+     * N-Triples triple whose object is the page's offset, or nothing if past the last page.
+     */
+    private class EndpointHandler implements HttpHandler {
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see com.sun.net.httpserver.HttpHandler#handle(com.sun.net.httpserver.HttpExchange)
+         */
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+
+            int active = activeQueries.incrementAndGet();
+            try {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                int max = maxActiveQueries.get();
+                while (active > max && !maxActiveQueries.compareAndSet(max, active)) {
+                    max = maxActiveQueries.get();
+                }
+
+                InputStream requestBody = exchange.getRequestBody();
+                String query = URLDecoder.decode(IOUtils.toString(requestBody, "UTF-8"), "UTF-8");
+                requestBody.close();
+                String accept = exchange.getRequestHeaders().getFirst("Accept");
+                boolean paged = accept != null && accept.startsWith("application/n-triples");
+                String label = paged ? query.substring(query.lastIndexOf("OFFSET") + 6).replace("}", " ").trim()
+                        : query.substring(query.lastIndexOf('#') + 1).trim();
+
+                Thread.sleep(RESPONSE_DELAY);
+
+                String triple = "<http://test.eu/s> <http://test.eu/p> \"" + label + "\" .\n";
+                if (paged && Integer.parseInt(label) >= NO_OF_PAGES) {
+                    triple = "";
+                }
+                byte[] response = triple.getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", paged ? "application/n-triples" : "text/turtle");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream responseBody = exchange.getResponseBody();
+                responseBody.write(response);
+                responseBody.close();
+                answeredQueries.incrementAndGet();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                activeQueries.decrementAndGet();
+                exchange.close();
+            }
+        }
+    }
+}
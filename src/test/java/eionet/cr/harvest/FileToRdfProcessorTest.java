@@ -0,0 +1,110 @@
+package eionet.cr.harvest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eionet.cr.ApplicationTestContext;
+import eionet.cr.harvest.load.ContentStream;
+import eionet.cr.harvest.load.FileContentStream;
+import eionet.cr.util.TempSpace;
+
+/**
+ * Tests for the {@link FileToRdfProcessor} class.
+ *
+ * @author agent
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { ApplicationTestContext.class })
+public class FileToRdfProcessorTest {
+
+    /** */
+    private static final String CONTEXT_URL = "http://test.eu/data.nt.gz";
+
+    /** */
+    private File file;
+
+    /** */
+    private File unpackedFile;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("file-to-rdf-processor-test", ".gz");
+        unpackedFile = new File(file.getAbsolutePath() + ".unpacked");
+    }
+
+    @After
+    public void tearDown() {
+        TempSpace.release(unpackedFile);
+        file.delete();
+    }
+
+    /**
+     * Test that packed RDF is unpacked once into a temporary file, which is then returned for loading.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testPackedRdf() throws Exception {
+
+        gzip("<http://test.eu/s> <http://test.eu/p> \"o\" .\n");
+        FileToRdfProcessor processor = new FileToRdfProcessor(file, CONTEXT_URL);
+        ContentStream content = processor.process();
+
+        assertNotNull(processor.getRdfFormat());
+        assertTrue(content instanceof FileContentStream);
+        assertEquals(unpackedFile, ((FileContentStream) content).getFile());
+        assertTrue(unpackedFile.exists());
+
+        TempSpace.release(unpackedFile);
+        assertFalse(unpackedFile.exists());
+    }
+
+    /**
+     * Test that the unpacked file is released straight away if no RDF could be processed out of it.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testPackedNonRdf() throws Exception {
+
+        gzip("Just some text.\n");
+        int fileCount = TempSpace.getFileCount();
+        FileToRdfProcessor processor = new FileToRdfProcessor(file, CONTEXT_URL);
+
+        assertNull(processor.process());
+        assertFalse(unpackedFile.exists());
+        assertEquals(fileCount, TempSpace.getFileCount());
+    }
+
+    /**
+     * Writes the given content gzipped into the test file.
+     *
+     * @param content The content.
+     * @throws IOException
+     */
+    private void gzip(String content) throws IOException {
+
+        OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(file));
+        try {
+            outputStream.write(content.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+}
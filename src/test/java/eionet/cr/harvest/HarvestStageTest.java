@@ -0,0 +1,90 @@
+package eionet.cr.harvest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eionet.cr.ApplicationTestContext;
+import eionet.cr.config.GeneralConfig;
+
+/**
+ * Tests for the {@link HarvestStage} class.
+ *
+ * @author agent
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { ApplicationTestContext.class })
+public class HarvestStageTest {
+
+    /** Configuration key of the tested stages' number of slots. */
+    private static final String SLOTS_KEY = "harvester.pipeline.testSlots";
+
+    @Before
+    public void setUp() {
+        GeneralConfig.getProperties().remove(SLOTS_KEY);
+    }
+
+    @After
+    public void tearDown() {
+        GeneralConfig.getProperties().remove(SLOTS_KEY);
+    }
+
+    /**
+     * Test that a stage is limited to its default number of slots if not configured otherwise, and that a harvest waiting for a
+     * slot enters once another one exits.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testDefaultSlots() throws Exception {
+
+        final HarvestStage stage = new HarvestStage("test", SLOTS_KEY, 1);
+        long entered = stage.enter();
+        assertEquals(1, stage.getActive());
+
+        final CountDownLatch secondEntered = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                long secondStarted = stage.enter();
+                secondEntered.countDown();
+                stage.exit(secondStarted);
+            }
+        };
+        thread.start();
+
+        assertFalse(secondEntered.await(200, TimeUnit.MILLISECONDS));
+        stage.exit(entered);
+        assertTrue(secondEntered.await(5, TimeUnit.SECONDS));
+        thread.join();
+
+        assertEquals(2, stage.getEntries());
+        assertEquals(0, stage.getActive());
+    }
+
+    /**
+     * Test that the configured number of slots overrides the default, and that zero means no limit.
+     */
+    @Test
+    public void testConfiguredSlots() {
+
+        GeneralConfig.getProperties().setProperty(SLOTS_KEY, "0");
+        HarvestStage stage = new HarvestStage("test", SLOTS_KEY, 1);
+        long first = stage.enter();
+        long second = stage.enter();
+        assertEquals(2, stage.getActive());
+        stage.exit(first);
+        stage.exit(second);
+        assertEquals(0, stage.getActive());
+    }
+}
@@ -31,8 +31,11 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryResult;
 
 import eionet.cr.common.Predicates;
 import eionet.cr.dao.DAOException;
@@ -44,6 +47,7 @@ import eionet.cr.dto.ObjectDTO;
 import eionet.cr.dto.SubjectDTO;
 import eionet.cr.test.helpers.CRDatabaseTestCase;
 import eionet.cr.test.helpers.JettyUtil;
+import eionet.cr.util.sesame.SesameUtil;
 import org.junit.Ignore;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -138,6 +142,41 @@ public class PullHarvestIT extends CRDatabaseTestCase {
         assertFalse(harvest.isSourceAvailable());
     }
 
+    /**
+     * Test that a harvest takes its download slot before connecting, so also when the connection fails, and releases it in the
+     * end.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDownloadStage() throws Exception {
+
+        String url = "http://www.jaanusheinlaid.tw";
+        HarvestSourceDTO source = new HarvestSourceDTO();
+        source.setUrl(url);
+        source.setIntervalMinutes(5);
+        DAOFactory.get().getDao(HarvestSourceDAO.class).addSource(source);
+
+        long entries = HarvestStage.DOWNLOAD.getEntries();
+        PullHarvest harvest = new PullHarvest(url);
+        harvest.execute();
+        assertFalse(harvest.isSourceAvailable());
+        assertEquals(entries + 1, HarvestStage.DOWNLOAD.getEntries());
+        assertEquals(0, HarvestStage.DOWNLOAD.getActive());
+
+        url = TestUtils.getFileUrl("simple-rdf.xml");
+        source = new HarvestSourceDTO();
+        source.setUrl(url);
+        source.setIntervalMinutes(5);
+        DAOFactory.get().getDao(HarvestSourceDAO.class).addSource(source);
+
+        harvest = new PullHarvest(url);
+        harvest.execute();
+        assertEquals(12, harvest.getStoredTriplesCount());
+        assertEquals(entries + 2, HarvestStage.DOWNLOAD.getEntries());
+        assertEquals(0, HarvestStage.DOWNLOAD.getActive());
+    }
+
     /**
      * @throws Exception
      *
@@ -175,4 +214,125 @@ public class PullHarvestIT extends CRDatabaseTestCase {
 
         assertEquals(6, harvest.getStoredTriplesCount());
     }
+
+    /**
+     * Test that content identical to the last harvest's is not loaded again, unless the source's graph has been cleared or
+     * emptied since.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testUnchangedContent() throws Exception {
+
+        String url = TestUtils.getFileUrl("simple-rdf.xml");
+        HarvestSourceDTO source = new HarvestSourceDTO();
+        source.setUrl(url);
+        source.setIntervalMinutes(5);
+        HarvestSourceDAO sourceDAO = DAOFactory.get().getDao(HarvestSourceDAO.class);
+        sourceDAO.addSource(source);
+
+        PullHarvest harvest = new PullHarvest(url);
+        harvest.execute();
+        assertEquals(12, harvest.getStoredTriplesCount());
+        assertNotNull(sourceDAO.getHarvestSourceByUrl(url).getContentDigest());
+
+        // Identical content is skipped.
+        harvest = harvestWithoutIfModifiedSince(url);
+        assertTrue(harvest.isSourceAvailable());
+        assertEquals(0, harvest.getStoredTriplesCount());
+        assertTrue(DAOFactory.get().getDao(HelperDAO.class).isGraphExists(url));
+
+        // Clearing the graph resets the digest, so the content is loaded again.
+        sourceDAO.clearGraph(url);
+        assertNull(sourceDAO.getHarvestSourceByUrl(url).getContentDigest());
+        harvest = harvestWithoutIfModifiedSince(url);
+        assertEquals(12, harvest.getStoredTriplesCount());
+
+        // So is content whose graph has been emptied by other means.
+        RepositoryConnection conn = SesameUtil.getRepositoryConnection();
+        try {
+            conn.clear(conn.getValueFactory().createURI(url));
+        } finally {
+            SesameUtil.close(conn);
+        }
+        assertNotNull(sourceDAO.getHarvestSourceByUrl(url).getContentDigest());
+        harvest = harvestWithoutIfModifiedSince(url);
+        assertEquals(12, harvest.getStoredTriplesCount());
+    }
+
+    /**
+     * Test that content is not loaded by difference into a graph that has been changed by other means than harvesting, even if
+     * the graph's triples count has not changed.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDiffLoadingOfChangedGraph() throws Exception {
+
+        String url = TestUtils.getFileUrl("simple-rdf.xml");
+        HarvestSourceDTO source = new HarvestSourceDTO();
+        source.setUrl(url);
+        source.setIntervalMinutes(5);
+        HarvestSourceDAO sourceDAO = DAOFactory.get().getDao(HarvestSourceDAO.class);
+        sourceDAO.addSource(source);
+
+        PullHarvest harvest = new PullHarvest(url);
+        harvest.execute();
+        assertEquals(12, harvest.getStoredTriplesCount());
+
+        // Replace one of the graph's triples with another one.
+        RepositoryConnection conn = SesameUtil.getRepositoryConnection();
+        Statement removed = null;
+        URI graph = conn.getValueFactory().createURI(url);
+        Statement added = conn.getValueFactory().createStatement(graph, conn.getValueFactory().createURI(url + "#p"),
+                conn.getValueFactory().createLiteral("added"));
+        try {
+            RepositoryResult<Statement> statements = conn.getStatements(null, null, null, false, graph);
+            try {
+                removed = statements.next();
+            } finally {
+                statements.close();
+            }
+            conn.remove(removed, graph);
+            conn.add(added, graph);
+            assertEquals(12, conn.size(graph));
+        } finally {
+            SesameUtil.close(conn);
+        }
+
+        // Harvesting the same content again restores the graph.
+        source = sourceDAO.getHarvestSourceByUrl(url);
+        source.setContentDigest(null);
+        sourceDAO.updateSourceHarvestFinished(source);
+        harvest = harvestWithoutIfModifiedSince(url);
+        assertEquals(12, harvest.getStoredTriplesCount());
+
+        conn = SesameUtil.getRepositoryConnection();
+        try {
+            assertEquals(12, conn.size(graph));
+            assertTrue(conn.hasStatement(removed.getSubject(), removed.getPredicate(), removed.getObject(), false, graph));
+            assertFalse(conn.hasStatement(added.getSubject(), added.getPredicate(), added.getObject(), false, graph));
+        } finally {
+            SesameUtil.close(conn);
+        }
+    }
+
+    /**
+     * Harvests the given source, making sure that the content is downloaded instead of the server responding "Not Modified".
+     *
+     * @param url The source URL.
+     * @return The executed harvest.
+     * @throws Exception
+     */
+    private static PullHarvest harvestWithoutIfModifiedSince(String url) throws Exception {
+
+        HarvestSourceDAO sourceDAO = DAOFactory.get().getDao(HarvestSourceDAO.class);
+        HarvestSourceDTO source = sourceDAO.getHarvestSourceByUrl(url);
+        source.setLastModified(null);
+        sourceDAO.updateSourceHarvestFinished(source);
+
+        PullHarvest harvest = new PullHarvest(url);
+        harvest.execute();
+        return harvest;
+    }
 }
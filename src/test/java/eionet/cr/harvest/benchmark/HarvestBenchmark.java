@@ -0,0 +1,488 @@
+package eionet.cr.harvest.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+
+import eionet.cr.config.GeneralConfig;
+import eionet.cr.dto.HarvestSourceDTO;
+import eionet.cr.harvest.HarvestException;
+import eionet.cr.harvest.HarvestStage;
+import eionet.cr.harvest.PullHarvest;
+import eionet.cr.util.URLUtil;
+
+/**
+ * Replays the harvests of {@link Payload}s served by a local {@link PayloadServer}, with {@link PullHarvest} running against an
+ * {@link InMemoryBackend}, and reports the throughput, allocation rate and stage latencies of each payload. Meant for catching
+ * performance regressions of the harvester's download, process and parse stages, without the noise of remote servers and the
+ * triple store. Note that the DAO's loading into the triple store (bulk loading, XOR-ing with the previous content, etc.) is
+ * replaced by the backend, so it is not measured. The full benchmark is run by {@link HarvestBenchmarkTest} in the "benchmark"
+ * Maven profile, e.g. "mvn -Pdocker,benchmark verify", and compared with a baseline of a previous run on the same machine.
+ *
+ * @author agent
+ */
+public class HarvestBenchmark {
+
+    /** Default tolerated slowdown compared with the baseline, as a fraction of the baseline throughput. */
+    public static final double DEFAULT_TOLERANCE = 0.2d;
+
+    /** */
+    private final PayloadServer server = new PayloadServer();
+
+    /** */
+    private final InMemoryBackend backend;
+
+    /** Generator of harvest source IDs. */
+    private int sourceIds;
+
+    /**
+     * Creates a new benchmark.
+     *
+     * @throws Exception If creating the backend fails.
+     */
+    public HarvestBenchmark() throws Exception {
+        backend = new InMemoryBackend();
+    }
+
+    /**
+     * Starts the payload server and installs the in-memory backend.
+     *
+     * @throws Exception If starting the server fails.
+     */
+    public void start() throws Exception {
+
+        // The local server is not to be treated politely, or the throttle's pauses would be measured instead of the harvests.
+        GeneralConfig.getProperty(GeneralConfig.HARVESTER_HOST_REQUESTS_PER_MINUTE);
+        GeneralConfig.getProperties().setProperty(GeneralConfig.HARVESTER_HOST_REQUESTS_PER_MINUTE, "0");
+
+        server.start();
+        backend.install();
+    }
+
+    /**
+     * Stops the payload server and uninstalls the in-memory backend.
+     *
+     * @throws Exception If stopping the server fails.
+     */
+    public void stop() throws Exception {
+
+        backend.uninstall();
+        server.stop();
+    }
+
+    /**
+     * Harvests the given payload the given number of times, after one warm-up harvest that is not measured.
+     *
+     * @param payload The payload.
+     * @param iterations Number of measured harvests.
+     * @return The result.
+     * @throws HarvestException If a harvest fails.
+     */
+    public Result run(Payload payload, int iterations) throws HarvestException {
+
+        String url = URLUtil.httpsToHttp(URLUtil.sanitizeHarvestSourceUrl(server.serve(payload)));
+        harvest(url);
+
+        StageSnapshot[] before = StageSnapshot.takeAll();
+        long allocatedBefore = getAllocatedBytes();
+        long started = System.nanoTime();
+        int triples = 0;
+        for (int i = 0; i < iterations; i++) {
+            triples += harvest(url);
+        }
+        long elapsedNanos = System.nanoTime() - started;
+        long allocatedBytes = allocatedBefore < 0 ? -1 : getAllocatedBytes() - allocatedBefore;
+        StageSnapshot[] after = StageSnapshot.takeAll();
+
+        StageSnapshot[] stages = new StageSnapshot[after.length];
+        for (int i = 0; i < after.length; i++) {
+            stages[i] = after[i].minus(before[i]);
+        }
+        return new Result(payload, iterations, triples, (long) payload.getBytes().length * iterations, elapsedNanos,
+                allocatedBytes, stages);
+    }
+
+    /**
+     * Harvests the given URL once.
+     *
+     * @param url The URL.
+     * @return Number of triples loaded.
+     * @throws HarvestException If the harvest fails.
+     */
+    private int harvest(String url) throws HarvestException {
+
+        HarvestSourceDTO sourceDTO = new HarvestSourceDTO();
+        sourceDTO.setSourceId(++sourceIds);
+        sourceDTO.setUrl(url);
+
+        PullHarvest harvest;
+        try {
+            harvest = new PullHarvest(sourceDTO);
+        } catch (Exception e) {
+            throw new HarvestException(e.getMessage(), e);
+        }
+        harvest.execute();
+        return harvest.getStoredTriplesCount();
+    }
+
+    /**
+     * @return Bytes allocated by the current thread so far, or -1 if not supported by the JVM.
+     */
+    private static long getAllocatedBytes() {
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if (sunThreadMXBean.isThreadAllocatedMemorySupported() && sunThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+                return sunThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Harvests all standard payloads the given number of times each, and prints the results.
+     *
+     * @param iterations Number of measured harvests per payload.
+     * @param triples Number of triples per generated payload.
+     * @return The results.
+     * @throws HarvestException If a harvest fails.
+     */
+    public List<Result> runAll(int iterations, int triples) throws HarvestException {
+
+        List<Result> results = new ArrayList<Result>();
+        for (Payload payload : Payload.standard(triples)) {
+            Result result = run(payload, iterations);
+            System.out.println(result);
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Compares the given results with the baseline in the given file, see
+     * {@link #compareWithBaseline(List, Properties, double)}. If the file does not exist yet, it is created from the results.
+     *
+     * @param results The results.
+     * @param baselineFile The baseline file.
+     * @param tolerance Tolerated slowdown as a fraction of the baseline throughput, e.g. 0.2 for 20%.
+     * @return Descriptions of the payloads whose throughput has dropped more than tolerated, empty if none.
+     * @throws IOException If reading or writing the baseline file fails.
+     */
+    public static List<String> checkBaseline(List<Result> results, File baselineFile, double tolerance) throws IOException {
+
+        if (!baselineFile.exists()) {
+            saveBaseline(results, baselineFile);
+            System.out.println("Baseline saved to " + baselineFile);
+            return new ArrayList<String>();
+        }
+
+        List<String> regressions = compareWithBaseline(results, loadBaseline(baselineFile), tolerance);
+        for (String regression : regressions) {
+            System.out.println("REGRESSION: " + regression);
+        }
+        return regressions;
+    }
+
+    /**
+     * Compares the given results with the given baseline: the throughput (triples per second) of every payload in the baseline
+     * must not be lower than the baseline's by more than the given fraction of it.
+     *
+     * @param results The results.
+     * @param baseline Baseline throughputs, by payload names.
+     * @param tolerance Tolerated slowdown as a fraction of the baseline throughput, e.g. 0.2 for 20%.
+     * @return Descriptions of the payloads whose throughput has dropped more than tolerated, empty if none.
+     */
+    public static List<String> compareWithBaseline(List<Result> results, Properties baseline, double tolerance) {
+
+        List<String> regressions = new ArrayList<String>();
+        for (Result result : results) {
+
+            String name = result.getPayload().getName();
+            String baselineValue = baseline.getProperty(name);
+            if (baselineValue == null) {
+                continue;
+            }
+            double minimum = Double.parseDouble(baselineValue) * (1 - tolerance);
+            if (result.getTriplesPerSecond() < minimum) {
+                regressions.add(String.format("%s: %.0f triples/s, baseline %s triples/s, minimum %.0f triples/s", name,
+                        result.getTriplesPerSecond(), baselineValue, minimum));
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * @param results
+     * @param file
+     * @throws IOException
+     */
+    private static void saveBaseline(List<Result> results, File file) throws IOException {
+
+        Properties baseline = new Properties();
+        for (Result result : results) {
+            baseline.setProperty(result.getPayload().getName(), String.format("%.0f", result.getTriplesPerSecond()));
+        }
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            baseline.store(outputStream, "Harvest benchmark baseline, triples per second by payload");
+        } finally {
+            IOUtils.closeQuietly(outputStream);
+        }
+    }
+
+    /**
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    private static Properties loadBaseline(File file) throws IOException {
+
+        Properties baseline = new Properties();
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            baseline.load(inputStream);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        return baseline;
+    }
+
+    /**
+     * The counters of a {@link HarvestStage} at some moment, or the difference of two such moments.
+     */
+    public static final class StageSnapshot {
+
+        /** */
+        private final String name;
+
+        /** */
+        private final long entries;
+
+        /** */
+        private final long waitMillis;
+
+        /** */
+        private final long busyMillis;
+
+        /**
+         * @param name
+         * @param entries
+         * @param waitMillis
+         * @param busyMillis
+         */
+        private StageSnapshot(String name, long entries, long waitMillis, long busyMillis) {
+            this.name = name;
+            this.entries = entries;
+            this.waitMillis = waitMillis;
+            this.busyMillis = busyMillis;
+        }
+
+        /**
+         * @return Snapshots of the download, process and load stages.
+         */
+        static StageSnapshot[] takeAll() {
+
+            HarvestStage[] stages = {HarvestStage.DOWNLOAD, HarvestStage.PROCESS, HarvestStage.LOAD};
+            StageSnapshot[] snapshots = new StageSnapshot[stages.length];
+            for (int i = 0; i < stages.length; i++) {
+                HarvestStage stage = stages[i];
+                snapshots[i] =
+                        new StageSnapshot(stage.getName(), stage.getEntries(), stage.getWaitMillis(), stage.getBusyMillis());
+            }
+            return snapshots;
+        }
+
+        /**
+         * @param earlier An earlier snapshot of the same stage.
+         * @return The difference of this and the given snapshot.
+         */
+        StageSnapshot minus(StageSnapshot earlier) {
+            return new StageSnapshot(name, entries - earlier.entries, waitMillis - earlier.waitMillis,
+                    busyMillis - earlier.busyMillis);
+        }
+
+        /**
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the entries
+         */
+        public long getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return Average time (ms) waited for a slot of the stage per entry.
+         */
+        public double getAverageWaitMillis() {
+            return entries == 0 ? 0 : (double) waitMillis / entries;
+        }
+
+        /**
+         * @return Average time (ms) spent in the stage per entry.
+         */
+        public double getAverageBusyMillis() {
+            return entries == 0 ? 0 : (double) busyMillis / entries;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return String.format("%s %d x %.1f ms (waited %.1f ms)", name, entries, getAverageBusyMillis(),
+                    getAverageWaitMillis());
+        }
+    }
+
+    /**
+     * The result of benchmarking one payload.
+     */
+    public static final class Result {
+
+        /** */
+        private static final double MEGABYTE = 1048576d;
+
+        /** */
+        private final Payload payload;
+
+        /** */
+        private final int iterations;
+
+        /** */
+        private final long triples;
+
+        /** */
+        private final long bytes;
+
+        /** */
+        private final long elapsedNanos;
+
+        /** */
+        private final long allocatedBytes;
+
+        /** */
+        private final StageSnapshot[] stages;
+
+        /**
+         * @param payload
+         * @param iterations
+         * @param triples
+         * @param bytes
+         * @param elapsedNanos
+         * @param allocatedBytes
+         * @param stages
+         */
+        Result(Payload payload, int iterations, long triples, long bytes, long elapsedNanos, long allocatedBytes,
+                StageSnapshot[] stages) {
+            this.payload = payload;
+            this.iterations = iterations;
+            this.triples = triples;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.stages = stages;
+        }
+
+        /**
+         * @return the payload
+         */
+        public Payload getPayload() {
+            return payload;
+        }
+
+        /**
+         * @return Total number of triples loaded by all measured harvests.
+         */
+        public long getTriples() {
+            return triples;
+        }
+
+        /**
+         * @return Average number of triples loaded per harvest.
+         */
+        public long getTriplesPerHarvest() {
+            return iterations == 0 ? 0 : triples / iterations;
+        }
+
+        /**
+         * @return Number of triples loaded per second.
+         */
+        public double getTriplesPerSecond() {
+            return perSecond(triples);
+        }
+
+        /**
+         * @return Number of payload bytes harvested per second.
+         */
+        public double getBytesPerSecond() {
+            return perSecond(bytes);
+        }
+
+        /**
+         * @return Number of bytes allocated per second by the harvesting thread, or -1 if not supported by the JVM. Does not
+         *         include the allocations of helper threads, e.g. the parsing of archive entries.
+         */
+        public double getAllocatedBytesPerSecond() {
+            return allocatedBytes < 0 ? -1 : perSecond(allocatedBytes);
+        }
+
+        /**
+         * @return Average duration of one harvest in milliseconds.
+         */
+        public double getMillisPerHarvest() {
+            return iterations == 0 ? 0 : elapsedNanos / 1000000d / iterations;
+        }
+
+        /**
+         * @return The download, process and load stage counters of the measured harvests.
+         */
+        public StageSnapshot[] getStages() {
+            return stages.clone();
+        }
+
+        /**
+         * @param count
+         * @return
+         */
+        private double perSecond(long count) {
+            return elapsedNanos == 0 ? 0 : count * 1000000000d / elapsedNanos;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%-20s %6d triples, %9d bytes, %8.1f ms/harvest, %10.0f triples/s, %8.2f MB/s, "
+                    + "%8.2f MB/s alloc", payload.getName(), getTriplesPerHarvest(), bytes / Math.max(1, iterations),
+                    getMillisPerHarvest(), getTriplesPerSecond(), getBytesPerSecond() / MEGABYTE,
+                    getAllocatedBytesPerSecond() / MEGABYTE));
+            for (StageSnapshot stage : stages) {
+                sb.append("; ").append(stage);
+            }
+            return sb.toString();
+        }
+    }
+}
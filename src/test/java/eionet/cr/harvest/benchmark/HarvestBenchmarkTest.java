@@ -0,0 +1,127 @@
+package eionet.cr.harvest.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eionet.cr.ApplicationTestContext;
+
+/**
+ * Tests of the {@link HarvestBenchmark}. By default only a smoke test: every standard payload is harvested once, and loads the
+ * expected triples. The throughput is only checked by {@link #testBaseline()} if a baseline file is given in the
+ * {@link #BASELINE_PROPERTY} system property, as it depends on the machine. The "benchmark" Maven profile runs just this test
+ * with a baseline, e.g. "mvn -Pdocker,benchmark verify -Dbenchmark.tolerance=0.1".
+ *
+ * @author agent
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { ApplicationTestContext.class })
+public class HarvestBenchmarkTest {
+
+    /** System property of the baseline file, created from the results if it does not exist yet. */
+    public static final String BASELINE_PROPERTY = "benchmark.baseline";
+
+    /** System property of the number of measured harvests per payload. */
+    public static final String ITERATIONS_PROPERTY = "benchmark.iterations";
+
+    /** System property of the number of triples per generated payload. */
+    public static final String TRIPLES_PROPERTY = "benchmark.triples";
+
+    /** System property of the tolerated slowdown, as a fraction of the baseline throughput. */
+    public static final String TOLERANCE_PROPERTY = "benchmark.tolerance";
+
+    /** */
+    private HarvestBenchmark benchmark;
+
+    /**
+     * @throws Exception Any sort of error.
+     */
+    @Before
+    public void setUp() throws Exception {
+        benchmark = new HarvestBenchmark();
+        benchmark.start();
+    }
+
+    /**
+     * @throws Exception Any sort of error.
+     */
+    @After
+    public void tearDown() throws Exception {
+        benchmark.stop();
+    }
+
+    /**
+     * Test that all standard payloads are harvested, and the results are reported.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testStandardPayloads() throws Exception {
+
+        for (Payload payload : Payload.standard(200)) {
+
+            HarvestBenchmark.Result result = benchmark.run(payload, 1);
+            if (payload.getExpectedTriples() >= 0) {
+                assertEquals(payload.getName(), payload.getExpectedTriples(), result.getTriplesPerHarvest());
+            } else {
+                assertTrue(payload.getName(), result.getTriples() > 0);
+            }
+            assertTrue(payload.getName(), result.getBytesPerSecond() > 0);
+            assertTrue(result.toString().startsWith(payload.getName()));
+        }
+    }
+
+    /**
+     * Test that the results are compared with the baseline within the tolerance.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testCompareWithBaseline() throws Exception {
+
+        Payload payload = Payload.standard(10).get(0);
+        List<HarvestBenchmark.Result> results = Arrays.asList(new HarvestBenchmark.Result(payload, 1, 850, 0, 1000000000L, -1,
+                new HarvestBenchmark.StageSnapshot[0]));
+
+        Properties baseline = new Properties();
+        baseline.setProperty(payload.getName(), "1000");
+        assertTrue(HarvestBenchmark.compareWithBaseline(results, baseline, 0.2d).isEmpty());
+        assertEquals(1, HarvestBenchmark.compareWithBaseline(results, baseline, 0.1d).size());
+        assertTrue(HarvestBenchmark.compareWithBaseline(results, new Properties(), 0.1d).isEmpty());
+    }
+
+    /**
+     * Test that the throughput of no standard payload has dropped below the baseline by more than the tolerance. Skipped if no
+     * baseline file is given.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testBaseline() throws Exception {
+
+        String baselineFile = System.getProperty(BASELINE_PROPERTY);
+        Assume.assumeTrue("No benchmark baseline given", StringUtils.isNotBlank(baselineFile));
+
+        int iterations = Integer.parseInt(System.getProperty(ITERATIONS_PROPERTY, "10"));
+        int triples = Integer.parseInt(System.getProperty(TRIPLES_PROPERTY, "100000"));
+        double tolerance =
+                Double.parseDouble(System.getProperty(TOLERANCE_PROPERTY, String.valueOf(HarvestBenchmark.DEFAULT_TOLERANCE)));
+
+        List<HarvestBenchmark.Result> results = benchmark.runAll(iterations, triples);
+        List<String> regressions = HarvestBenchmark.checkBaseline(results, new File(baselineFile), tolerance);
+        assertTrue("Throughput dropped below the baseline: " + regressions, regressions.isEmpty());
+    }
+}
@@ -0,0 +1,213 @@
+package eionet.cr.harvest.benchmark;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_MOCKS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.when;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.mockito.ArgumentMatchers;
+import org.mockito.MockedStatic;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.repository.RepositoryConnection;
+
+import eionet.cr.dao.DAO;
+import eionet.cr.dao.DAOException;
+import eionet.cr.dao.DAOFactory;
+import eionet.cr.dao.HarvestDAO;
+import eionet.cr.dao.HarvestSourceDAO;
+import eionet.cr.harvest.load.ContentStream;
+import eionet.cr.util.sesame.SesameConnectionProvider;
+
+/**
+ * An in-memory stand-in for the DAO layer and the triple store, for running harvests without a database. Every DAO is a mock
+ * that does nothing, except that {@link HarvestSourceDAO#loadContent(Collection, String)} parses the harvested content with its
+ * loader for real, into a repository connection that just counts the added triples. Installed with {@link #install()}, and
+ * removed with {@link #uninstall()}, by mocking the static {@link DAOFactory#get()} and {@link SesameConnectionProvider}
+ * methods. Static mocks are only in effect on the thread that created them, so the backend is only seen by the harvests that run
+ * on the thread that installed it.
+ *
+ * @author agent
+ */
+public class InMemoryBackend extends DAOFactory {
+
+    /** The DAOs handed out so far, by their interfaces. */
+    private final Map<Class<?>, DAO> daos = new HashMap<Class<?>, DAO>();
+
+    /** The repository connection that the content is loaded into. */
+    private final RepositoryConnection repoConn;
+
+    /** Mock of the static {@link DAOFactory#get()} while installed, null otherwise. */
+    private MockedStatic<DAOFactory> daoFactoryMock;
+
+    /** Mock of the static {@link SesameConnectionProvider} methods while installed, null otherwise. */
+    private MockedStatic<SesameConnectionProvider> connectionProviderMock;
+
+    /** The SQL connection that is given to the content loaders. */
+    private final Connection sqlConn = mock(Connection.class, RETURNS_MOCKS);
+
+    /** Total number of triples added into {@link #repoConn}. */
+    private final AtomicLong addedTriples = new AtomicLong();
+
+    /** Generator of harvest IDs. */
+    private final AtomicInteger harvestIds = new AtomicInteger();
+
+    /**
+     * Creates a new backend.
+     *
+     * @throws Exception If mocking the repository fails.
+     */
+    @SuppressWarnings("unchecked")
+    public InMemoryBackend() throws Exception {
+
+        repoConn = mock(RepositoryConnection.class, RETURNS_MOCKS);
+        when(repoConn.getValueFactory()).thenReturn(new ValueFactoryImpl());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                for (Statement statement : (Iterable<Statement>) invocation.getArgument(0)) {
+                    if (statement != null) {
+                        addedTriples.incrementAndGet();
+                    }
+                }
+                return null;
+            }
+        }).when(repoConn).add(any(Iterable.class), ArgumentMatchers.<Resource>any());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                addedTriples.incrementAndGet();
+                return null;
+            }
+        }).when(repoConn).add(any(Statement.class), ArgumentMatchers.<Resource>any());
+    }
+
+    /**
+     * Installs this backend in place of the real DAOs and triple store, for the current thread.
+     */
+    public void install() {
+
+        daoFactoryMock = mockStatic(DAOFactory.class);
+        daoFactoryMock.when(DAOFactory::get).thenReturn(this);
+
+        connectionProviderMock = mockStatic(SesameConnectionProvider.class);
+        connectionProviderMock.when(SesameConnectionProvider::getRepositoryConnection).thenReturn(repoConn);
+        connectionProviderMock.when(SesameConnectionProvider::getReadOnlyRepositoryConnection).thenReturn(repoConn);
+    }
+
+    /**
+     * Restores the real DAOs and triple store. Must be called on the thread that installed the backend.
+     */
+    public void uninstall() {
+
+        if (daoFactoryMock != null) {
+            daoFactoryMock.close();
+            daoFactoryMock = null;
+        }
+        if (connectionProviderMock != null) {
+            connectionProviderMock.close();
+            connectionProviderMock = null;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see eionet.cr.dao.DAOFactory#getDao(java.lang.Class)
+     */
+    @Override
+    public <T extends DAO> T getDao(Class<T> implementedInterface) {
+
+        synchronized (daos) {
+            DAO dao = daos.get(implementedInterface);
+            if (dao == null) {
+                try {
+                    dao = createDao(implementedInterface);
+                } catch (DAOException e) {
+                    throw new IllegalStateException(e);
+                }
+                daos.put(implementedInterface, dao);
+            }
+            return implementedInterface.cast(dao);
+        }
+    }
+
+    /**
+     * @param implementedInterface
+     * @return
+     * @throws DAOException
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends DAO> T createDao(Class<T> implementedInterface) throws DAOException {
+
+        T dao = mock(implementedInterface);
+        if (dao instanceof HarvestDAO) {
+            // A harvest that gets no ID is considered un-started and fails.
+            when(((HarvestDAO) dao).insertStartedHarvest(anyInt(), anyString(), anyString(), anyString())).thenAnswer(
+                    new Answer<Integer>() {
+                        @Override
+                        public Integer answer(InvocationOnMock invocation) {
+                            return harvestIds.incrementAndGet();
+                        }
+                    });
+        } else if (dao instanceof HarvestSourceDAO) {
+            when(((HarvestSourceDAO) dao).loadContent(anyCollection(), anyString())).thenAnswer(new Answer<Integer>() {
+                @Override
+                public Integer answer(InvocationOnMock invocation) throws Throwable {
+                    return loadContent((Collection<? extends ContentStream>) invocation.getArgument(0),
+                            (String) invocation.getArgument(1));
+                }
+            });
+        }
+        return dao;
+    }
+
+    /**
+     * Loads the given content streams with their loaders, like the real DAO does, just without clearing the graph first.
+     *
+     * @param contentStreams The streams.
+     * @param graphUri The graph to load into.
+     * @return Number of loaded triples.
+     * @throws DAOException If loading fails.
+     */
+    private int loadContent(Collection<? extends ContentStream> contentStreams, String graphUri) throws DAOException {
+
+        int tripleCount = 0;
+        for (ContentStream contentStream : contentStreams) {
+            InputStream inputStream = null;
+            try {
+                inputStream = contentStream.openStream();
+                tripleCount += contentStream.getContentLoader().load(inputStream, repoConn, sqlConn, graphUri, graphUri);
+            } catch (Exception e) {
+                throw new DAOException("Loading content failed: " + e, e);
+            } finally {
+                IOUtils.closeQuietly(inputStream);
+            }
+        }
+        return tripleCount;
+    }
+
+    /**
+     * @return Total number of triples added into the repository.
+     */
+    public long getAddedTriples() {
+        return addedTriples.get();
+    }
+}
@@ -0,0 +1,264 @@
+package eionet.cr.harvest.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFWriter;
+import org.openrdf.rio.Rio;
+
+/**
+ * A piece of content served by {@link PayloadServer} to be harvested in a {@link HarvestBenchmark}. Either a recorded one from
+ * the test resources, or one generated in the given RDF format, compression or feed format with the given number of triples.
+ *
+ * @author agent
+ */
+public final class Payload {
+
+    /** Namespace of the generated resources. */
+    private static final String NAMESPACE = "http://benchmark.cr.eionet.europa.eu/";
+
+    /** Number of triples generated per subject. */
+    private static final int TRIPLES_PER_SUBJECT = 4;
+
+    /** */
+    private final String name;
+
+    /** */
+    private final String path;
+
+    /** */
+    private final String contentType;
+
+    /** */
+    private final byte[] bytes;
+
+    /** */
+    private final int expectedTriples;
+
+    /**
+     * @param name Name of the payload in reports.
+     * @param path Path where the payload is served at, starting with a slash.
+     * @param contentType Content type that the payload is served with.
+     * @param bytes The payload's content.
+     * @param expectedTriples Number of triples the harvest of the payload must load, or -1 if not known.
+     */
+    public Payload(String name, String path, String contentType, byte[] bytes, int expectedTriples) {
+        this.name = name;
+        this.path = path;
+        this.contentType = contentType;
+        this.bytes = bytes;
+        this.expectedTriples = expectedTriples;
+    }
+
+    /**
+     * Returns the standard set of benchmarked payloads: generated RDF/XML, Turtle, N3, gzipped RDF/XML, a zip of RDF/XML and
+     * Turtle entries and an RSS feed, plus the recorded RDF/XML and Atom feed payloads of the test resources.
+     *
+     * @param triples Number of triples in each generated payload (zip entry).
+     * @return The payloads.
+     * @throws IOException If generating or reading a payload fails.
+     */
+    public static List<Payload> standard(int triples) throws IOException {
+
+        List<Payload> payloads = new ArrayList<Payload>();
+        payloads.add(generated(RDFFormat.RDFXML, triples));
+        payloads.add(generated(RDFFormat.TURTLE, triples));
+        payloads.add(generated(RDFFormat.N3, triples));
+        payloads.add(gzip(generated(RDFFormat.RDFXML, triples)));
+        payloads.add(zip("zip", generated(RDFFormat.RDFXML, triples), generated(RDFFormat.TURTLE, triples)));
+        payloads.add(rss(triples / TRIPLES_PER_SUBJECT));
+        payloads.add(recorded("persons.rdf", "application/rdf+xml"));
+        payloads.add(recorded("test-atomfeed.xml", "application/atom+xml"));
+        return payloads;
+    }
+
+    /**
+     * Generates a payload of the given number of triples in the given RDF format. N3 is served as plain text, so that the
+     * harvester has to tell it by the file extension.
+     *
+     * @param rdfFormat The RDF format.
+     * @param triples Number of triples.
+     * @return The payload.
+     * @throws IOException If writing the payload fails.
+     */
+    public static Payload generated(RDFFormat rdfFormat, int triples) throws IOException {
+
+        ValueFactory valueFactory = new ValueFactoryImpl();
+        URI type = valueFactory.createURI("http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
+        URI itemClass = valueFactory.createURI(NAMESPACE + "Item");
+        URI title = valueFactory.createURI(NAMESPACE + "title");
+        URI value = valueFactory.createURI(NAMESPACE + "value");
+        URI related = valueFactory.createURI(NAMESPACE + "related");
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        RDFWriter writer = Rio.createWriter(rdfFormat, outputStream);
+        try {
+            writer.startRDF();
+            writer.handleNamespace("b", NAMESPACE);
+            for (int i = 0; i < triples; i++) {
+                URI subject = valueFactory.createURI(NAMESPACE + "item/" + i / TRIPLES_PER_SUBJECT);
+                switch (i % TRIPLES_PER_SUBJECT) {
+                    case 0:
+                        writer.handleStatement(valueFactory.createStatement(subject, type, itemClass));
+                        break;
+                    case 1:
+                        writer.handleStatement(valueFactory.createStatement(subject, title,
+                                valueFactory.createLiteral("Item number " + i / TRIPLES_PER_SUBJECT, "en")));
+                        break;
+                    case 2:
+                        writer.handleStatement(valueFactory.createStatement(subject, value, valueFactory.createLiteral(i)));
+                        break;
+                    default:
+                        writer.handleStatement(valueFactory.createStatement(subject, related,
+                                valueFactory.createURI(NAMESPACE + "item/" + (i * 7919 % Math.max(1, triples)))));
+                        break;
+                }
+            }
+            writer.endRDF();
+        } catch (RDFHandlerException e) {
+            throw new IOException(e.toString(), e);
+        }
+
+        String extension = rdfFormat.getDefaultFileExtension();
+        String contentType = RDFFormat.N3.equals(rdfFormat) ? "text/plain" : rdfFormat.getDefaultMIMEType();
+        return new Payload(rdfFormat.getName(), "/" + triples + "/generated." + extension, contentType,
+                outputStream.toByteArray(), triples);
+    }
+
+    /**
+     * Returns the given payload gzipped.
+     *
+     * @param payload The payload.
+     * @return The gzipped payload.
+     * @throws IOException If compressing fails.
+     */
+    public static Payload gzip(Payload payload) throws IOException {
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        GZIPOutputStream gzipStream = new GZIPOutputStream(outputStream);
+        gzipStream.write(payload.getBytes());
+        gzipStream.close();
+        return new Payload(payload.getName() + "+gzip", payload.getPath() + ".gz", "application/x-gzip",
+                outputStream.toByteArray(), payload.getExpectedTriples());
+    }
+
+    /**
+     * Returns a zip archive with the given payloads as its entries.
+     *
+     * @param name Name of the archive payload.
+     * @param entries The payloads to archive.
+     * @return The archive payload.
+     * @throws IOException If archiving fails.
+     */
+    public static Payload zip(String name, Payload... entries) throws IOException {
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ZipOutputStream zipStream = new ZipOutputStream(outputStream);
+        int expectedTriples = 0;
+        for (Payload entry : entries) {
+            zipStream.putNextEntry(new ZipEntry(entry.getPath().substring(entry.getPath().lastIndexOf('/') + 1)));
+            zipStream.write(entry.getBytes());
+            zipStream.closeEntry();
+            expectedTriples = expectedTriples < 0 || entry.getExpectedTriples() < 0 ? -1
+                    : expectedTriples + entry.getExpectedTriples();
+        }
+        zipStream.close();
+        return new Payload(name, "/" + name + "/" + entries.length + "/archive.zip", "application/zip",
+                outputStream.toByteArray(), expectedTriples);
+    }
+
+    /**
+     * Generates an RSS 2.0 feed with the given number of items.
+     *
+     * @param items Number of items.
+     * @return The payload.
+     */
+    public static Payload rss(int items) {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<rss version=\"2.0\">\n<channel>\n");
+        sb.append("<title>Benchmark feed</title>\n<link>").append(NAMESPACE).append("</link>\n");
+        sb.append("<description>Generated for harvest benchmarks</description>\n");
+        for (int i = 0; i < items; i++) {
+            sb.append("<item>\n<title>Item number ").append(i).append("</title>\n");
+            sb.append("<link>").append(NAMESPACE).append("item/").append(i).append("</link>\n");
+            sb.append("<description>Description of item number ").append(i).append("</description>\n");
+            sb.append("<pubDate>Mon, 04 Feb 2013 11:59:05 GMT</pubDate>\n</item>\n");
+        }
+        sb.append("</channel>\n</rss>\n");
+
+        try {
+            return new Payload("RSS", "/" + items + "/feed.rss", "application/rss+xml", sb.toString().getBytes("UTF-8"), -1);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Loads a recorded payload from the test resources.
+     *
+     * @param resourceName Name of the resource.
+     * @param contentType Content type that the payload is to be served with.
+     * @return The payload.
+     * @throws IOException If reading the resource fails.
+     */
+    public static Payload recorded(String resourceName, String contentType) throws IOException {
+
+        InputStream inputStream = Payload.class.getClassLoader().getResourceAsStream(resourceName);
+        if (inputStream == null) {
+            throw new IOException("Resource not found: " + resourceName);
+        }
+        try {
+            return new Payload(resourceName, "/recorded/" + resourceName, contentType, IOUtils.toByteArray(inputStream), -1);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the contentType
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the bytes
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return Number of triples the harvest of the payload must load, or -1 if not known.
+     */
+    public int getExpectedTriples() {
+        return expectedTriples;
+    }
+}
@@ -0,0 +1,108 @@
+package eionet.cr.harvest.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+/**
+ * A local HTTP server that stands in for remote harvest sources, serving recorded or generated {@link Payload}s from memory.
+ * Listens on a free port of the loopback interface.
+ *
+ * @author agent
+ */
+public class PayloadServer {
+
+    /** The served payloads by their paths. */
+    private final Map<String, Payload> payloads = new ConcurrentHashMap<String, Payload>();
+
+    /** Total number of content bytes served. */
+    private final AtomicLong servedBytes = new AtomicLong();
+
+    /** */
+    private Server server;
+
+    /**
+     * Starts the server.
+     *
+     * @throws Exception If starting fails.
+     */
+    public void start() throws Exception {
+
+        server = new Server(new InetSocketAddress("localhost", 0));
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+                    throws IOException {
+
+                baseRequest.setHandled(true);
+                Payload payload = payloads.get(target);
+                if (payload == null) {
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                    return;
+                }
+
+                byte[] bytes = payload.getBytes();
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.setContentType(payload.getContentType());
+                response.setContentLength(bytes.length);
+                response.getOutputStream().write(bytes);
+                servedBytes.addAndGet(bytes.length);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Stops the server.
+     *
+     * @throws Exception If stopping fails.
+     */
+    public void stop() throws Exception {
+
+        if (server != null) {
+            server.stop();
+            server = null;
+        }
+    }
+
+    /**
+     * Adds the given payload to the served ones.
+     *
+     * @param payload The payload.
+     * @return The URL where the payload is served at.
+     */
+    public String serve(Payload payload) {
+
+        payloads.put(payload.getPath(), payload);
+        return getUrl(payload.getPath());
+    }
+
+    /**
+     * @param path Path on this server, starting with a slash.
+     * @return The URL of the given path on this server.
+     */
+    public String getUrl(String path) {
+
+        if (server == null) {
+            throw new IllegalStateException("Server not started");
+        }
+        return "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + path;
+    }
+
+    /**
+     * @return Total number of content bytes served.
+     */
+    public long getServedBytes() {
+        return servedBytes.get();
+    }
+}
@@ -0,0 +1,55 @@
+package eionet.cr.harvest.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link MemoryContentStream} class.
+ *
+ * @author agent
+ */
+public class MemoryContentStreamTest {
+
+    /**
+     * Test that the content can be read, and read repeatedly, from an off-heap buffer.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testRepeatedReads() throws Exception {
+
+        byte[] content = "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"/>".getBytes("UTF-8");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length + 10);
+        buffer.put(content);
+        buffer.flip();
+
+        MemoryContentStream contentStream = new MemoryContentStream(buffer, null);
+        assertEquals(content.length, contentStream.getSize());
+
+        for (int i = 0; i < 2; i++) {
+            InputStream inputStream = contentStream.openStream();
+            try {
+                assertEquals(content.length, inputStream.available());
+                assertEquals(content[0], (byte) inputStream.read());
+                assertEquals(2L, inputStream.skip(2));
+
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                IOUtils.copy(inputStream, outputStream);
+                byte[] rest = outputStream.toByteArray();
+                assertEquals(content.length - 3, rest.length);
+                assertEquals(new String(content, 3, content.length - 3, "UTF-8"), new String(rest, "UTF-8"));
+                assertEquals(-1, inputStream.read());
+                assertTrue(inputStream.read(new byte[5], 0, 5) < 0);
+            } finally {
+                inputStream.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package eionet.cr.harvest.load;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link PagedContentStream} class.
+ *
+ * @author agent
+ */
+public class PagedContentStreamTest {
+
+    /**
+     * Test that the pages are read one after another until an empty page, and no further, and that the blank nodes of
+     * different pages are kept apart.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testPages() throws Exception {
+
+        final String[] pages = {"_:b0 <p> \"1\" .\n<b> <p> \"2\" .\n", "<c> <p> \"3 _:b0 \\\" _:b0\" .\n\n<d> <p> \"4\" .",
+                "<e> <p> _:b0 .\n", " \n", "<f> <p> \"6\" .\n"};
+        final List<Integer> fetched = new ArrayList<Integer>();
+        PagedContentStream.PageFetcher pageFetcher = new PagedContentStream.PageFetcher() {
+            @Override
+            public InputStream fetch(int pageNo) throws IOException {
+                synchronized (fetched) {
+                    fetched.add(pageNo);
+                }
+                return new ByteArrayInputStream(pages[pageNo].getBytes("UTF-8"));
+            }
+        };
+
+        ExecutorService threads = Executors.newSingleThreadExecutor();
+        try {
+            PagedContentStream contentStream =
+                    new PagedContentStream(pageFetcher, new ByteArrayInputStream(pages[0].getBytes("UTF-8")), 2, null, threads);
+            InputStream inputStream = contentStream.openStream();
+            String content = IOUtils.toString(inputStream, "UTF-8");
+            inputStream.close();
+
+            assertEquals("_:p0xb0 <p> \"1\" .\n<b> <p> \"2\" .\n" + pages[1] + "\n<e> <p> _:p2xb0 .\n" + pages[3], content);
+            assertEquals(4, contentStream.getPagesRead());
+            synchronized (fetched) {
+                assertEquals("[1, 2, 3]", fetched.subList(0, 3).toString());
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    /**
+     * Test that the content can be read only once.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test(expected = IOException.class)
+    public void testNotRepeatable() throws Exception {
+
+        ExecutorService threads = Executors.newSingleThreadExecutor();
+        try {
+            PagedContentStream contentStream = new PagedContentStream(null, new ByteArrayInputStream(new byte[0]), 10, null, threads);
+            IOUtils.toString(contentStream.openStream(), "UTF-8");
+            contentStream.openStream();
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package eionet.cr.harvest.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.repository.RepositoryConnection;
+
+import eionet.cr.harvest.TimeoutException;
+
+/**
+ * Tests for the {@link StatementBuffer} class.
+ *
+ * @author agent
+ */
+public class StatementBufferTest {
+
+    /** */
+    private static final ValueFactory VALUE_FACTORY = new ValueFactoryImpl();
+
+    /** */
+    private static final Resource CONTEXT = VALUE_FACTORY.createURI("http://test.eu/graph");
+
+    /**
+     * Test that statements are flushed in batches of the given size, and the rest on explicit flush.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testBatches() throws Exception {
+
+        final List<Integer> flushedBatchSizes = new ArrayList<Integer>();
+        RepositoryConnection repoConn = mock(RepositoryConnection.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                int count = 0;
+                for (Statement statement : (Iterable<Statement>) invocation.getArgument(0)) {
+                    assertTrue(statement != null);
+                    count++;
+                }
+                flushedBatchSizes.add(count);
+                return null;
+            }
+        }).when(repoConn).add(any(Iterable.class), eq(CONTEXT));
+
+        StatementBuffer buffer = new StatementBuffer(repoConn, CONTEXT, 3, 0L);
+        int flushes = 0;
+        for (int i = 0; i < 8; i++) {
+            if (buffer.add(createStatement(i))) {
+                flushes++;
+            }
+        }
+
+        assertEquals(2, flushes);
+        assertEquals(6, buffer.getFlushedCount());
+        assertEquals(2, buffer.getSize());
+
+        buffer.flush();
+        buffer.flush();
+        assertEquals(8, buffer.getFlushedCount());
+        assertEquals(0, buffer.getSize());
+        assertEquals("[3, 3, 2]", flushedBatchSizes.toString());
+    }
+
+    /**
+     * Test the timeout check.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test(expected = TimeoutException.class)
+    public void testTimeout() throws Exception {
+
+        StatementBuffer buffer = new StatementBuffer(mock(RepositoryConnection.class), CONTEXT, 10, 1L);
+        Thread.sleep(20);
+        buffer.checkTimeout();
+    }
+
+    /**
+     * Test that no timeout is checked when none given.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testNoTimeout() throws Exception {
+
+        StatementBuffer buffer = new StatementBuffer(mock(RepositoryConnection.class), CONTEXT, 10, 0L);
+        assertFalse(buffer.add(createStatement(0)));
+        Thread.sleep(5);
+        buffer.checkTimeout();
+    }
+
+    /**
+     * @param i
+     * @return
+     */
+    private static Statement createStatement(int i) {
+        return VALUE_FACTORY.createStatement(VALUE_FACTORY.createURI("http://test.eu/s" + i),
+                VALUE_FACTORY.createURI("http://test.eu/p"), VALUE_FACTORY.createLiteral(i));
+    }
+}
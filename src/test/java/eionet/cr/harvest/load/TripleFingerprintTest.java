@@ -0,0 +1,112 @@
+package eionet.cr.harvest.load;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+
+/**
+ * Tests for the {@link TripleFingerprint} class.
+ *
+ * @author agent
+ */
+public class TripleFingerprintTest {
+
+    /** */
+    private static final ValueFactory VALUE_FACTORY = new ValueFactoryImpl();
+
+    /** */
+    private static final URI PREDICATE = VALUE_FACTORY.createURI("http://test.eu/p");
+
+    /**
+     * Test that the difference of two fingerprints tells the removed and added triples, ignoring duplicates and blank nodes.
+     */
+    @Test
+    public void testMinus() {
+
+        TripleFingerprint.Builder oldBuilder = new TripleFingerprint.Builder(0);
+        TripleFingerprint.Builder newBuilder = new TripleFingerprint.Builder(0);
+        for (int i = 0; i < 10; i++) {
+            oldBuilder.add(createStatement(i));
+            newBuilder.add(createStatement(i + 5));
+            newBuilder.add(createStatement(i + 5));
+        }
+        newBuilder.add(VALUE_FACTORY.createStatement(VALUE_FACTORY.createBNode(), PREDICATE, VALUE_FACTORY.createLiteral("x")));
+
+        TripleFingerprint oldFingerprint = oldBuilder.build();
+        TripleFingerprint newFingerprint = newBuilder.build();
+        assertEquals(10, newFingerprint.size());
+        assertEquals(1, newFingerprint.getBlankNodeTriples());
+
+        long[] removed = oldFingerprint.minus(newFingerprint);
+        long[] added = newFingerprint.minus(oldFingerprint);
+        assertEquals(5, removed.length);
+        assertEquals(5, added.length);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(oldFingerprint.contains(TripleFingerprint.hash(createStatement(i))));
+            assertFalse(newFingerprint.contains(TripleFingerprint.hash(createStatement(i))));
+        }
+    }
+
+    /**
+     * Test that literals are hashed the way they are stored, i.e. xsd:string typed literals same as plain ones.
+     */
+    @Test
+    public void testLiteralHashes() {
+
+        URI subject = VALUE_FACTORY.createURI("http://test.eu/s");
+        long plain = TripleFingerprint.hash(VALUE_FACTORY.createStatement(subject, PREDICATE, VALUE_FACTORY.createLiteral("1")));
+        long string = TripleFingerprint.hash(VALUE_FACTORY.createStatement(subject, PREDICATE,
+                VALUE_FACTORY.createLiteral("1", VALUE_FACTORY.createURI("http://www.w3.org/2001/XMLSchema#string"))));
+        long integer = TripleFingerprint.hash(VALUE_FACTORY.createStatement(subject, PREDICATE,
+                VALUE_FACTORY.createLiteral("1", VALUE_FACTORY.createURI("http://www.w3.org/2001/XMLSchema#integer"))));
+        long uri = TripleFingerprint.hash(VALUE_FACTORY.createStatement(subject, PREDICATE, VALUE_FACTORY.createURI("1")));
+
+        assertEquals(plain, string);
+        assertTrue(plain != integer);
+        assertTrue(plain != uri);
+    }
+
+    /**
+     * Test the maximum number of triples.
+     */
+    @Test
+    public void testMaxTriples() {
+
+        TripleFingerprint.Builder builder = new TripleFingerprint.Builder(3);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(builder.add(createStatement(i)));
+        }
+        assertFalse(builder.add(createStatement(3)));
+        assertNull(builder.build());
+    }
+
+    /**
+     * Test creating a fingerprint of persisted hashes.
+     */
+    @Test
+    public void testCreate() {
+
+        TripleFingerprint fingerprint = TripleFingerprint.create(new long[] {3, 1, 2}, 0, 3);
+        assertArrayEquals(new long[] {1, 2, 3}, fingerprint.getHashes());
+        assertTrue(fingerprint.contains(2));
+        assertFalse(fingerprint.contains(4));
+        assertEquals(3, fingerprint.getGraphTriplesCount());
+    }
+
+    /**
+     * @param i
+     * @return
+     */
+    private static Statement createStatement(int i) {
+        return VALUE_FACTORY.createStatement(VALUE_FACTORY.createURI("http://test.eu/s" + i), PREDICATE,
+                VALUE_FACTORY.createLiteral(i));
+    }
+}
@@ -0,0 +1,194 @@
+package eionet.cr.harvest.scheduled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eionet.cr.harvest.CurrentHarvests;
+import eionet.cr.harvest.Harvest;
+import eionet.cr.harvest.HarvestException;
+
+/**
+ * Tests for the {@link HarvestExecutor} class.
+ *
+ * @author agent
+ */
+public class HarvestExecutorTest {
+
+    /** */
+    private ExecutorService threads;
+
+    /** */
+    private final List<String> executionOrder = Collections.synchronizedList(new ArrayList<String>());
+
+    /** */
+    private final ConcurrentHashMap<String, AtomicInteger> runningPerHost = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /** */
+    private final ConcurrentHashMap<String, Integer> maxRunningPerHost = new ConcurrentHashMap<String, Integer>();
+
+    /** */
+    private final AtomicInteger running = new AtomicInteger();
+
+    /** */
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        threads = Executors.newFixedThreadPool(4);
+        CurrentHarvests.setQueuedHarvest(null);
+    }
+
+    @After
+    public void tearDown() {
+        threads.shutdownNow();
+        CurrentHarvests.setQueuedHarvest(null);
+    }
+
+    /**
+     * Test that worker and per-host limits are respected and that all harvests get executed.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testLimits() throws Exception {
+
+        HarvestExecutor executor = new HarvestExecutor(threads, 3, 1, 3);
+        for (int i = 0; i < 4; i++) {
+            executor.submitBatch(new MockHarvest("http://host1.eu/source" + i, 50, null));
+            executor.submitBatch(new MockHarvest("http://host2.eu/source" + i, 50, null));
+            executor.submitUrgent(new MockHarvest("http://host3.eu/source" + i, 50, null));
+        }
+        executor.awaitCompletion();
+
+        assertEquals(12, executionOrder.size());
+        assertEquals(0, executor.size());
+        assertTrue("Expected max 3 concurrent harvests, but was " + maxRunning.get(), maxRunning.get() <= 3);
+        for (String host : Arrays.asList("host1.eu", "host2.eu", "host3.eu")) {
+            assertEquals("Unexpected concurrency for " + host, Integer.valueOf(1), maxRunningPerHost.get(host));
+        }
+        assertTrue("Expected no queued harvests left", CurrentHarvests.getQueuedHarvests().isEmpty());
+    }
+
+    /**
+     * Test that a batch harvest gets its turn after the configured number of consecutive urgent harvests.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testFairness() throws Exception {
+
+        CountDownLatch latch = new CountDownLatch(1);
+        HarvestExecutor executor = new HarvestExecutor(threads, 1, 1, 2);
+
+        // The first harvest blocks the only worker until everything else has been queued.
+        executor.submitUrgent(new MockHarvest("http://u0.eu", 0, latch));
+        executor.submitBatch(new MockHarvest("http://b1.eu", 0, null));
+        executor.submitBatch(new MockHarvest("http://b2.eu", 0, null));
+        executor.submitUrgent(new MockHarvest("http://u1.eu", 0, null));
+        executor.submitUrgent(new MockHarvest("http://u2.eu", 0, null));
+        executor.submitUrgent(new MockHarvest("http://u3.eu", 0, null));
+
+        // Only the started harvest is registered as current, the others are waiting.
+        assertTrue(CurrentHarvests.contains("http://u0.eu"));
+        assertFalse(CurrentHarvests.contains("http://b2.eu"));
+        assertTrue(executor.isWaiting("http://b2.eu"));
+        assertFalse(executor.isWaiting("http://u0.eu"));
+        assertEquals(6, executor.size());
+
+        latch.countDown();
+        executor.awaitCompletion();
+
+        assertEquals(Arrays.asList("http://u0.eu", "http://u1.eu", "http://b1.eu", "http://u2.eu", "http://u3.eu",
+                "http://b2.eu"), executionOrder);
+    }
+
+    /**
+     * A harvest that only records its execution.
+     */
+    private class MockHarvest implements Harvest {
+
+        /** */
+        private final String url;
+
+        /** */
+        private final long sleepMillis;
+
+        /** */
+        private final CountDownLatch latch;
+
+        /**
+         * @param url
+         * @param sleepMillis
+         * @param latch
+         */
+        MockHarvest(String url, long sleepMillis, CountDownLatch latch) {
+            this.url = url;
+            this.sleepMillis = sleepMillis;
+            this.latch = latch;
+        }
+
+        @Override
+        public void execute() throws HarvestException {
+
+            String host = HarvestExecutor.hostOf(this);
+            runningPerHost.putIfAbsent(host, new AtomicInteger());
+            int hostCount = runningPerHost.get(host).incrementAndGet();
+            int count = running.incrementAndGet();
+            synchronized (HarvestExecutorTest.this) {
+                Integer max = maxRunningPerHost.get(host);
+                maxRunningPerHost.put(host, max == null ? hostCount : Math.max(max, hostCount));
+                maxRunning.set(Math.max(maxRunning.get(), count));
+            }
+
+            executionOrder.add(url);
+            try {
+                if (latch != null) {
+                    latch.await(10, TimeUnit.SECONDS);
+                }
+                if (sleepMillis > 0) {
+                    Thread.sleep(sleepMillis);
+                }
+            } catch (InterruptedException e) {
+                throw new HarvestException(e.toString(), e);
+            } finally {
+                running.decrementAndGet();
+                runningPerHost.get(host).decrementAndGet();
+            }
+        }
+
+        @Override
+        public void setHarvestUser(String harvestUser) {
+        }
+
+        @Override
+        public String getContextUrl() {
+            return url;
+        }
+
+        @Override
+        public int getStoredTriplesCount() {
+            return 0;
+        }
+
+        @Override
+        public boolean isBeingHarvested(String url) {
+            return this.url.equals(url);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package eionet.cr.harvest.scheduled;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import eionet.cr.dto.HarvestSourceDTO;
+import eionet.cr.dto.HarvestStatDTO;
+
+/**
+ * Tests for the {@link HarvestPlanner} class.
+ *
+ * @author agent
+ */
+public class HarvestPlannerTest {
+
+    /** */
+    private static final long NOW = System.currentTimeMillis();
+
+    /**
+     * Loads the harvest history of the tested sources.
+     */
+    @Before
+    public void setUp() {
+
+        List<HarvestStatDTO> stats = new ArrayList<HarvestStatDTO>();
+        stats.add(createStat("http://a.eu", 60));
+        stats.add(createStat("http://b.eu", 50));
+        stats.add(createStat("http://c.eu", 40));
+        stats.add(createStat("http://c.eu", 20));
+        stats.add(createStat("http://d.eu", 500));
+        HarvestPlanner.loadDurations(stats);
+    }
+
+    /**
+     * Test that the most valuable combination of sources that fits into the budget is picked.
+     */
+    @Test
+    public void testPacking() {
+
+        assertEquals(30000L, HarvestPlanner.getPredictedDuration("http://c.eu"));
+        assertEquals(60000L, HarvestPlanner.getPredictedDuration("http://unknown.eu"));
+
+        HarvestSourceDTO a = createSource("http://a.eu", 1.5);
+        HarvestSourceDTO b = createSource("http://b.eu", 1.2);
+        HarvestSourceDTO c = createSource("http://c.eu", 1.1);
+        HarvestSourceDTO x = createSource("http://unknown.eu", 1.0);
+
+        assertEquals(Arrays.asList(a, c), HarvestPlanner.plan(Arrays.asList(a, b, c), 100000L, 0, NOW));
+        assertEquals(Arrays.asList(a, b, c, x), HarvestPlanner.plan(Arrays.asList(a, b, c, x), 200000L, 0, NOW));
+    }
+
+    /**
+     * Test that sources that have missed their deadline are preferred, and that a late source exceeding the budget is
+     * harvested alone.
+     */
+    @Test
+    public void testDeadlines() {
+
+        HarvestSourceDTO a = createSource("http://a.eu", 1.9);
+        HarvestSourceDTO b = createSource("http://b.eu", 2.5);
+        HarvestSourceDTO c = createSource("http://c.eu", 1.8);
+        assertEquals(Arrays.asList(b, c), HarvestPlanner.plan(Arrays.asList(a, b, c), 100000L, 0, NOW));
+
+        HarvestSourceDTO d = createSource("http://d.eu", 3.0);
+        assertEquals(Arrays.asList(d), HarvestPlanner.plan(Arrays.asList(a, b, c, d), 100000L, 0, NOW));
+
+        d = createSource("http://d.eu", 1.9);
+        assertEquals(Arrays.asList(b, c), HarvestPlanner.plan(Arrays.asList(a, b, c, d), 100000L, 0, NOW));
+        assertEquals(Arrays.asList(d), HarvestPlanner.plan(Arrays.asList(d), 100000L, 0, NOW));
+    }
+
+    /**
+     * Test that sources are valued by how long they are overdue, regardless of their harvest intervals.
+     */
+    @Test
+    public void testOverdueOrder() {
+
+        HarvestSourceDTO a = createSource("http://a.eu", 10, 30);
+        HarvestSourceDTO b = createSource("http://b.eu", 1440, 1740);
+        assertEquals(20 * 60000L, HarvestPlanner.getOverdue(a, NOW));
+        assertEquals(300 * 60000L, HarvestPlanner.getOverdue(b, NOW));
+        assertEquals(Arrays.asList(b), HarvestPlanner.plan(Arrays.asList(a, b), 60000L, 0, NOW));
+
+        HarvestSourceDTO c = new HarvestSourceDTO();
+        c.setUrl("http://c.eu");
+        c.setIntervalMinutes(60);
+        c.setTimeCreated(new Date(NOW - 120 * 60000L));
+        assertEquals(120 * 60000L, HarvestPlanner.getOverdue(c, NOW));
+    }
+
+    /**
+     * Test that at least the given minimum number of sources is picked, the most overdue ones, even if they do not fit into the
+     * budget.
+     */
+    @Test
+    public void testMinSources() {
+
+        List<HarvestSourceDTO> candidates = new ArrayList<HarvestSourceDTO>();
+        for (int i = 0; i < 6; i++) {
+            candidates.add(createSource("http://unknown" + i + ".eu", 1.0 + i / 10d));
+        }
+
+        assertEquals(5, HarvestPlanner.plan(candidates, 20000L, 5, NOW).size());
+        assertEquals(candidates.subList(4, 6), HarvestPlanner.plan(candidates, 20000L, 2, NOW));
+        assertEquals(candidates.subList(5, 6), HarvestPlanner.plan(candidates, 20000L, 0, NOW));
+    }
+
+    /**
+     * @param url
+     * @param urgency
+     * @return
+     */
+    private static HarvestSourceDTO createSource(String url, double urgency) {
+        return createSource(url, 60, (long) (urgency * 60));
+    }
+
+    /**
+     * @param url
+     * @param intervalMinutes
+     * @param minutesSinceHarvest
+     * @return
+     */
+    private static HarvestSourceDTO createSource(String url, int intervalMinutes, long minutesSinceHarvest) {
+
+        HarvestSourceDTO source = new HarvestSourceDTO();
+        source.setUrl(url);
+        source.setIntervalMinutes(intervalMinutes);
+        source.setLastHarvest(new Date(NOW - minutesSinceHarvest * 60000L));
+        return source;
+    }
+
+    /**
+     * @param url
+     * @param seconds
+     * @return
+     */
+    private static HarvestStatDTO createStat(String url, int seconds) {
+
+        HarvestStatDTO stat = new HarvestStatDTO();
+        stat.setSourceUrl(url);
+        stat.setDatetimeStarted(new Date(NOW - seconds * 1000L));
+        stat.setDatetimeFinished(new Date(NOW));
+        return stat;
+    }
+}
@@ -0,0 +1,110 @@
+package eionet.cr.harvest.scheduled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eionet.cr.harvest.scheduled.HarvestSchedule.ScheduledSource;
+
+/**
+ * Tests for the {@link HarvestSchedule} class.
+ *
+ * @author agent
+ */
+public class HarvestScheduleTest {
+
+    /** */
+    private static final long MINUTE = 60000L;
+
+    /** */
+    private static final long NOW = 1000 * MINUTE;
+
+    /**
+     * Loads a schedule of: source 1 harvested 90 minutes ago with 60 minute interval, source 2 harvested 30 minutes ago with 60
+     * minute interval, source 3 never harvested, source 4 unavailable, source 5 online CSV/TSV, source 6 not scheduled at all.
+     */
+    @Before
+    public void setUp() {
+
+        HarvestSchedule.load(Arrays.asList(source(1, NOW - 90 * MINUTE, 60, 0, false),
+                source(2, NOW - 30 * MINUTE, 60, 0, false), source(3, 0L, 60, 0, false), source(4, NOW - 900 * MINUTE, 60, 5,
+                        false), source(5, NOW - 120 * MINUTE, 60, 0, true), source(6, NOW - 900 * MINUTE, 0, 0, false)));
+    }
+
+    /**
+     *
+     */
+    @After
+    public void tearDown() {
+        HarvestSchedule.invalidate();
+    }
+
+    /**
+     * Test that due sources are returned in the order of due time, and that unavailable, online CSV/TSV and unscheduled sources
+     * are treated as expected.
+     */
+    @Test
+    public void testGetDue() {
+
+        assertEquals(6, HarvestSchedule.size());
+        assertEquals(Arrays.asList(3L, 1L), HarvestSchedule.getDue(false, NOW, 10));
+        assertEquals(Arrays.asList(3L), HarvestSchedule.getDue(false, NOW, 1));
+        assertEquals(Arrays.asList(5L), HarvestSchedule.getDue(true, NOW, 10));
+        assertEquals(Arrays.asList(3L, 1L, 2L), HarvestSchedule.getDue(false, NOW + 30 * MINUTE, 10));
+        assertEquals(3, HarvestSchedule.countDue(NOW));
+        assertEquals(4, HarvestSchedule.countDue(NOW + 30 * MINUTE));
+    }
+
+    /**
+     * Test re-scheduling and removal of sources.
+     */
+    @Test
+    public void testUpdates() {
+
+        HarvestSchedule.update(1L, new Date(NOW), 60, 0);
+        assertFalse(HarvestSchedule.isDue(1L, NOW));
+        assertTrue(HarvestSchedule.isDue(1L, NOW + 60 * MINUTE));
+
+        HarvestSchedule.update(5, 7L, 1000);
+        assertFalse(HarvestSchedule.isDue(5L, NOW));
+        assertFalse(HarvestSchedule.isDue(7L, NOW));
+        assertTrue(HarvestSchedule.isDue(7L, NOW + 900 * MINUTE));
+
+        HarvestSchedule.increaseUnavailableCount(3L);
+        HarvestSchedule.increaseUnavailableCount(3L);
+        assertEquals(Arrays.asList(3L), HarvestSchedule.getDue(false, NOW, 10));
+        HarvestSchedule.update(3L, null, 60, 5);
+        assertTrue(HarvestSchedule.getDue(false, NOW, 10).isEmpty());
+
+        // An unavailable source becomes due again once available.
+        HarvestSchedule.update(4L, new Date(NOW - 900 * MINUTE), 60, 0);
+        assertEquals(Arrays.asList(4L), HarvestSchedule.getDue(false, NOW, 10));
+        HarvestSchedule.update(4L, new Date(NOW - 900 * MINUTE), 60, 5);
+        assertTrue(HarvestSchedule.getDue(false, NOW, 10).isEmpty());
+
+        HarvestSchedule.addIfAbsent(source(8, 0L, 60, 0, false));
+        assertEquals(Arrays.asList(8L), HarvestSchedule.getDue(false, NOW, 10));
+        assertEquals(8L, HarvestSchedule.remove(8L).getUrlHash());
+        assertTrue(HarvestSchedule.getDue(false, NOW, 10).isEmpty());
+    }
+
+    /**
+     * @param id
+     * @param lastHarvest
+     * @param intervalMinutes
+     * @param countUnavail
+     * @param onlineCsvTsv
+     * @return
+     */
+    private static ScheduledSource source(int id, long lastHarvest, int intervalMinutes, int countUnavail, boolean onlineCsvTsv) {
+        return new ScheduledSource(id, id, new Date(NOW - 2000 * MINUTE + id), lastHarvest == 0L ? null : new Date(lastHarvest),
+                intervalMinutes, countUnavail, onlineCsvTsv);
+    }
+}
@@ -120,4 +120,32 @@ public class UrgentHarvestIT extends CRDatabaseTestCase {
         Thread.sleep(1000);
         assertFalse("Didn't expect this URL in harvest queue any more: " + url, UrgentHarvestQueue.isInQueue(url));
     }
+
+    /**
+     * Test that claimed items are not claimed again, and are removed by their lease token only.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testClaim() throws Exception {
+
+        UrgentHarvestQueue.addPullHarvests(Arrays.asList("http://url.under.test/1", "http://url.under.test/2",
+                "http://url.under.test/3"), "heinlja");
+
+        String token1 = UrgentHarvestQueue.newLeaseToken();
+        List<UrgentHarvestQueueItemDTO> claimed1 = UrgentHarvestQueue.claim(2, token1);
+        assertEquals("Expected two claimed items", 2, claimed1.size());
+
+        String token2 = UrgentHarvestQueue.newLeaseToken();
+        List<UrgentHarvestQueueItemDTO> claimed2 = UrgentHarvestQueue.claim(2, token2);
+        assertEquals("Expected one claimed item", 1, claimed2.size());
+        assertTrue("Expected an item not claimed before", claimed1.get(0).getItemId() != claimed2.get(0).getItemId()
+                && claimed1.get(1).getItemId() != claimed2.get(0).getItemId());
+        assertTrue("Expected nothing left to claim", UrgentHarvestQueue.claim(2, UrgentHarvestQueue.newLeaseToken()).isEmpty());
+
+        UrgentHarvestQueue.removeClaimed(token1);
+        List<UrgentHarvestQueueItemDTO> queue = DAOFactory.get().getDao(UrgentHarvestQueueDAO.class).getUrgentHarvestQueue();
+        assertEquals("Expected only the item of the second claim in queue", 1, queue.size());
+        assertEquals(claimed2.get(0).getItemId(), queue.get(0).getItemId());
+    }
 }
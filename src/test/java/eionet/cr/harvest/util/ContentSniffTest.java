@@ -0,0 +1,123 @@
+package eionet.cr.harvest.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.openrdf.rio.RDFFormat;
+
+/**
+ * Tests for the {@link ContentSniff} class.
+ *
+ * @author agent
+ */
+public class ContentSniffTest {
+
+    /**
+     * Test RDF/XML and other XML content.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testXml() throws Exception {
+
+        ContentSniff sniff = sniff("<?xml version=\"1.0\"?>\n<!-- comment -->\n"
+                + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">\n</rdf:RDF>", "UTF-8");
+        assertEquals(ContentSniff.Type.XML, sniff.getType());
+        assertEquals(RDFFormat.RDFXML, sniff.getLikelyRdfFormat());
+        assertTrue(sniff.isPossibly(RDFFormat.RDFXML));
+        assertFalse(sniff.isPossibly(RDFFormat.TURTLE));
+
+        sniff = sniff("\uFEFF<?xml version=\"1.0\" encoding=\"UTF-16\"?>\n<habitat xsi:noNamespaceSchemaLocation=\"x.xsd\"/>",
+                "UTF-16LE");
+        assertEquals(ContentSniff.Type.XML, sniff.getType());
+        assertNull(sniff.getLikelyRdfFormat());
+        assertTrue(sniff.isPossiblyXml());
+
+        sniff = sniff("<?xml version=\"1.0\" encoding=\"UTF-16\"?>\n<a/>", "UTF-16BE");
+        assertEquals(ContentSniff.Type.XML, sniff.getType());
+
+        sniff = sniff("<br/> <p>", "UTF-8");
+        assertEquals(ContentSniff.Type.XML, sniff.getType());
+    }
+
+    /**
+     * Test Turtle, N-Triples and N3 content.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testText() throws Exception {
+
+        ContentSniff sniff = sniff("# comment\n@prefix ex: <http://example.org/> .\nex:a ex:b \"c\" .", "UTF-8");
+        assertEquals(ContentSniff.Type.TEXT, sniff.getType());
+        assertEquals(RDFFormat.TURTLE, sniff.getLikelyRdfFormat());
+        assertFalse(sniff.isPossiblyXml());
+        assertFalse(sniff.isPossibly(RDFFormat.RDFXML));
+        assertTrue(sniff.isPossibly(RDFFormat.N3));
+
+        sniff = sniff("<http://example.org/a> <http://example.org/b> \"c\" .\n", "UTF-8");
+        assertEquals(ContentSniff.Type.TEXT, sniff.getType());
+        assertEquals(RDFFormat.TURTLE, sniff.getLikelyRdfFormat());
+
+        sniff = sniff("PREFIX ex: <http://example.org/>\n@forAll ex:x .\n{ ex:x a ex:C } => { ex:x a ex:D } .", "UTF-8");
+        assertEquals(RDFFormat.N3, sniff.getLikelyRdfFormat());
+
+        sniff = sniff("<> a <http://example.org/O> .\n", "UTF-8");
+        assertEquals(ContentSniff.Type.TEXT, sniff.getType());
+        assertEquals(RDFFormat.TURTLE, sniff.getLikelyRdfFormat());
+
+        // Relative and URN IRIs could be XML element names as well, so neither format is ruled out.
+        sniff = sniff("<urn:isbn:1> <urn:p> \"x\" .\n", "UTF-8");
+        assertEquals(ContentSniff.Type.UNKNOWN, sniff.getType());
+        assertEquals(RDFFormat.TURTLE, sniff.getLikelyRdfFormat());
+        assertTrue(sniff.isPossibly(RDFFormat.TURTLE));
+        assertTrue(sniff.isPossibly(RDFFormat.RDFXML));
+
+        sniff = sniff("<a> <b> <c> .\n", "UTF-8");
+        assertEquals(ContentSniff.Type.UNKNOWN, sniff.getType());
+        assertEquals(RDFFormat.TURTLE, sniff.getLikelyRdfFormat());
+        assertTrue(sniff.isPossibly(RDFFormat.N3));
+
+        sniff = sniff("id,name\n1,Tallinn\n", "UTF-8");
+        assertEquals(ContentSniff.Type.TEXT, sniff.getType());
+        assertNull(sniff.getLikelyRdfFormat());
+    }
+
+    /**
+     * Test binary and empty content, and sniffing from a file.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testBinaryAndFile() throws Exception {
+
+        byte[] bytes = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0, 0, 0x0D};
+        ContentSniff sniff = ContentSniff.sniff(bytes, bytes.length);
+        assertEquals(ContentSniff.Type.BINARY, sniff.getType());
+        assertFalse(sniff.isPossibly(RDFFormat.RDFXML));
+        assertFalse(sniff.isPossibly(RDFFormat.TURTLE));
+
+        assertEquals(ContentSniff.Type.UNKNOWN, sniff(" \n ", "UTF-8").getType());
+
+        File file = new File(getClass().getClassLoader().getResource("simple-rdf.xml").getFile());
+        sniff = ContentSniff.sniff(file);
+        assertEquals(ContentSniff.Type.XML, sniff.getType());
+        assertEquals(RDFFormat.RDFXML, sniff.getLikelyRdfFormat());
+    }
+
+    /**
+     * @param content
+     * @param charset
+     * @return
+     * @throws Exception
+     */
+    private static ContentSniff sniff(String content, String charset) throws Exception {
+        byte[] bytes = content.getBytes(charset);
+        return ContentSniff.sniff(bytes, bytes.length);
+    }
+}
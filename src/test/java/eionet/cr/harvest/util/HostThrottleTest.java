@@ -0,0 +1,102 @@
+package eionet.cr.harvest.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link HostThrottle} class.
+ *
+ * @author agent
+ */
+public class HostThrottleTest {
+
+    /**
+     * Test that requests beyond the burst size wait for the token bucket to be refilled.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testRequestRate() throws Exception {
+
+        HostThrottle throttle = new HostThrottle("test.eu", 600, 4, 10000L, 0, 0L);
+
+        long started = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            throttle.release(throttle.acquire(), 200, null);
+        }
+        assertTrue(System.currentTimeMillis() - started < 50);
+
+        throttle.release(throttle.acquire(), 200, null);
+        assertTrue(System.currentTimeMillis() - started >= 80);
+    }
+
+    /**
+     * Test that the concurrency limit grows with fast successful responses, and is halved by failed and slow ones.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+
+        HostThrottle throttle = new HostThrottle("test.eu", 0, 4, 100L, 0, 0L);
+        assertEquals(1, throttle.getConcurrencyLimit());
+
+        for (int i = 0; i < 10; i++) {
+            throttle.release(throttle.acquire(), 200, null);
+        }
+        assertEquals(4, throttle.getConcurrencyLimit());
+
+        throttle.release(throttle.acquire(), 503, null);
+        assertEquals(2, throttle.getConcurrencyLimit());
+
+        throttle.release(System.currentTimeMillis() - 1000, 200, null);
+        assertEquals(1, throttle.getConcurrencyLimit());
+
+        throttle.release(throttle.acquire(), -1, null);
+        assertEquals(1, throttle.getConcurrencyLimit());
+    }
+
+    /**
+     * Test that the circuit is opened by consecutive failures, and closed again by a successful trial request.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testCircuitBreaker() throws Exception {
+
+        HostThrottle throttle = new HostThrottle("test.eu", 0, 4, 10000L, 3, 50L);
+        throttle.release(throttle.acquire(), 500, null);
+        throttle.release(throttle.acquire(), 404, null);
+        throttle.release(throttle.acquire(), 500, null);
+        throttle.release(throttle.acquire(), -1, null);
+        assertFalse(throttle.isCircuitOpen());
+
+        throttle.release(throttle.acquire(), 429, null);
+        assertTrue(throttle.isCircuitOpen());
+        assertEquals(3, throttle.getConsecutiveFailures());
+        try {
+            throttle.acquire();
+            fail("Expected " + HostUnavailableException.class.getSimpleName());
+        } catch (HostUnavailableException e) {
+            // Expected.
+        }
+
+        Thread.sleep(60);
+        long started = throttle.acquire();
+        try {
+            throttle.acquire();
+            fail("Expected " + HostUnavailableException.class.getSimpleName() + " during trial request");
+        } catch (HostUnavailableException e) {
+            // Expected.
+        }
+
+        throttle.release(started, 200, null);
+        assertFalse(throttle.isCircuitOpen());
+        assertEquals(0, throttle.getConsecutiveFailures());
+        throttle.release(throttle.acquire(), 200, null);
+    }
+}
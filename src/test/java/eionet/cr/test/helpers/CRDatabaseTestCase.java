@@ -20,6 +20,7 @@
  * Jaanus Heinlaid, Tieto Eesti*/
 package eionet.cr.test.helpers;
 
+import eionet.cr.harvest.scheduled.HarvestSchedule;
 import eionet.cr.test.helpers.dbunit.DbUnitDatabaseConnection;
 import eionet.cr.util.sesame.SesameUtil;
 import org.apache.commons.collections.CollectionUtils;
@@ -68,6 +69,9 @@ public abstract class CRDatabaseTestCase extends DatabaseTestCase {
 
         super.setUp();
         setUpTripleStore();
+
+        // The test data replaces the harvest sources, so the in-memory harvest schedule must be reloaded.
+        HarvestSchedule.invalidate();
         repoConn = SesameUtil.getRepositoryConnection();
     }
 
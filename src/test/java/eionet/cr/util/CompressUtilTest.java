@@ -0,0 +1,173 @@
+package eionet.cr.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link CompressUtil} class.
+ *
+ * @author agent
+ */
+public class CompressUtilTest {
+
+    /** */
+    private static final String CONTENT = "<http://example.org/a> <http://example.org/b> \"c\" .\n";
+
+    /** */
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("compress-util-test", null);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Test that plain files are read as they are.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testPlain() throws Exception {
+
+        write(new FileOutputStream(file));
+        UnpackedInputStream inputStream = CompressUtil.openUnpacked(file);
+        try {
+            assertFalse(inputStream.isUnpacked());
+            assertEquals(CONTENT, IOUtils.toString(inputStream, "UTF-8"));
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Test that gzip and bzip2 files are decompressed on the fly.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testCompressed() throws Exception {
+
+        write(new GZIPOutputStream(new FileOutputStream(file)));
+        assertUnpacked("gz", null, null);
+
+        write(new BZip2CompressorOutputStream(new FileOutputStream(file)));
+        assertUnpacked("bzip2", null, null);
+    }
+
+    /**
+     * Test that the first file entry of a zip archive is read, even if the archive is also gzipped.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testArchived() throws Exception {
+
+        write(zip(new FileOutputStream(file)));
+        assertUnpacked(null, "zip", "data/content.nt");
+
+        write(zip(new GZIPOutputStream(new FileOutputStream(file))));
+        assertUnpacked("gz", "zip", "data/content.nt");
+    }
+
+    /**
+     * Test iterating over all file entries of an archive.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testEntries() throws Exception {
+
+        ZipOutputStream zipOutputStream = zip(new FileOutputStream(file));
+        zipOutputStream.write(CONTENT.getBytes("UTF-8"));
+        zipOutputStream.putNextEntry(new ZipEntry("data/empty/"));
+        zipOutputStream.putNextEntry(new ZipEntry("data/other.nt"));
+        write(zipOutputStream);
+        assertTrue(CompressUtil.isArchive(file));
+
+        UnpackedInputStream inputStream = CompressUtil.openUnpacked(file);
+        try {
+            assertEquals("data/content.nt", inputStream.getEntryName());
+            assertEquals(CONTENT, IOUtils.toString(inputStream, "UTF-8"));
+            assertEquals("data/other.nt", inputStream.nextEntry());
+            assertEquals(CONTENT, IOUtils.toString(inputStream, "UTF-8"));
+            assertNull(inputStream.nextEntry());
+            assertNull(inputStream.nextEntry());
+        } finally {
+            inputStream.close();
+        }
+
+        write(new GZIPOutputStream(new FileOutputStream(file)));
+        assertFalse(CompressUtil.isArchive(file));
+    }
+
+    /**
+     * @param compressorName
+     * @param archiverName
+     * @param entryName
+     * @throws IOException
+     */
+    private void assertUnpacked(String compressorName, String archiverName, String entryName) throws IOException {
+
+        UnpackedInputStream inputStream = CompressUtil.openUnpacked(file);
+        try {
+            assertTrue(inputStream.isUnpacked());
+            assertEquals(compressorName, inputStream.getCompressorName());
+            assertEquals(archiverName, inputStream.getArchiverName());
+            if (entryName == null) {
+                assertNull(inputStream.getEntryName());
+            } else {
+                assertEquals(entryName, inputStream.getEntryName());
+            }
+            assertEquals(CONTENT, IOUtils.toString(inputStream, "UTF-8"));
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * @param outputStream
+     * @return
+     * @throws IOException
+     */
+    private static ZipOutputStream zip(OutputStream outputStream) throws IOException {
+
+        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+        zipOutputStream.putNextEntry(new ZipEntry("data/"));
+        zipOutputStream.closeEntry();
+        zipOutputStream.putNextEntry(new ZipEntry("data/content.nt"));
+        return zipOutputStream;
+    }
+
+    /**
+     * @param outputStream
+     * @throws IOException
+     */
+    private static void write(OutputStream outputStream) throws IOException {
+        try {
+            outputStream.write(CONTENT.getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+}
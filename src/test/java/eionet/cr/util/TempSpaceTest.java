@@ -0,0 +1,180 @@
+package eionet.cr.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eionet.cr.ApplicationTestContext;
+import eionet.cr.config.GeneralConfig;
+
+/**
+ * Tests for the {@link TempSpace} class.
+ *
+ * @author agent
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { ApplicationTestContext.class })
+public class TempSpaceTest {
+
+    @After
+    public void tearDown() {
+        GeneralConfig.getProperties().remove(GeneralConfig.TEMP_SPACE_QUOTA);
+        GeneralConfig.getProperties().remove(GeneralConfig.TEMP_SPACE_MAX_WAIT);
+    }
+
+    /**
+     * Test that a temporary file is deleted as soon as its last reference is released.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testReferences() throws Exception {
+
+        File file = TempSpace.newFile();
+        write(file, 100);
+        TempSpace.update(file);
+        int files = TempSpace.getFileCount();
+        long deleted = TempSpace.getDeletedCount();
+        assertTrue(TempSpace.getUsedBytes() >= 100);
+
+        TempSpace.acquire(file);
+        TempSpace.release(file);
+        assertTrue(file.exists());
+        assertEquals(files, TempSpace.getFileCount());
+
+        TempSpace.release(file);
+        assertFalse(file.exists());
+        assertEquals(files - 1, TempSpace.getFileCount());
+        assertEquals(deleted + 1, TempSpace.getDeletedCount());
+
+        // Releasing an already released file does not count it again.
+        TempSpace.release(file);
+        assertEquals(deleted + 1, TempSpace.getDeletedCount());
+
+        // Releasing an untracked file is ignored, discarding deletes it straight away.
+        File untracked = File.createTempFile("eionet.cr.tempfile-", null);
+        TempSpace.release(untracked);
+        assertTrue(untracked.exists());
+        TempSpace.discard(untracked);
+        assertFalse(untracked.exists());
+        assertEquals(deleted + 2, TempSpace.getDeletedCount());
+        assertEquals(0, TempSpace.getPendingCount());
+    }
+
+    /**
+     * Test that no waiting for space is done when no quota configured.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testNoQuota() throws Exception {
+
+        File file = TempSpace.newFile();
+        write(file, 1000);
+        try {
+            TempSpace.awaitSpace(null, Long.MAX_VALUE / 2);
+            assertEquals(0, TempSpace.getWaitCount());
+        } finally {
+            TempSpace.release(file);
+        }
+    }
+
+    /**
+     * Test that the used space is the total of the bytes reserved for and written into the files, and is given back when they
+     * are updated or released.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testAccounting() throws Exception {
+
+        long used = TempSpace.getUsedBytes();
+        File file = TempSpace.newFile();
+        TempSpace.reserve(file, 1000);
+        assertEquals(used + 1000, TempSpace.getUsedBytes());
+
+        write(file, 100);
+        assertEquals(used + 1000, TempSpace.getUsedBytes());
+        TempSpace.update(file);
+        assertEquals(used + 100, TempSpace.getUsedBytes());
+
+        TempSpace.awaitSpace(file, 500);
+        assertEquals(used + 500, TempSpace.getUsedBytes());
+
+        TempSpace.release(file);
+        assertEquals(used, TempSpace.getUsedBytes());
+    }
+
+    /**
+     * Test that a waiter reserves the space it waited for, so that the next waiter waits until that space is given back.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testReservedSpaceIsWaitedFor() throws Exception {
+
+        long used = TempSpace.getUsedBytes();
+        GeneralConfig.getProperties().setProperty(GeneralConfig.TEMP_SPACE_QUOTA, String.valueOf(used + 1000));
+        GeneralConfig.getProperties().setProperty(GeneralConfig.TEMP_SPACE_MAX_WAIT, "10s");
+
+        File first = TempSpace.newFile();
+        final File second = TempSpace.newFile();
+        try {
+            TempSpace.awaitSpace(first, 800);
+            long waitCount = TempSpace.getWaitCount();
+
+            final CountDownLatch secondReserved = new CountDownLatch(1);
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        TempSpace.awaitSpace(second, 800);
+                        secondReserved.countDown();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            thread.start();
+
+            assertFalse(secondReserved.await(200, TimeUnit.MILLISECONDS));
+            TempSpace.release(first);
+            assertTrue(secondReserved.await(5, TimeUnit.SECONDS));
+            thread.join();
+
+            assertEquals(waitCount + 1, TempSpace.getWaitCount());
+            assertEquals(used + 800, TempSpace.getUsedBytes());
+        } finally {
+            TempSpace.release(first);
+            TempSpace.release(second);
+        }
+        assertEquals(used, TempSpace.getUsedBytes());
+    }
+
+    /**
+     * @param file
+     * @param length
+     * @throws IOException
+     */
+    private static void write(File file, int length) throws IOException {
+
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(new byte[length]);
+        } finally {
+            outputStream.close();
+        }
+    }
+}
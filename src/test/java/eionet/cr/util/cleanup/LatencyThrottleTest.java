@@ -0,0 +1,50 @@
+package eionet.cr.util.cleanup;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link LatencyThrottle} class.
+ *
+ * @author agent
+ */
+public class LatencyThrottleTest {
+
+    /**
+     * Test that no pauses are made within the target latency, and growing pauses above it.
+     */
+    @Test
+    public void testPause() {
+
+        LatencyThrottle throttle = new LatencyThrottle(100, 1000);
+        assertEquals(0, throttle.getPause());
+
+        throttle.record(80);
+        assertEquals(80, throttle.getAverageLatency());
+        assertEquals(0, throttle.getPause());
+
+        throttle = new LatencyThrottle(100, 1000);
+        throttle.record(200);
+        assertEquals(200, throttle.getPause());
+
+        throttle.record(200);
+        throttle.record(1000);
+        assertEquals(440, throttle.getAverageLatency());
+        assertEquals(1000, throttle.getPause());
+    }
+
+    /**
+     * Test that the moving average recovers, and the pauses stop, once the latency drops.
+     */
+    @Test
+    public void testRecovery() {
+
+        LatencyThrottle throttle = new LatencyThrottle(100, 1000);
+        throttle.record(300);
+        for (int i = 0; i < 10; i++) {
+            throttle.record(10);
+        }
+        assertEquals(0, throttle.getPause());
+    }
+}
@@ -0,0 +1,133 @@
+package eionet.cr.util.sesame;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eionet.cr.ApplicationTestContext;
+import eionet.cr.config.GeneralConfig;
+
+/**
+ * Tests for the {@link SPARQLQueryAdmission}.
+ *
+ * @author agent
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { ApplicationTestContext.class })
+public class SPARQLQueryAdmissionTest {
+
+    /** */
+    private static final String QUERY = "SELECT * WHERE {?s ?p ?o} LIMIT 10";
+
+    /** */
+    private static final String[] KEYS = {GeneralConfig.SPARQL_ADMISSION_MAX_CONCURRENT,
+            GeneralConfig.SPARQL_ADMISSION_MAX_QUEUED, GeneralConfig.SPARQL_ADMISSION_CLIENT_RATE,
+            GeneralConfig.SPARQL_ADMISSION_CLIENT_BURST, GeneralConfig.SPARQL_ADMISSION_DEFAULT_COST,
+            GeneralConfig.SPARQL_ADMISSION_TRUSTED_PROXIES};
+
+    /** */
+    private Properties original = new Properties();
+
+    /**
+     * Remembers the configuration changed by the tests.
+     */
+    @Before
+    public void setUp() {
+        Properties properties = GeneralConfig.getProperties();
+        for (String key : KEYS) {
+            if (properties.getProperty(key) != null) {
+                original.setProperty(key, properties.getProperty(key));
+            }
+        }
+        SPARQLQueryAdmission.clear();
+    }
+
+    /**
+     * Restores the configuration changed by the tests.
+     */
+    @After
+    public void tearDown() {
+        Properties properties = GeneralConfig.getProperties();
+        for (String key : KEYS) {
+            properties.remove(key);
+        }
+        properties.putAll(original);
+        SPARQLQueryAdmission.clear();
+    }
+
+    /**
+     * Test that queries over the concurrency limit are rejected when the queue is full, and admitted once a place is free.
+     */
+    @Test
+    public void testConcurrencyLimit() {
+
+        GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_ADMISSION_MAX_CONCURRENT, "1");
+        GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_ADMISSION_MAX_QUEUED, "0");
+        GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_ADMISSION_CLIENT_RATE, "0");
+
+        SPARQLQueryAdmission.Ticket first = SPARQLQueryAdmission.admit("ip:1", QUERY);
+        assertTrue(first.isAdmitted());
+
+        SPARQLQueryAdmission.Ticket second = SPARQLQueryAdmission.admit("ip:2", QUERY);
+        assertFalse(second.isAdmitted());
+        assertTrue(second.getRetryAfter() > 0);
+
+        SPARQLQueryAdmission.release(first);
+        SPARQLQueryAdmission.Ticket third = SPARQLQueryAdmission.admit("ip:2", QUERY);
+        assertTrue(third.isAdmitted());
+        SPARQLQueryAdmission.release(third);
+        assertEquals(0, SPARQLQueryAdmission.getRunningCount());
+    }
+
+    /**
+     * Test that a client that has used up its query time is throttled, while other clients are not.
+     */
+    @Test
+    public void testClientThrottling() {
+
+        GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_ADMISSION_MAX_CONCURRENT, "0");
+        GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_ADMISSION_CLIENT_RATE, "60000");
+        GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_ADMISSION_CLIENT_BURST, "10000");
+        GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_ADMISSION_DEFAULT_COST, "60000");
+
+        SPARQLQueryAdmission.Ticket first = SPARQLQueryAdmission.admit("ip:1", QUERY);
+        assertTrue(first.isAdmitted());
+
+        SPARQLQueryAdmission.Ticket second = SPARQLQueryAdmission.admit("ip:1", QUERY);
+        assertFalse(second.isAdmitted());
+        assertTrue(second.getRetryAfter() >= 49);
+
+        SPARQLQueryAdmission.Ticket other = SPARQLQueryAdmission.admit("ip:2", QUERY);
+        assertTrue(other.isAdmitted());
+
+        SPARQLQueryAdmission.release(first);
+        SPARQLQueryAdmission.release(other);
+        assertEquals(1, SPARQLQueryAdmission.getThrottledCount());
+    }
+
+    /**
+     * Test that the X-Forwarded-For header is taken into account only as far as sent by trusted proxies.
+     */
+    @Test
+    public void testClientAddress() {
+
+        GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_ADMISSION_TRUSTED_PROXIES, "");
+        assertEquals("10.0.0.1", SPARQLQueryAdmission.getClientAddress("10.0.0.1", "1.2.3.4"));
+
+        GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_ADMISSION_TRUSTED_PROXIES, "10.0.0.1, 10.0.0.2");
+        assertEquals("10.0.0.3", SPARQLQueryAdmission.getClientAddress("10.0.0.3", "1.2.3.4"));
+        assertEquals("10.0.0.1", SPARQLQueryAdmission.getClientAddress("10.0.0.1", null));
+        assertEquals("5.6.7.8", SPARQLQueryAdmission.getClientAddress("10.0.0.1", "1.2.3.4, 5.6.7.8"));
+        assertEquals("5.6.7.8", SPARQLQueryAdmission.getClientAddress("10.0.0.1", "1.2.3.4, 5.6.7.8, 10.0.0.2"));
+        assertEquals("10.0.0.2", SPARQLQueryAdmission.getClientAddress("10.0.0.1", "10.0.0.2"));
+    }
+}
@@ -31,6 +31,7 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -121,4 +122,43 @@ public class SPARQLQueryUtilTest {
 
         assertEquals("SELECT ?s { WHERE ?s ?p ?o FILTER (?s=IRI(?subjectValue)) ", query);
     }
+
+    /**
+     * Test isPageable and getPageQuery methods.
+     */
+    @Test
+    public void testPageQuery() {
+
+        String query = "PREFIX ex: <http://ex/>\nCONSTRUCT {?s ex:p ?o . ?s ex:q \"}\"} # {\nFROM <http://g>\nWHERE {?s ex:p ?o"
+                + " OPTIONAL {?o ex:q $x}}\n";
+        assertTrue(SPARQLQueryUtil.isPageable(query));
+        assertTrue(!SPARQLQueryUtil.isPageable("SELECT ?s WHERE {?s ?p ?o}"));
+        assertTrue(!SPARQLQueryUtil.isPageable("DESCRIBE ?s WHERE {?s ?p ?o}"));
+        assertTrue(!SPARQLQueryUtil.isPageable("CONSTRUCT WHERE {?s ?p ?o}"));
+        assertTrue(!SPARQLQueryUtil.isPageable("construct {?s ?p ?o} where {?s ?p ?o} limit 10"));
+        assertTrue(!SPARQLQueryUtil.isPageable("construct {?s ?p ?o} where {?s ?p ?o} order by ?s"));
+        assertTrue(!SPARQLQueryUtil.isPageable("CONSTRUCT {<http://s> <http://p> <http://o>} WHERE {}"));
+
+        assertEquals("PREFIX ex: <http://ex/> CONSTRUCT {?s ex:p ?o . ?s ex:q \"}\"} FROM <http://g> WHERE {SELECT * WHERE"
+                + " {?s ex:p ?o OPTIONAL {?o ex:q $x}} ORDER BY ?s ?o ?x LIMIT 100 OFFSET 200}",
+                SPARQLQueryUtil.getPageQuery(query, 100, 2));
+    }
+
+    /**
+     * Test normalizeQuery, getFromGraphs and hasGraphPattern methods.
+     */
+    @Test
+    public void testNormalizeQuery() {
+
+        String query = "  SELECT  ?s # comment\n WHERE {\n ?s <http://x#p> \"a  b # c\" .\tFILTER(?x<3)}  ";
+        assertEquals("SELECT ?s WHERE { ?s <http://x#p> \"a  b # c\" . FILTER(?x<3)}", SPARQLQueryUtil.normalizeQuery(query));
+
+        query = "SELECT * FROM <http://g1> FROM NAMED <http://g2> WHERE {?from <http://p> \"FROM <http://g3>\"}";
+        assertEquals("[http://g1, http://g2]", SPARQLQueryUtil.getFromGraphs(query).toString());
+        assertTrue(SPARQLQueryUtil.getFromGraphs("SELECT * WHERE {?s ?p ?o}").isEmpty());
+        assertNull(SPARQLQueryUtil.getFromGraphs("SELECT * FROM ex:g WHERE {?s ?p ?o}"));
+
+        assertTrue(SPARQLQueryUtil.hasGraphPattern("SELECT * FROM <http://g> WHERE {graph ?g {?s ?p ?o}}"));
+        assertTrue(!SPARQLQueryUtil.hasGraphPattern("SELECT ?graph WHERE {?graph ex:graph \"GRAPH\" . ?s <http://graph> ?o}"));
+    }
 }
@@ -0,0 +1,202 @@
+package eionet.cr.util.sesame;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.query.Query;
+import org.openrdf.repository.RepositoryConnection;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eionet.cr.ApplicationTestContext;
+import eionet.cr.config.GeneralConfig;
+
+/**
+ * Tests for the {@link SPARQLQueryWatchdog}.
+ *
+ * @author agent
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { ApplicationTestContext.class })
+public class SPARQLQueryWatchdogTest {
+
+    /** */
+    private String original;
+
+    /** */
+    private String originalHard;
+
+    /**
+     * Remembers the configuration changed by the tests.
+     */
+    @Before
+    public void setUp() {
+        original = GeneralConfig.getProperties().getProperty(GeneralConfig.SPARQL_QUERY_MAX_TIME);
+        originalHard = GeneralConfig.getProperties().getProperty(GeneralConfig.SPARQL_QUERY_HARD_MAX_TIME);
+    }
+
+    /**
+     * Restores the configuration changed by the tests.
+     */
+    @After
+    public void tearDown() {
+        if (original == null) {
+            GeneralConfig.getProperties().remove(GeneralConfig.SPARQL_QUERY_MAX_TIME);
+        } else {
+            GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_QUERY_MAX_TIME, original);
+        }
+        if (originalHard == null) {
+            GeneralConfig.getProperties().remove(GeneralConfig.SPARQL_QUERY_HARD_MAX_TIME);
+        } else {
+            GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_QUERY_HARD_MAX_TIME, originalHard);
+        }
+    }
+
+    /**
+     * Test that the client can ask for a shorter max execution time than configured, but not a longer one, and that the max is
+     * given to the query in whole seconds.
+     */
+    @Test
+    public void testMaxQueryTime() {
+
+        GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_QUERY_MAX_TIME, "10000");
+        assertEquals(10000L, SPARQLQueryWatchdog.getMaxQueryTime(null));
+        assertEquals(10000L, SPARQLQueryWatchdog.getMaxQueryTime(0));
+        assertEquals(2000L, SPARQLQueryWatchdog.getMaxQueryTime(2000));
+        assertEquals(10000L, SPARQLQueryWatchdog.getMaxQueryTime(60000));
+
+        GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_QUERY_MAX_TIME, "0");
+        assertEquals(0L, SPARQLQueryWatchdog.getMaxQueryTime(null));
+        assertEquals(60000L, SPARQLQueryWatchdog.getMaxQueryTime(60000));
+
+        Query query = mock(Query.class);
+        SPARQLQueryWatchdog.setMaxQueryTime(query, 1001L);
+        verify(query).setMaxQueryTime(2);
+    }
+
+    /**
+     * Test that the hard max time is never less than the max execution time, and that zero means no limit.
+     */
+    @Test
+    public void testHardMaxQueryTime() {
+
+        GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_QUERY_HARD_MAX_TIME, "60000");
+        assertEquals(60000L, SPARQLQueryWatchdog.getHardMaxQueryTime(0));
+        assertEquals(60000L, SPARQLQueryWatchdog.getHardMaxQueryTime(10000));
+        assertEquals(120000L, SPARQLQueryWatchdog.getHardMaxQueryTime(120000));
+
+        GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_QUERY_HARD_MAX_TIME, "0");
+        assertEquals(0L, SPARQLQueryWatchdog.getHardMaxQueryTime(10000));
+    }
+
+    /**
+     * Test that a query is cancelled by closing its connection when its client disconnects, but not when done, and that a query
+     * that times out is marked so without closing its connection from the watchdog's thread.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testCancel() throws Exception {
+
+        long timedOutCount = SPARQLQueryWatchdog.getTimedOutCount();
+        long abortedCount = SPARQLQueryWatchdog.getAbortedCount();
+
+        RepositoryConnection doneConn = mock(RepositoryConnection.class);
+        SPARQLQueryWatchdog.Watch done = SPARQLQueryWatchdog.watch(doneConn, 1);
+        done.done();
+        done.abort();
+        assertFalse(done.isAborted());
+
+        RepositoryConnection abortedConn = mock(RepositoryConnection.class);
+        SPARQLQueryWatchdog.Watch aborted = SPARQLQueryWatchdog.watch(abortedConn, 0);
+        aborted.abort();
+        assertTrue(aborted.isAborted());
+        verify(abortedConn).close();
+
+        RepositoryConnection timedOutConn = mock(RepositoryConnection.class);
+        SPARQLQueryWatchdog.Watch timedOut = SPARQLQueryWatchdog.watch(timedOutConn, 1);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (SPARQLQueryWatchdog.getTimedOutCount() == timedOutCount && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(timedOut.isTimedOut());
+        try {
+            timedOut.startStreaming();
+            fail("Expected the result of a timed-out query to be refused");
+        } catch (IOException e) {
+            // Expected.
+        }
+        verify(timedOutConn, never()).close();
+        verify(doneConn, never()).close();
+
+        assertEquals(timedOutCount + 1, SPARQLQueryWatchdog.getTimedOutCount());
+        assertEquals(abortedCount + 1, SPARQLQueryWatchdog.getAbortedCount());
+    }
+
+    /**
+     * Test that a query is not timed out once its result is being streamed, but is still cancelled if its client disconnects.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testStreaming() throws Exception {
+
+        RepositoryConnection conn = mock(RepositoryConnection.class);
+        SPARQLQueryWatchdog.Watch watch = SPARQLQueryWatchdog.watch(conn, 100);
+        watch.startStreaming();
+        Thread.sleep(100 + 5000 + 500);
+        assertFalse(watch.isTimedOut());
+        watch.startStreaming();
+
+        watch.abort();
+        assertTrue(watch.isAborted());
+        verify(conn).close();
+    }
+
+    /**
+     * Test that a query whose result is being streamed is cancelled by the request thread on the first write past its hard max
+     * time, and that its result is refused from then on.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testHardMaxTimeWhileStreaming() throws Exception {
+
+        long timedOutCount = SPARQLQueryWatchdog.getTimedOutCount();
+        RepositoryConnection conn = mock(RepositoryConnection.class);
+        SPARQLQueryWatchdog.Watch watch = SPARQLQueryWatchdog.watch(conn, 100, 500);
+        watch.startStreaming();
+        Thread.sleep(600);
+        verify(conn, never()).close();
+
+        try {
+            watch.startStreaming();
+            fail("Expected the query to be cancelled past its hard max time");
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertTrue(watch.isTimedOut());
+        assertTrue(watch.isHardTimedOut());
+        verify(conn).close();
+        assertEquals(timedOutCount + 1, SPARQLQueryWatchdog.getTimedOutCount());
+
+        try {
+            watch.startStreaming();
+            fail("Expected the result of a cancelled query to be refused");
+        } catch (IOException e) {
+            // Expected.
+        }
+        verify(conn).close();
+    }
+}
@@ -0,0 +1,147 @@
+package eionet.cr.util.sesame;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eionet.cr.ApplicationTestContext;
+import eionet.cr.config.GeneralConfig;
+
+/**
+ * Tests for the {@link SPARQLResultCache}.
+ *
+ * @author agent
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { ApplicationTestContext.class })
+public class SPARQLResultCacheTest {
+
+    /** */
+    private static final byte[] RESULT = {1, 2, 3};
+
+    /** */
+    private String originalMaxEntries;
+
+    /**
+     * Enables the cache before each test.
+     */
+    @Before
+    public void setUp() {
+        originalMaxEntries = GeneralConfig.getProperty(GeneralConfig.SPARQL_CACHE_MAX_ENTRIES);
+        GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_CACHE_MAX_ENTRIES, "100");
+    }
+
+    /**
+     * Clears the cache and restores its configuration after each test.
+     */
+    @After
+    public void tearDown() {
+
+        SPARQLResultCache.clear();
+        if (originalMaxEntries == null) {
+            GeneralConfig.getProperties().remove(GeneralConfig.SPARQL_CACHE_MAX_ENTRIES);
+        } else {
+            GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_CACHE_MAX_ENTRIES, originalMaxEntries);
+        }
+    }
+
+    /**
+     * Test that the cache is disabled unless configured otherwise, and caches nothing then.
+     */
+    @Test
+    public void testDisabledByDefault() {
+
+        GeneralConfig.getProperties().remove(GeneralConfig.SPARQL_CACHE_MAX_ENTRIES);
+        assertFalse(SPARQLResultCache.isEnabled());
+
+        SPARQLResultCache.Key key = SPARQLResultCache.createKey("SELECT * FROM <http://g1> WHERE {?s ?p ?o}", null, null, "xml");
+        SPARQLResultCache.put(key, SPARQLResultCache.getVersion(), RESULT, null, null);
+        assertEquals(0, SPARQLResultCache.getSize());
+
+        GeneralConfig.getProperties().setProperty(GeneralConfig.SPARQL_CACHE_MAX_ENTRIES, "100");
+        assertTrue(SPARQLResultCache.isEnabled());
+    }
+
+    /**
+     * Test that differently formatted texts of the same query hit the same result, but other formats do not.
+     */
+    @Test
+    public void testKeys() {
+
+        SPARQLResultCache.Key key = SPARQLResultCache.createKey("SELECT * FROM <http://g1> WHERE {?s ?p ?o}", null, null, "xml");
+        SPARQLResultCache.put(key, SPARQLResultCache.getVersion(), RESULT, null, null);
+
+        SPARQLResultCache.Entry entry = SPARQLResultCache.get(SPARQLResultCache.createKey(
+                "# all triples\nSELECT *\n  FROM <http://g1>\n  WHERE {?s ?p ?o}", null, null, "xml"));
+        assertNotNull(entry);
+        assertArrayEquals(RESULT, entry.getBytes());
+        assertNull(SPARQLResultCache.get(SPARQLResultCache.createKey("SELECT * FROM <http://g1> WHERE {?s ?p ?o}", null, null,
+                "json")));
+    }
+
+    /**
+     * Test that a result is invalidated by the change of a graph it was queried from only, and that a result of a query without
+     * a known dataset is invalidated by the change of any graph.
+     */
+    @Test
+    public void testInvalidation() {
+
+        SPARQLResultCache.Key key1 = SPARQLResultCache.createKey("SELECT * WHERE {?s ?p ?o}", new String[] {"http://g1"}, null,
+                "xml");
+        SPARQLResultCache.Key key2 = SPARQLResultCache.createKey("SELECT * FROM <http://g2> WHERE {?s ?p ?o}", null, null, "xml");
+        SPARQLResultCache.Key keyAll = SPARQLResultCache.createKey("SELECT * WHERE {?s ?p ?o}", null, null, "xml");
+        assertNull(keyAll.getGraphs());
+
+        long version = SPARQLResultCache.getVersion();
+        SPARQLResultCache.put(key1, version, RESULT, null, null);
+        SPARQLResultCache.put(key2, version, RESULT, null, null);
+        SPARQLResultCache.put(keyAll, version, RESULT, null, null);
+        assertEquals(3, SPARQLResultCache.getSize());
+
+        SPARQLResultCache.invalidate("http://g1");
+        assertNull(SPARQLResultCache.get(key1));
+        assertNotNull(SPARQLResultCache.get(key2));
+        assertNull(SPARQLResultCache.get(keyAll));
+
+        // A result whose query started before the change must not be cached.
+        SPARQLResultCache.put(key1, version, RESULT, null, null);
+        assertNull(SPARQLResultCache.get(key1));
+    }
+
+    /**
+     * Test that a change of unknown graphs, as by a SPARUL update, invalidates all results, also the ones whose queries started
+     * before it.
+     */
+    @Test
+    public void testInvalidateAll() {
+
+        SPARQLResultCache.Key key1 = SPARQLResultCache.createKey("SELECT * FROM <http://g1> WHERE {?s ?p ?o}", null, null, "xml");
+        SPARQLResultCache.Key key2 = SPARQLResultCache.createKey("SELECT * FROM <http://g2> WHERE {?s ?p ?o}", null, null, "xml");
+
+        long version = SPARQLResultCache.getVersion();
+        SPARQLResultCache.put(key1, version, RESULT, null, null);
+        SPARQLResultCache.put(key2, version, RESULT, null, null);
+        assertEquals(2, SPARQLResultCache.getSize());
+
+        SPARQLResultCache.invalidateAll();
+        assertEquals(0, SPARQLResultCache.getSize());
+        assertEquals(0, SPARQLResultCache.getTotalBytes());
+        assertNull(SPARQLResultCache.get(key1));
+
+        SPARQLResultCache.put(key2, version, RESULT, null, null);
+        assertNull(SPARQLResultCache.get(key2));
+
+        SPARQLResultCache.put(key2, SPARQLResultCache.getVersion(), RESULT, null, null);
+        assertNotNull(SPARQLResultCache.get(key2));
+    }
+}
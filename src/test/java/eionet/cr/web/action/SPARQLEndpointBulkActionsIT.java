@@ -1,11 +1,10 @@
 package eionet.cr.web.action;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import eionet.cr.ApplicationTestContext;
 import net.sourceforge.stripes.mock.MockHttpServletResponse;
 import net.sourceforge.stripes.mock.MockRoundtrip;
@@ -161,7 +160,7 @@ public class SPARQLEndpointBulkActionsIT extends CRDatabaseTestCase {
 
         SPARQLEndpointActionBeanMock bean = trip.getActionBean(SPARQLEndpointActionBeanMock.class);
         QueryResult beanResult = bean.getResult();
-        ArrayList<HashMap<String, ResultValue>> resultRows = beanResult == null ? null : beanResult.getRows();
+        List<Map<String, ResultValue>> resultRows = beanResult == null ? null : beanResult.getRows();
         int size = resultRows == null ? 0 : resultRows.size();
         assertEquals(3, size);
     }
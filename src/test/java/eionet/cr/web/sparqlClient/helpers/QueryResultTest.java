@@ -0,0 +1,166 @@
+package eionet.cr.web.sparqlClient.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.impl.MapBindingSet;
+import org.openrdf.query.impl.TupleQueryResultImpl;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eionet.cr.ApplicationTestContext;
+import eionet.cr.config.GeneralConfig;
+
+/**
+ * A unit test for {@link QueryResult}.
+ *
+ * @author agent
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = { ApplicationTestContext.class })
+public class QueryResultTest {
+
+    /** */
+    private static final List<String> VARIABLES = Arrays.asList("s", "o");
+
+    /** */
+    private static final ValueFactory VF = ValueFactoryImpl.getInstance();
+
+    /**
+     * Test the values of the cells, in the Virtuoso format and without it.
+     *
+     * @throws QueryEvaluationException
+     */
+    @Test
+    public void testValues() throws QueryEvaluationException {
+
+        List<BindingSet> bindingSets = new ArrayList<BindingSet>();
+        bindingSets.add(bindingSet(VF.createURI("http://s1"), VF.createLiteral("chat", "fr")));
+        bindingSets.add(bindingSet(VF.createURI("http://s2"), VF.createLiteral("5", XMLSchema.INT)));
+        bindingSets.add(bindingSet(VF.createURI("http://s3"), VF.createLiteral("x", VF.createURI("http://ex/type"))));
+        bindingSets.add(bindingSet(VF.createBNode("b1"), VF.createLiteral("plain")));
+        bindingSets.add(bindingSet(VF.createURI("http://s5"), null));
+
+        QueryResult result = new QueryResult(new TupleQueryResultImpl(VARIABLES, bindingSets), true);
+        assertEquals(VARIABLES, result.getVariables());
+        assertEquals(2, result.getCols().size());
+        assertEquals(5, result.getRowCount());
+        assertTrue(result.isAllRowsReturned());
+
+        List<Map<String, ResultValue>> rows = result.getRows();
+        assertEquals(5, rows.size());
+        assertValue("http://s1", false, false, rows.get(0).get("s"));
+        assertValue("\"chat\"@fr", true, false, rows.get(0).get("o"));
+        assertValue("\"5\"^^xsd:int", true, false, rows.get(1).get("o"));
+        assertValue("\"x\"^^<http://ex/type>", true, false, rows.get(2).get("o"));
+        assertValue("b1", false, true, rows.get(3).get("s"));
+        assertValue("plain", true, false, rows.get(3).get("o"));
+
+        // An unbound cell is null, but the row still has all the variables.
+        assertNull(rows.get(4).get("o"));
+        assertTrue(rows.get(4).containsKey("o"));
+        assertEquals(2, rows.get(4).size());
+        assertEquals(2, rows.get(4).entrySet().size());
+        assertNull(rows.get(4).get("unknown"));
+
+        result = new QueryResult(new TupleQueryResultImpl(VARIABLES, bindingSets), false);
+        rows = result.getRows();
+        assertValue("chat", true, false, rows.get(0).get("o"));
+        assertValue("5", true, false, rows.get(1).get("o"));
+        assertValue("x", true, false, rows.get(2).get("o"));
+    }
+
+    /**
+     * Test that an empty result has no rows.
+     *
+     * @throws QueryEvaluationException
+     */
+    @Test
+    public void testEmpty() throws QueryEvaluationException {
+
+        QueryResult result = new QueryResult(new TupleQueryResultImpl(VARIABLES, new ArrayList<BindingSet>()), true);
+        assertEquals(0, result.getRowCount());
+        assertNull(result.getRows());
+        assertNull(result.getVariables());
+        assertTrue(result.isAllRowsReturned());
+    }
+
+    /**
+     * Test that the columns grow past their initial capacity, and are cut at the max rows count if the result count is limited.
+     *
+     * @throws QueryEvaluationException
+     */
+    @Test
+    public void testRowCount() throws QueryEvaluationException {
+
+        int maxRowsCount = GeneralConfig.getIntProperty(GeneralConfig.SPARQLENDPOINT_MAX_ROWS_COUNT, 2000);
+        List<BindingSet> bindingSets = new ArrayList<BindingSet>();
+        for (int i = 0; i < maxRowsCount + 100; i++) {
+            bindingSets.add(bindingSet(VF.createURI("http://s" + i), VF.createLiteral(i)));
+        }
+
+        QueryResult result = new QueryResult(new TupleQueryResultImpl(VARIABLES, bindingSets), true, false);
+        assertEquals(maxRowsCount + 100, result.getRowCount());
+        assertTrue(result.isAllRowsReturned());
+        List<Map<String, ResultValue>> rows = result.getRows();
+        for (int i = 0; i < rows.size(); i++) {
+            assertValue("http://s" + i, false, false, rows.get(i).get("s"));
+            assertValue("\"" + i + "\"^^xsd:int", true, false, rows.get(i).get("o"));
+        }
+
+        result = new QueryResult(new TupleQueryResultImpl(VARIABLES, bindingSets), true);
+        assertEquals(maxRowsCount, result.getRowCount());
+        assertFalse(result.isAllRowsReturned());
+        rows = result.getRows();
+        assertEquals(maxRowsCount, rows.size());
+        assertValue("http://s" + (maxRowsCount - 1), false, false, rows.get(maxRowsCount - 1).get("s"));
+    }
+
+    /**
+     * Asserts that the given value is as expected.
+     *
+     * @param expected Expected string value.
+     * @param isLiteral Expected literal flag.
+     * @param isAnonymous Expected anonymous flag.
+     * @param value The value.
+     */
+    private static void assertValue(String expected, boolean isLiteral, boolean isAnonymous, ResultValue value) {
+        assertEquals(expected, value.getValue());
+        assertEquals(isLiteral, value.isLiteral());
+        assertEquals(isAnonymous, value.isAnonymous());
+    }
+
+    /**
+     * Returns a binding set of the given values of ?s and ?o, leaving out the null ones.
+     *
+     * @param s Value of ?s.
+     * @param o Value of ?o.
+     * @return The binding set.
+     */
+    private static BindingSet bindingSet(Value s, Value o) {
+
+        MapBindingSet bindingSet = new MapBindingSet();
+        if (s != null) {
+            bindingSet.addBinding("s", s);
+        }
+        if (o != null) {
+            bindingSet.addBinding("o", o);
+        }
+        return bindingSet;
+    }
+}
@@ -0,0 +1,75 @@
+package eionet.cr.web.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link BufferedResultWriter}.
+ *
+ * @author agent
+ */
+public class BufferedResultWriterTest {
+
+    /** */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Test that characters are encoded correctly across buffer boundaries, surrogate pairs included, and are written out in
+     * chunks before the end.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testEncoding() throws Exception {
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append(i % 3 == 0 ? "\uD83D\uDE00" : i % 3 == 1 ? "\u00e4" : "a");
+        }
+        String expected = sb.toString();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BufferedResultWriter writer = new BufferedResultWriter(out, UTF8);
+        for (int i = 0; i < expected.length(); i += 7) {
+            writer.write(expected, i, Math.min(7, expected.length() - i));
+        }
+        assertTrue(out.size() > 0);
+        writer.finish();
+        assertEquals(expected, new String(out.toByteArray(), UTF8));
+
+        out = new ByteArrayOutputStream();
+        writer = new BufferedResultWriter(out, Charset.forName("UTF-16LE"));
+        writer.write(expected);
+        writer.finish();
+        assertEquals(expected, new String(out.toByteArray(), "UTF-16LE"));
+    }
+
+    /**
+     * Test the escaping schemes.
+     *
+     * @throws Exception Any sort of error.
+     */
+    @Test
+    public void testEscaping() throws Exception {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BufferedResultWriter writer = new BufferedResultWriter(out, UTF8);
+        writer.writeJsonEscaped("a\"b\\c/d\ne\tf");
+        writer.write('|');
+        writer.writeCsvEscaped("plain", ';');
+        writer.write('|');
+        writer.writeCsvEscaped("a;\"b\"", ';');
+        writer.write('|');
+        writer.writeTsvEscaped("a\tb\\c");
+        writer.write('|');
+        writer.writeTsvEscaped("a\r\n\"b\"");
+        writer.finish();
+
+        assertEquals("a\\\"b\\\\c\\/d\\ne\\tf|plain|\"a;\"\"b\"\"\"|a\\tb\\\\c|\"a\n\"\"b\"\"\"", new String(out.toByteArray(), UTF8));
+    }
+}